@@ -0,0 +1,203 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/***
+ * Folds a stream of recorded annotation events into the net change per annotation key.  A tag that was added and removed
+ * 40 times is reduced to at most one removal and one addition, the minimal changes needed to reach the final state.
+ * Production set events are not compacted and are instead passed through in the order they were folded.
+ * Events for a given key must be folded in time stamp order.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationCompactionPlanner {
+	private Map<String,AnnotationKeyState> keyStates = new LinkedHashMap<String,AnnotationKeyState>();
+	private List<AnnotationEvent> passThroughEvents = new ArrayList<AnnotationEvent>();
+	private long foldedEventCount = 0;
+	private long checkpointTimeStamp = -1;
+	private long earliestFoldedTimeStamp = -1;
+	private Map<Long,Long> latestFoldedTimeStampBySource = new HashMap<Long,Long>();
+
+	/***
+	 * Folds an event into this plan.
+	 * @param event The event to fold
+	 * @throws IOException If there is an error deserializing the event's bitmap
+	 */
+	public void fold(AnnotationEvent event) throws IOException {
+		foldedEventCount++;
+		long timeStamp = event.timeStampMillis;
+		if(earliestFoldedTimeStamp < 0 || timeStamp < earliestFoldedTimeStamp){
+			earliestFoldedTimeStamp = timeStamp;
+		}
+		latestFoldedTimeStampBySource.merge(event.sourceId, timeStamp, Math::max);
+		foldEvent(event);
+	}
+
+	private void foldEvent(AnnotationEvent event) throws IOException {
+		String stateKey = event.getStateKey();
+		if(stateKey == null){
+			passThroughEvents.add(event);
+			return;
+		}
+
+		AnnotationKeyState keyState = keyStates.get(stateKey);
+		if(keyState == null){
+			keyState = new AnnotationKeyState(stateKey);
+			keyStates.put(stateKey, keyState);
+		}
+		keyState.fold(event, event.getBitmap());
+	}
+
+	/***
+	 * Seeds the state of this plan with a value assignment loaded from a checkpoint.  Seeded events are folded like any
+	 * other event but are not counted as folded events.
+	 * @param event Net assignment event reconstructed from a checkpoint row
+	 * @param checkpointTimeStamp Time stamp (in milliseconds) of the checkpoint the event was loaded from
+	 * @throws IOException If there is an error deserializing the event's bitmap
+	 */
+	void seed(AnnotationEvent event, long checkpointTimeStamp) throws IOException {
+		foldEvent(event);
+		this.checkpointTimeStamp = checkpointTimeStamp;
+	}
+
+	/***
+	 * Merges the state of a plan folded from the events of another source into this plan, ignoring the entries of any items
+	 * already claimed for a key by a higher priority source (see {@link AnnotationSourceConflictPolicy#SourcePriority}).  Pass through
+	 * events of both plans are kept in time stamp order and the folded event counts are combined.
+	 * @param other Plan folded from the events of a single source
+	 * @param claimed Bitmap of claimed item indices by state key, keys without an entry have no claimed items
+	 */
+	void mergeFrom(AnnotationCompactionPlanner other, Map<String,RoaringBitmap> claimed) {
+		for(AnnotationKeyState otherState : other.keyStates.values()){
+			String stateKey = otherState.getStateKey();
+			AnnotationKeyState keyState = keyStates.get(stateKey);
+			if(keyState == null){
+				keyState = new AnnotationKeyState(stateKey);
+				keyStates.put(stateKey, keyState);
+			}
+			keyState.mergeFrom(otherState, claimed.get(stateKey));
+		}
+		if(other.passThroughEvents.size() > 0){
+			passThroughEvents.addAll(other.passThroughEvents);
+			passThroughEvents.sort(Comparator.comparingLong(event -> event.timeStampMillis));
+		}
+		foldedEventCount += other.foldedEventCount;
+		if(other.earliestFoldedTimeStamp >= 0 && (earliestFoldedTimeStamp < 0 || other.earliestFoldedTimeStamp < earliestFoldedTimeStamp)){
+			earliestFoldedTimeStamp = other.earliestFoldedTimeStamp;
+		}
+		for(Map.Entry<Long,Long> entry : other.latestFoldedTimeStampBySource.entrySet()){
+			latestFoldedTimeStampBySource.merge(entry.getKey(), entry.getValue(), Math::max);
+		}
+	}
+
+	/***
+	 * Adds every item this plan has an entry for to the claimed items of the respective key.
+	 * @param claimed Bitmap of claimed item indices by state key, updated in place
+	 */
+	void claimTouched(Map<String,RoaringBitmap> claimed) {
+		for(AnnotationKeyState keyState : keyStates.values()){
+			RoaringBitmap items = claimed.get(keyState.getStateKey());
+			if(items == null){
+				items = new RoaringBitmap();
+				claimed.put(keyState.getStateKey(), items);
+			}
+			items.or(keyState.getTouched());
+		}
+	}
+
+	/***
+	 * Builds the net events of this plan.  For each key a removal event is generated for the items whose last event removed
+	 * the key, followed by an assignment event for each value still held by at least one item.  Removals and assignments of
+	 * a key never share items, so the order they are applied in does not matter.  Pass through events follow the compacted events.
+	 * @return List of net events which can be replayed
+	 * @throws IOException If there is an error serializing a net event's bitmap
+	 */
+	public List<AnnotationEvent> buildCompactedEvents() throws IOException {
+		List<AnnotationEvent> result = new ArrayList<AnnotationEvent>();
+		for(AnnotationKeyState keyState : keyStates.values()){
+			result.addAll(buildCompactedEvents(keyState));
+		}
+		result.addAll(passThroughEvents);
+		return result;
+	}
+
+	/***
+	 * Builds the net events for a single key state.
+	 * @param keyState The key state to generate net events for
+	 * @return List of net events for the given key
+	 * @throws IOException If there is an error serializing a net event's bitmap
+	 */
+	static List<AnnotationEvent> buildCompactedEvents(AnnotationKeyState keyState) throws IOException {
+		List<AnnotationEvent> result = new ArrayList<AnnotationEvent>();
+		if(!keyState.getUnassigned().isEmpty()){
+			AnnotationEvent removal = keyState.getLastEvent().deriveNetEvent(false);
+			removal.setBitmap(keyState.getUnassigned().clone());
+			result.add(removal);
+		}
+		for(Map.Entry<String,RoaringBitmap> entry : keyState.getAssignedByValue().entrySet()){
+			if(entry.getValue().isEmpty()){ continue; }
+			AnnotationEvent representative = keyState.getRepresentativeByValue().get(entry.getKey());
+			AnnotationEvent assignment = representative.deriveNetEvent(true);
+			assignment.setBitmap(entry.getValue().clone());
+			result.add(assignment);
+		}
+		return result;
+	}
+
+	/***
+	 * Gets the folded state of each annotation key, keyed by state key.
+	 * @return Map of state key to folded state
+	 */
+	public Map<String,AnnotationKeyState> getKeyStates() {
+		return Collections.unmodifiableMap(keyStates);
+	}
+
+	/***
+	 * Gets the events which were folded into this plan but cannot be compacted (production set events).
+	 * @return List of events passed through as is
+	 */
+	public List<AnnotationEvent> getPassThroughEvents() {
+		return Collections.unmodifiableList(passThroughEvents);
+	}
+
+	/***
+	 * Gets the time stamp of the checkpoint this plan was seeded from.
+	 * @return Time stamp (in milliseconds) of the checkpoint this plan was seeded from, -1 if the plan was not seeded from a checkpoint
+	 */
+	public long getCheckpointTimeStamp() {
+		return checkpointTimeStamp;
+	}
+
+	/***
+	 * Gets the total number of events folded into this plan.
+	 * @return Number of events folded
+	 */
+	public long getFoldedEventCount() {
+		return foldedEventCount;
+	}
+
+	/***
+	 * Gets the earliest time stamp of the events folded into this plan, not including events seeded from a checkpoint.
+	 * @return Earliest time stamp (in milliseconds) of a folded event, -1 if no events have been folded
+	 */
+	public long getEarliestFoldedTimeStamp() {
+		return earliestFoldedTimeStamp;
+	}
+
+	/***
+	 * Gets the latest time stamp of the events folded into this plan from each source, not including events seeded from a checkpoint.
+	 * @return Map of source ID to the latest time stamp (in milliseconds) of a folded event of that source, sources without folded events have no entry
+	 */
+	public Map<Long,Long> getLatestFoldedTimeStampBySource() {
+		return Collections.unmodifiableMap(latestFoldedTimeStampBySource);
+	}
+}
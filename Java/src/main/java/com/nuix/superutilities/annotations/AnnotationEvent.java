@@ -1,8 +1,11 @@
 package com.nuix.superutilities.annotations;
 
+import java.io.IOException;
 import java.util.Collection;
 
 import org.joda.time.DateTime;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 
 import jxl.common.Logger;
 import nuix.Case;
@@ -12,12 +15,153 @@ public abstract class AnnotationEvent {
 	private static Logger logger = Logger.getLogger(AnnotationEvent.class);
 	
 	// Package accessible members
-	DateTime timeStamp = null;
+	long timeStampMillis = 0;
 	AnnotationHistoryRepository sourceRepo = null;
 	byte[] bitmapBytes = null;
 	Integer itemCount = -1;
+	long rowId = -1;
+	long sourceId = 0;
+	
+	// Built from timeStampMillis on first request, since most events read back from a store never need it
+	DateTime timeStamp = null;
+	
+	/***
+	 * Replays this event onto the given case, locating the associated items in that case by GUID.
+	 * @param nuixCase The case to replay this event onto
+	 * @throws Exception If something goes wrong
+	 */
+	public void replay(Case nuixCase) throws Exception {
+		applyToItems(nuixCase, getAssociatedItems(nuixCase));
+	}
+	
+	/***
+	 * Replays this event onto the case of the given replay session, obtaining the associated items from the session's
+	 * pre-resolved items rather than searching for them.
+	 * @param session The replay session to replay this event with
+	 * @throws Exception If something goes wrong
+	 */
+	public void replay(AnnotationReplaySession session) throws Exception {
+		session.replay(this);
+	}
+	
+	/***
+	 * Applies the annotation change this event represents to the given items.
+	 * @param nuixCase The case the items belong to
+	 * @param items The items to apply the change to
+	 * @throws Exception If something goes wrong
+	 */
+	abstract void applyToItems(Case nuixCase, Collection<Item> items) throws Exception;
+	
+	/***
+	 * Gets the key of the annotation state this event modifies, for example "Tag:Responsive" or "Custodian".  Events
+	 * sharing a state key are folded together by {@link AnnotationCompactionPlanner}.
+	 * @return The state key, or null if this event type cannot be compacted
+	 */
+	abstract String getStateKey();
+	
+	/***
+	 * Gets the value within the state key this event assigns, for example the custodian name for a custodian event.
+	 * An item can only hold one value for a given state key at a time.
+	 * @return The value key assigned by this event, only meaningful when {@link #isStateAssignment()} is true
+	 */
+	abstract String getStateValueKey();
+	
+	/***
+	 * Gets whether this event assigns its value to its items (tag added, custodian assigned, etc) or removes it.
+	 * @return True if this event assigns a value, false if it removes one
+	 */
+	abstract boolean isStateAssignment();
+	
+	/***
+	 * Creates a copy of this event with the assignment flag set as specified.  Used to generate the net events
+	 * of a compaction plan, caller is responsible for providing the bitmap of the copy.
+	 * @param assignment Whether the copy should assign (true) or remove (false) its value
+	 * @return A new event of the same type
+	 */
+	abstract AnnotationEvent deriveNetEvent(boolean assignment);
+	
+	/***
+	 * Determines whether the given event, which follows this event for the same state key, makes the same change as this
+	 * event so that both can be replayed as a single event applied to the union of their items.  See
+	 * {@link AnnotationReplaySession#replayCoalesced(EventCursor)}.
+	 * @param other An event following this one with the same state key
+	 * @return True if the two events can be replayed as one
+	 */
+	boolean canCoalesceWith(AnnotationEvent other) {
+		return false;
+	}
+	
+	/***
+	 * Finds the items of the given case which currently hold the state this event modifies.  For an assignment these are the
+	 * items holding the value this event assigns, for a removal these are the items holding any value of this event's key.
+	 * Used by delta replay (see {@link AnnotationReplaySession#setDeltaReplay(boolean)}) to skip writes which would not change
+	 * the destination.
+	 * @param nuixCase The case to find the items in
+	 * @return The items holding this event's state, or null if the current state cannot be determined for this event type
+	 */
+	Collection<Item> findItemsHoldingState(Case nuixCase) {
+		return null;
+	}
+	
+	/***
+	 * Determines whether an item found by {@link #findItemsHoldingState(Case)} holds exactly the value this event assigns, for
+	 * event types where the search used cannot distinguish between values.
+	 * @param item An item found by {@link #findItemsHoldingState(Case)}
+	 * @return True if applying this event to the item would not change it
+	 */
+	boolean itemHoldsStateValue(Item item) {
+		return true;
+	}
 	
-	public abstract void replay(Case nuixCase) throws Exception;
+	/***
+	 * Gets the type of this event as used by an {@link AnnotationEventStore}, which is the simple class name of the event,
+	 * for example "TagEvent".  This matches the name of the SQLite table events of this type are recorded in.
+	 * @return The event type
+	 */
+	String getEventType(){
+		return getClass().getSimpleName();
+	}
+	
+	/***
+	 * Copies the members common to all events onto a derived event.
+	 * @param derived The derived event to copy members to
+	 * @return The derived event
+	 */
+	<T extends AnnotationEvent> T copyCommonTo(T derived){
+		derived.timeStampMillis = timeStampMillis;
+		derived.timeStamp = timeStamp;
+		derived.sourceRepo = sourceRepo;
+		derived.rowId = rowId;
+		derived.sourceId = sourceId;
+		return derived;
+	}
+	
+	/***
+	 * Deserializes the bitmap of item indices associated to this event.
+	 * @return Bitmap of the item indices associated to this event
+	 * @throws IOException If the deserialization from byte array has an error
+	 */
+	RoaringBitmap getBitmap() throws IOException{
+		return AnnotationHistoryRepository.deserializeBitmap(bitmapBytes);
+	}
+	
+	/***
+	 * Provides an immutable view of the bitmap of item indices associated to this event, backed directly by the serialized bytes.
+	 * @return Immutable bitmap of the item indices associated to this event
+	 */
+	ImmutableRoaringBitmap getBitmapView(){
+		return BitmapCodec.view(bitmapBytes);
+	}
+	
+	/***
+	 * Replaces the items associated to this event with those in the provided bitmap.
+	 * @param bitmap Bitmap of item indices to associate to this event
+	 * @throws IOException If there is an error serializing the bitmap
+	 */
+	void setBitmap(RoaringBitmap bitmap) throws IOException{
+		bitmapBytes = AnnotationHistoryRepository.serializeBitmap(bitmap);
+		itemCount = bitmap.getCardinality();
+	}
 	
 	public Collection<Item> getAssociatedItems(Case nuixCase) throws Exception{
 		if(nuixCase == null){ throw new Exception("Nuix case cannot be null"); }
@@ -33,8 +177,36 @@ public abstract class AnnotationEvent {
 	}
 
 	public DateTime getTimeStamp() {
+		if(timeStamp == null){
+			timeStamp = new DateTime(timeStampMillis);
+		}
 		return timeStamp;
 	}
+	
+	/***
+	 * Gets the time stamp of this event without building a DateTime.
+	 * @return Time stamp of this event in milliseconds
+	 */
+	public long getTimeStampMillis() {
+		return timeStampMillis;
+	}
+	
+	/***
+	 * Sets the time stamp of this event.
+	 * @param timeStamp The time stamp of this event
+	 */
+	void setTimeStamp(DateTime timeStamp) {
+		this.timeStamp = timeStamp;
+		this.timeStampMillis = timeStamp.getMillis();
+	}
+
+	/***
+	 * Gets the ID of the source case this event was recorded from, see {@link AnnotationSource}.
+	 * @return The source ID of this event
+	 */
+	public long getSourceId() {
+		return sourceId;
+	}
 
 	public AnnotationHistoryRepository getSourceRepo() {
 		return sourceRepo;
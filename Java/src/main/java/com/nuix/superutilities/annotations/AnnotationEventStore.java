@@ -0,0 +1,134 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/***
+ * Storage backend for the annotation events recorded by an {@link AnnotationHistoryRepository}.  The repository
+ * itself keeps item GUID indices, checkpoints and settings in its SQLite database, while the events (and their item bitmaps)
+ * are appended to and read back from an event store.  Events are grouped by event type, which is the simple class name
+ * of the event, for example "TagEvent" or "CustomMetadataEvent".  Each appended event is assigned an ID, unique within
+ * its event type, which can later be used to load the event again.
+ * @author Jason Wells
+ *
+ */
+public interface AnnotationEventStore extends Closeable {
+	/***
+	 * Appends an event to the store, assigning the event its ID.
+	 * @param event The event to append, with its bitmap bytes and item count populated
+	 * @throws IOException If there is an error writing the event
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void appendEvent(AnnotationEvent event) throws IOException, SQLException;
+
+	/***
+	 * Iterates the events of the given type with a time stamp in the range (startedAfter, startedOnOrBefore], in time stamp order.
+	 * @param eventType The event type to iterate, for example "TagEvent"
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are provided
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are provided
+	 * @param callback Callback which will be provided each event
+	 * @throws IOException If there is an error reading the events
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void eachEvent(String eventType, long startedAfter, long startedOnOrBefore, Consumer<AnnotationEvent> callback) throws IOException, SQLException;
+
+	/***
+	 * Opens a cursor over the events of the given types with a time stamp in the range (startedAfter, startedOnOrBefore].
+	 * Events of all the given types are provided in a single time stamp order.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are provided
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are provided
+	 * @param eventTypes The event types to include, for example "TagEvent"
+	 * @return A cursor over the matching events, which must be closed once no longer needed
+	 * @throws IOException If there is an error reading the events
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public EventCursor openCursor(long startedAfter, long startedOnOrBefore, String... eventTypes) throws IOException, SQLException;
+
+	/***
+	 * Loads a single event by its ID.
+	 * @param eventType The event type of the event
+	 * @param eventId The ID assigned to the event when it was appended
+	 * @return The event or null if no such event exists
+	 * @throws IOException If there is an error reading the event
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public AnnotationEvent loadEvent(String eventType, long eventId) throws IOException, SQLException;
+
+	/***
+	 * Gets the number of events of the given type in the store.
+	 * @param eventType The event type to count
+	 * @return Number of events of the given type
+	 * @throws IOException If there is an error reading the store
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public long getEventCount(String eventType) throws IOException, SQLException;
+
+	/***
+	 * Counts the events of the given type with a time stamp in the range (startedAfter, startedOnOrBefore] and totals the items
+	 * they recorded.  Item counts are taken from the count stored with each event, so no event or bitmap is decoded.
+	 * @param eventType The event type to count
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are counted
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are counted
+	 * @return Two element array of the number of events followed by the total number of items
+	 * @throws IOException If there is an error reading the store
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public long[] countEventsAndItems(String eventType, long startedAfter, long startedOnOrBefore) throws IOException, SQLException;
+
+	/***
+	 * Gets the latest time stamp of any event of the given type in the store.
+	 * @param eventType The event type
+	 * @return Latest time stamp in milliseconds, 0 if there are no events of the given type
+	 * @throws IOException If there is an error reading the store
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public long getLastTimeStamp(String eventType) throws IOException, SQLException;
+
+	/***
+	 * Signals that a large number of events are about to be appended, allowing the store to prepare, for example by dropping
+	 * indices which are cheaper to rebuild than to maintain.
+	 * @throws IOException If there is an error preparing the store
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void beginAppendBatch() throws IOException, SQLException;
+
+	/***
+	 * Signals that a batch of appends started by {@link #beginAppendBatch()} has finished.  Once this returns, all events
+	 * appended so far are durable.
+	 * @throws IOException If there is an error finishing the batch
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void endAppendBatch() throws IOException, SQLException;
+
+	/***
+	 * Gathers storage statistics of the events of the given type, see {@link AnnotationHistoryRepository#buildStatistics()}.
+	 * @param eventType The event type, for example "TagEvent"
+	 * @return Statistics of the events of the given type
+	 * @throws IOException If there is an error reading the store
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public AnnotationTableStatistics buildStatistics(String eventType) throws IOException, SQLException;
+
+	/***
+	 * Performs maintenance which is only worth doing occasionally, such as rebuilding indices, while nothing else is appending to
+	 * or reading from the store.  See {@link AnnotationHistoryRepository#performMaintenance()}.
+	 * @throws IOException If there is an error maintaining the store
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void performMaintenance() throws IOException, SQLException;
+
+	/***
+	 * Gets whether the events this store appends are written to the repository's SQLite database, so that appends made within a
+	 * database transaction are undone when the transaction is rolled back.
+	 * @return True if appends take part in database transactions
+	 */
+	public boolean supportsDatabaseTransactions();
+
+	/***
+	 * Gets the number of bytes this store occupies on disk outside of the repository's SQLite database.
+	 * @return Bytes stored outside of the database, 0 if everything is stored in the database
+	 */
+	public long getExternalStorageBytes();
+}
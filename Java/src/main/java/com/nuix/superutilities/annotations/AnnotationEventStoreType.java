@@ -0,0 +1,13 @@
+package com.nuix.superutilities.annotations;
+
+/***
+ * The backends an {@link AnnotationHistoryRepository} can record its events to.  SQLite records events to tables in
+ * the repository's database (see {@link SQLiteAnnotationEventStore}) while SegmentedLog records events to append-only
+ * segment files in a directory next to the database (see {@link SegmentedLogEventStore}).
+ * @author Jason Wells
+ *
+ */
+public enum AnnotationEventStoreType {
+	SQLite,
+	SegmentedLog
+}
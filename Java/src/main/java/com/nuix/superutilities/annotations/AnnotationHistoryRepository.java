@@ -1,17 +1,18 @@
 package com.nuix.superutilities.annotations;
 
-import java.io.ByteArrayInputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,11 +20,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
+import org.roaringbitmap.IntIterator;
 import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteConfig.JournalMode;
 import org.sqlite.SQLiteConfig.LockingMode;
@@ -53,6 +61,24 @@ import nuix.ProductionSet;
 public class AnnotationHistoryRepository implements Closeable{
 	private static Logger logger = Logger.getLogger(AnnotationHistoryRepository.class);
 	
+	/***
+	 * Carries a SQLException out of a result set callback, which as a {@link Consumer} cannot throw checked exceptions.  Unwrapped by
+	 * {@link AnnotationHistoryRepository#executeQuery(String, List, Consumer)} and {@link AnnotationHistoryRepository#executeReadQuery(String, List, Consumer)}
+	 * so their callers receive the original SQLException.
+	 */
+	static class ResultSetCallbackException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		ResultSetCallbackException(SQLException cause){
+			super(cause);
+		}
+		
+		@Override
+		public synchronized SQLException getCause() {
+			return (SQLException)super.getCause();
+		}
+	}
+	
 	private static final String sqlCreateGuidRefTable =
 			"CREATE TABLE IF NOT EXISTS GUIDRef (BitmapIndex INTEGER, GUID BLOB)";
 	
@@ -61,30 +87,30 @@ public class AnnotationHistoryRepository implements Closeable{
 	
 	private static final String sqlCreateTagEventTable =
 			"CREATE TABLE IF NOT EXISTS TagEvent "+
-			"(TimeStamp INTEGER, Tag Text, Added INTEGER, SerializedBitmap BLOB, ItemCount INTEGER)";
+			"(TimeStamp INTEGER, Tag Text, Added INTEGER, SerializedBitmap BLOB, BitmapId INTEGER, ItemCount INTEGER, SourceId INTEGER DEFAULT 0)";
 	
 	private static final String sqlCreateCmEventTable =
 			"CREATE TABLE IF NOT EXISTS CustomMetadataEvent (TimeStamp INTEGER, Added INTEGER, FieldName TEXT, "+
 			"ValueType TEXT, ValueTimeZone TEXT, ValueInteger INTEGER, ValueFloat REAL, ValueText TEXT, ValueBinary BLOB, "+
-			"SerializedBitmap BLOB, ItemCount INTEGER)";
+			"SerializedBitmap BLOB, BitmapId INTEGER, ItemCount INTEGER, SourceId INTEGER DEFAULT 0)";
 	
 	private static final String sqlCreateItemSetEventTable =
 			"CREATE TABLE IF NOT EXISTS ItemSetEvent "+
 			"(TimeStamp INTEGER, Added INTEGER, Settings TEXT, ItemSetName Text, BatchName TEXT, Description TEXT, "+
-			"SerializedBitmap BLOB, ItemCount INTEGER)";
+			"SerializedBitmap BLOB, BitmapId INTEGER, ItemCount INTEGER, SourceId INTEGER DEFAULT 0)";
 	
 	private static final String sqlCreateExclusionEventTable =
 			"CREATE TABLE IF NOT EXISTS ExclusionEvent "+
-			"(TimeStamp INTEGER, Excluded INTEGER, ExclusionName TEXT, SerializedBitmap BLOB, ItemCount INTEGER)";
+			"(TimeStamp INTEGER, Excluded INTEGER, ExclusionName TEXT, SerializedBitmap BLOB, BitmapId INTEGER, ItemCount INTEGER, SourceId INTEGER DEFAULT 0)";
 	
 	private static final String sqlCreateCustodianEventTable = 
 			"CREATE TABLE IF NOT EXISTS CustodianEvent "+
-			"(TimeStamp INTEGER, Assigned INTEGER, Custodian TEXT, SerializedBitmap BLOB, ItemCount INTEGER)";
+			"(TimeStamp INTEGER, Assigned INTEGER, Custodian TEXT, SerializedBitmap BLOB, BitmapId INTEGER, ItemCount INTEGER, SourceId INTEGER DEFAULT 0)";
 	
 	private static final String sqlCreateProductionSetEventTable =
 			"CREATE TABLE IF NOT EXISTS ProductionSetEvent "+
 			"(TimeStamp INTEGER, Added INTEGER, Created INTEGER, ProductionSetSettings TEXT, "+
-			"ProductionSetName TEXT, SerializedBitmap BLOB, ItemCount INTEGER)";
+			"ProductionSetName TEXT, SerializedBitmap BLOB, BitmapId INTEGER, ItemCount INTEGER, SourceId INTEGER DEFAULT 0)";
 	
 	private static final String sqlCreateTextInfoTable =
 			"CREATE TABLE IF NOT EXISTS TextInfo (Name TEXT, ValueText TEXT)";
@@ -92,62 +118,75 @@ public class AnnotationHistoryRepository implements Closeable{
 	private static final String sqlCreateIntegerInfoTable =
 			"CREATE TABLE IF NOT EXISTS IntegerInfo (Name TEXT, ValueInteger TEXT)";
 	
+	private static final String sqlCreateSourceTable =
+			"CREATE TABLE IF NOT EXISTS Source (SourceId INTEGER PRIMARY KEY, Name TEXT, Location TEXT, Priority INTEGER, "+
+			"SyncPointTimeStamp INTEGER, LastEventTimeStamp INTEGER)";
 	
-	private static final String sqlInsertTagEvent =
-			"INSERT INTO TagEvent "+
-			"(TimeStamp,Tag,Added,SerializedBitmap,ItemCount) VALUES (?,?,?,?,?)";
+	private static final String sqlCreateSourceLocationUniqueIndex =
+			"CREATE UNIQUE INDEX IF NOT EXISTS IDX_Source_Location_Unique ON Source (Location)";
 	
-	private static final String sqlInsertCustomMetadataEvent =
-			"INSERT INTO CustomMetadataEvent "+
-			"(TimeStamp,Added,FieldName,ValueType,ValueTimeZone,ValueInteger,ValueFloat,ValueText,"+
-			"ValueBinary,SerializedBitmap,ItemCount) VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+	private static final String sqlSelectSources =
+			"SELECT SourceId,Name,Location,Priority,SyncPointTimeStamp,LastEventTimeStamp FROM Source";
 	
-	private static final String sqlInsertItemSetEvent =
-			"INSERT INTO ItemSetEvent "+
-			"(TimeStamp,Added,Settings,ItemSetName,BatchName,Description,SerializedBitmap,ItemCount) "+
-			"VALUES (?,?,?,?,?,?,?,?)";
 	
-	private static final String sqlInsertExclusionEvent =
-			"INSERT INTO ExclusionEvent "+
-			"(TimeStamp,Excluded,ExclusionName,SerializedBitmap,ItemCount) VALUES (?,?,?,?,?)";
+	// Events refer to their item bitmap in the content addressed Bitmap table, rows recorded before that
+	// table was introduced may still hold their bitmap in their own SerializedBitmap column
+	static final String sqlJoinBitmap =
+			"LEFT JOIN Bitmap b ON e.BitmapId = b.BitmapId";
 	
-	private static final String sqlInsertCustodianEvent = 
-			"INSERT INTO CustodianEvent (TimeStamp,Assigned,Custodian,SerializedBitmap,ItemCount) VALUES (?,?,?,?,?)";
+	private static final String sqlCreateBitmapTable =
+			"CREATE TABLE IF NOT EXISTS Bitmap (BitmapId INTEGER PRIMARY KEY, Hash BLOB, SerializedBitmap BLOB, ItemCount INTEGER)";
 	
-	private static final String sqlInsertProductionSetEvent =
-			"INSERT INTO ProductionSetEvent (TimeStamp,Added,Created,ProductionSetSettings,ProductionSetName,"+
-			"SerializedBitmap,ItemCount) VALUES(?,?,?,?,?,?,?)";
+	private static final String sqlCreateBitmapHashUniqueIndex =
+			"CREATE UNIQUE INDEX IF NOT EXISTS IDX_Bitmap_Hash_Unique ON Bitmap (Hash)";
 	
+	private static final String sqlCreateCheckpointTable =
+			"CREATE TABLE IF NOT EXISTS Checkpoint (CheckpointId INTEGER PRIMARY KEY, TimeStamp INTEGER, EventCount INTEGER)";
 	
-	private static final String sqlSelectFromTagEvent =
-			"SELECT TimeStamp,Tag,Added,SerializedBitmap,ItemCount FROM TagEvent WHERE TimeStamp >= ? ORDER BY TimeStamp ASC";
+	private static final String sqlCreateCheckpointStateTable =
+			"CREATE TABLE IF NOT EXISTS CheckpointState (CheckpointId INTEGER, StateKey TEXT, ValueKey TEXT, "+
+			"EventType TEXT, EventRowId INTEGER, SerializedBitmap BLOB, BitmapId INTEGER, ItemCount INTEGER, Assigned INTEGER DEFAULT 1)";
 	
-	private static final String sqlSelectFromCustomMetadataEvent =
-			"SELECT TimeStamp,Added,FieldName,ValueType,ValueTimeZone,ValueInteger,ValueFloat,ValueText,ValueBinary,"+
-			"SerializedBitmap,ItemCount FROM CustomMetadataEvent WHERE TimeStamp >= ? ORDER BY TimeStamp ASC";
+	private static final String sqlCreateCheckpointStateIndex =
+			"CREATE INDEX IF NOT EXISTS IDX_CheckpointState_CheckpointId ON CheckpointState (CheckpointId)";
 	
-	private static final String sqlSelectFromItemSetEvent =
-			"SELECT TimeStamp,Added,Settings,ItemSetName,BatchName,Description,SerializedBitmap,ItemCount " +
-			"FROM ItemSetEvent WHERE TimeStamp > ? ORDER BY TimeStamp ASC";
+	private static final String sqlInsertCheckpointState =
+			"INSERT INTO CheckpointState (CheckpointId,StateKey,ValueKey,EventType,EventRowId,BitmapId,ItemCount,Assigned) "+
+			"VALUES (?,?,?,?,?,?,?,?)";
 	
-	private static final String sqlSelectFromExclusionEvent =
-			"SELECT TimeStamp,Excluded,ExclusionName,SerializedBitmap,ItemCount FROM ExclusionEvent " +
-			"WHERE TimeStamp > ? ORDER BY TimeStamp ASC";
+	// Re-encoding and migrating read stored bitmaps in batches of this many to keep memory use bounded on large repositories
+	private static final int reencodeBatchSize = 1000;
 	
-	private static final String sqlSelectFromCustodianEvent = 
-			"SELECT TimeStamp,Assigned,Custodian,SerializedBitmap,ItemCount FROM CustodianEvent " + 
-			"WHERE TimeStamp > ? ORDER BY TimeStamp ASC";
+	private static final Gson settingsGson = new GsonBuilder().serializeNulls().setPrettyPrinting().create();
 	
-	private static final String sqlSelectFromProductionSetEvent = 
-			"SELECT TimeStamp,Added,Created,ProductionSetSettings,ProductionSetName,SerializedBitmap,ItemCount " +
-			"FROM ProductionSetEvent WHERE TimeStamp > ? ORDER BY TimeStamp ASC";
+	private static final Type settingsType = new TypeToken<Map<String, Object>>(){}.getType();
 	
 	private File databaseFile = null;
 	private Properties connectionProperties = new Properties();
 	private HashBiMap<String,Long> guidIndexLookup = HashBiMap.create();
+	// Guards guidIndexLookup, which a sync adds to while in SharedRead mode other threads resolve GUIDs and indices
+	private ReentrantReadWriteLock guidIndexLock = new ReentrantReadWriteLock();
 	private int guidRefInsertBatchSize = 250000;
 	private boolean snapshotFirstSync = true;
 	private Connection persistentConnection = null;
+	private AnnotationRepositoryAccessMode accessMode = AnnotationRepositoryAccessMode.Exclusive;
+	private Properties readConnectionProperties = new Properties();
+	private BlockingQueue<Connection> idleReadConnections = new LinkedBlockingQueue<Connection>();
+	private List<Connection> readConnections = new ArrayList<Connection>();
+	private int readConnectionPoolSize = 4;
+	private int busyTimeoutMillis = 30000;
+	private long checkpointInterval = 50000;
+	private AnnotationEventStore eventStore = null;
+	private AnnotationSourceConflictPolicy sourceConflictPolicy = AnnotationSourceConflictPolicy.LatestWins;
+	
+	// Source being synced, events appended while syncing are tagged with its ID and advance its watermark
+	private AnnotationSource syncingSource = null;
+	private long syncingSourceLastEventTimeStamp = 0;
+	// Earliest time stamp appended by the sync in progress, checkpoints from this time on no longer reflect the full history
+	private long syncingEarliestAppendedTimeStamp = Long.MAX_VALUE;
+	
+	// Dedupe cache of bitmap hash (hex) => BitmapId, loaded from the database on first use
+	private Map<String,Long> bitmapIdByHash = null;
 	
 	// Sync operation can pre index all guids => indices meaning you pay for the cost of the work only once
 	// up front, this bool hints that this has been done to other methods so they may skip work
@@ -164,25 +203,91 @@ public class AnnotationHistoryRepository implements Closeable{
 	
 	/***
 	 * Creates a new instance against the given and database file.  If the database file does not
-	 * already exist it will be created and initialized.
+	 * already exist it will be created and initialized, recording its events to the SQLite database.
+	 * @param databaseFile The database file to record annotations to or playback annotations from
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store cannot be opened
+	 */
+	public AnnotationHistoryRepository(File databaseFile) throws SQLException, IOException{
+		this(databaseFile, AnnotationEventStoreType.SQLite);
+	}
+	
+	/***
+	 * Creates a new instance against the given and database file.  If the database file does not
+	 * already exist it will be created and initialized, recording its events to the given type of event store.
+	 * An existing database file always uses the event store type it was created with, which is recorded in
+	 * the TextInfo entry "EventStoreType".
+	 * @param databaseFile The database file to record annotations to or playback annotations from
+	 * @param eventStoreType The type of event store a new database will record its events to
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store cannot be opened
+	 */
+	public AnnotationHistoryRepository(File databaseFile, AnnotationEventStoreType eventStoreType) throws SQLException, IOException{
+		this(databaseFile, eventStoreType, AnnotationRepositoryAccessMode.Exclusive);
+	}
+	
+	/***
+	 * Creates a new instance against the given and database file.  If the database file does not
+	 * already exist it will be created and initialized, recording its events to the given type of event store.
+	 * In {@link AnnotationRepositoryAccessMode#SharedRead} mode the database is not exclusively locked, writes go through one
+	 * dedicated connection and reads of recorded events, checkpoints and summaries are served by a pool of read-only
+	 * connections (see {@link #setReadConnectionPoolSize(int)}), so they can run alongside a long running sync.
 	 * @param databaseFile The database file to record annotations to or playback annotations from
+	 * @param eventStoreType The type of event store a new database will record its events to
+	 * @param accessMode Whether this instance holds an exclusive lock on the database or allows shared reads
 	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store cannot be opened
 	 */
-	public AnnotationHistoryRepository(File databaseFile) throws SQLException{
+	public AnnotationHistoryRepository(File databaseFile, AnnotationEventStoreType eventStoreType, AnnotationRepositoryAccessMode accessMode) throws SQLException, IOException{
 		this.databaseFile = databaseFile;
+		this.accessMode = accessMode;
+		boolean isNewDatabase = databaseFile.exists() == false;
 		
 		SQLiteConfig config = new SQLiteConfig();
 		config.setCacheSize(2000);
 		config.setPageSize(4096 * 10);
 		config.setJournalMode(JournalMode.WAL);
-		config.setLockingMode(LockingMode.EXCLUSIVE);
-		config.setTransactionMode(TransactionMode.EXCLUSIVE);
-		config.setSynchronous(SynchronousMode.OFF);
+		if(accessMode == AnnotationRepositoryAccessMode.SharedRead){
+			// WAL allows readers to proceed while the writer appends, as long as nobody holds an exclusive lock
+			config.setLockingMode(LockingMode.NORMAL);
+			config.setTransactionMode(TransactionMode.IMMEDIATE);
+			config.setBusyTimeout(busyTimeoutMillis);
+		} else {
+			config.setLockingMode(LockingMode.EXCLUSIVE);
+			config.setTransactionMode(TransactionMode.EXCLUSIVE);
+		}
+		// Event stores promise that appended events are durable once an append batch ends, which in WAL mode
+		// takes FULL to hold across a power loss rather than only across the process exiting
+		config.setSynchronous(SynchronousMode.FULL);
 		connectionProperties = config.toProperties();
 		
-		if(databaseFile.exists() == false){
+		SQLiteConfig readConfig = new SQLiteConfig();
+		readConfig.setCacheSize(2000);
+		readConfig.setReadOnly(true);
+		readConfig.setLockingMode(LockingMode.NORMAL);
+		readConfig.setBusyTimeout(busyTimeoutMillis);
+		readConnectionProperties = readConfig.toProperties();
+		
+		if(isNewDatabase){
 			buildTables();
+			setTextInfo("EventStoreType", eventStoreType.name());
+		} else if(textInfoExists("EventStoreType")){
+			eventStoreType = AnnotationEventStoreType.valueOf(getTextInfo("EventStoreType"));
+		} else {
+			eventStoreType = AnnotationEventStoreType.SQLite;
+		}
+		
+		if(eventStoreType == AnnotationEventStoreType.SegmentedLog){
+			// Segment files are forced to disk at the end of each sync, the GUID indices they refer to
+			// are made just as durable by the FULL synchronous mode configured above
+			eventStore = new SegmentedLogEventStore(this, new File(databaseFile.getAbsolutePath()+".segments"));
+		} else {
+			eventStore = new SQLiteAnnotationEventStore(this);
 		}
+		
+		buildCheckpointTables();
+		migrateToBitmapStore();
+		migrateToMultiSource();
 		loadGuidLookupFromDatabase();
 	}
 	
@@ -191,11 +296,20 @@ public class AnnotationHistoryRepository implements Closeable{
 	 * already exist it will be created and initialized.
 	 * @param databaseFile The database file to record annotations to or playback annotations from
 	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store cannot be opened
 	 */
-	public AnnotationHistoryRepository(String databaseFile) throws SQLException {
+	public AnnotationHistoryRepository(String databaseFile) throws SQLException, IOException {
 		this(new File(databaseFile));
 	}
 	
+	/***
+	 * Gets the event store this repository records its events to.
+	 * @return The event store of this repository
+	 */
+	public AnnotationEventStore getEventStore() {
+		return eventStore;
+	}
+	
 	/***
 	 * Creates the tables in a fresh DB file
 	 * @throws SQLException If the SQL bits throw an error
@@ -215,9 +329,211 @@ public class AnnotationHistoryRepository implements Closeable{
 		executeUpdate(sqlCreateIntegerInfoTable);
 		
 		setIntegerInfo("SyncPointTimeStamp", 0L);
+		setIntegerInfo("BitmapStoreVersion", 1L);
+	}
+	
+	/***
+	 * Creates the checkpoint tables if they are not yet present.  Called on every open so that databases created
+	 * before checkpoints were introduced gain these tables.  Checkpoints created before the Assigned column was added
+	 * only recorded assigned values, not the items each key was removed from, so they are discarded and will be rebuilt.
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	private void buildCheckpointTables() throws SQLException{
+		executeUpdate(sqlCreateCheckpointTable);
+		executeUpdate(sqlCreateCheckpointStateTable);
+		executeUpdate(sqlCreateCheckpointStateIndex);
+		if(!tableHasColumn("CheckpointState","Assigned")){
+			logger.info("Adding Assigned column to CheckpointState and discarding checkpoints which did not record removals...");
+			executeUpdate("ALTER TABLE CheckpointState ADD COLUMN Assigned INTEGER DEFAULT 1");
+			executeUpdate("DELETE FROM CheckpointState");
+			executeUpdate("DELETE FROM Checkpoint");
+		}
+	}
+	
+	/***
+	 * Moves item bitmaps stored directly on event rows into the shared, content addressed Bitmap table.  Databases created
+	 * before the Bitmap table was introduced store a copy of the bitmap on every event row, even when many events share
+	 * an identical bitmap.  This adds the BitmapId column to each table holding bitmaps, then stores each distinct bitmap once
+	 * and points the rows at it.  Rows are moved in batches, each committed on its own, so memory use stays bounded and an interrupted
+	 * migration resumes with the rows not yet moved.  The database is vacuumed afterwards to reclaim the space the moved bitmaps took up.
+	 * Only performs work once per database, tracked by the IntegerInfo entry "BitmapStoreVersion", which is only set once every row has moved.
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	private void migrateToBitmapStore() throws SQLException{
+		executeUpdate(sqlCreateBitmapTable);
+		executeUpdate(sqlCreateBitmapHashUniqueIndex);
+		if(integerInfoExists("BitmapStoreVersion")){
+			return;
+		}
+		
+		List<String> tableNames = new ArrayList<String>(Arrays.asList(eventTableNames));
+		tableNames.add("CheckpointState");
+		
+		for(String tableName : tableNames){
+			if(!tableHasColumn(tableName,"BitmapId")){
+				logger.info(String.format("Adding BitmapId column to %s...", tableName));
+				executeUpdate(String.format("ALTER TABLE %s ADD COLUMN BitmapId INTEGER", tableName));
+			}
+		}
+		
+		class RowBitmap {
+			long rowId = 0;
+			byte[] bitmapBytes = null;
+			int itemCount = 0;
+		}
+		
+		Connection conn = getConnection();
+		long movedCount = 0;
+		for(String tableName : tableNames){
+			long rowCount = executeLongScalar(String.format("SELECT COUNT(*) FROM %s WHERE SerializedBitmap IS NOT NULL", tableName));
+			if(rowCount < 1){ continue; }
+			logger.info(String.format("Moving %s bitmaps from %s into Bitmap table...", rowCount, tableName));
+			
+			List<Object> data = new ArrayList<Object>();
+			long lastRowId = Long.MIN_VALUE;
+			while(true){
+				List<RowBitmap> batch = new ArrayList<RowBitmap>();
+				data.clear();
+				data.add(lastRowId);
+				data.add(reencodeBatchSize);
+				executeQuery(String.format("SELECT rowid,SerializedBitmap,ItemCount FROM %s WHERE SerializedBitmap IS NOT NULL AND rowid > ? "+
+						"ORDER BY rowid ASC LIMIT ?", tableName),data,rs -> {
+					try {
+						while(rs.next()){
+							RowBitmap row = new RowBitmap();
+							row.rowId = rs.getLong(1);
+							row.bitmapBytes = rs.getBytes(2);
+							row.itemCount = rs.getInt(3);
+							batch.add(row);
+						}
+					} catch (SQLException e) {
+						throw new ResultSetCallbackException(e);
+					}
+				});
+				if(batch.isEmpty()){ break; }
+				
+				conn.setAutoCommit(false);
+				try(PreparedStatement statement = conn.prepareStatement(
+						String.format("UPDATE %s SET BitmapId = ?, SerializedBitmap = NULL WHERE rowid = ?", tableName))){
+					for(RowBitmap row : batch){
+						statement.setLong(1, storeBitmap(row.bitmapBytes,row.itemCount));
+						statement.setLong(2, row.rowId);
+						statement.executeUpdate();
+					}
+					conn.commit();
+				} catch (SQLException e) {
+					conn.rollback();
+					// Dedupe cache may now refer to rolled back entries
+					bitmapIdByHash = null;
+					throw e;
+				} finally {
+					conn.setAutoCommit(true);
+				}
+				movedCount += batch.size();
+				lastRowId = batch.get(batch.size()-1).rowId;
+			}
+		}
+		
+		if(movedCount > 0){
+			logger.info(String.format("Moved %s bitmaps, vacuuming database...", movedCount));
+			executeUpdate("VACUUM");
+			executeLongScalar("PRAGMA wal_checkpoint(TRUNCATE)");
+		}
+		
+		setIntegerInfo("BitmapStoreVersion", 1L);
+	}
+	
+	/***
+	 * Adds the Source table and the SourceId column of each event table if they are not yet present.  Databases created before
+	 * a repository could record more than one source case hold the events of a single case, recorded in the TextInfo entries
+	 * "SourceCaseName" and "SourceCaseLocation".  That case is registered as source 0, the source ID existing events default to.
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error determining the latest event time stamp
+	 */
+	private void migrateToMultiSource() throws SQLException, IOException{
+		executeUpdate(sqlCreateSourceTable);
+		executeUpdate(sqlCreateSourceLocationUniqueIndex);
+		
+		for(String tableName : eventTableNames){
+			if(!tableHasColumn(tableName,"SourceId")){
+				logger.info(String.format("Adding SourceId column to %s...", tableName));
+				executeUpdate(String.format("ALTER TABLE %s ADD COLUMN SourceId INTEGER DEFAULT 0", tableName));
+			}
+		}
+		
+		if(textInfoExists("SourceConflictPolicy")){
+			sourceConflictPolicy = AnnotationSourceConflictPolicy.valueOf(getTextInfo("SourceConflictPolicy"));
+		}
+		
+		if(executeLongScalar("SELECT COUNT(*) FROM Source") < 1 && textInfoExists("SourceCaseLocation")){
+			logger.info("Registering existing source case as source 0...");
+			executeInsert("INSERT INTO Source (SourceId,Name,Location,Priority,SyncPointTimeStamp,LastEventTimeStamp) VALUES (?,?,?,?,?,?)",
+					0L, getTextInfo("SourceCaseName"), getTextInfo("SourceCaseLocation"), 0, 0L, calculateLastEventTimeStamp());
+		}
+	}
+	
+	private boolean tableHasColumn(String tableName, String columnName) throws SQLException{
+		List<String> columnNames = new ArrayList<String>();
+		executeQuery(String.format("PRAGMA table_info(%s)", tableName),null,rs -> {
+			try {
+				while(rs.next()){
+					columnNames.add(rs.getString("name"));
+				}
+			} catch (SQLException e) {
+				throw new ResultSetCallbackException(e);
+			}
+		});
+		return columnNames.contains(columnName);
+	}
+	
+	/***
+	 * Stores a serialized bitmap in the content addressed Bitmap table, keyed by a SHA-256 hash of its bytes.  If an identical
+	 * bitmap has already been stored the ID of the existing entry is returned and nothing is written.
+	 * @param bitmapBytes The serialized bitmap to store
+	 * @param itemCount The number of items in the bitmap
+	 * @return The BitmapId of the stored bitmap
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	long storeBitmap(byte[] bitmapBytes, int itemCount) throws SQLException{
+		if(bitmapIdByHash == null){
+			bitmapIdByHash = new HashMap<String,Long>();
+			executeQuery("SELECT BitmapId,Hash FROM Bitmap",null,rs -> {
+				try {
+					while(rs.next()){
+						bitmapIdByHash.put(FormatUtility.bytesToHex(rs.getBytes(2)), rs.getLong(1));
+					}
+				} catch (SQLException e) {
+					throw new ResultSetCallbackException(e);
+				}
+			});
+		}
+		
+		byte[] hash = hashBitmapBytes(bitmapBytes);
+		String hashHex = FormatUtility.bytesToHex(hash);
+		Long bitmapId = bitmapIdByHash.get(hashHex);
+		if(bitmapId == null){
+			executeInsert("INSERT INTO Bitmap (Hash,SerializedBitmap,ItemCount) VALUES (?,?,?)", hash, bitmapBytes, itemCount);
+			bitmapId = executeLongScalar("SELECT last_insert_rowid()");
+			bitmapIdByHash.put(hashHex, bitmapId);
+		}
+		return bitmapId;
+	}
+	
+	/***
+	 * Calculates the SHA-256 hash of serialized bitmap bytes, used as the content address of a bitmap.
+	 * @param bitmapBytes The serialized bitmap
+	 * @return SHA-256 hash of the bytes
+	 */
+	static byte[] hashBitmapBytes(byte[] bitmapBytes){
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bitmapBytes);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new RuntimeException(e);
+		}
 	}
 	
-	private boolean integerInfoExists(String name) throws SQLException{
+	boolean integerInfoExists(String name) throws SQLException{
 		return executeLongScalar("SELECT COUNT(*) FROM IntegerInfo WHERE Name = ?",name) > 0;
 	}
 	
@@ -270,6 +586,112 @@ public class AnnotationHistoryRepository implements Closeable{
 		setIntegerInfo("SyncPointTimeStamp", dateTime.getMillis());
 	}
 	
+	private List<AnnotationSource> loadSources(String whereClause, Object ...data) throws SQLException{
+		List<AnnotationSource> result = new ArrayList<AnnotationSource>();
+		List<Object> queryData = new ArrayList<Object>(Arrays.asList(data));
+		executeQuery(sqlSelectSources+" "+whereClause,queryData,rs -> {
+			try {
+				while(rs.next()){
+					AnnotationSource source = new AnnotationSource();
+					source.sourceId = rs.getLong(1);
+					source.name = rs.getString(2);
+					source.location = rs.getString(3);
+					source.priority = rs.getInt(4);
+					source.syncPointTimeStamp = rs.getLong(5);
+					source.lastEventTimeStamp = rs.getLong(6);
+					result.add(source);
+				}
+			} catch (SQLException e) {
+				throw new ResultSetCallbackException(e);
+			}
+		});
+		return result;
+	}
+	
+	/***
+	 * Gets the source cases this repository has recorded events from, see {@link AnnotationSource}.
+	 * @return List of the registered sources ordered by source ID
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public List<AnnotationSource> getSources() throws SQLException{
+		return loadSources("ORDER BY SourceId ASC");
+	}
+	
+	/***
+	 * Gets a registered source by its ID.
+	 * @param sourceId The ID of the source
+	 * @return The source, or null if no source with the given ID is registered
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public AnnotationSource getSource(long sourceId) throws SQLException{
+		List<AnnotationSource> sources = loadSources("WHERE SourceId = ?",sourceId);
+		return sources.size() > 0 ? sources.get(0) : null;
+	}
+	
+	private AnnotationSource findOrRegisterSource(Case nuixCase, Integer priority) throws SQLException{
+		String location = nuixCase.getLocation().getAbsolutePath();
+		List<AnnotationSource> sources = loadSources("WHERE Location = ?",location);
+		if(sources.size() > 0){
+			AnnotationSource source = sources.get(0);
+			if(priority != null && source.priority != priority){
+				setSourcePriority(source.sourceId, priority);
+				source.priority = priority;
+			}
+			return source;
+		}
+		
+		long sourceId = executeLongScalar("SELECT COALESCE(MAX(SourceId)+1,0) FROM Source");
+		logger.info(String.format("Registering source %s: %s (%s)", sourceId, nuixCase.getName(), location));
+		executeInsert("INSERT INTO Source (SourceId,Name,Location,Priority,SyncPointTimeStamp,LastEventTimeStamp) VALUES (?,?,?,?,?,?)",
+				sourceId, nuixCase.getName(), location, priority == null ? 0 : priority, 0L, 0L);
+		return getSource(sourceId);
+	}
+	
+	/***
+	 * Registers a case as a source of this repository, or updates the priority of the case if it is already registered.  Sources are
+	 * identified by case location.  Calling this is optional, {@link #syncHistory(Case, AnnotationSyncSettings)} registers a case it
+	 * has not synced from before with a priority of 0.
+	 * @param nuixCase The source case to register
+	 * @param priority Priority of the source when resolving conflicts under {@link AnnotationSourceConflictPolicy#SourcePriority},
+	 * higher values win
+	 * @return The registered source
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public AnnotationSource registerSource(Case nuixCase, int priority) throws SQLException{
+		return findOrRegisterSource(nuixCase, priority);
+	}
+	
+	public void setSourcePriority(long sourceId, int priority) throws SQLException{
+		executeUpdate("UPDATE Source SET Priority = ? WHERE SourceId = ?",priority,sourceId);
+	}
+	
+	/***
+	 * Sets the sync point of a single source, history events of that source started before the sync point are not recorded.
+	 * Unlike {@link #setSyncPoint(DateTime)}, which applies to source 0, this allows each source to start from its own point in time.
+	 * @param sourceId The ID of the source
+	 * @param dateTime The sync point of the source
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void setSourceSyncPoint(long sourceId, DateTime dateTime) throws SQLException{
+		executeUpdate("UPDATE Source SET SyncPointTimeStamp = ? WHERE SourceId = ?",dateTime.getMillis(),sourceId);
+	}
+	
+	public AnnotationSourceConflictPolicy getSourceConflictPolicy() {
+		return sourceConflictPolicy;
+	}
+	
+	/***
+	 * Sets how conflicting changes made to the same item by different source cases are resolved when building compaction plans
+	 * and state snapshots.  The policy is recorded in the TextInfo entry "SourceConflictPolicy" so it persists with the repository.
+	 * Default is {@link AnnotationSourceConflictPolicy#LatestWins}.
+	 * @param sourceConflictPolicy The conflict policy
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void setSourceConflictPolicy(AnnotationSourceConflictPolicy sourceConflictPolicy) throws SQLException {
+		setTextInfo("SourceConflictPolicy", sourceConflictPolicy.name());
+		this.sourceConflictPolicy = sourceConflictPolicy;
+	}
+	
 	/***
 	 * Items associated to a given event are stored in the database as a series of indices
 	 * stored in a bitmap, serialized to a byte array.  We must maintain a xref between each
@@ -281,21 +703,26 @@ public class AnnotationHistoryRepository implements Closeable{
 	private void loadGuidLookupFromDatabase() throws SQLException{
 		long startTime = System.currentTimeMillis();
 		logger.info("Loading GUID Xref from database...");
-		executeQuery("SELECT BitmapIndex,GUID FROM GUIDRef",null,rs -> {
-			try {
-				while(rs.next()){
-					byte[] guid = rs.getBytes(2);
-					long index = rs.getLong(1);
-					guidIndexLookup.put(FormatUtility.bytesToHex(guid), index);
+		guidIndexLock.writeLock().lock();
+		try {
+			executeQuery("SELECT BitmapIndex,GUID FROM GUIDRef",null,rs -> {
+				try {
+					while(rs.next()){
+						byte[] guid = rs.getBytes(2);
+						long index = rs.getLong(1);
+						// Lookups are by lower case GUID, as assigned by indexGuids
+						guidIndexLookup.put(FormatUtility.bytesToHex(guid).toLowerCase(), index);
+					}
+				} catch (SQLException e) {
+					throw new ResultSetCallbackException(e);
 				}
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		});
+			});
+		} finally {
+			guidIndexLock.writeLock().unlock();
+		}
 		long finishTime = System.currentTimeMillis();
 		logger.info(String.format("Loaded %s GUID Xref from database in %s ms",
-				guidIndexLookup.size(), finishTime - startTime));
+				getGuidIndexSize(), finishTime - startTime));
 	}
 	
 	/***
@@ -313,20 +740,21 @@ public class AnnotationHistoryRepository implements Closeable{
 		List<GuidIndexPair> toInsert = new ArrayList<GuidIndexPair>();
 		List<Object> data = new ArrayList<Object>();
 		
-		for(String guid : guids){
-			guid = guid.replace("-", "").toLowerCase();
-			if(!guidIndexLookup.containsKey(guid)){
-				long index = (long)guidIndexLookup.size()+1;
-				guidIndexLookup.put(guid, index);
-				data.clear();
-				data.add(index);
-				data.add(guid);
-				GuidIndexPair gip = new GuidIndexPair();
-				gip.index = index;
-				gip.guid = FormatUtility.hexToBytes(guid);
-				toInsert.add(gip);
-				
+		guidIndexLock.writeLock().lock();
+		try {
+			for(String guid : guids){
+				guid = guid.replace("-", "").toLowerCase();
+				if(!guidIndexLookup.containsKey(guid)){
+					long index = (long)guidIndexLookup.size()+1;
+					guidIndexLookup.put(guid, index);
+					GuidIndexPair gip = new GuidIndexPair();
+					gip.index = index;
+					gip.guid = FormatUtility.hexToBytes(guid);
+					toInsert.add(gip);
+				}
 			}
+		} finally {
+			guidIndexLock.writeLock().unlock();
 		}
 		
 		// Now we make sure DB is in sync
@@ -357,6 +785,195 @@ public class AnnotationHistoryRepository implements Closeable{
 		conn.setAutoCommit(true);
 	}
 	
+	/***
+	 * Records GUIDs at the bitmap indices they were assigned in another repository, used when importing an archive (see
+	 * {@link AnnotationRepositoryArchive}).  Unlike {@link #indexGuids(Collection)} the indices are not assigned here, since the
+	 * imported bitmaps already refer to them.
+	 * @param indices The bitmap index of each GUID
+	 * @param guids The GUIDs as stored in the GUIDRef table
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	void importGuidRefs(long[] indices, byte[][] guids) throws SQLException{
+		Connection conn = getConnection();
+		conn.setAutoCommit(false);
+		String sql = "INSERT OR IGNORE INTO GUIDRef (BitmapIndex,GUID) VALUES (?,?)";
+		try(PreparedStatement statement = conn.prepareStatement(sql)){
+			for (int i = 0; i < indices.length; i++) {
+				statement.setLong(1, indices[i]);
+				statement.setBytes(2, guids[i]);
+				statement.executeUpdate();
+			}
+			conn.commit();
+			guidIndexLock.writeLock().lock();
+			try {
+				for (int i = 0; i < indices.length; i++) {
+					guidIndexLookup.put(FormatUtility.bytesToHex(guids[i]).toLowerCase(), indices[i]);
+				}
+			} finally {
+				guidIndexLock.writeLock().unlock();
+			}
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+	
+	/***
+	 * Appends events read from an archive (see {@link AnnotationRepositoryArchive}) in a single transaction.  Each event keeps
+	 * the source ID it was exported with.
+	 * @param events The events to append
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error writing an event
+	 */
+	void appendImportedEvents(List<AnnotationEvent> events) throws SQLException, IOException{
+		Connection conn = getConnection();
+		conn.setAutoCommit(false);
+		try {
+			for(AnnotationEvent event : events){
+				eventStore.appendEvent(event);
+			}
+			conn.commit();
+		} catch (SQLException | IOException e) {
+			conn.rollback();
+			// Dedupe cache may now refer to rolled back entries
+			bitmapIdByHash = null;
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+	
+	/***
+	 * Records a source exported from another repository with its original ID and watermark.
+	 * @param source The source to record
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	void importSource(AnnotationSource source) throws SQLException{
+		executeInsert("INSERT OR REPLACE INTO Source (SourceId,Name,Location,Priority,SyncPointTimeStamp,LastEventTimeStamp) VALUES (?,?,?,?,?,?)",
+				source.sourceId, source.name, source.location, source.priority, source.syncPointTimeStamp, source.lastEventTimeStamp);
+	}
+	
+	/***
+	 * Appends events merged from another repository (see {@link AnnotationRepositoryMerger}) in a single transaction, along with
+	 * the GUIDs their remapped bitmaps refer to which this repository has not indexed yet and the sources they were recorded from.
+	 * Checkpoints taken at or after the earliest merged event no longer reflect the full history and are removed in the same transaction.
+	 * 
+	 * An event store which does not support database transactions (see {@link AnnotationEventStore#supportsDatabaseTransactions()}) writes
+	 * outside of the database, where rolling back the transaction cannot undo its appends, so those events are only appended once the
+	 * transaction has committed.  Should appending them fail part way, the GUIDs
+	 * and sources are already recorded and merging again appends only the events still missing.
+	 * @param newGuids GUIDs to index, the first being assigned index firstNewIndex and the rest following sequentially
+	 * @param firstNewIndex The index the merged bitmaps assume the first new GUID is assigned
+	 * @param sources Sources to record with their IDs in this repository, replacing any existing source with the same ID
+	 * @param events The events to append, with bitmaps and source IDs already remapped to this repository
+	 * @return The number of checkpoints removed
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error writing an event
+	 */
+	int appendMergedEvents(List<String> newGuids, long firstNewIndex, List<AnnotationSource> sources, List<AnnotationEvent> events) throws SQLException, IOException{
+		int guidIndexSize = getGuidIndexSize();
+		if(newGuids.size() > 0 && firstNewIndex != (long)guidIndexSize+1){
+			throw new IllegalStateException(String.format("Merged events assume next GUID index %s but next index is %s",
+					firstNewIndex, guidIndexSize+1));
+		}
+		
+		long earliest = Long.MAX_VALUE;
+		for(AnnotationEvent event : events){
+			if(event.timeStampMillis < earliest){ earliest = event.timeStampMillis; }
+		}
+		boolean appendInTransaction = eventStore.supportsDatabaseTransactions();
+		
+		int checkpointsRemoved = 0;
+		Connection conn = getConnection();
+		conn.setAutoCommit(false);
+		try {
+			try(PreparedStatement statement = conn.prepareStatement("INSERT INTO GUIDRef (BitmapIndex,GUID) VALUES (?,?)")){
+				for (int i = 0; i < newGuids.size(); i++) {
+					statement.setLong(1, firstNewIndex + i);
+					statement.setBytes(2, FormatUtility.hexToBytes(newGuids.get(i)));
+					statement.executeUpdate();
+				}
+			}
+			
+			for(AnnotationSource source : sources){
+				importSource(source);
+			}
+			
+			if(appendInTransaction){
+				for(AnnotationEvent event : events){
+					eventStore.appendEvent(event);
+				}
+			}
+			
+			if(events.size() > 0){
+				checkpointsRemoved = removeCheckpointsFrom(earliest);
+			}
+			
+			conn.commit();
+		} catch (SQLException | IOException e) {
+			conn.rollback();
+			// Dedupe cache may now refer to rolled back entries
+			bitmapIdByHash = null;
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+		
+		// Only update the in memory lookup once the GUIDs are committed
+		guidIndexLock.writeLock().lock();
+		try {
+			for (int i = 0; i < newGuids.size(); i++) {
+				guidIndexLookup.put(newGuids.get(i), firstNewIndex + i);
+			}
+		} finally {
+			guidIndexLock.writeLock().unlock();
+		}
+		if(!appendInTransaction){
+			for(AnnotationEvent event : events){
+				eventStore.appendEvent(event);
+			}
+		}
+		eventStore.endAppendBatch();
+		return checkpointsRemoved;
+	}
+	
+	/***
+	 * Gets the names of the event types this repository records, which are also the names of their tables in the SQLite store.
+	 * @return The event type names
+	 */
+	String[] getEventTypes(){
+		return eventTableNames.clone();
+	}
+	
+	/***
+	 * Gets the bitmap index assigned to the given GUID.
+	 * @param guid The GUID to look up, with or without dashes
+	 * @return The bitmap index of the GUID or null if this repository has no record of the GUID
+	 */
+	Long getGuidIndex(String guid){
+		guidIndexLock.readLock().lock();
+		try {
+			return guidIndexLookup.get(guid.replace("-", "").toLowerCase());
+		} finally {
+			guidIndexLock.readLock().unlock();
+		}
+	}
+	
+	/***
+	 * Gets the number of GUIDs this repository has assigned a bitmap index to.
+	 * @return Number of indexed GUIDs
+	 */
+	int getGuidIndexSize(){
+		guidIndexLock.readLock().lock();
+		try {
+			return guidIndexLookup.size();
+		} finally {
+			guidIndexLock.readLock().unlock();
+		}
+	}
+	
 	/***
 	 * Convenience method similar to {@link #indexGuids(Collection)} but accepts a collection of
 	 * items and converts that to a list of GUIDs for you before making call to {@link #indexGuids(Collection)}.
@@ -369,25 +986,32 @@ public class AnnotationHistoryRepository implements Closeable{
 	
 	/***
 	 * Given a collection of items, resolves those items to a collection of GUIDs and those GUIDs
-	 * to a collection of bitmap indices
+	 * to an array of bitmap indices
 	 * @param items The items to obtain bitmap indices for
-	 * @return Returns a list of bitmap indices for the provided items
+	 * @return Returns an array of bitmap indices for the provided items, items without an index are omitted
 	 * @throws SQLException If the SQL bits throw an error
 	 */
-	private List<Long> itemsToIndices(Collection<Item> items) throws SQLException{
+	private int[] itemsToIndices(Collection<Item> items) throws SQLException{
 		if(!allItemsPreIndexed){
 			indexItemGuids(items);
 		}
 		
-		List<Long> indices = new ArrayList<Long>();
-		for(Item item : items){
-			Long bitmapIndex = guidIndexLookup.get(item.getGuid().replace("-", "").toLowerCase());
-			if(bitmapIndex == null){
-				logger.error("No index for item with GUID "+item.getGuid());
+		int[] indices = new int[items.size()];
+		int indexCount = 0;
+		guidIndexLock.readLock().lock();
+		try {
+			for(Item item : items){
+				Long bitmapIndex = guidIndexLookup.get(item.getGuid().replace("-", "").toLowerCase());
+				if(bitmapIndex == null){
+					logger.error("No index for item with GUID "+item.getGuid());
+					continue;
+				}
+				indices[indexCount++] = bitmapIndex.intValue();
 			}
-			indices.add(bitmapIndex);
+		} finally {
+			guidIndexLock.readLock().unlock();
 		}
-		return indices;
+		return indexCount == indices.length ? indices : Arrays.copyOf(indices, indexCount);
 	}
 	
 	/***
@@ -400,39 +1024,31 @@ public class AnnotationHistoryRepository implements Closeable{
 	 * @throws SQLException If the SQL bits throw an error
 	 */
 	byte[] dehydrateItemCollection(Collection<Item> items) throws IOException, SQLException{
-		RoaringBitmap bitmap = new RoaringBitmap();
-		List<Long> indices = itemsToIndices(items);
-		for(Long index : indices){
-			bitmap.add(index,index+1);
-		}
-		bitmap.runOptimize();
-		byte[] result = new byte[bitmap.serializedSizeInBytes()];
-		bitmap.serialize(new java.io.DataOutputStream(new java.io.OutputStream() { 
-            int c = 0; 
-            
-            @Override 
-            public void close() {} 
-
-            @Override 
-            public void flush() {} 
-
-            @Override 
-            public void write(int b) { result[c++] = (byte)b; } 
-
-            @Override 
-            public void write(byte[] b) { write(b,0,b.length); } 
-
-            @Override 
-            public void write(byte[] b, int off, int l) { 
-                System.arraycopy(b, off, result, c, l); 
-                c += l; 
-            } 
-        }));
-		return result;
+		return BitmapCodec.serialize(BitmapCodec.fromIndices(itemsToIndices(items)));
+	}
+	
+	/***
+	 * Run optimizes the given bitmap and serializes it to a byte array suitable for storing in the SQLite database.
+	 * @param bitmap The bitmap to serialize
+	 * @return byte array serialization of the bitmap
+	 * @throws IOException If there is an error while serializing bitamp to byte array
+	 */
+	static byte[] serializeBitmap(RoaringBitmap bitmap) throws IOException{
+		return BitmapCodec.serialize(bitmap);
+	}
+	
+	/***
+	 * Deserializes a byte array read from the database into a RoaringBitmap.
+	 * @param bitmapBytes byte array read from database representing bitmap
+	 * @return The deserialized bitmap
+	 * @throws IOException If the deserialization from byte array has an error
+	 */
+	static RoaringBitmap deserializeBitmap(byte[] bitmapBytes) throws IOException{
+		return BitmapCodec.deserialize(bitmapBytes);
 	}
 	
 	/***
-	 * Does all the work of taking a byte array, deserializing it into a RoaringBitmap, extracting a list of bitmap indices
+	 * Does all the work of taking a byte array, viewing it as a bitmap, extracting a list of bitmap indices
 	 * from that bitmap, resolving the indices to GUIDs and running search batches in the Nuix case to obtain a collection
 	 * of the items the bitmap represents.
 	 * @param bitmapBytes byte array read from database representing bitmap
@@ -440,18 +1056,18 @@ public class AnnotationHistoryRepository implements Closeable{
 	 * @throws IOException If the deserialization from byte array has an error
 	 */
 	Collection<Item> rehydrateItemCollection(Case nuixCase, byte[] bitmapBytes) throws IOException{
-		RoaringBitmap bitmap = new RoaringBitmap();
-		try(ByteArrayInputStream inputStream = new ByteArrayInputStream(bitmapBytes)){
-			try(DataInputStream dataStream = new DataInputStream(inputStream)){
-				bitmap.deserialize(dataStream);
-			}
-		}
+		ImmutableRoaringBitmap bitmap = BitmapCodec.view(bitmapBytes);
 
 		Set<String> guids = new HashSet<String>();
-		BiMap<Long,String> indexLookup = guidIndexLookup.inverse();
-		for(long index : bitmap){
-			//logger.info("Index: "+index);
-			guids.add(indexLookup.get(index));
+		guidIndexLock.readLock().lock();
+		try {
+			BiMap<Long,String> indexLookup = guidIndexLookup.inverse();
+			IntIterator indexIterator = bitmap.getIntIterator();
+			while(indexIterator.hasNext()){
+				guids.add(indexLookup.get((long)indexIterator.next()));
+			}
+		} finally {
+			guidIndexLock.readLock().unlock();
 		}
 		
 		Set<Item> items = new HashSet<Item>();
@@ -479,16 +1095,65 @@ public class AnnotationHistoryRepository implements Closeable{
 		return items;
 	}
 	
-	private Connection getConnection() throws SQLException {
-		if(persistentConnection == null){
-			logger.info("Building persistent connection...");
-			String connectionString = String.format("jdbc:sqlite:%s", databaseFile);
-			logger.info("└─ Connection String: "+connectionString);
-			logger.info("└─ Properties:");
-			for(Map.Entry<Object, Object> prop : connectionProperties.entrySet()){
-				logger.info(String.format(" └─ %s: %s",prop.getKey(),prop.getValue()));
-			}
-			persistentConnection = DriverManager.getConnection(connectionString, connectionProperties);
+	/***
+	 * Obtains a connection to perform reads with.  In {@link AnnotationRepositoryAccessMode#SharedRead} mode this is an idle
+	 * read-only connection from the pool, opening a new one if fewer than the pool size are open and otherwise waiting for
+	 * one to be released.  In exclusive mode this is the persistent connection.  Must be followed by a call to
+	 * {@link #releaseReadConnection(Connection)}.
+	 * @return A connection to read from
+	 * @throws SQLException If the SQL bits throw an error or no read connection becomes available
+	 */
+	Connection borrowReadConnection() throws SQLException {
+		if(accessMode != AnnotationRepositoryAccessMode.SharedRead){
+			return getConnection();
+		}
+		
+		Connection conn = idleReadConnections.poll();
+		if(conn != null){
+			return conn;
+		}
+		
+		synchronized(readConnections){
+			if(readConnections.size() < readConnectionPoolSize){
+				String connectionString = String.format("jdbc:sqlite:%s", databaseFile);
+				logger.info(String.format("Opening read connection %s of %s...", readConnections.size()+1, readConnectionPoolSize));
+				conn = DriverManager.getConnection(connectionString, readConnectionProperties);
+				readConnections.add(conn);
+				return conn;
+			}
+		}
+		
+		try {
+			conn = idleReadConnections.poll(busyTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new SQLException("Interrupted while waiting for a read connection", e);
+		}
+		if(conn == null){
+			throw new SQLException(String.format("No read connection became available within %s ms", busyTimeoutMillis));
+		}
+		return conn;
+	}
+	
+	/***
+	 * Returns a connection obtained from {@link #borrowReadConnection()} to the pool.
+	 * @param conn The connection to release
+	 */
+	void releaseReadConnection(Connection conn) {
+		if(accessMode == AnnotationRepositoryAccessMode.SharedRead){
+			idleReadConnections.offer(conn);
+		}
+	}
+	
+	private Connection getConnection() throws SQLException {
+		if(persistentConnection == null){
+			logger.info("Building persistent connection...");
+			String connectionString = String.format("jdbc:sqlite:%s", databaseFile);
+			logger.info("└─ Connection String: "+connectionString);
+			logger.info("└─ Properties:");
+			for(Map.Entry<Object, Object> prop : connectionProperties.entrySet()){
+				logger.info(String.format(" └─ %s: %s",prop.getKey(),prop.getValue()));
+			}
+			persistentConnection = DriverManager.getConnection(connectionString, connectionProperties);
 		}
 		return persistentConnection;
 	}
@@ -642,7 +1307,8 @@ public class AnnotationHistoryRepository implements Closeable{
 	 * Executes a query which is expected to return row data, providing the result set to the provided callback.
 	 * @param sql The SQL query to execute
 	 * @param data Optional list of associated data, can be null
-	 * @param resultConsumer Callback which will be provided the result set.  This is where you provide code to make use of the results.
+	 * @param resultConsumer Callback which will be provided the result set.  This is where you provide code to make use of the results.  A SQLException
+	 * encountered by the callback can be thrown wrapped in a {@link ResultSetCallbackException}, it is rethrown unwrapped by this method.
 	 * @throws SQLException If the SQL bits throw an error
 	 */
 	public void executeQuery(String sql, List<Object> data, Consumer<ResultSet> resultConsumer) throws SQLException{
@@ -651,32 +1317,70 @@ public class AnnotationHistoryRepository implements Closeable{
 			if(data != null){ bindData(statement,data); }
 			try(ResultSet resultSet = statement.executeQuery()){
 				resultConsumer.accept(resultSet);	
+			} catch (ResultSetCallbackException e) {
+				throw e.getCause();
 			}
 		}
 	}
 	
+	/***
+	 * Executes a query which is expected to return row data, like {@link #executeQuery(String, List, Consumer)}, but using a
+	 * read connection so that in {@link AnnotationRepositoryAccessMode#SharedRead} mode it does not contend with writes.
+	 * @param sql The SQL query to execute
+	 * @param data Optional list of associated data, can be null
+	 * @param resultConsumer Callback which will be provided the result set.  This is where you provide code to make use of the results.  A SQLException
+	 * encountered by the callback can be thrown wrapped in a {@link ResultSetCallbackException}, it is rethrown unwrapped by this method.
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void executeReadQuery(String sql, List<Object> data, Consumer<ResultSet> resultConsumer) throws SQLException{
+		Connection conn = borrowReadConnection();
+		try(PreparedStatement statement = conn.prepareStatement(sql)){
+			if(data != null){ bindData(statement,data); }
+			try(ResultSet resultSet = statement.executeQuery()){
+				resultConsumer.accept(resultSet);	
+			} catch (ResultSetCallbackException e) {
+				throw e.getCause();
+			}
+		} finally {
+			releaseReadConnection(conn);
+		}
+	}
+	
+	public Long executeReadLongScalar(String sql, Object ...data) throws SQLException{
+		Connection conn = borrowReadConnection();
+		try(PreparedStatement statement = conn.prepareStatement(sql)){
+			if(data != null){ bindData(statement,data); }
+			try(ResultSet resultSet = statement.executeQuery()){
+				return resultSet.getLong(1);	
+			}
+		} finally {
+			releaseReadConnection(conn);
+		}
+	}
+	
 	/***
 	 * Returns the total number of event entries in the database file
 	 * @return Total event row count
 	 * @throws SQLException If the SQL bits throw an error
 	 */
-	public long getTotalEventCount() throws SQLException{
+	public long getTotalEventCount() throws SQLException, IOException{
 		long sum = 0;
 		
-		long tagEventCount = executeLongScalar("SELECT COUNT(*) FROM TagEvent");
-		sum += tagEventCount;
+		for (int i = 0; i < eventTableNames.length; i++) {
+			sum += eventStore.getEventCount(eventTableNames[i]);
+		}
 		
 		return sum;
 	}
 	
-	public DateTime calculateLastDbEventStart() throws SQLException{
+	public DateTime calculateLastDbEventStart() throws SQLException, IOException{
 		long dbLastTimeStamp = 0;
-		long lastDbTagEvent = executeLongScalar("SELECT MAX(TimeStamp) FROM TagEvent");
-		long lastCustomMetadataEvent = executeLongScalar("SELECT MAX(TimeStamp) FROM CustomMetadataEvent");
-		long lastItemSetEvent = executeLongScalar("SELECT MAX(TimeStamp) FROM ItemSetEvent");
-		long lastExclusionEvent = executeLongScalar("SELECT MAX(TimeStamp) FROM ExclusionEvent");
-		long lastCustodianEvent = executeLongScalar("SELECT MAX(TimeStamp) FROM CustodianEvent");
-		long lastProductionSetEvent = executeLongScalar("SELECT MAX(TimeStamp) FROM ProductionSetEvent");
+		long lastDbTagEvent = eventStore.getLastTimeStamp("TagEvent");
+		long lastCustomMetadataEvent = eventStore.getLastTimeStamp("CustomMetadataEvent");
+		long lastItemSetEvent = eventStore.getLastTimeStamp("ItemSetEvent");
+		long lastExclusionEvent = eventStore.getLastTimeStamp("ExclusionEvent");
+		long lastCustodianEvent = eventStore.getLastTimeStamp("CustodianEvent");
+		long lastProductionSetEvent = eventStore.getLastTimeStamp("ProductionSetEvent");
 		long syncPoint = getIntegerInfo("SyncPointTimeStamp");
 		
 		if(lastDbTagEvent > dbLastTimeStamp){ dbLastTimeStamp = lastDbTagEvent; }
@@ -694,14 +1398,18 @@ public class AnnotationHistoryRepository implements Closeable{
 	/***
 	 * Records annotation event data to the database file.
 	 * 
-	 * If there are 0 events currently recorded and snap shot on first sync
+	 * A repository may record events from more than one source case, all of which share the same GUID index.  Each event is tagged
+	 * with the ID of the source it was synced from and each source keeps its own watermark, see {@link AnnotationSource}.  A case
+	 * which has not been synced from before is registered as a new source, see {@link #registerSource(Case, int)}.
+	 * 
+	 * If there are 0 events currently recorded from the given case and snap shot on first sync
 	 * is enabled (see {@link #setSnapshotFirstSync(boolean)}, true is the default) then this will attempt to make a compacted
 	 * representation of the state of the annotations in the case.  Otherwise this method will iterate every single history event
 	 * in the case and record it in the database.
 	 * 
-	 * If the database already contains event entries, instead this method will determine the latest event started date and then
-	 * query the Nuix case history for all further events started after that point, effectively obtaining and recording all new
-	 * event history entries not yet recorded in this database.
+	 * If the database already contains event entries from the given case, instead this method will determine the latest event started
+	 * date of that case and then query the Nuix case history for all further events started after that point, effectively obtaining
+	 * and recording all new event history entries not yet recorded in this database.
 	 * 
 	 * @param nuixCase The case to record history events from
 	 * @param settings The settings which determine how the sync is performed
@@ -713,11 +1421,31 @@ public class AnnotationHistoryRepository implements Closeable{
 			settings = new AnnotationSyncSettings();
 		}
 		
+		syncingSource = findOrRegisterSource(nuixCase, null);
+		syncingSourceLastEventTimeStamp = syncingSource.lastEventTimeStamp;
+		syncingEarliestAppendedTimeStamp = Long.MAX_VALUE;
+		try {
+			syncSourceHistory(nuixCase, settings);
+		} finally {
+			// A failed sync may still have appended events which predate existing checkpoints
+			if(syncingEarliestAppendedTimeStamp < Long.MAX_VALUE){
+				removeCheckpointsFrom(syncingEarliestAppendedTimeStamp);
+				syncingEarliestAppendedTimeStamp = Long.MAX_VALUE;
+			}
+			// Events appended before a failure are already recorded, so the watermark advances even when the sync does not complete
+			if(syncingSourceLastEventTimeStamp > syncingSource.lastEventTimeStamp){
+				executeUpdate("UPDATE Source SET LastEventTimeStamp = ? WHERE SourceId = ?",syncingSourceLastEventTimeStamp,syncingSource.sourceId);
+			}
+			syncingSource = null;
+		}
+	}
+	
+	private void syncSourceHistory(Case nuixCase, AnnotationSyncSettings settings) throws IOException, SQLException{
 		logger.info(String.format("Begging sync of case: %s", nuixCase.getLocation().getPath()));
 		logger.info("Settings: ");
 		logger.info(settings.buildSettingsSummary());
 		
-		boolean indicesDropped = false;
+		boolean appendBatchStarted = false;
 		boolean snapshotTaken = false;
 		
 		allItemsPreIndexed = false;
@@ -728,15 +1456,23 @@ public class AnnotationHistoryRepository implements Closeable{
 		long totalHistoryRecordMillis = 0;
 		long totalHistoryEventsRecorded = 0;
 		
-		DateTime lastDbEventStart = calculateLastDbEventStart();
-		
 		if(getTotalEventCount() < 1){
 			// Record info about the case we are syncing from
 			setTextInfo("SourceCaseName", nuixCase.getName());
 			setTextInfo("SourceCaseLocation", nuixCase.getLocation().getAbsolutePath());
 		}
 		
-		if(snapshotFirstSync && getTotalEventCount() < 1){
+		// Each source case has its own watermark, events of other sources recorded since have no bearing on where
+		// this case's history should resume from
+		long sourceWatermark = Math.max(syncingSource.lastEventTimeStamp, syncingSource.syncPointTimeStamp);
+		if(syncingSource.sourceId == 0){
+			// Repository wide sync point predates multiple sources and so applies to the first source
+			sourceWatermark = Math.max(sourceWatermark, getIntegerInfo("SyncPointTimeStamp"));
+		}
+		DateTime lastDbEventStart = new DateTime(sourceWatermark);
+		logger.info(String.format("Syncing as %s", syncingSource));
+		
+		if(snapshotFirstSync && syncingSource.lastEventTimeStamp < 1){
 			createInitialStateSnapshot(nuixCase,settings);
 			snapshotTaken = true;
 			settings.setSyncTagEvents(false);
@@ -764,17 +1500,11 @@ public class AnnotationHistoryRepository implements Closeable{
 				lastProgressUpdate = System.currentTimeMillis();
 			}
 			
-			if(!indicesDropped){
-				// More efficient to rebuild indices from scratch than it is
-				// to update them as data is inserted
-				for (int i = 0; i < eventTableNames.length; i++) {
-					String tableName = eventTableNames[i];
-					logger.info(String.format("Dropping %s TimeStamp index...",tableName));
-					String indexSql = String.format("DROP INDEX IF EXISTS IDX_TimeStamp_%s", tableName);
-					executeUpdate(indexSql);
-				}
-				
-				indicesDropped = true;
+			if(!appendBatchStarted){
+				// Allows the event store to prepare for a large number of appends, for example the SQLite
+				// store drops indices which are more efficient to rebuild than to update as data is inserted
+				eventStore.beginAppendBatch();
+				appendBatchStarted = true;
 			}
 
 			Map<String,Object> details = event.getDetails();
@@ -829,14 +1559,66 @@ public class AnnotationHistoryRepository implements Closeable{
 			logger.info(String.format("Average Event Record Time: %s ms", 0));	
 		}
 		
-		if(indicesDropped){
-			// Now that were done inserting, lets get those indexes back up
-			for (int i = 0; i < eventTableNames.length; i++) {
-				String tableName = eventTableNames[i];
-				logger.info(String.format("Building %s TimeStamp index...",tableName));
-				String indexSql = String.format("CREATE INDEX IF NOT EXISTS IDX_TimeStamp_%s ON %s (TimeStamp)", tableName, tableName);
-				executeUpdate(indexSql);
+		// Events of this source may be appended with time stamps before checkpoints taken since its last sync, for example
+		// ones created after syncing another source, those checkpoints would otherwise seed plans which miss these events
+		if(syncingEarliestAppendedTimeStamp < Long.MAX_VALUE){
+			int checkpointsRemoved = removeCheckpointsFrom(syncingEarliestAppendedTimeStamp);
+			if(checkpointsRemoved > 0){
+				logger.info(String.format("Removed %s checkpoints taken on or after %s", checkpointsRemoved, new DateTime(syncingEarliestAppendedTimeStamp)));
 			}
+			syncingEarliestAppendedTimeStamp = Long.MAX_VALUE;
+		}
+		
+		// Finishing the batch rebuilds any dropped indices and makes all recorded events durable, this is
+		// done even when no batch was started since a first sync snapshot may have appended events
+		eventStore.endAppendBatch();
+		
+		// Checkpoints are only created once the sync has finished, history events recorded after a first sync snapshot
+		// may have time stamps earlier than the snapshot which would otherwise land before the checkpoint
+		if(checkpointInterval > 0 && getEventCountSinceCheckpoint() >= checkpointInterval){
+			createCheckpoint();
+		}
+	}
+	
+	/***
+	 * Appends an event recorded from the source case being synced, tagging it with the ID of that source.
+	 * @param event The event to append
+	 * @throws IOException If the event store has an error writing the event
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	private void appendEvent(AnnotationEvent event) throws IOException, SQLException {
+		event.sourceId = syncingSource.sourceId;
+		eventStore.appendEvent(event);
+		if(event.timeStampMillis > syncingSourceLastEventTimeStamp){
+			syncingSourceLastEventTimeStamp = event.timeStampMillis;
+		}
+		if(event.timeStampMillis < syncingEarliestAppendedTimeStamp){
+			syncingEarliestAppendedTimeStamp = event.timeStampMillis;
+		}
+	}
+	
+	/***
+	 * Removes the checkpoints taken at or after the given time stamp, along with their state entries.  Once events with earlier
+	 * time stamps have been appended those checkpoints no longer reflect the full history.  When called outside of a transaction
+	 * both tables are updated in a transaction of their own.
+	 * @param timeStamp Time stamp (in milliseconds) of the earliest appended event
+	 * @return The number of checkpoints removed
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	private int removeCheckpointsFrom(long timeStamp) throws SQLException{
+		Connection conn = getConnection();
+		boolean ownTransaction = conn.getAutoCommit();
+		if(ownTransaction){ conn.setAutoCommit(false); }
+		try {
+			executeUpdate("DELETE FROM CheckpointState WHERE CheckpointId IN (SELECT CheckpointId FROM Checkpoint WHERE TimeStamp >= ?)",timeStamp);
+			int removed = executeUpdate("DELETE FROM Checkpoint WHERE TimeStamp >= ?",timeStamp);
+			if(ownTransaction){ conn.commit(); }
+			return removed;
+		} catch (SQLException e) {
+			if(ownTransaction){ conn.rollback(); }
+			throw e;
+		} finally {
+			if(ownTransaction){ conn.setAutoCommit(true); }
 		}
 	}
 	
@@ -883,14 +1665,14 @@ public class AnnotationHistoryRepository implements Closeable{
 			}
 		}
 		
-		List<Object> data = new ArrayList<Object>();
-		data.add(event.getStartDate().getMillis()); //TimeStamp
-		data.add(added);
-		data.add(created);
-		data.add(productionSetSettings);
-		data.add(productionSetName);
-		data.add(serializedItemBitmap);
-		data.add(items.size());
+		ProductionSetEvent productionSetEvent = new ProductionSetEvent();
+		productionSetEvent.setTimeStamp(event.getStartDate());
+		productionSetEvent.added = added;
+		productionSetEvent.created = created;
+		productionSetEvent.settingsJsonString = productionSetSettings;
+		productionSetEvent.productionSetName = productionSetName;
+		productionSetEvent.bitmapBytes = serializedItemBitmap;
+		productionSetEvent.itemCount = items.size();
 		
 		if(created){
 			logger.info(String.format("Recording creation of production set '%s' with settings:\n%s",
@@ -905,7 +1687,7 @@ public class AnnotationHistoryRepository implements Closeable{
 			}
 		}
 		
-		executeInsert(sqlInsertProductionSetEvent,data);
+		appendEvent(productionSetEvent);
 	}
 
 	private void recordCustodianEvent(Case nuixCase, HistoryEvent event, Map<String, Object> details) throws IOException, SQLException{
@@ -915,12 +1697,12 @@ public class AnnotationHistoryRepository implements Closeable{
 		boolean assigned = (boolean) details.get("assigned");
 		String custodian = (String) details.get("custodian");
 		
-		List<Object> data = new ArrayList<Object>();
-		data.add(event.getStartDate().getMillis()); //TimeStamp
-		data.add(assigned);
-		data.add(custodian);
-		data.add(serializedItemBitmap);
-		data.add(items.size());
+		CustodianEvent custodianEvent = new CustodianEvent();
+		custodianEvent.setTimeStamp(event.getStartDate());
+		custodianEvent.assigned = assigned;
+		custodianEvent.custodian = custodian;
+		custodianEvent.bitmapBytes = serializedItemBitmap;
+		custodianEvent.itemCount = items.size();
 		
 		if(assigned){
 			logger.info(String.format("Recording assign custodian '%s' to %s items",
@@ -930,7 +1712,7 @@ public class AnnotationHistoryRepository implements Closeable{
 					items.size()));
 		}
 		
-		executeInsert(sqlInsertCustodianEvent,data);
+		appendEvent(custodianEvent);
 	}
 	
 	private void recordExclusionEvent(Case nuixCase, HistoryEvent event, Map<String, Object> details) throws IOException, SQLException {
@@ -940,12 +1722,12 @@ public class AnnotationHistoryRepository implements Closeable{
 		boolean excluded = (boolean) details.get("excluded");
 		String exclusionName = (String) details.get("exclusion");
 		
-		List<Object> data = new ArrayList<Object>();
-		data.add(event.getStartDate().getMillis()); //TimeStamp
-		data.add(excluded);
-		data.add(exclusionName);
-		data.add(serializedItemBitmap);
-		data.add(items.size());
+		ExclusionEvent exclusionEvent = new ExclusionEvent();
+		exclusionEvent.setTimeStamp(event.getStartDate());
+		exclusionEvent.excluded = excluded;
+		exclusionEvent.exclusionName = exclusionName;
+		exclusionEvent.bitmapBytes = serializedItemBitmap;
+		exclusionEvent.itemCount = items.size();
 		
 		if(excluded){
 			logger.info(String.format("Recording exclude items as '%s' event on %s items",
@@ -955,7 +1737,7 @@ public class AnnotationHistoryRepository implements Closeable{
 					items.size()));
 		}
 		
-		executeInsert(sqlInsertExclusionEvent,data);
+		appendEvent(exclusionEvent);
 	}
 
 	private void recordItemSetEvent(Case nuixCase, HistoryEvent event, Map<String, Object> details)
@@ -984,19 +1766,19 @@ public class AnnotationHistoryRepository implements Closeable{
 		gson = gsonBuilder.create();
 		String itemSetSettingsJson = gson.toJson(settingsToSerialize);
 		
-		List<Object> data = new ArrayList<Object>();
-		data.add(event.getStartDate().getMillis()); //TimeStamp
-		data.add(added);
+		ItemSetEvent itemSetEvent = new ItemSetEvent();
+		itemSetEvent.setTimeStamp(event.getStartDate());
+		itemSetEvent.added = added;
 		if(added){
-			data.add(itemSetSettingsJson);
+			itemSetEvent.settings = itemSetSettingsJson;
 		} else {
-			data.add("{}");
+			itemSetEvent.settings = "{}";
 		}
-		data.add(itemSetName);
-		data.add(batchName);
-		data.add(description);
-		data.add(serializedItemBitmap);
-		data.add(items.size());
+		itemSetEvent.itemSetName = itemSetName;
+		itemSetEvent.batchName = batchName;
+		itemSetEvent.description = description;
+		itemSetEvent.bitmapBytes = serializedItemBitmap;
+		itemSetEvent.itemCount = items.size();
 		
 		if(added){
 			logger.info(String.format("Recording add %s items to item set '%s', batch '%s'",
@@ -1006,7 +1788,7 @@ public class AnnotationHistoryRepository implements Closeable{
 					items.size(),itemSetName));
 		}
 		
-		executeInsert(sqlInsertItemSetEvent,data);
+		appendEvent(itemSetEvent);
 	}
 
 	private void recordCustomMetadataEvent(Case nuixCase, HistoryEvent event, Map<String, Object> details)
@@ -1015,70 +1797,42 @@ public class AnnotationHistoryRepository implements Closeable{
 		byte[] serializedItemBitmap = dehydrateItemCollection(items);
 		String fieldName = (String)details.get("fieldName");
 		
-		List<Object> data = new ArrayList<Object>();
-		data.add(event.getStartDate().getMillis()); //TimeStamp
+		CustomMetadataEvent cmEvent = new CustomMetadataEvent();
+		cmEvent.setTimeStamp(event.getStartDate());
+		cmEvent.fieldName = fieldName;
+		cmEvent.bitmapBytes = serializedItemBitmap;
+		cmEvent.itemCount = items.size();
 		
 		if(details.get("type") != null){
 			//Add event
-			data.add(true); //Added
-			data.add(fieldName); //FieldName
+			cmEvent.added = true;
 			String valueType = (String)details.get("type"); 
-			data.add(valueType); //ValueType
+			cmEvent.valueType = valueType;
 			
 			Object value = details.get("value");
 			if(valueType.contentEquals("date-time")){
 				DateTime valueDateTime = (DateTime)value;
-				data.add(valueDateTime.getZone().getID()); //ValueTimeZone
-				data.add(valueDateTime.getMillis()); //ValueInteger
-				data.add(null); //ValueFloat
-				data.add(null); //ValueText
-				data.add(null); //ValueBinary
+				cmEvent.valueTimeZone = valueDateTime.getZone().getID();
+				cmEvent.valueLong = valueDateTime.getMillis();
 			} else if(valueType.contentEquals("integer") || valueType.contentEquals("long")){
-				data.add(null); //ValueTimeZone
-				data.add(value); //ValueInteger
-				data.add(null); //ValueFloat
-				data.add(null); //ValueText
-				data.add(null); //ValueBinary
+				cmEvent.valueLong = ((Number)value).longValue();
 			} else if(valueType.contentEquals("float")){
-				data.add(null); //ValueTimeZone
-				data.add(null); //ValueInteger
-				data.add((Double)value); //ValueFloat
-				data.add(null); //ValueText
-				data.add(null); //ValueBinary
+				cmEvent.valueFloat = (Double)value;
 			} else if(valueType.contentEquals("binary")){
-				data.add(null); //ValueTimeZone
-				data.add(null); //ValueInteger
-				data.add(null); //ValueFloat
-				data.add(null); //ValueText
-				data.add((byte[])value); //ValueBinary
+				cmEvent.valueBinary = (byte[])value;
 			} else {
-				data.add(null); //ValueTimeZone
-				data.add(null); //ValueInteger
-				data.add(null); //ValueFloat
-				data.add(FormatUtility.getInstance().convertToString(value)); //ValueText
-				data.add(null); //ValueBinary
+				cmEvent.valueText = FormatUtility.getInstance().convertToString(value);
 			}
-			data.add(serializedItemBitmap);
-			data.add(items.size());
 			
 			logger.info(String.format("Recording add custom metadata %s on %s items", fieldName, items.size()));
 		} else {
 			//Remove event
-			data.add(false); //Added
-			data.add((String)details.get("fieldName")); //FieldName
-			data.add(null); //ValueType
-			data.add(null); //ValueTimeZone
-			data.add(null); //ValueInteger
-			data.add(null); //ValueFloat
-			data.add(null); //ValueText
-			data.add(null); //ValueBinary
-			data.add(serializedItemBitmap);
-			data.add(items.size());
+			cmEvent.added = false;
 			
 			logger.info(String.format("Recording remove custom metadata %s on %s items", fieldName, items.size()));
 		}
 		
-		executeInsert(sqlInsertCustomMetadataEvent,data);
+		appendEvent(cmEvent);
 	}
 
 	private void recordTagEvent(HistoryEvent event, Map<String, Object> details) throws IOException, SQLException {
@@ -1089,20 +1843,19 @@ public class AnnotationHistoryRepository implements Closeable{
 		if(added){ logger.info(String.format("Recording add tag event: %s on %s items", tag, items.size())); }
 		else{ logger.info(String.format("Recording remove tag event: %s on %s items", tag, items.size())); }
 		
-		byte[] serializedItemBitmap = dehydrateItemCollection(items);
-		List<Object> data = new ArrayList<Object>();
-		data.add(event.getStartDate().getMillis());
-		data.add(tag);
-		data.add(added);
-		data.add(serializedItemBitmap);
-		data.add(items.size());
+		TagEvent tagEvent = new TagEvent();
+		tagEvent.setTimeStamp(event.getStartDate());
+		tagEvent.tag = tag;
+		tagEvent.added = added;
+		tagEvent.bitmapBytes = dehydrateItemCollection(items);
+		tagEvent.itemCount = items.size();
 		
-		executeInsert(sqlInsertTagEvent,data);
+		appendEvent(tagEvent);
 	}
 	
 	private void createInitialStateSnapshot(Case nuixCase, AnnotationSyncSettings settings) throws IOException, SQLException{
 		logger.info("Creating initial tag state snapshot...");
-		long snapshotTimestamp = DateTime.now().getMillis();
+		DateTime snapshotTime = DateTime.now();
 		
 		if(settings.getSyncTagEvents()){
 			// Snapshot tag states
@@ -1113,14 +1866,13 @@ public class AnnotationHistoryRepository implements Closeable{
 				String query = String.format("tag:\"%s\"", tag);
 				Set<Item> items = nuixCase.searchUnsorted(query);
 				logger.info(String.format("(%s/%s) Recording snapshot of tag '%s' for %s items",tagIndex,tags.size(),tag,items.size()));
-				byte[] serializeItemBitmap = dehydrateItemCollection(items);
-				List<Object> data = new ArrayList<Object>();
-				data.add(snapshotTimestamp);
-				data.add(tag);
-				data.add(true);
-				data.add(serializeItemBitmap);
-				data.add(items.size());
-				executeInsert(sqlInsertTagEvent,data);
+				TagEvent tagEvent = new TagEvent();
+				tagEvent.setTimeStamp(snapshotTime);
+				tagEvent.tag = tag;
+				tagEvent.added = true;
+				tagEvent.bitmapBytes = dehydrateItemCollection(items);
+				tagEvent.itemCount = items.size();
+				appendEvent(tagEvent);
 			}
 		}
 		
@@ -1135,216 +1887,754 @@ public class AnnotationHistoryRepository implements Closeable{
 				logger.info(String.format("(%s/%s) Recording snapshot of custodian '%s' for %s items",custodianIndex,
 						custodians.size(),custodian,items.size()));
 				
-				byte[] serializedItemBitmap = dehydrateItemCollection(items);
-				
-				List<Object> data = new ArrayList<Object>();
-				data.add(snapshotTimestamp); //TimeStamp
-				data.add(true);
-				data.add(custodian);
-				data.add(serializedItemBitmap);
-				data.add(items.size());
-				executeInsert(sqlInsertCustodianEvent,data);
+				CustodianEvent custodianEvent = new CustodianEvent();
+				custodianEvent.setTimeStamp(snapshotTime);
+				custodianEvent.assigned = true;
+				custodianEvent.custodian = custodian;
+				custodianEvent.bitmapBytes = dehydrateItemCollection(items);
+				custodianEvent.itemCount = items.size();
+				appendEvent(custodianEvent);
 			}
 		}
 	}
 	
-	public void eachRecordedTagEvent(long startedAfter, Consumer<TagEvent> callback) throws SQLException{
-		List<Object> data = new ArrayList<Object>();
-		data.add(startedAfter);
-		
-		//Tag event retrieval
-		executeQuery(sqlSelectFromTagEvent,data,rs ->{
-			try {
-				while(rs.next()){
-					TagEvent event = new TagEvent();
-					long timeStampMillis = rs.getLong(1);
-					DateTime timeStamp = new DateTime(timeStampMillis);
-					event.sourceRepo = this;
-					event.timeStamp = timeStamp;
-					event.tag = rs.getString(2);
-					event.added = rs.getBoolean(3);
-					event.bitmapBytes = rs.getBytes(4);
-					event.itemCount = rs.getInt(5);
-					
-					callback.accept(event);
-				}
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	/***
+	 * Parses the settings JSON recorded with a production set event.
+	 * @param settingsJsonString The recorded settings JSON
+	 * @return Map of the settings, null if settingsJsonString is null
+	 */
+	static Map<String,Object> parseProductionSetSettings(String settingsJsonString){
+		return settingsGson.fromJson(settingsJsonString, settingsType);
+	}
+	
+	/***
+	 * Iterates the events recorded in the given table with a time stamp in the range (startedAfter, startedOnOrBefore].
+	 * @param tableName Name of the event table to iterate
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are provided
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are provided
+	 * @param callback Callback which will be provided each event
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error reading events
+	 */
+	void eachRecordedEvent(String tableName, long startedAfter, long startedOnOrBefore, Consumer<AnnotationEvent> callback) throws SQLException, IOException{
+		eventStore.eachEvent(tableName, startedAfter, startedOnOrBefore, callback);
+	}
+	
+	/***
+	 * Loads a single recorded event by the rowid of its row in the given event table.
+	 * @param tableName Name of the event table the event was recorded in
+	 * @param rowId The rowid of the event row
+	 * @return The recorded event or null if no such row exists
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error reading the event
+	 */
+	AnnotationEvent loadRecordedEvent(String tableName, long rowId) throws SQLException, IOException{
+		return eventStore.loadEvent(tableName, rowId);
+	}
+	
+	/***
+	 * Opens a cursor over the recorded events of every type with a time stamp in the range (startedAfter, startedOnOrBefore],
+	 * merged into a single time stamp order.  Rather than iterating each event type separately and sorting the results, the
+	 * cursor merges the already ordered events of each type as it goes.  The cursor must be closed once no longer needed.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are provided
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are provided
+	 * @return A cursor over the matching events
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error reading events
+	 */
+	public EventCursor openEventCursor(long startedAfter, long startedOnOrBefore) throws SQLException, IOException{
+		return eventStore.openCursor(startedAfter, startedOnOrBefore, eventTableNames);
+	}
+	
+	/***
+	 * Counts the recorded events of every type with a time stamp in the range (startedAfter, startedOnOrBefore] and totals the items
+	 * they recorded, without decoding the events, see {@link AnnotationEventStore#countEventsAndItems(String, long, long)}.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are counted
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are counted
+	 * @return Two element array of the number of events followed by the total number of items
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error reading events
+	 */
+	long[] countEventsAndItems(long startedAfter, long startedOnOrBefore) throws SQLException, IOException{
+		long[] result = new long[2];
+		for (int i = 0; i < eventTableNames.length; i++) {
+			long[] counts = eventStore.countEventsAndItems(eventTableNames[i], startedAfter, startedOnOrBefore);
+			result[0] += counts[0];
+			result[1] += counts[1];
+		}
+		return result;
+	}
+	
+	/***
+	 * Opens a cursor over the recorded events of the given types with a time stamp in the range (startedAfter, startedOnOrBefore],
+	 * merged into a single time stamp order.  The cursor must be closed once no longer needed.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are provided
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are provided
+	 * @param eventTypes The event types to include, for example "TagEvent" and "CustodianEvent"
+	 * @return A cursor over the matching events
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error reading events
+	 */
+	public EventCursor openEventCursor(long startedAfter, long startedOnOrBefore, String... eventTypes) throws SQLException, IOException{
+		return eventStore.openCursor(startedAfter, startedOnOrBefore, eventTypes);
+	}
+	
+	/***
+	 * Iterates the recorded events of every type started after the given time stamp, in time stamp order.
+	 * See {@link #openEventCursor(long, long)}.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are provided
+	 * @param callback Callback which will be provided each event
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error reading events
+	 */
+	public void eachRecordedEvent(long startedAfter, Consumer<AnnotationEvent> callback) throws SQLException, IOException{
+		try(EventCursor cursor = openEventCursor(startedAfter, Long.MAX_VALUE)){
+			while(cursor.next()){
+				callback.accept(cursor.getEvent());
 			}
-		});
+		}
+	}
+	
+	public void eachRecordedEvent(DateTime startedAfter, Consumer<AnnotationEvent> callback) throws SQLException, IOException{
+		eachRecordedEvent(startedAfter.getMillis(),callback);
 	}
 	
-	public void eachRecordedTagEvent(DateTime startedAfter, Consumer<TagEvent> callback) throws SQLException{
+	public void eachRecordedTagEvent(long startedAfter, Consumer<TagEvent> callback) throws SQLException, IOException{
+		// Tag events started at startedAfter are included
+		eachRecordedEvent("TagEvent", startedAfter - 1, Long.MAX_VALUE, event -> callback.accept((TagEvent)event));
+	}
+	
+	public void eachRecordedTagEvent(DateTime startedAfter, Consumer<TagEvent> callback) throws SQLException, IOException{
 		eachRecordedTagEvent(startedAfter.getMillis(),callback);
 	}
 	
-	public void eachRecordedExclusionEvent(long startedAfter, Consumer<ExclusionEvent> callback) throws SQLException{
-		List<Object> data = new ArrayList<Object>();
-		data.add(startedAfter);
-		
-		executeQuery(sqlSelectFromExclusionEvent,data,rs -> {
-			try {
-				while(rs.next()){
-					long timeStampMillis = rs.getLong(1);
-					DateTime timeStamp = new DateTime(timeStampMillis);
-					ExclusionEvent event = new ExclusionEvent();
-					event.sourceRepo = this;
-					event.timeStamp = timeStamp;
-					event.excluded = rs.getBoolean(2);
-					event.exclusionName = rs.getString(3);
-					event.bitmapBytes = rs.getBytes(4);
-					event.itemCount = rs.getInt(5);
-					
-					callback.accept(event);
-				}
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		});
+	public void eachRecordedExclusionEvent(long startedAfter, Consumer<ExclusionEvent> callback) throws SQLException, IOException{
+		eachRecordedEvent("ExclusionEvent", startedAfter, Long.MAX_VALUE, event -> callback.accept((ExclusionEvent)event));
 	}
 	
-	public void eachRecordedExclusionEvent(DateTime startedAfter, Consumer<ExclusionEvent> callback) throws SQLException{
+	public void eachRecordedExclusionEvent(DateTime startedAfter, Consumer<ExclusionEvent> callback) throws SQLException, IOException{
 		eachRecordedExclusionEvent(startedAfter.getMillis(),callback);
 	}
 	
-	public void eachRecordedCustomMetadataEvent(long startedAfter, Consumer<CustomMetadataEvent> callback) throws SQLException{
-		List<Object> data = new ArrayList<Object>();
-		data.add(startedAfter);
-		
-		//Custom meta data event retrieval
-		executeQuery(sqlSelectFromCustomMetadataEvent,data,rs ->{
-			try {
-				while(rs.next()){
-					long timeStampMillis = rs.getLong(1);
-					DateTime timeStamp = new DateTime(timeStampMillis);
-					CustomMetadataEvent event = new CustomMetadataEvent();
-					event.sourceRepo = this;
-					event.timeStamp = timeStamp;
-					event.added = rs.getBoolean(2);
-					event.fieldName = rs.getString(3);
-					event.valueType = rs.getString(4);
-					event.valueTimeZone = rs.getString(5);
-					event.valueLong = rs.getLong(6);
-					event.valueFloat = rs.getDouble(7);
-					event.valueText = rs.getString(8);
-					event.valueBinary = rs.getBytes(9);
-					event.bitmapBytes = rs.getBytes(10);
-					event.itemCount = rs.getInt(11);
-					callback.accept(event);
-				}
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		});
+	public void eachRecordedCustomMetadataEvent(long startedAfter, Consumer<CustomMetadataEvent> callback) throws SQLException, IOException{
+		// Custom metadata events started at startedAfter are included
+		eachRecordedEvent("CustomMetadataEvent", startedAfter - 1, Long.MAX_VALUE, event -> callback.accept((CustomMetadataEvent)event));
 	}
 	
-	public void eachRecordedCustomMetadataEvent(DateTime startedAfter, Consumer<CustomMetadataEvent> callback) throws SQLException{
+	public void eachRecordedCustomMetadataEvent(DateTime startedAfter, Consumer<CustomMetadataEvent> callback) throws SQLException, IOException{
 		eachRecordedCustomMetadataEvent(startedAfter.getMillis(),callback);
 	}
 	
-	public void eachRecordedItemSetEvent(long startedAfter, Consumer<ItemSetEvent> callback) throws SQLException{
-		List<Object> data = new ArrayList<Object>();
-		data.add(startedAfter);
+	public void eachRecordedItemSetEvent(long startedAfter, Consumer<ItemSetEvent> callback) throws SQLException, IOException{
+		eachRecordedEvent("ItemSetEvent", startedAfter, Long.MAX_VALUE, event -> callback.accept((ItemSetEvent)event));
+	}
+	
+	public void eachRecordedItemSetEvent(DateTime startedAfter, Consumer<ItemSetEvent> callback) throws SQLException, IOException {
+		eachRecordedItemSetEvent(startedAfter.getMillis(),callback);
+	}
+	
+	public void eachRecordedCustodianEvent(long startedAfter, Consumer<CustodianEvent> callback) throws SQLException, IOException {
+		eachRecordedEvent("CustodianEvent", startedAfter, Long.MAX_VALUE, event -> callback.accept((CustodianEvent)event));
+	}
+	
+	public void eachRecordedCustodianEvent(DateTime startedAfter, Consumer<CustodianEvent> callback) throws SQLException, IOException {
+		eachRecordedCustodianEvent(startedAfter.getMillis(), callback);
+	}
+	
+	public void eachRecordedProductionSetEvent(long startedAfter, Consumer<ProductionSetEvent> callback) throws SQLException, IOException {
+		eachRecordedEvent("ProductionSetEvent", startedAfter, Long.MAX_VALUE, event -> callback.accept((ProductionSetEvent)event));
+	}
+	
+	public void eachRecordedProductionSetEvent(DateTime startedAfter, Consumer<ProductionSetEvent> callback) throws SQLException, IOException {
+		eachRecordedProductionSetEvent(startedAfter.getMillis(),callback);
+	}
+	
+	/***
+	 * Folds all recorded events started after the given time stamp into a compaction plan.  The plan holds the net
+	 * effect of the events per annotation key, see {@link AnnotationCompactionPlanner}.  When folding the entire history
+	 * (startedAfter of 0 or less) the plan is seeded from the latest checkpoint so only events after that checkpoint
+	 * need to be folded, see {@link #createCheckpoint()}.  When events have been recorded from more than one source case, conflicting
+	 * changes are resolved according to {@link #getSourceConflictPolicy()}.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are folded into the plan
+	 * @return A compaction plan built from the recorded events
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing an event's bitmap
+	 */
+	public AnnotationCompactionPlanner buildCompactionPlan(long startedAfter) throws SQLException, IOException {
+		if(sourceConflictPolicy == AnnotationSourceConflictPolicy.SourcePriority){
+			return buildSourcePriorityPlan(startedAfter <= 0 ? Long.MIN_VALUE : startedAfter, Long.MAX_VALUE, true, null);
+		}
 		
-		// Item set event retrieval
-		executeQuery(sqlSelectFromItemSetEvent,data,rs -> {
-			try {
-				while(rs.next()){
-					long timeStampMillis = rs.getLong(1);
-					DateTime timeStamp = new DateTime(timeStampMillis);
-					ItemSetEvent event = new ItemSetEvent();
-					event.sourceRepo = this;
-					event.timeStamp = timeStamp;
-					event.added = rs.getBoolean(2);
-					event.settings = rs.getString(3);
-					event.itemSetName = rs.getString(4);
-					event.batchName = rs.getString(5);
-					event.description = rs.getString(6);
-					event.bitmapBytes = rs.getBytes(7);
-					event.itemCount = rs.getInt(8);
-					callback.accept(event);
+		if(startedAfter <= 0){
+			return buildCompactionPlanAsOf(Long.MAX_VALUE);
+		}
+		
+		AnnotationCompactionPlanner planner = new AnnotationCompactionPlanner();
+		for (int i = 0; i < eventTableNames.length; i++) {
+			foldRecordedEvents(planner, eventTableNames[i], startedAfter, Long.MAX_VALUE, null);
+		}
+		return planner;
+	}
+	
+	/***
+	 * Folds recorded events into a compaction plan like {@link #buildCompactionPlan(long)}, but with a separate starting point for the events
+	 * of each source.  Since each source is synced on its own (see {@link AnnotationSource}), the events recorded from one source may be
+	 * older than the latest event of another, so a single time stamp cannot tell which events have already been processed.
+	 * @param startedAfterBySource Only events of a source started after the time stamp (in milliseconds) given for that source are folded
+	 * @param defaultStartedAfter Only events of sources without an entry are folded when started after this time stamp (in milliseconds)
+	 * @return A compaction plan built from the recorded events
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing an event's bitmap
+	 */
+	public AnnotationCompactionPlanner buildCompactionPlan(Map<Long,Long> startedAfterBySource, long defaultStartedAfter) throws SQLException, IOException {
+		long earliest = defaultStartedAfter;
+		long latest = defaultStartedAfter;
+		for(long startedAfter : startedAfterBySource.values()){
+			earliest = Math.min(earliest, startedAfter);
+			latest = Math.max(latest, startedAfter);
+		}
+		if(earliest == latest || latest <= 0){
+			// Every source starts from the same point
+			return buildCompactionPlan(earliest);
+		}
+		
+		Predicate<AnnotationEvent> unprocessed = event -> event.timeStampMillis > startedAfterBySource.getOrDefault(event.sourceId, defaultStartedAfter);
+		long startedAfter = earliest <= 0 ? Long.MIN_VALUE : earliest;
+		if(sourceConflictPolicy == AnnotationSourceConflictPolicy.SourcePriority){
+			return buildSourcePriorityPlan(startedAfter, Long.MAX_VALUE, true, unprocessed);
+		}
+		
+		AnnotationCompactionPlanner planner = new AnnotationCompactionPlanner();
+		for (int i = 0; i < eventTableNames.length; i++) {
+			foldRecordedEvents(planner, eventTableNames[i], startedAfter, Long.MAX_VALUE, unprocessed);
+		}
+		return planner;
+	}
+	
+	/***
+	 * Folds all recorded events started on or before the given time stamp into a compaction plan, effectively capturing
+	 * the state of the annotations as of that time.  The plan is seeded from the nearest checkpoint at or before the
+	 * given time stamp so only events after that checkpoint need to be folded.
+	 * @param asOf Only events started on or before this time stamp (in milliseconds) are folded into the plan
+	 * @return A compaction plan representing the annotation state as of the given time
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing an event's bitmap
+	 */
+	public AnnotationCompactionPlanner buildCompactionPlanAsOf(long asOf) throws SQLException, IOException {
+		return buildCompactionPlanAsOf(asOf, true);
+	}
+	
+	public AnnotationCompactionPlanner buildCompactionPlanAsOf(DateTime asOf) throws SQLException, IOException {
+		return buildCompactionPlanAsOf(asOf.getMillis());
+	}
+	
+	private AnnotationCompactionPlanner buildCompactionPlanAsOf(long asOf, boolean includePassThrough) throws SQLException, IOException {
+		if(sourceConflictPolicy == AnnotationSourceConflictPolicy.SourcePriority){
+			return buildSourcePriorityPlan(Long.MIN_VALUE, asOf, includePassThrough, null);
+		} else {
+			return buildLatestWinsPlanAsOf(asOf, includePassThrough);
+		}
+	}
+	
+	private AnnotationCompactionPlanner buildLatestWinsPlanAsOf(long asOf, boolean includePassThrough) throws SQLException, IOException {
+		AnnotationCompactionPlanner planner = new AnnotationCompactionPlanner();
+		long checkpointTimeStamp = seedFromNearestCheckpoint(planner, asOf);
+		for (int i = 0; i < eventTableNames.length; i++) {
+			String tableName = eventTableNames[i];
+			if(tableName.contentEquals("ProductionSetEvent")){
+				// Production set events are not captured by checkpoints
+				if(includePassThrough){
+					foldRecordedEvents(planner, tableName, Long.MIN_VALUE, asOf, null);
 				}
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			} else {
+				foldRecordedEvents(planner, tableName, checkpointTimeStamp, asOf, null);
+			}
+		}
+		return planner;
+	}
+	
+	private void foldRecordedEvents(AnnotationCompactionPlanner planner, String tableName, long startedAfter, long startedOnOrBefore,
+			Predicate<AnnotationEvent> filter) throws SQLException, IOException {
+		try(EventCursor cursor = eventStore.openCursor(startedAfter, startedOnOrBefore, tableName)){
+			while(cursor.next()){
+				AnnotationEvent event = cursor.getEvent();
+				if(filter == null || filter.test(event)){
+					planner.fold(event);
+				}
+			}
+		}
+	}
+	
+	/***
+	 * Builds a compaction plan under the {@link AnnotationSourceConflictPolicy#SourcePriority} conflict policy.  The events of each
+	 * source are folded into their own plan, then the plans are merged from the highest priority source down, with each source
+	 * only contributing the items of a key which no higher priority source has changed.  Sources of equal priority are merged in
+	 * source ID order.  Since a higher priority source may have changed an item before the given range, when the range does not
+	 * start at the beginning of the recorded history the entire history of each source is also folded to determine the items it
+	 * has claimed.  Checkpoints do not record which source each item's state came from, so they are not used by this policy.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are folded into the plan
+	 * @param startedOnOrBefore Only events started on or before this time stamp (in milliseconds) are considered
+	 * @param includePassThrough Whether production set events are folded into the plan
+	 * @param filter Further limits which events in the range are folded into the plan, null to fold every event in the range
+	 * @return A compaction plan built from the recorded events of every source
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing an event's bitmap
+	 */
+	private AnnotationCompactionPlanner buildSourcePriorityPlan(long startedAfter, long startedOnOrBefore, boolean includePassThrough,
+			Predicate<AnnotationEvent> filter) throws SQLException, IOException {
+		List<String> compactableTableNames = new ArrayList<String>();
+		for(String tableName : eventTableNames){
+			if(!tableName.contentEquals("ProductionSetEvent")){
+				compactableTableNames.add(tableName);
 			}
+		}
+		String[] compactable = compactableTableNames.toArray(new String[0]);
+		
+		Map<Long,AnnotationCompactionPlanner> plansBySource = foldRecordedEventsBySource(startedAfter, startedOnOrBefore,
+				includePassThrough ? eventTableNames : compactable, filter);
+		Map<Long,AnnotationCompactionPlanner> historyBySource = plansBySource;
+		if(startedAfter > Long.MIN_VALUE){
+			historyBySource = foldRecordedEventsBySource(Long.MIN_VALUE, startedOnOrBefore, compactable, null);
+		}
+		
+		Map<Long,Integer> priorityBySource = new HashMap<Long,Integer>();
+		for(AnnotationSource source : getSources()){
+			priorityBySource.put(source.sourceId, source.priority);
+		}
+		List<Long> sourceIds = new ArrayList<Long>(historyBySource.keySet());
+		for(Long sourceId : plansBySource.keySet()){
+			if(!sourceIds.contains(sourceId)){ sourceIds.add(sourceId); }
+		}
+		sourceIds.sort((a,b) -> {
+			int result = Integer.compare(priorityBySource.getOrDefault(b, 0), priorityBySource.getOrDefault(a, 0));
+			return result != 0 ? result : Long.compare(a, b);
 		});
+		
+		AnnotationCompactionPlanner planner = new AnnotationCompactionPlanner();
+		Map<String,RoaringBitmap> claimed = new HashMap<String,RoaringBitmap>();
+		for(Long sourceId : sourceIds){
+			AnnotationCompactionPlanner sourcePlan = plansBySource.get(sourceId);
+			if(sourcePlan != null){
+				planner.mergeFrom(sourcePlan, claimed);
+			}
+			AnnotationCompactionPlanner sourceHistory = historyBySource.get(sourceId);
+			if(sourceHistory != null){
+				sourceHistory.claimTouched(claimed);
+			}
+		}
+		
+		logger.info(String.format("Merged events of %s sources by source priority", sourceIds.size()));
+		return planner;
 	}
 	
-	public void eachRecordedItemSetEvent(DateTime startedAfter, Consumer<ItemSetEvent> callback) throws SQLException {
-		eachRecordedItemSetEvent(startedAfter.getMillis(),callback);
+	private Map<Long,AnnotationCompactionPlanner> foldRecordedEventsBySource(long startedAfter, long startedOnOrBefore, String[] tableNames,
+			Predicate<AnnotationEvent> filter) throws SQLException, IOException {
+		Map<Long,AnnotationCompactionPlanner> result = new HashMap<Long,AnnotationCompactionPlanner>();
+		try(EventCursor cursor = eventStore.openCursor(startedAfter, startedOnOrBefore, tableNames)){
+			while(cursor.next()){
+				AnnotationEvent event = cursor.getEvent();
+				if(filter != null && !filter.test(event)){ continue; }
+				AnnotationCompactionPlanner planner = result.get(event.sourceId);
+				if(planner == null){
+					planner = new AnnotationCompactionPlanner();
+					result.put(event.sourceId, planner);
+				}
+				planner.fold(event);
+			}
+		}
+		return result;
 	}
 	
-	public void eachRecordedCustodianEvent(long startedAfter, Consumer<CustodianEvent> callback) throws SQLException {
+	/***
+	 * Seeds the provided plan with the state recorded in the latest checkpoint at or before the given time stamp.
+	 * @param planner The plan to seed
+	 * @param asOf Only checkpoints with a time stamp on or before this time stamp (in milliseconds) are considered
+	 * @return The time stamp of the checkpoint used, or Long.MIN_VALUE if there was no suitable checkpoint
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing a checkpoint bitmap
+	 */
+	private long seedFromNearestCheckpoint(AnnotationCompactionPlanner planner, long asOf) throws SQLException, IOException {
 		List<Object> data = new ArrayList<Object>();
-		data.add(startedAfter);
+		data.add(asOf);
+		long[] checkpoint = null;
+		List<long[]> found = new ArrayList<long[]>();
+		executeReadQuery("SELECT CheckpointId,TimeStamp FROM Checkpoint WHERE TimeStamp <= ? ORDER BY TimeStamp DESC LIMIT 1",data,rs -> {
+			try {
+				if(rs.next()){
+					found.add(new long[]{rs.getLong(1),rs.getLong(2)});
+				}
+			} catch (SQLException e) {
+				throw new ResultSetCallbackException(e);
+			}
+		});
+		
+		if(found.size() < 1){
+			return Long.MIN_VALUE;
+		}
+		checkpoint = found.get(0);
+		
+		class CheckpointStateRow {
+			String eventType = null;
+			long eventRowId = -1;
+			byte[] bitmapBytes = null;
+			int itemCount = 0;
+			boolean assigned = true;
+		}
 		
-		// Item set event retrieval
-		executeQuery(sqlSelectFromCustodianEvent,data,rs -> {
+		List<CheckpointStateRow> stateRows = new ArrayList<CheckpointStateRow>();
+		data.clear();
+		data.add(checkpoint[0]);
+		// Removal entries refer to the last event of their key, so they are seeded after the assigned values
+		executeReadQuery("SELECT e.EventType,e.EventRowId,COALESCE(e.SerializedBitmap,b.SerializedBitmap),e.ItemCount,COALESCE(e.Assigned,1) "+
+				"FROM CheckpointState e "+sqlJoinBitmap+" WHERE e.CheckpointId = ? ORDER BY COALESCE(e.Assigned,1) DESC, e.rowid",data,rs -> {
 			try {
 				while(rs.next()){
-					long timeStampMillis = rs.getLong(1);
-					DateTime timeStamp = new DateTime(timeStampMillis);
-					CustodianEvent event = new CustodianEvent();
-					event.sourceRepo = this;
-					event.timeStamp = timeStamp;
-					event.assigned = rs.getBoolean(2);
-					event.custodian = rs.getString(3);
-					event.bitmapBytes = rs.getBytes(4);
-					event.itemCount = rs.getInt(5);
-					callback.accept(event);
+					CheckpointStateRow row = new CheckpointStateRow();
+					row.eventType = rs.getString(1);
+					row.eventRowId = rs.getLong(2);
+					row.bitmapBytes = rs.getBytes(3);
+					row.itemCount = rs.getInt(4);
+					row.assigned = rs.getInt(5) != 0;
+					stateRows.add(row);
 				}
 			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				throw new ResultSetCallbackException(e);
 			}
 		});
+		
+		logger.info(String.format("Seeding state from checkpoint %s at %s with %s state entries",
+				checkpoint[0], new DateTime(checkpoint[1]), stateRows.size()));
+		
+		for(CheckpointStateRow row : stateRows){
+			AnnotationEvent representative = loadRecordedEvent(row.eventType, row.eventRowId);
+			if(representative == null){
+				throw new SQLException(String.format("Checkpoint %s refers to missing %s row %s",
+						checkpoint[0], row.eventType, row.eventRowId));
+			}
+			AnnotationEvent seed = representative.deriveNetEvent(row.assigned);
+			seed.bitmapBytes = row.bitmapBytes;
+			seed.itemCount = row.itemCount;
+			planner.seed(seed, checkpoint[1]);
+		}
+		
+		return checkpoint[1];
 	}
 	
-	public void eachRecordedCustodianEvent(DateTime startedAfter, Consumer<CustodianEvent> callback) throws SQLException {
-		eachRecordedCustodianEvent(startedAfter.getMillis(), callback);
+	/***
+	 * Builds a snapshot of the recorded annotation state as of the given time.  The snapshot answers set queries such
+	 * as "which items had tag X and custodian Y" directly from the stored bitmaps without opening a Nuix case.
+	 * @param asOf Only events started on or before this time stamp (in milliseconds) are reflected in the snapshot
+	 * @return Snapshot of the annotation state as of the given time
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing a bitmap
+	 */
+	public AnnotationStateSnapshot buildStateAsOf(long asOf) throws SQLException, IOException {
+		AnnotationCompactionPlanner planner = buildCompactionPlanAsOf(asOf, false);
+		return new AnnotationStateSnapshot(this, asOf, planner.getKeyStates());
 	}
 	
-	public void eachRecordedProductionSetEvent(long startedAfter, Consumer<ProductionSetEvent> callback) throws SQLException {
-		List<Object> data = new ArrayList<Object>();
-		data.add(startedAfter);
+	public AnnotationStateSnapshot buildStateAsOf(DateTime asOf) throws SQLException, IOException {
+		return buildStateAsOf(asOf.getMillis());
+	}
+	
+	/***
+	 * Builds a snapshot of the recorded annotation state as of the latest recorded event.
+	 * @return Snapshot of the current annotation state
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing a bitmap
+	 */
+	public AnnotationStateSnapshot buildCurrentState() throws SQLException, IOException {
+		return buildStateAsOf(Long.MAX_VALUE);
+	}
+	
+	/***
+	 * Resolves the item indices of a bitmap to the GUIDs they were recorded for.
+	 * @param bitmap The bitmap to resolve
+	 * @return List of GUIDs for the item indices in the bitmap
+	 */
+	public List<String> resolveGuids(RoaringBitmap bitmap) {
+		List<String> result = new ArrayList<String>(bitmap.getCardinality());
+		guidIndexLock.readLock().lock();
+		try {
+			BiMap<Long,String> indexLookup = guidIndexLookup.inverse();
+			for(long index : bitmap){
+				result.add(indexLookup.get(index));
+			}
+		} finally {
+			guidIndexLock.readLock().unlock();
+		}
+		return result;
+	}
+	
+	/***
+	 * Builds a bitmap of every item index known to this repository.
+	 * @return Bitmap of all item indices
+	 */
+	RoaringBitmap getAllItemsBitmap() {
+		RoaringBitmap result = new RoaringBitmap();
+		// Indices are assigned sequentially starting at 1
+		result.add(1L, (long)getGuidIndexSize()+1);
+		return result;
+	}
+	
+	/***
+	 * Determines the latest time stamp of any recorded event.
+	 * @return The latest event time stamp in milliseconds, 0 if no events are recorded
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	long calculateLastEventTimeStamp() throws SQLException, IOException{
+		long result = 0;
+		for (int i = 0; i < eventTableNames.length; i++) {
+			long last = eventStore.getLastTimeStamp(eventTableNames[i]);
+			if(last > result){ result = last; }
+		}
+		return result;
+	}
+	
+	/***
+	 * Records a checkpoint of the full per key annotation state as of the latest recorded event.  Later calls to
+	 * {@link #buildCompactionPlan(long)} and {@link #buildCompactionPlanAsOf(long)} start from the nearest checkpoint
+	 * and only fold the events recorded after it.  Each state entry refers back to the event which assigned its value
+	 * so that net events can be reconstructed from it.  The items each key was last removed from are recorded as a state
+	 * entry of their own, flagged as not assigned, so that removals are not lost when folding resumes from the checkpoint.
+	 * Production set events are not captured by checkpoints.
+	 * @return The ID of the newly created checkpoint
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error deserializing or serializing a bitmap
+	 */
+	public long createCheckpoint() throws SQLException, IOException {
+		long checkpointTimeStamp = calculateLastEventTimeStamp();
+		long eventCount = getTotalEventCount();
+		logger.info(String.format("Creating checkpoint as of %s covering %s events...", new DateTime(checkpointTimeStamp), eventCount));
 		
-		// Item set event retrieval
-		executeQuery(sqlSelectFromProductionSetEvent,data,rs -> {
-			try {
-				GsonBuilder gsonBuilder = new GsonBuilder();
-				gsonBuilder.serializeNulls();
-				gsonBuilder.setPrettyPrinting();
-				Gson gson = gsonBuilder.create();
-				Type type = new TypeToken<Map<String, Object>>(){}.getType();
-				
-				while(rs.next()){
-					long timeStampMillis = rs.getLong(1);
-					DateTime timeStamp = new DateTime(timeStampMillis);
-					ProductionSetEvent event = new ProductionSetEvent();
-					event.sourceRepo = this;
-					event.timeStamp = timeStamp;
-					event.added = rs.getBoolean(2);
-					event.created = rs.getBoolean(3);
-					event.settingsJsonString = rs.getString(4);
-					event.settings = gson.fromJson(event.settingsJsonString, type);
-					event.productionSetName = rs.getString(5);
-					event.bitmapBytes = rs.getBytes(6);
-					event.itemCount = rs.getInt(7);
-					callback.accept(event);
+		// Checkpoints record the state of every source folded in time stamp order, regardless of the conflict policy
+		AnnotationCompactionPlanner planner = buildLatestWinsPlanAsOf(checkpointTimeStamp, false);
+		
+		Connection conn = getConnection();
+		conn.setAutoCommit(false);
+		long checkpointId = 0;
+		int stateEntries = 0;
+		try {
+			executeInsert("INSERT INTO Checkpoint (TimeStamp,EventCount) VALUES (?,?)", checkpointTimeStamp, eventCount);
+			checkpointId = executeLongScalar("SELECT last_insert_rowid()");
+			
+			try(PreparedStatement statement = conn.prepareStatement(sqlInsertCheckpointState)){
+				List<Object> data = new ArrayList<Object>();
+				for(AnnotationKeyState keyState : planner.getKeyStates().values()){
+					for(Map.Entry<String,RoaringBitmap> entry : keyState.getAssignedByValue().entrySet()){
+						if(entry.getValue().isEmpty()){ continue; }
+						AnnotationEvent representative = keyState.getRepresentativeByValue().get(entry.getKey());
+						data.clear();
+						data.add(checkpointId);
+						data.add(keyState.getStateKey());
+						data.add(entry.getKey());
+						data.add(representative.getClass().getSimpleName());
+						data.add(representative.rowId);
+						data.add(storeBitmap(serializeBitmap(entry.getValue()),entry.getValue().getCardinality()));
+						data.add(entry.getValue().getCardinality());
+						data.add(1);
+						bindData(statement,data);
+						statement.executeUpdate();
+						stateEntries++;
+					}
+					
+					RoaringBitmap unassigned = keyState.getUnassigned();
+					if(!unassigned.isEmpty()){
+						AnnotationEvent lastEvent = keyState.getLastEvent();
+						data.clear();
+						data.add(checkpointId);
+						data.add(keyState.getStateKey());
+						data.add(null);
+						data.add(lastEvent.getClass().getSimpleName());
+						data.add(lastEvent.rowId);
+						data.add(storeBitmap(serializeBitmap(unassigned),unassigned.getCardinality()));
+						data.add(unassigned.getCardinality());
+						data.add(0);
+						bindData(statement,data);
+						statement.executeUpdate();
+						stateEntries++;
+					}
 				}
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
-		});
+			conn.commit();
+		} catch (SQLException | IOException e) {
+			conn.rollback();
+			// Dedupe cache may now refer to rolled back entries
+			bitmapIdByHash = null;
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+		
+		logger.info(String.format("Created checkpoint %s with %s state entries", checkpointId, stateEntries));
+		return checkpointId;
 	}
 	
-	public void eachRecordedProductionSetEvent(DateTime startedAfter, Consumer<ProductionSetEvent> callback) throws SQLException {
-		eachRecordedProductionSetEvent(startedAfter.getMillis(),callback);
+	/***
+	 * Gets the number of events recorded since the latest checkpoint was created.
+	 * @return Number of events recorded since the latest checkpoint, or all recorded events if there is no checkpoint
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error counting events
+	 */
+	public long getEventCountSinceCheckpoint() throws SQLException, IOException {
+		long checkpointEventCount = executeLongScalar("SELECT COALESCE(MAX(EventCount),0) FROM Checkpoint");
+		return getTotalEventCount() - checkpointEventCount;
+	}
+	
+	/***
+	 * Creates a replay session against the given destination case.  The session resolves every destination item to its
+	 * bitmap index once, using a single search, so that replayed events can obtain their items by direct lookup instead of
+	 * running GUID searches per event.  See {@link AnnotationReplaySession}.
+	 * @param nuixCase The destination case events will be replayed onto
+	 * @return A new replay session
+	 */
+	public AnnotationReplaySession createReplaySession(Case nuixCase) {
+		return new AnnotationReplaySession(this, nuixCase);
+	}
+	
+	/***
+	 * Replays the net effect of all recorded events started after the given time stamp onto the destination case.  Rather
+	 * than replaying every recorded event, events are first folded per annotation key by {@link #buildCompactionPlan(long)}
+	 * so that only the minimal set of additions and removals needed to reach the final state are applied.
+	 * @param nuixCase The destination case to replay the net events onto
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are replayed
+	 * @throws Exception If something goes wrong
+	 */
+	public void replayCompacted(Case nuixCase, long startedAfter) throws Exception {
+		AnnotationCompactionPlanner planner = buildCompactionPlan(startedAfter);
+		List<AnnotationEvent> compactedEvents = planner.buildCompactedEvents();
+		logger.info(String.format("Compacted %s recorded events into %s net events",
+				planner.getFoldedEventCount(), compactedEvents.size()));
+		AnnotationReplaySession session = createReplaySession(nuixCase);
+		for(AnnotationEvent event : compactedEvents){
+			logger.info(String.format("Replaying %s", event));
+			session.replay(event);
+		}
+	}
+	
+	public void replayCompacted(Case nuixCase, DateTime startedAfter) throws Exception {
+		replayCompacted(nuixCase, startedAfter.getMillis());
+	}
+	
+	/***
+	 * Replays every recorded event started after the given time stamp onto the destination case in the order they occurred,
+	 * coalescing runs of compatible custom metadata and item set events into single events so that, for example, hundreds of
+	 * bulk coding events setting the same field and value result in one call to put the custom metadata.  Unlike
+	 * {@link #replayCompacted(Case, long)} the events are not folded into their net effect, so the destination goes through
+	 * the same sequence of changes as the source did.  See {@link AnnotationReplaySession#replayCoalesced(EventCursor)}.
+	 * @param nuixCase The destination case to replay the events onto
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are replayed
+	 * @return The replay session used, which reports how many events were coalesced, see {@link AnnotationReplaySession#getCoalescedEventCount()}
+	 * @throws Exception If something goes wrong
+	 */
+	public AnnotationReplaySession replayCoalesced(Case nuixCase, long startedAfter) throws Exception {
+		AnnotationReplaySession session = createReplaySession(nuixCase);
+		long replayedCount = 0;
+		try(EventCursor cursor = openEventCursor(startedAfter, Long.MAX_VALUE)){
+			replayedCount = session.replayCoalesced(cursor);
+		}
+		logger.info(String.format("Replayed %s recorded events as %s events, %s events were coalesced",
+				replayedCount + session.getCoalescedEventCount(), replayedCount, session.getCoalescedEventCount()));
+		return session;
+	}
+	
+	public AnnotationReplaySession replayCoalesced(Case nuixCase, DateTime startedAfter) throws Exception {
+		return replayCoalesced(nuixCase, startedAfter.getMillis());
+	}
+	
+	/***
+	 * Creates a replay scheduler against the given destination case, which replays events of independent annotation keys
+	 * concurrently.  See {@link AnnotationReplayScheduler}.
+	 * @param nuixCase The destination case events will be replayed onto
+	 * @return A new replay scheduler
+	 */
+	public AnnotationReplayScheduler createReplayScheduler(Case nuixCase) {
+		return new AnnotationReplayScheduler(createReplaySession(nuixCase));
+	}
+	
+	/***
+	 * Creates a replay runner against the given destination case, which times each replayed event and reports progress along
+	 * with an estimate of the time remaining.  See {@link AnnotationReplayRunner}.
+	 * @param nuixCase The destination case events will be replayed onto
+	 * @return A new replay runner
+	 */
+	public AnnotationReplayRunner createReplayRunner(Case nuixCase) {
+		return new AnnotationReplayRunner(this, createReplaySession(nuixCase));
+	}
+	
+	/***
+	 * Replays the net effect of all recorded events started after the given time stamp onto the destination case, like
+	 * {@link #replayCompacted(Case, long)}, but replays the events of independent annotation keys concurrently using
+	 * an {@link AnnotationReplayScheduler}.
+	 * @param nuixCase The destination case to replay the net events onto
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are replayed
+	 * @param concurrency Maximum number of annotation keys replayed concurrently, 1 replays in strict order
+	 * @throws Exception If something goes wrong
+	 */
+	public void replayCompacted(Case nuixCase, long startedAfter, int concurrency) throws Exception {
+		AnnotationCompactionPlanner planner = buildCompactionPlan(startedAfter);
+		List<AnnotationEvent> compactedEvents = planner.buildCompactedEvents();
+		logger.info(String.format("Compacted %s recorded events into %s net events",
+				planner.getFoldedEventCount(), compactedEvents.size()));
+		AnnotationReplayScheduler scheduler = createReplayScheduler(nuixCase);
+		scheduler.setConcurrency(concurrency);
+		scheduler.replay(compactedEvents);
+	}
+	
+	public void replayCompacted(Case nuixCase, DateTime startedAfter, int concurrency) throws Exception {
+		replayCompacted(nuixCase, startedAfter.getMillis(), concurrency);
+	}
+	
+	/***
+	 * Replays the net effect of all recorded events started after the given time stamp onto the destination case, like
+	 * {@link #replayCompacted(Case, long, int)}, but first reads the destination's current state for each replayed annotation
+	 * key and only writes the additions and removals which are actually missing.  See {@link AnnotationReplaySession#setDeltaReplay(boolean)}.
+	 * @param nuixCase The destination case to replay the net events onto
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are replayed
+	 * @param concurrency Maximum number of annotation keys replayed concurrently, 1 replays in strict order
+	 * @return The replay session used, which reports how many item writes were skipped, see {@link AnnotationReplaySession#getTotalSkippedCount()}
+	 * @throws Exception If something goes wrong
+	 */
+	public AnnotationReplaySession replayCompactedDelta(Case nuixCase, long startedAfter, int concurrency) throws Exception {
+		AnnotationCompactionPlanner planner = buildCompactionPlan(startedAfter);
+		List<AnnotationEvent> compactedEvents = planner.buildCompactedEvents();
+		logger.info(String.format("Compacted %s recorded events into %s net events",
+				planner.getFoldedEventCount(), compactedEvents.size()));
+		AnnotationReplaySession session = createReplaySession(nuixCase);
+		session.setDeltaReplay(true);
+		AnnotationReplayScheduler scheduler = new AnnotationReplayScheduler(session);
+		scheduler.setConcurrency(concurrency);
+		scheduler.replay(compactedEvents);
+		logger.info(String.format("Delta replay skipped %s item writes already present in destination case", session.getTotalSkippedCount()));
+		return session;
+	}
+	
+	public AnnotationReplaySession replayCompactedDelta(Case nuixCase, DateTime startedAfter, int concurrency) throws Exception {
+		return replayCompactedDelta(nuixCase, startedAfter.getMillis(), concurrency);
+	}
+	
+	/***
+	 * Gets how this instance shares its database file.
+	 * @return The access mode this instance was opened with
+	 */
+	public AnnotationRepositoryAccessMode getAccessMode() {
+		return accessMode;
+	}
+	
+	public int getReadConnectionPoolSize() {
+		return readConnectionPoolSize;
+	}
+	
+	/***
+	 * Sets the maximum number of read-only connections opened in {@link AnnotationRepositoryAccessMode#SharedRead} mode.
+	 * Default is 4.  Reads beyond this many at once wait for a connection to be released.
+	 * @param readConnectionPoolSize Maximum number of read connections
+	 */
+	public void setReadConnectionPoolSize(int readConnectionPoolSize) {
+		if(readConnectionPoolSize < 1){
+			throw new IllegalArgumentException("readConnectionPoolSize cannot be less than 1");
+		}
+		this.readConnectionPoolSize = readConnectionPoolSize;
 	}
 	
 	/***
@@ -1365,6 +2655,24 @@ public class AnnotationHistoryRepository implements Closeable{
 		this.snapshotFirstSync = snapshotFirstSync;
 	}
 
+	/***
+	 * Gets the number of recorded events after which {@link #syncHistory(Case, AnnotationSyncSettings)} will automatically
+	 * create a checkpoint.
+	 * @return The number of events between automatic checkpoints, 0 or less means automatic checkpoints are disabled
+	 */
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/***
+	 * Sets the number of recorded events after which {@link #syncHistory(Case, AnnotationSyncSettings)} will automatically
+	 * create a checkpoint.  Checkpoints can also be created on demand by calling {@link #createCheckpoint()}.
+	 * @param checkpointInterval The number of events between automatic checkpoints, 0 or less disables automatic checkpoints
+	 */
+	public void setCheckpointInterval(long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
 	public int getGuidRefInsertBatchSize() {
 		return guidRefInsertBatchSize;
 	}
@@ -1373,20 +2681,217 @@ public class AnnotationHistoryRepository implements Closeable{
 		this.guidRefInsertBatchSize = guidRefInsertBatchSize;
 	}
 	
-	public AnnotationHistoryRepositorySummary buildSummary() throws SQLException{
+	public AnnotationHistoryRepositorySummary buildSummary() throws SQLException, IOException{
 		AnnotationHistoryRepositorySummary result = new AnnotationHistoryRepositorySummary();
-		result.distinctItemsReferences = executeLongScalar("SELECT COUNT(*) FROM GUIDRef");
+		result.distinctItemsReferences = executeReadLongScalar("SELECT COUNT(*) FROM GUIDRef");
 		
-		result.totalCustomMetadataEvents = executeLongScalar("SELECT COUNT(*) FROM CustomMetadataEvent");
-		result.totalExclusionEvents = executeLongScalar("SELECT COUNT(*) FROM ExclusionEvent");
-		result.totalItemSetEvents = executeLongScalar("SELECT COUNT(*) FROM ItemSetEvent");
-		result.totalTagEvents = executeLongScalar("SELECT COUNT(*) FROM TagEvent");
+		result.totalCustomMetadataEvents = eventStore.getEventCount("CustomMetadataEvent");
+		result.totalExclusionEvents = eventStore.getEventCount("ExclusionEvent");
+		result.totalItemSetEvents = eventStore.getEventCount("ItemSetEvent");
+		result.totalTagEvents = eventStore.getEventCount("TagEvent");
 		
 		return result;
 	}
 
+	/***
+	 * Determines the bytes used on disk by the given table of the SQLite database, including its indices.
+	 * @param tableName The name of the table
+	 * @return Bytes used by the table and its indices, -1 if SQLite was built without the "dbstat" virtual table
+	 */
+	long calculateTableBytes(String tableName) {
+		try {
+			return executeReadLongScalar("SELECT COALESCE(SUM(pgsize),0) FROM dbstat WHERE name IN "+
+					"(SELECT name FROM sqlite_master WHERE tbl_name = ?)", tableName);
+		} catch (SQLException e) {
+			return -1;
+		}
+	}
+	
+	/***
+	 * Gathers storage statistics of this repository: row counts, bytes on disk, serialized bitmap sizes and compression ratios
+	 * of each event type, as well as of the repository's Bitmap, GUIDRef and CheckpointState tables.
+	 * @return Statistics of this repository
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If the event store has an error reading events
+	 */
+	public AnnotationRepositoryStatistics buildStatistics() throws SQLException, IOException{
+		AnnotationRepositoryStatistics result = new AnnotationRepositoryStatistics();
+		for(String tableName : eventTableNames){
+			result.tableStatistics.put(tableName, eventStore.buildStatistics(tableName));
+		}
+		
+		AnnotationTableStatistics bitmapStatistics = new AnnotationTableStatistics("Bitmap");
+		executeReadQuery("SELECT COUNT(*),COALESCE(SUM(LENGTH(SerializedBitmap)),0),COALESCE(SUM(ItemCount),0) FROM Bitmap",null,rs -> {
+			try {
+				if(rs.next()){
+					bitmapStatistics.rowCount = rs.getLong(1);
+					bitmapStatistics.bitmapCount = rs.getLong(1);
+					bitmapStatistics.bitmapBytes = rs.getLong(2);
+					bitmapStatistics.itemCount = rs.getLong(3);
+				}
+			} catch (SQLException e) {
+				throw new ResultSetCallbackException(e);
+			}
+		});
+		bitmapStatistics.storedBytes = calculateTableBytes("Bitmap");
+		result.tableStatistics.put("Bitmap", bitmapStatistics);
+		
+		for(String tableName : new String[]{"GUIDRef","CheckpointState"}){
+			AnnotationTableStatistics tableStatistics = new AnnotationTableStatistics(tableName);
+			tableStatistics.rowCount = executeReadLongScalar(String.format("SELECT COUNT(*) FROM %s", tableName));
+			tableStatistics.storedBytes = calculateTableBytes(tableName);
+			result.tableStatistics.put(tableName, tableStatistics);
+		}
+		
+		result.databaseBytes = databaseFile.length() + new File(databaseFile.getAbsolutePath()+"-wal").length();
+		result.segmentBytes = eventStore.getExternalStorageBytes();
+		return result;
+	}
+	
+	/***
+	 * Performs maintenance of a repository which has been synced to over a long period of time.  This re-encodes stored bitmaps
+	 * which a run optimized encoding makes smaller, has the event store perform its own maintenance (the SQLite store rebuilds its
+	 * IDX_TimeStamp indices, the segmented log store merges its segments), then vacuums and analyzes the database.  Statistics are
+	 * gathered before and after so the effect can be reviewed.  This should be run while nothing else is using the repository,
+	 * a vacuum cannot complete while another connection is reading from the database.
+	 * @return Report of the maintenance performed, with statistics from before and after
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error reading, re-encoding or maintaining events
+	 */
+	public AnnotationMaintenanceReport performMaintenance() throws SQLException, IOException{
+		if(syncingSource != null){
+			throw new IllegalStateException("Maintenance cannot be performed while a sync is in progress");
+		}
+		
+		long started = System.currentTimeMillis();
+		AnnotationMaintenanceReport report = new AnnotationMaintenanceReport();
+		logger.info("Gathering statistics before maintenance...");
+		report.before = buildStatistics();
+		
+		reencodeBitmaps(report);
+		
+		logger.info("Performing event store maintenance...");
+		eventStore.performMaintenance();
+		
+		logger.info("Vacuuming database...");
+		executeUpdate("VACUUM");
+		// Vacuum writes through the write ahead log, truncating it afterwards lets the reported size reflect the vacuumed database
+		executeLongScalar("PRAGMA wal_checkpoint(TRUNCATE)");
+		
+		logger.info("Analyzing database...");
+		executeUpdate("ANALYZE");
+		
+		logger.info("Gathering statistics after maintenance...");
+		report.after = buildStatistics();
+		report.elapsedMillis = System.currentTimeMillis() - started;
+		logger.info(report.toString());
+		return report;
+	}
+	
+	/***
+	 * Rewrites each bitmap stored in the Bitmap table whose run optimized encoding is smaller than what is stored.  Bitmaps
+	 * stored before encoding was run optimized can hold the same items as another stored bitmap under a different encoding, in
+	 * which case references to it are pointed at the other bitmap and it is removed.
+	 * @param report Report to record what was re-encoded to
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If a stored bitmap cannot be deserialized
+	 */
+	private void reencodeBitmaps(AnnotationMaintenanceReport report) throws SQLException, IOException{
+		logger.info("Re-encoding stored bitmaps...");
+		
+		class StoredBitmap {
+			long bitmapId = 0;
+			byte[] bitmapBytes = null;
+		}
+		
+		List<String> referencingTableNames = new ArrayList<String>(Arrays.asList(eventTableNames));
+		referencingTableNames.add("CheckpointState");
+		
+		Connection conn = getConnection();
+		List<Object> data = new ArrayList<Object>();
+		long lastBitmapId = Long.MIN_VALUE;
+		while(true){
+			List<StoredBitmap> batch = new ArrayList<StoredBitmap>();
+			data.clear();
+			data.add(lastBitmapId);
+			data.add(reencodeBatchSize);
+			executeQuery("SELECT BitmapId,SerializedBitmap FROM Bitmap WHERE BitmapId > ? ORDER BY BitmapId ASC LIMIT ?",data,rs -> {
+				try {
+					while(rs.next()){
+						StoredBitmap stored = new StoredBitmap();
+						stored.bitmapId = rs.getLong(1);
+						stored.bitmapBytes = rs.getBytes(2);
+						batch.add(stored);
+					}
+				} catch (SQLException e) {
+					throw new ResultSetCallbackException(e);
+				}
+			});
+			if(batch.isEmpty()){ break; }
+			
+			conn.setAutoCommit(false);
+			try {
+				for(StoredBitmap stored : batch){
+					report.bitmapsExamined++;
+					byte[] reencoded = BitmapCodec.serialize(BitmapCodec.deserialize(stored.bitmapBytes));
+					if(reencoded.length >= stored.bitmapBytes.length){ continue; }
+					
+					byte[] hash = hashBitmapBytes(reencoded);
+					long existingBitmapId = executeLongScalar("SELECT COALESCE(MAX(BitmapId),0) FROM Bitmap WHERE Hash = ?", hash);
+					if(existingBitmapId > 0){
+						// Rare, so scanning each referencing table is acceptable
+						for(String tableName : referencingTableNames){
+							executeUpdate(String.format("UPDATE %s SET BitmapId = ? WHERE BitmapId = ?", tableName), existingBitmapId, stored.bitmapId);
+						}
+						executeUpdate("DELETE FROM Bitmap WHERE BitmapId = ?", stored.bitmapId);
+						report.bitmapsMerged++;
+						report.bitmapBytesSaved += stored.bitmapBytes.length;
+					} else {
+						executeUpdate("UPDATE Bitmap SET Hash = ?, SerializedBitmap = ? WHERE BitmapId = ?", hash, reencoded, stored.bitmapId);
+						report.bitmapBytesSaved += stored.bitmapBytes.length - reencoded.length;
+					}
+					report.bitmapsReencoded++;
+				}
+				conn.commit();
+			} catch (SQLException | IOException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+				// Dedupe cache refers to hashes which may have been rewritten
+				bitmapIdByHash = null;
+			}
+			lastBitmapId = batch.get(batch.size()-1).bitmapId;
+		}
+		
+		logger.info(String.format("Re-encoded %s of %s stored bitmaps, merging %s, saving %s bytes",
+				report.bitmapsReencoded, report.bitmapsExamined, report.bitmapsMerged, report.bitmapBytesSaved));
+	}
+	
 	@Override
 	public void close() throws IOException {
+		// The connections are closed even when the event store fails to close
+		IOException storeCloseError = null;
+		if(eventStore != null){
+			try {
+				eventStore.close();
+			} catch (IOException e) {
+				storeCloseError = e;
+			}
+		}
+		// Every read connection is closed even when one fails to, the first failure is reported once all are closed
+		SQLException readCloseError = null;
+		synchronized(readConnections){
+			for(Connection conn : readConnections){
+				try {
+					conn.close();
+				} catch (SQLException e) {
+					if(readCloseError == null){ readCloseError = e; }
+				}
+			}
+			readConnections.clear();
+			idleReadConnections.clear();
+		}
 		if(persistentConnection != null){
 			try {
 				persistentConnection.close();
@@ -1395,5 +2900,11 @@ public class AnnotationHistoryRepository implements Closeable{
 				e.printStackTrace();
 			}
 		}
+		if(storeCloseError != null){
+			throw storeCloseError;
+		}
+		if(readCloseError != null){
+			throw new IOException("Error closing read connection", readCloseError);
+		}
 	}
 }
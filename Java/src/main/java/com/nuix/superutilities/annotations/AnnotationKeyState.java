@@ -0,0 +1,143 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/***
+ * Tracks the folded state of a single annotation key (a tag, a custom metadata field, an item set, exclusions or custodians)
+ * as bitmaps of item indices.  An item can hold at most one value for a given key, so assigning a value to items removes
+ * those items from every other value of the same key.  Items whose last event for the key was a removal are tracked
+ * separately so that a net removal can be replayed.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationKeyState {
+	private String stateKey = null;
+	private Map<String,RoaringBitmap> assignedByValue = new LinkedHashMap<String,RoaringBitmap>();
+	private Map<String,AnnotationEvent> representativeByValue = new LinkedHashMap<String,AnnotationEvent>();
+	private RoaringBitmap unassigned = new RoaringBitmap();
+	private AnnotationEvent lastEvent = null;
+
+	AnnotationKeyState(String stateKey){
+		this.stateKey = stateKey;
+	}
+
+	/***
+	 * Folds an event into this state.  Assignments are OR'ed into the bitmap of the assigned value and AND NOT'ed out of
+	 * every other value and the unassigned bitmap.  Removals are AND NOT'ed out of every value and OR'ed into the unassigned bitmap.
+	 * @param event The event to fold, must have the same state key as this instance
+	 * @param items Bitmap of the item indices the event applies to
+	 */
+	void fold(AnnotationEvent event, RoaringBitmap items){
+		if(event.isStateAssignment()){
+			String valueKey = event.getStateValueKey();
+			for(Map.Entry<String,RoaringBitmap> entry : assignedByValue.entrySet()){
+				if(!entry.getKey().equals(valueKey)){
+					entry.getValue().andNot(items);
+				}
+			}
+			RoaringBitmap assigned = assignedByValue.get(valueKey);
+			if(assigned == null){
+				assigned = new RoaringBitmap();
+				assignedByValue.put(valueKey, assigned);
+			}
+			assigned.or(items);
+			representativeByValue.put(valueKey, event);
+			unassigned.andNot(items);
+		} else {
+			for(RoaringBitmap assigned : assignedByValue.values()){
+				assigned.andNot(items);
+			}
+			unassigned.or(items);
+		}
+		lastEvent = event;
+	}
+
+	/***
+	 * Builds a bitmap of every item this state has an entry for, whether the item holds a value or had the key removed.
+	 * @return Bitmap of item indices touched by the events folded into this state
+	 */
+	RoaringBitmap getTouched(){
+		RoaringBitmap result = unassigned.clone();
+		for(RoaringBitmap assigned : assignedByValue.values()){
+			result.or(assigned);
+		}
+		return result;
+	}
+	
+	/***
+	 * Merges the entries of another state for the same key into this state, excluding the given items.  Used to combine the states
+	 * folded from different sources, where the excluded items are those already claimed by a higher priority source.
+	 * @param other State of the same key folded from another source
+	 * @param excluded Bitmap of item indices whose entries in the other state are ignored, may be null
+	 */
+	void mergeFrom(AnnotationKeyState other, RoaringBitmap excluded){
+		for(Map.Entry<String,RoaringBitmap> entry : other.assignedByValue.entrySet()){
+			RoaringBitmap items = entry.getValue().clone();
+			if(excluded != null){
+				items.andNot(excluded);
+			}
+			if(items.isEmpty()){ continue; }
+			String valueKey = entry.getKey();
+			RoaringBitmap assigned = assignedByValue.get(valueKey);
+			if(assigned == null){
+				assigned = new RoaringBitmap();
+				assignedByValue.put(valueKey, assigned);
+				representativeByValue.put(valueKey, other.representativeByValue.get(valueKey));
+			}
+			assigned.or(items);
+		}
+		RoaringBitmap removed = other.unassigned.clone();
+		if(excluded != null){
+			removed.andNot(excluded);
+		}
+		unassigned.or(removed);
+		// Only used as the template of a net removal, which any event of the key can provide
+		if(lastEvent == null){
+			lastEvent = other.lastEvent;
+		}
+	}
+
+	/***
+	 * Gets the key this state tracks, for example "Tag:Responsive".
+	 * @return The state key
+	 */
+	public String getStateKey() {
+		return stateKey;
+	}
+
+	/***
+	 * Gets the bitmaps of items holding each value of this key, keyed by value key.
+	 * @return Map of value key to bitmap of item indices holding that value
+	 */
+	public Map<String,RoaringBitmap> getAssignedByValue() {
+		return Collections.unmodifiableMap(assignedByValue);
+	}
+
+	/***
+	 * Gets the most recent assigning event for each value key.  These are used as templates when generating net events.
+	 * @return Map of value key to the most recent event assigning that value
+	 */
+	Map<String,AnnotationEvent> getRepresentativeByValue() {
+		return representativeByValue;
+	}
+
+	/***
+	 * Gets the bitmap of items whose last event for this key removed the value.
+	 * @return Bitmap of item indices which had this key removed
+	 */
+	public RoaringBitmap getUnassigned() {
+		return unassigned;
+	}
+
+	/***
+	 * Gets the last event folded into this state.
+	 * @return The last folded event
+	 */
+	AnnotationEvent getLastEvent() {
+		return lastEvent;
+	}
+}
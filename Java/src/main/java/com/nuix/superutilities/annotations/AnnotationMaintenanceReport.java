@@ -0,0 +1,86 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.StringJoiner;
+
+import com.nuix.superutilities.misc.FormatUtility;
+
+/***
+ * Outcome of {@link AnnotationHistoryRepository#performMaintenance()}, holding the repository statistics from before and after
+ * maintenance along with what the re-encoding of stored bitmaps accomplished.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationMaintenanceReport {
+	AnnotationRepositoryStatistics before = null;
+	AnnotationRepositoryStatistics after = null;
+	long bitmapsExamined = 0;
+	long bitmapsReencoded = 0;
+	long bitmapsMerged = 0;
+	long bitmapBytesSaved = 0;
+	long elapsedMillis = 0;
+
+	public AnnotationRepositoryStatistics getBefore() {
+		return before;
+	}
+
+	public AnnotationRepositoryStatistics getAfter() {
+		return after;
+	}
+
+	/***
+	 * Gets the number of stored bitmaps examined for re-encoding.
+	 * @return Number of bitmaps examined
+	 */
+	public long getBitmapsExamined() {
+		return bitmapsExamined;
+	}
+
+	/***
+	 * Gets the number of stored bitmaps rewritten with a smaller run optimized encoding.
+	 * @return Number of bitmaps re-encoded
+	 */
+	public long getBitmapsReencoded() {
+		return bitmapsReencoded;
+	}
+
+	/***
+	 * Gets the number of re-encoded bitmaps which turned out to be identical to another stored bitmap, and were merged into it.
+	 * @return Number of bitmaps merged
+	 */
+	public long getBitmapsMerged() {
+		return bitmapsMerged;
+	}
+
+	public long getBitmapBytesSaved() {
+		return bitmapBytesSaved;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/***
+	 * Gets the difference in total repository size between before and after maintenance.
+	 * @return Bytes reclaimed, negative if the repository grew
+	 */
+	public long getBytesReclaimed() {
+		return before.getTotalBytes() - after.getTotalBytes();
+	}
+
+	@Override
+	public String toString() {
+		StringJoiner sj = new StringJoiner("\n");
+		sj.add("Before:");
+		sj.add(before.toString());
+		sj.add("After:");
+		sj.add(after.toString());
+		sj.add(String.format("Bitmaps Examined: %s", bitmapsExamined));
+		sj.add(String.format("Bitmaps Re-encoded: %s", bitmapsReencoded));
+		sj.add(String.format("Bitmaps Merged: %s", bitmapsMerged));
+		sj.add(String.format("Bitmap Bytes Saved: %s", FormatUtility.bytesToDynamicSize(bitmapBytesSaved, 2)));
+		sj.add(String.format("Size: %s => %s",
+				FormatUtility.bytesToDynamicSize(before.getTotalBytes(), 2), FormatUtility.bytesToDynamicSize(after.getTotalBytes(), 2)));
+		sj.add(String.format("Elapsed: %s", FormatUtility.getInstance().secondsToElapsedString(elapsedMillis / 1000)));
+		return sj.toString();
+	}
+}
@@ -0,0 +1,67 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.StringJoiner;
+
+import com.nuix.superutilities.misc.FormatUtility;
+
+/***
+ * Outcome of {@link AnnotationRepositoryMerger#merge(AnnotationHistoryRepository, AnnotationHistoryRepository)}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationMergeReport {
+	AnnotationRepositoryDiff diff = null;
+	long eventsMerged = 0;
+	long guidsAdded = 0;
+	long sourcesAdded = 0;
+	long checkpointsRemoved = 0;
+	long elapsedMillis = 0;
+
+	/***
+	 * Gets the differences between the source repository (left) and the target repository (right) found before merging.
+	 * @return The diff of the two repositories prior to the merge
+	 */
+	public AnnotationRepositoryDiff getDiff() {
+		return diff;
+	}
+
+	public long getEventsMerged() {
+		return eventsMerged;
+	}
+
+	/***
+	 * Gets the number of item GUIDs the target repository indexed for the first time because merged events referred to them.
+	 * @return Number of GUIDs added
+	 */
+	public long getGuidsAdded() {
+		return guidsAdded;
+	}
+
+	public long getSourcesAdded() {
+		return sourcesAdded;
+	}
+
+	/***
+	 * Gets the number of checkpoints of the target repository removed because merged events predate them.
+	 * @return Number of checkpoints removed
+	 */
+	public long getCheckpointsRemoved() {
+		return checkpointsRemoved;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringJoiner sj = new StringJoiner("\n");
+		sj.add(diff.toString());
+		sj.add(String.format("Events Merged: %s", eventsMerged));
+		sj.add(String.format("GUIDs Added: %s", guidsAdded));
+		sj.add(String.format("Sources Added: %s", sourcesAdded));
+		sj.add(String.format("Checkpoints Removed: %s", checkpointsRemoved));
+		sj.add(String.format("Elapsed: %s", FormatUtility.getInstance().secondsToElapsedString(elapsedMillis / 1000)));
+		return sj.toString();
+	}
+}
@@ -0,0 +1,373 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+import nuix.Case;
+
+/***
+ * Continuously mirrors annotations from a source case onto a destination case.  At each polling interval new history
+ * events are recorded from the source case into an {@link AnnotationHistoryRepository} (see
+ * {@link AnnotationHistoryRepository#syncHistory(Case, AnnotationSyncSettings)}), then the net effect of every event
+ * recorded since the last replay is compacted and replayed onto the destination case.  Each source of the repository (see
+ * {@link AnnotationSource}) is synced on its own, so the events recorded from one source may be older than those already replayed
+ * from another.  The time stamp of the last replayed event of each source is therefore persisted in the repository as the IntegerInfo
+ * "MirrorReplayedTimeStamp:" followed by the source ID, so that a mirror can be stopped and later resumed.  A source without one
+ * replays from the IntegerInfo "MirrorReplayedTimeStamp", or when a repository has not been mirrored from before, the repository's
+ * "SyncPointTimeStamp", so a destination case copied from the source case should have its sync point set accordingly
+ * (see {@link AnnotationHistoryRepository#setSyncPointFromDestinationCaseLastEvent(Case)}).
+ * @author Jason Wells
+ *
+ */
+public class AnnotationMirror {
+	private static Logger logger = Logger.getLogger(AnnotationMirror.class);
+
+	private AnnotationHistoryRepository repo = null;
+	private Case sourceCase = null;
+	private Case destinationCase = null;
+	private AnnotationSyncSettings syncSettings = null;
+
+	private Thread mirrorThread = null;
+	private volatile boolean continuePolling = true;
+	private final Object pollingLock = new Object();
+	private int pollingIntervalSeconds = 30;
+	private int replayConcurrency = 1;
+	private boolean deltaReplay = false;
+	private AnnotationReplaySession session = null;
+
+	// Written by the polling thread, read by whichever thread reports metrics
+	private volatile long cyclesCompleted = 0;
+	private volatile long lastPollTime = 0;
+	private volatile long lastCycleMillis = 0;
+	private volatile long lastCycleEventsRecorded = 0;
+	private volatile long lastCycleEventsReplayed = 0;
+	private volatile long totalEventsRecorded = 0;
+	private volatile long totalEventsReplayed = 0;
+	private volatile long oldestUnreplicatedEventAgeMillis = 0;
+	private volatile long replicationLagMillis = 0;
+
+	private Consumer<AnnotationMirror> cycleCompletedCallback = null;
+	private Consumer<Exception> errorCallback = null;
+
+	/***
+	 * Creates a new mirror.  Mirroring does not begin until {@link #beginMirroring()} is called.
+	 * @param repo The repository events are recorded to and replayed from
+	 * @param sourceCase The case annotations are mirrored from
+	 * @param destinationCase The case annotations are mirrored onto
+	 * @param syncSettings Settings used to record events from the source case, null uses the defaults
+	 */
+	public AnnotationMirror(AnnotationHistoryRepository repo, Case sourceCase, Case destinationCase, AnnotationSyncSettings syncSettings){
+		this.repo = repo;
+		this.sourceCase = sourceCase;
+		this.destinationCase = destinationCase;
+		this.syncSettings = syncSettings != null ? syncSettings : new AnnotationSyncSettings();
+	}
+
+	/***
+	 * Allows you to register a callback which will be invoked after each mirroring cycle completes.  The callback is provided
+	 * this mirror so it can report metrics such as {@link #getOldestUnreplicatedEventAgeMillis()} and {@link #getEventsPerSecond()}.
+	 * @param callback The callback to be invoked
+	 */
+	public void whenCycleCompleted(Consumer<AnnotationMirror> callback){
+		cycleCompletedCallback = callback;
+	}
+
+	/***
+	 * Allows you to register a callback which will be invoked when a mirroring cycle fails.  Mirroring continues with the
+	 * next cycle, which will retry the events which were not replayed.
+	 * @param callback The callback to be invoked
+	 */
+	public void whenErrorOccurs(Consumer<Exception> callback){
+		errorCallback = callback;
+	}
+
+	/***
+	 * Gets the time stamp replay begins from for sources which have not had any events replayed by this mirror yet.
+	 * @return Time stamp (in milliseconds) after which events of such sources are replayed
+	 * @throws Exception If there is an error reading the repository
+	 */
+	public long getReplayedTimeStamp() throws Exception {
+		if(repo.integerInfoExists("MirrorReplayedTimeStamp")){
+			return repo.getIntegerInfo("MirrorReplayedTimeStamp");
+		} else {
+			return repo.getIntegerInfo("SyncPointTimeStamp");
+		}
+	}
+
+	private static String getReplayedTimeStampName(long sourceId){
+		return "MirrorReplayedTimeStamp:"+sourceId;
+	}
+
+	/***
+	 * Gets the time stamp of the last event of the given source replayed onto the destination case.
+	 * @param sourceId The ID of the source
+	 * @return Time stamp (in milliseconds) of the last replayed event of the source
+	 * @throws Exception If there is an error reading the repository
+	 */
+	public long getReplayedTimeStamp(long sourceId) throws Exception {
+		String name = getReplayedTimeStampName(sourceId);
+		if(repo.integerInfoExists(name)){
+			return repo.getIntegerInfo(name);
+		} else {
+			return getReplayedTimeStamp();
+		}
+	}
+
+	/***
+	 * Sets the time stamp of the last event replayed onto the destination case, for every source.  Events started after this
+	 * time stamp will be replayed by the next cycle.
+	 * @param timeStamp Time stamp in milliseconds
+	 * @throws Exception If there is an error writing to the repository
+	 */
+	public void setReplayedTimeStamp(long timeStamp) throws Exception {
+		repo.setIntegerInfo("MirrorReplayedTimeStamp", timeStamp);
+		for(AnnotationSource source : repo.getSources()){
+			String name = getReplayedTimeStampName(source.getSourceId());
+			if(repo.integerInfoExists(name)){
+				repo.setIntegerInfo(name, timeStamp);
+			}
+		}
+	}
+
+	public void setReplayedTimeStamp(DateTime timeStamp) throws Exception {
+		setReplayedTimeStamp(timeStamp.getMillis());
+	}
+
+	/***
+	 * Performs a single mirroring cycle: records new events from the source case then replays the net effect of every event
+	 * recorded after the last replayed event onto the destination case.  This is what the polling thread started by
+	 * {@link #beginMirroring()} calls at each interval, but it may also be called directly.
+	 * @throws Exception If recording or replaying fails
+	 */
+	public synchronized void runCycle() throws Exception {
+		long cycleStart = System.currentTimeMillis();
+
+		// Sync may modify the settings it is given, such as when it takes a snapshot on first sync
+		long eventCountBefore = repo.getTotalEventCount();
+		repo.syncHistory(sourceCase, syncSettings.copy());
+		long eventsRecorded = repo.getTotalEventCount() - eventCountBefore;
+
+		// A source's last event time stamp is only advanced once its events are recorded, so every event of the source up to
+		// that time stamp is either folded into this plan or was replayed by an earlier cycle
+		long defaultReplayedTimeStamp = getReplayedTimeStamp();
+		Map<Long,Long> replayedBySource = new HashMap<Long,Long>();
+		Map<Long,Long> recordedBySource = new HashMap<Long,Long>();
+		for(AnnotationSource source : repo.getSources()){
+			replayedBySource.put(source.getSourceId(), getReplayedTimeStamp(source.getSourceId()));
+			recordedBySource.put(source.getSourceId(), source.getLastEventTimeStamp());
+		}
+		AnnotationCompactionPlanner planner = repo.buildCompactionPlan(replayedBySource, defaultReplayedTimeStamp);
+		List<AnnotationEvent> compactedEvents = planner.buildCompactedEvents();
+		long earliestUnreplicated = planner.getEarliestFoldedTimeStamp();
+		oldestUnreplicatedEventAgeMillis = earliestUnreplicated < 0 ? 0 : cycleStart - earliestUnreplicated;
+
+		if(compactedEvents.size() > 0){
+			logger.info(String.format("Mirroring %s recorded events as %s net events, oldest unreplicated event is %s ms old",
+					planner.getFoldedEventCount(), compactedEvents.size(), oldestUnreplicatedEventAgeMillis));
+
+			// The session resolves destination items once, it only needs rebuilding when new GUIDs have been indexed
+			if(session == null || !session.coversGuidIndex()){
+				session = repo.createReplaySession(destinationCase);
+			}
+			session.setDeltaReplay(deltaReplay);
+			AnnotationReplayScheduler scheduler = new AnnotationReplayScheduler(session);
+			scheduler.setConcurrency(replayConcurrency);
+			scheduler.replay(compactedEvents);
+		}
+
+		// Each source advances to the last of its events this cycle replayed, events recorded since the plan was built are left for the next cycle
+		Map<Long,Long> latestFolded = planner.getLatestFoldedTimeStampBySource();
+		Map<Long,Long> advanced = new HashMap<Long,Long>(recordedBySource);
+		for(Map.Entry<Long,Long> entry : latestFolded.entrySet()){
+			advanced.merge(entry.getKey(), entry.getValue(), Math::max);
+		}
+		for(Map.Entry<Long,Long> entry : advanced.entrySet()){
+			long replayed = replayedBySource.getOrDefault(entry.getKey(), defaultReplayedTimeStamp);
+			long timeStamp = Math.max(entry.getValue(), planner.getCheckpointTimeStamp());
+			if(timeStamp > replayed){
+				repo.setIntegerInfo(getReplayedTimeStampName(entry.getKey()), timeStamp);
+			}
+		}
+
+		long cycleFinish = System.currentTimeMillis();
+		replicationLagMillis = earliestUnreplicated < 0 ? 0 : cycleFinish - earliestUnreplicated;
+		lastCycleMillis = cycleFinish - cycleStart;
+		lastCycleEventsRecorded = eventsRecorded;
+		lastCycleEventsReplayed = compactedEvents.size();
+		totalEventsRecorded += eventsRecorded;
+		totalEventsReplayed += compactedEvents.size();
+		cyclesCompleted++;
+
+		logger.info(String.format("Mirroring cycle recorded %s events and replayed %s net events in %s ms",
+				lastCycleEventsRecorded, lastCycleEventsReplayed, lastCycleMillis));
+
+		if(cycleCompletedCallback != null){
+			cycleCompletedCallback.accept(this);
+		}
+	}
+
+	/***
+	 * Begins mirroring by running a cycle at each polling interval on a background thread.  Should later be followed by a
+	 * call to {@link #shutdownMirroring()} once mirroring is no longer needed.
+	 */
+	public void beginMirroring(){
+		continuePolling = true;
+		mirrorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(continuePolling){
+					if(System.currentTimeMillis() - lastPollTime >= (pollingIntervalSeconds * 1000)){
+						lastPollTime = System.currentTimeMillis();
+						try {
+							runCycle();
+						} catch (Exception e) {
+							logger.error("Error while mirroring annotations", e);
+							if(errorCallback != null){
+								errorCallback.accept(e);
+							}
+						}
+					}
+					synchronized(pollingLock){
+						long waitMillis = (pollingIntervalSeconds * 1000) - (System.currentTimeMillis() - lastPollTime);
+						if(continuePolling && waitMillis > 0){
+							try {
+								pollingLock.wait(waitMillis);
+							} catch (InterruptedException e) {
+								continuePolling = false;
+							}
+						}
+					}
+				}
+				logger.info("Shutting down annotation mirror thread...");
+			}
+		}, "AnnotationMirror");
+		logger.info("Starting annotation mirror thread...");
+		mirrorThread.start();
+	}
+
+	/***
+	 * Signals to the polling thread that it should stop mirroring and waits for it to finish.  A cycle in progress is allowed
+	 * to complete so the replayed time stamp stays consistent with what has been applied to the destination case.
+	 * See method {@link #beginMirroring()} for how to begin mirroring.
+	 * @throws InterruptedException If interrupted while waiting for the polling thread to finish
+	 */
+	public void shutdownMirroring() throws InterruptedException {
+		logger.info("Requesting annotation mirror thread shutdown...");
+		synchronized(pollingLock){
+			continuePolling = false;
+			pollingLock.notifyAll();
+		}
+		if(mirrorThread != null){
+			mirrorThread.join();
+			mirrorThread = null;
+		}
+	}
+
+	/***
+	 * Gets whether the polling thread is currently running.
+	 * @return True if mirroring has begun and not yet shut down
+	 */
+	public boolean isMirroring(){
+		return mirrorThread != null && mirrorThread.isAlive();
+	}
+
+	public int getPollingIntervalSeconds() {
+		return pollingIntervalSeconds;
+	}
+
+	/***
+	 * Sets how often the source case is polled for new events.  Default is 30 seconds.
+	 * @param pollingIntervalSeconds Polling interval in seconds
+	 */
+	public void setPollingIntervalSeconds(int pollingIntervalSeconds) {
+		if(pollingIntervalSeconds < 1){
+			throw new IllegalArgumentException("pollingIntervalSeconds cannot be less than 1");
+		}
+		this.pollingIntervalSeconds = pollingIntervalSeconds;
+	}
+
+	public int getReplayConcurrency() {
+		return replayConcurrency;
+	}
+
+	/***
+	 * Sets how many annotation keys are replayed concurrently, see {@link AnnotationReplayScheduler}.  Default is 1.
+	 * @param replayConcurrency Maximum number of annotation keys replayed concurrently
+	 */
+	public void setReplayConcurrency(int replayConcurrency) {
+		if(replayConcurrency < 1){
+			throw new IllegalArgumentException("concurrency cannot be less than 1");
+		}
+		this.replayConcurrency = replayConcurrency;
+	}
+
+	public boolean getDeltaReplay() {
+		return deltaReplay;
+	}
+
+	/***
+	 * Sets whether cycles replay only the annotation changes missing from the destination case, see
+	 * {@link AnnotationReplaySession#setDeltaReplay(boolean)}.  Default is false.
+	 * @param deltaReplay True to only write items whose state would change
+	 */
+	public void setDeltaReplay(boolean deltaReplay) {
+		this.deltaReplay = deltaReplay;
+	}
+
+	/***
+	 * Gets the age of the oldest event which had not yet been replayed at the start of the last cycle.
+	 * @return Age in milliseconds, 0 if there were no events to replay
+	 */
+	public long getOldestUnreplicatedEventAgeMillis() {
+		return oldestUnreplicatedEventAgeMillis;
+	}
+
+	/***
+	 * Gets the time between the oldest event replayed by the last cycle occurring in the source case and that cycle
+	 * completing, the longest any replayed event took to show up in the destination case.
+	 * @return Lag in milliseconds, 0 if the last cycle had no events to replay
+	 */
+	public long getReplicationLagMillis() {
+		return replicationLagMillis;
+	}
+
+	/***
+	 * Gets the rate at which the last cycle recorded and replayed source case events.
+	 * @return Recorded events per second of the last cycle
+	 */
+	public double getEventsPerSecond() {
+		if(lastCycleMillis < 1){
+			return 0;
+		}
+		return lastCycleEventsRecorded / (lastCycleMillis / 1000.0);
+	}
+
+	public long getCyclesCompleted() {
+		return cyclesCompleted;
+	}
+
+	public long getLastCycleMillis() {
+		return lastCycleMillis;
+	}
+
+	public long getLastCycleEventsRecorded() {
+		return lastCycleEventsRecorded;
+	}
+
+	public long getLastCycleEventsReplayed() {
+		return lastCycleEventsReplayed;
+	}
+
+	public long getTotalEventsRecorded() {
+		return totalEventsRecorded;
+	}
+
+	public long getTotalEventsReplayed() {
+		return totalEventsReplayed;
+	}
+}
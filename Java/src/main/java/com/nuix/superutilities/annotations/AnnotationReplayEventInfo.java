@@ -0,0 +1,88 @@
+package com.nuix.superutilities.annotations;
+
+/***
+ * Provides information about a single event replayed by an {@link AnnotationReplaySession}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationReplayEventInfo {
+	private AnnotationEvent event = null;
+	private int resolvedCount = 0;
+	private int unresolvedCount = 0;
+	private int skippedCount = 0;
+	private long rehydrateNanos = 0;
+	private long applyNanos = 0;
+
+	AnnotationReplayEventInfo(AnnotationEvent event, int resolvedCount, int unresolvedCount, int skippedCount, long rehydrateNanos, long applyNanos){
+		this.event = event;
+		this.resolvedCount = resolvedCount;
+		this.unresolvedCount = unresolvedCount;
+		this.skippedCount = skippedCount;
+		this.rehydrateNanos = rehydrateNanos;
+		this.applyNanos = applyNanos;
+	}
+
+	/***
+	 * Gets the event which was replayed.
+	 * @return The replayed event
+	 */
+	public AnnotationEvent getEvent() {
+		return event;
+	}
+
+	/***
+	 * Gets the number of the event's items which were resolved to destination items and had the event applied.  When delta
+	 * replay is enabled this does not include the skipped items.
+	 * @return Number of resolved items
+	 */
+	public int getResolvedCount() {
+		return resolvedCount;
+	}
+
+	/***
+	 * Gets the number of the event's items which could not be resolved to a destination item.
+	 * @return Number of unresolved items
+	 */
+	public int getUnresolvedCount() {
+		return unresolvedCount;
+	}
+
+	/***
+	 * Gets the number of the event's items which were not written because they already held the event's state in the
+	 * destination case.  Only non-zero when delta replay is enabled, see {@link AnnotationReplaySession#setDeltaReplay(boolean)}.
+	 * @return Number of skipped items
+	 */
+	public int getSkippedCount() {
+		return skippedCount;
+	}
+
+	/***
+	 * Gets the time spent resolving the event's items to destination items, including determining which items to skip when
+	 * delta replay is enabled.
+	 * @return Rehydrate time in nanoseconds
+	 */
+	public long getRehydrateNanos() {
+		return rehydrateNanos;
+	}
+
+	/***
+	 * Gets the time spent applying the event to the resolved destination items.
+	 * @return Apply time in nanoseconds
+	 */
+	public long getApplyNanos() {
+		return applyNanos;
+	}
+
+	/***
+	 * Gets the total time spent replaying the event.
+	 * @return Rehydrate and apply time in milliseconds
+	 */
+	public double getElapsedMillis() {
+		return (rehydrateNanos + applyNanos) / 1000000d;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (%s resolved, %s unresolved, %s skipped)", event, resolvedCount, unresolvedCount, skippedCount);
+	}
+}
@@ -0,0 +1,85 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.nuix.superutilities.misc.FormatUtility;
+
+/***
+ * Progress of a replay performed by an {@link AnnotationReplayRunner}, provided to the callback given to
+ * {@link AnnotationReplayRunner#whenProgressUpdated(java.util.function.Consumer)}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationReplayProgressInfo {
+	long eventsReplayed = 0;
+	long totalEvents = 0;
+	long itemsReplayed = 0;
+	long totalItems = 0;
+	long elapsedMillis = 0;
+	Map<String,AnnotationReplayTypeStatistics> typeStatistics = null;
+
+	public long getEventsReplayed() {
+		return eventsReplayed;
+	}
+
+	public long getTotalEvents() {
+		return totalEvents;
+	}
+
+	/***
+	 * Gets the sum of the item counts recorded for the events replayed so far.  This includes items which could not be resolved
+	 * or were skipped, so that it can be compared with {@link #getTotalItems()}.
+	 * @return Item count of the replayed events
+	 */
+	public long getItemsReplayed() {
+		return itemsReplayed;
+	}
+
+	/***
+	 * Gets the sum of the item counts recorded for all events of the replay.
+	 * @return Item count of all events
+	 */
+	public long getTotalItems() {
+		return totalItems;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/***
+	 * Gets the statistics of each event type replayed so far, as of when this progress was reported.
+	 * @return Map of event type to statistics
+	 */
+	public Map<String,AnnotationReplayTypeStatistics> getTypeStatistics() {
+		return Collections.unmodifiableMap(typeStatistics);
+	}
+
+	/***
+	 * Estimates the time remaining by assuming the items still to be replayed take as long per item as those replayed so far.
+	 * @return Estimated remaining time in milliseconds, -1 if no items have been replayed yet
+	 */
+	public long getEstimatedRemainingMillis() {
+		if(itemsReplayed < 1){
+			return -1;
+		}
+		return (long)(elapsedMillis * ((double)(totalItems - itemsReplayed) / itemsReplayed));
+	}
+
+	public double getPercentComplete() {
+		if(totalItems < 1){
+			return totalEvents < 1 ? 100 : FormatUtility.round(eventsReplayed * 100d / totalEvents, 2);
+		}
+		return FormatUtility.round(itemsReplayed * 100d / totalItems, 2);
+	}
+
+	@Override
+	public String toString() {
+		long remaining = getEstimatedRemainingMillis();
+		return String.format("%s/%s events, %s/%s items (%s%%), elapsed %s, ETA %s",
+				eventsReplayed, totalEvents, itemsReplayed, totalItems, getPercentComplete(),
+				FormatUtility.getInstance().secondsToElapsedString(elapsedMillis / 1000),
+				remaining < 0 ? "?" : FormatUtility.getInstance().secondsToElapsedString(remaining / 1000));
+	}
+}
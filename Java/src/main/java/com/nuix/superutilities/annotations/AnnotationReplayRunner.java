@@ -0,0 +1,326 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+import nuix.Case;
+
+/***
+ * Replays events through an {@link AnnotationReplaySession} while measuring how long each event spends resolving its items
+ * (rehydrate) and applying itself to them (apply).  Timings are accumulated per event type, progress including an estimate of the
+ * time remaining is reported on an interval and the slowest events of each run can be written to a CSV file.  The estimate is based
+ * on the item counts recorded for the events, since the cost of replaying an event largely depends on how many items it touches.
+ * Obtain an instance by calling {@link AnnotationHistoryRepository#createReplayRunner(Case)}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationReplayRunner {
+	private static Logger logger = Logger.getLogger(AnnotationReplayRunner.class);
+
+	private static final Comparator<AnnotationReplayEventInfo> byElapsed =
+			Comparator.comparingLong(info -> info.getRehydrateNanos() + info.getApplyNanos());
+
+	private AnnotationHistoryRepository sourceRepo = null;
+	private AnnotationReplaySession session = null;
+	private int progressIntervalSeconds = 15;
+	private int slowestEventCount = 100;
+	private File reportDirectory = null;
+	private File lastReportFile = null;
+
+	private Consumer<AnnotationReplayProgressInfo> progressCallback = null;
+
+	private Map<String,AnnotationReplayTypeStatistics> typeStatistics = new LinkedHashMap<String,AnnotationReplayTypeStatistics>();
+	private PriorityQueue<AnnotationReplayEventInfo> slowestEvents = null;
+	private long eventsReplayed = 0;
+	private long totalEvents = 0;
+	private long itemsReplayed = 0;
+	private long totalItems = 0;
+	private long runStarted = 0;
+	private long lastProgressReported = 0;
+
+	AnnotationReplayRunner(AnnotationHistoryRepository sourceRepo, AnnotationReplaySession session){
+		this.sourceRepo = sourceRepo;
+		this.session = session;
+	}
+
+	/***
+	 * Allows you to provide a callback which will be invoked with the progress of a replay every {@link #getProgressIntervalSeconds()}
+	 * seconds, as well as once the replay has finished.
+	 * @param callback The callback to receive progress
+	 */
+	public void whenProgressUpdated(Consumer<AnnotationReplayProgressInfo> callback) {
+		progressCallback = callback;
+	}
+
+	/***
+	 * Replays the given events in order.
+	 * @param events The events to replay, for example those returned by {@link AnnotationCompactionPlanner#buildCompactedEvents()}
+	 * @throws Exception If something goes wrong
+	 */
+	public void replay(List<AnnotationEvent> events) throws Exception {
+		long itemCount = 0;
+		for(AnnotationEvent event : events){
+			itemCount += expectedItemCount(event);
+		}
+		beginRun(events.size(), itemCount);
+		try {
+			for(AnnotationEvent event : events){
+				replayEvent(event);
+			}
+		} finally {
+			finishRun();
+		}
+	}
+
+	/***
+	 * Replays every recorded event started after the given time stamp, in time stamp order.  The totals used to estimate the time
+	 * remaining come from the item count stored with each event, so each event is only decoded once, when it is replayed.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are replayed
+	 * @throws Exception If something goes wrong
+	 */
+	public void replay(long startedAfter) throws Exception {
+		long[] counts = sourceRepo.countEventsAndItems(startedAfter, Long.MAX_VALUE);
+		beginRun(counts[0], counts[1]);
+		try(EventCursor cursor = sourceRepo.openEventCursor(startedAfter, Long.MAX_VALUE)){
+			while(cursor.next()){
+				replayEvent(cursor.getEvent());
+			}
+		} finally {
+			finishRun();
+		}
+	}
+
+	/***
+	 * Replays the net effect of the recorded events started after the given time stamp, see
+	 * {@link AnnotationHistoryRepository#buildCompactionPlan(long)}.
+	 * @param startedAfter Only events started after this time stamp (in milliseconds) are folded into the replayed net events
+	 * @throws Exception If something goes wrong
+	 */
+	public void replayCompacted(long startedAfter) throws Exception {
+		AnnotationCompactionPlanner planner = sourceRepo.buildCompactionPlan(startedAfter);
+		List<AnnotationEvent> compactedEvents = planner.buildCompactedEvents();
+		logger.info(String.format("Compacted %s recorded events into %s net events",
+				planner.getFoldedEventCount(), compactedEvents.size()));
+		replay(compactedEvents);
+	}
+
+	private static long expectedItemCount(AnnotationEvent event) {
+		Integer itemCount = event.getExpectedItemCount();
+		return itemCount == null || itemCount < 0 ? 0 : itemCount;
+	}
+
+	private void beginRun(long eventCount, long itemCount) {
+		typeStatistics.clear();
+		slowestEvents = new PriorityQueue<AnnotationReplayEventInfo>(slowestEventCount + 1, byElapsed);
+		eventsReplayed = 0;
+		totalEvents = eventCount;
+		itemsReplayed = 0;
+		totalItems = itemCount;
+		runStarted = System.currentTimeMillis();
+		lastProgressReported = runStarted;
+		logger.info(String.format("Replaying %s events totaling %s items", eventCount, itemCount));
+	}
+
+	private void replayEvent(AnnotationEvent event) throws Exception {
+		AnnotationReplayEventInfo info = session.replay(event);
+
+		String eventType = event.getEventType();
+		AnnotationReplayTypeStatistics statistics = typeStatistics.get(eventType);
+		if(statistics == null){
+			statistics = new AnnotationReplayTypeStatistics(eventType);
+			typeStatistics.put(eventType, statistics);
+		}
+		statistics.record(info);
+
+		// Keep only the slowest events, the queue head being the fastest of those kept
+		slowestEvents.add(info);
+		if(slowestEvents.size() > slowestEventCount){
+			slowestEvents.poll();
+		}
+
+		eventsReplayed++;
+		itemsReplayed += expectedItemCount(event);
+
+		long now = System.currentTimeMillis();
+		if(now - lastProgressReported >= progressIntervalSeconds * 1000L){
+			lastProgressReported = now;
+			reportProgress();
+		}
+	}
+
+	private void finishRun() throws IOException {
+		AnnotationReplayProgressInfo progress = reportProgress();
+		for(AnnotationReplayTypeStatistics statistics : typeStatistics.values()){
+			logger.info(statistics.toString());
+		}
+		if(reportDirectory != null){
+			reportDirectory.mkdirs();
+			lastReportFile = new File(reportDirectory,
+					String.format("ReplaySlowestEvents_%s.csv", new DateTime(runStarted).toString("yyyyMMdd_HHmmss")));
+			writeSlowestEventsCsv(lastReportFile);
+		}
+		logger.info(String.format("Replay finished: %s", progress));
+	}
+
+	private AnnotationReplayProgressInfo reportProgress() {
+		AnnotationReplayProgressInfo progress = buildProgress();
+		logger.info(progress.toString());
+		if(progressCallback != null){
+			progressCallback.accept(progress);
+		}
+		return progress;
+	}
+
+	/***
+	 * Builds the progress of the current or most recent replay.
+	 * @return Progress of the replay
+	 */
+	public AnnotationReplayProgressInfo buildProgress() {
+		AnnotationReplayProgressInfo progress = new AnnotationReplayProgressInfo();
+		progress.eventsReplayed = eventsReplayed;
+		progress.totalEvents = totalEvents;
+		progress.itemsReplayed = itemsReplayed;
+		progress.totalItems = totalItems;
+		progress.elapsedMillis = System.currentTimeMillis() - runStarted;
+		// Copied so the callback sees a consistent view which later events do not change
+		progress.typeStatistics = new LinkedHashMap<String,AnnotationReplayTypeStatistics>();
+		for(Map.Entry<String,AnnotationReplayTypeStatistics> entry : typeStatistics.entrySet()){
+			progress.typeStatistics.put(entry.getKey(), new AnnotationReplayTypeStatistics(entry.getValue()));
+		}
+		return progress;
+	}
+
+	/***
+	 * Writes the slowest events of the most recent replay to a CSV file, slowest first.
+	 * @param csvFile The file to write
+	 * @throws IOException If there is an error writing the file
+	 */
+	public void writeSlowestEventsCsv(File csvFile) throws IOException {
+		try(BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))){
+			writer.write("Rank,EventType,TimeStamp,StateKey,ValueKey,Assignment,ExpectedItems,AppliedItems,UnresolvedItems,SkippedItems,RehydrateMillis,ApplyMillis,TotalMillis,Event");
+			writer.newLine();
+			int rank = 1;
+			for(AnnotationReplayEventInfo info : getSlowestEvents()){
+				AnnotationEvent event = info.getEvent();
+				StringJoiner row = new StringJoiner(",");
+				row.add(Integer.toString(rank++));
+				row.add(event.getEventType());
+				row.add(event.getTimeStamp().toString());
+				row.add(csvValue(event.getStateKey()));
+				row.add(csvValue(event.getStateValueKey()));
+				row.add(Boolean.toString(event.isStateAssignment()));
+				row.add(Long.toString(expectedItemCount(event)));
+				row.add(Integer.toString(info.getResolvedCount()));
+				row.add(Integer.toString(info.getUnresolvedCount()));
+				row.add(Integer.toString(info.getSkippedCount()));
+				row.add(String.format("%.3f", info.getRehydrateNanos() / 1000000d));
+				row.add(String.format("%.3f", info.getApplyNanos() / 1000000d));
+				row.add(String.format("%.3f", info.getElapsedMillis()));
+				row.add(csvValue(event.toString()));
+				writer.write(row.toString());
+				writer.newLine();
+			}
+		}
+	}
+
+	private static String csvValue(String value) {
+		if(value == null){
+			return "";
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/***
+	 * Gets the slowest events of the current or most recent replay, slowest first.
+	 * @return Up to {@link #getSlowestEventCount()} events
+	 */
+	public List<AnnotationReplayEventInfo> getSlowestEvents() {
+		if(slowestEvents == null){
+			return Collections.emptyList();
+		}
+		List<AnnotationReplayEventInfo> result = new ArrayList<AnnotationReplayEventInfo>(slowestEvents);
+		result.sort(byElapsed.reversed());
+		return result;
+	}
+
+	/***
+	 * Gets the statistics of each event type replayed by the current or most recent replay.
+	 * @return Map of event type to statistics
+	 */
+	public Map<String,AnnotationReplayTypeStatistics> getTypeStatistics() {
+		return Collections.unmodifiableMap(typeStatistics);
+	}
+
+	/***
+	 * Gets the session events are replayed through.
+	 * @return The replay session of this runner
+	 */
+	public AnnotationReplaySession getSession() {
+		return session;
+	}
+
+	public int getProgressIntervalSeconds() {
+		return progressIntervalSeconds;
+	}
+
+	/***
+	 * Sets how often progress is reported while replaying.  Default is 15 seconds.
+	 * @param progressIntervalSeconds Progress interval in seconds
+	 */
+	public void setProgressIntervalSeconds(int progressIntervalSeconds) {
+		if(progressIntervalSeconds < 1){
+			throw new IllegalArgumentException("progressIntervalSeconds cannot be less than 1");
+		}
+		this.progressIntervalSeconds = progressIntervalSeconds;
+	}
+
+	public int getSlowestEventCount() {
+		return slowestEventCount;
+	}
+
+	/***
+	 * Sets how many of the slowest events of a replay are kept.  Default is 100.
+	 * @param slowestEventCount Number of slowest events to keep
+	 */
+	public void setSlowestEventCount(int slowestEventCount) {
+		if(slowestEventCount < 1){
+			throw new IllegalArgumentException("slowestEventCount cannot be less than 1");
+		}
+		this.slowestEventCount = slowestEventCount;
+	}
+
+	public File getReportDirectory() {
+		return reportDirectory;
+	}
+
+	/***
+	 * Sets a directory which each replay writes a CSV of its slowest events to, named after the time the replay started.  When
+	 * not set (the default) no CSV is written, although {@link #writeSlowestEventsCsv(File)} may still be called after a replay.
+	 * @param reportDirectory Directory to write slowest event CSV files to, or null
+	 */
+	public void setReportDirectory(File reportDirectory) {
+		this.reportDirectory = reportDirectory;
+	}
+
+	/***
+	 * Gets the CSV file written by the most recent replay.
+	 * @return The most recently written CSV file, null if none has been written
+	 */
+	public File getLastReportFile() {
+		return lastReportFile;
+	}
+}
@@ -0,0 +1,171 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/***
+ * Replays compacted events onto a destination case through an {@link AnnotationReplaySession}, applying events for
+ * independent annotation keys concurrently.  Events are partitioned by their state key (for example "Tag:Responsive" or
+ * "Custodian") and each partition is replayed by a worker in a bounded pool, so events of the same key are always applied
+ * one at a time in the order they were provided.  Events without a state key (production set events) are replayed
+ * afterwards, in order, once all partitions have completed.  When strict ordering is enabled, or the concurrency is 1, all
+ * events are instead replayed sequentially in the order provided.  Obtain an instance by calling
+ * {@link AnnotationHistoryRepository#createReplayScheduler(nuix.Case)}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationReplayScheduler {
+	private static Logger logger = Logger.getLogger(AnnotationReplayScheduler.class);
+
+	// How long to wait for workers still replaying an event to stop after another worker has failed
+	private static final long failedShutdownTimeoutSeconds = 60;
+
+	private AnnotationReplaySession session = null;
+	private int concurrency = 4;
+	private boolean strictOrdering = false;
+
+	AnnotationReplayScheduler(AnnotationReplaySession session){
+		this.session = session;
+	}
+
+	/***
+	 * Replays the given events onto the destination case of this scheduler's session.
+	 * @param events The events to replay, for example those returned by {@link AnnotationCompactionPlanner#buildCompactedEvents()}
+	 * @throws Exception If replaying any event fails, in which case partitions not yet started are skipped and, before this is thrown,
+	 * the remaining workers are interrupted and given a bounded time to stop
+	 */
+	public void replay(List<AnnotationEvent> events) throws Exception {
+		if(strictOrdering || concurrency == 1){
+			logger.info(String.format("Replaying %s events sequentially", events.size()));
+			for(AnnotationEvent event : events){
+				session.replay(event);
+			}
+			return;
+		}
+
+		Map<String,List<AnnotationEvent>> partitions = new LinkedHashMap<String,List<AnnotationEvent>>();
+		List<AnnotationEvent> unpartitioned = new ArrayList<AnnotationEvent>();
+		for(AnnotationEvent event : events){
+			String stateKey = event.getStateKey();
+			if(stateKey == null){
+				unpartitioned.add(event);
+			} else {
+				List<AnnotationEvent> partition = partitions.get(stateKey);
+				if(partition == null){
+					partition = new ArrayList<AnnotationEvent>();
+					partitions.put(stateKey, partition);
+				}
+				partition.add(event);
+			}
+		}
+
+		logger.info(String.format("Replaying %s events across %s key partitions using %s threads, followed by %s unpartitioned events",
+				events.size() - unpartitioned.size(), partitions.size(), concurrency, unpartitioned.size()));
+
+		AtomicBoolean abort = new AtomicBoolean(false);
+		ForkJoinPool pool = null;
+		boolean completed = false;
+		try {
+			pool = new ForkJoinPool(concurrency);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for(List<AnnotationEvent> partition : partitions.values()){
+				futures.add(pool.submit(() -> {
+					for(AnnotationEvent event : partition){
+						if(abort.get()){ return null; }
+						try {
+							session.replay(event);
+						} catch (Exception e) {
+							abort.set(true);
+							throw e;
+						}
+					}
+					return null;
+				}));
+			}
+			for(Future<?> future : futures){
+				future.get();
+			}
+			completed = true;
+		} catch (ExecutionException e) {
+			logger.error("Error while replaying key partition",e.getCause());
+			if(e.getCause() instanceof Exception){
+				throw (Exception)e.getCause();
+			}
+			throw e;
+		} finally {
+			if(pool != null) {
+				if(completed) {
+					pool.shutdown();
+				} else {
+					// Stop the remaining workers before the failure is propagated, so none is still annotating the destination case afterwards
+					abort.set(true);
+					pool.shutdownNow();
+					try {
+						if(!pool.awaitTermination(failedShutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+							logger.warn(String.format("Replay workers did not stop within %s seconds of a failure", failedShutdownTimeoutSeconds));
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+
+		for(AnnotationEvent event : unpartitioned){
+			session.replay(event);
+		}
+	}
+
+	/***
+	 * Gets the session events are replayed through.
+	 * @return The replay session of this scheduler
+	 */
+	public AnnotationReplaySession getSession() {
+		return session;
+	}
+
+	/***
+	 * Gets the maximum number of key partitions replayed concurrently.
+	 * @return The concurrency
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/***
+	 * Sets the maximum number of key partitions replayed concurrently.  A value of 1 replays all events sequentially.
+	 * @param concurrency The concurrency, must be at least 1
+	 */
+	public void setConcurrency(int concurrency) {
+		if(concurrency < 1){
+			throw new IllegalArgumentException("concurrency cannot be less than 1");
+		}
+		this.concurrency = concurrency;
+	}
+
+	/***
+	 * Gets whether events are replayed sequentially in the order provided, regardless of concurrency.
+	 * @return True if strict global ordering is enabled
+	 */
+	public boolean getStrictOrdering() {
+		return strictOrdering;
+	}
+
+	/***
+	 * Sets whether events are replayed sequentially in the order provided, regardless of concurrency.  Useful as a fallback
+	 * if concurrent annotation of the destination case causes problems.
+	 * @param strictOrdering True to replay events in strict global order
+	 */
+	public void setStrictOrdering(boolean strictOrdering) {
+		this.strictOrdering = strictOrdering;
+	}
+}
@@ -0,0 +1,355 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+import org.roaringbitmap.ImmutableBitmapDataProvider;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import nuix.Case;
+import nuix.Item;
+
+/***
+ * Replays events from an {@link AnnotationHistoryRepository} onto a destination case, resolving the destination
+ * items only once.  On creation a single search of all items in the destination case is used to build an array of
+ * items aligned with the repository's GUID bitmap indices.  Each replayed event then obtains its items by direct
+ * array lookup rather than running GUID searches against the case.  Obtain an instance by calling
+ * {@link AnnotationHistoryRepository#createReplaySession(Case)}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationReplaySession {
+	private static Logger logger = Logger.getLogger(AnnotationReplaySession.class);
+
+	private AnnotationHistoryRepository sourceRepo = null;
+	private Case nuixCase = null;
+	private Item[] itemsByIndex = null;
+	private int resolvedItemCount = 0;
+	private long totalUnresolvedCount = 0;
+	private long eventsReplayed = 0;
+	private long totalSkippedCount = 0;
+	private long coalescedEventCount = 0;
+	private boolean deltaReplay = false;
+
+	private Consumer<AnnotationReplayEventInfo> eventReplayedCallback = null;
+
+	AnnotationReplaySession(AnnotationHistoryRepository sourceRepo, Case nuixCase){
+		this.sourceRepo = sourceRepo;
+		this.nuixCase = nuixCase;
+		resolveDestinationItems();
+	}
+
+	/***
+	 * Searches for all items in the destination case and records each in the array slot matching its bitmap index.
+	 */
+	private void resolveDestinationItems(){
+		long startTime = System.currentTimeMillis();
+		logger.info("Resolving destination case items to bitmap indices...");
+		itemsByIndex = new Item[sourceRepo.getGuidIndexSize()+1];
+		for(Item item : nuixCase.search("")){
+			Long index = sourceRepo.getGuidIndex(item.getGuid());
+			if(index != null && index < itemsByIndex.length){
+				itemsByIndex[index.intValue()] = item;
+				resolvedItemCount++;
+			}
+		}
+		long finishTime = System.currentTimeMillis();
+		logger.info(String.format("Resolved %s of %s repository GUIDs to destination items in %s ms",
+				resolvedItemCount, itemsByIndex.length-1, finishTime - startTime));
+	}
+
+	/***
+	 * Determines whether the item array built by this session still covers every GUID index in the repository.  Items
+	 * indexed by the repository after this session was created cannot be resolved by it.
+	 * @return True if no GUIDs have been indexed by the repository since this session was created
+	 */
+	boolean coversGuidIndex(){
+		return sourceRepo.getGuidIndexSize()+1 <= itemsByIndex.length;
+	}
+
+	/***
+	 * Allows you to provide a callback which will be invoked after each event is replayed by this session.
+	 * @param callback The callback to receive information about each replayed event
+	 */
+	public void whenEventReplayed(Consumer<AnnotationReplayEventInfo> callback) {
+		eventReplayedCallback = callback;
+	}
+
+	/***
+	 * Resolves the item indices of a bitmap to destination case items.
+	 * @param bitmap Bitmap of item indices to resolve
+	 * @param unresolved Bitmap which will receive the indices which could not be resolved to a destination item, may be null
+	 * @return List of the destination items which could be resolved
+	 */
+	List<Item> resolveItems(ImmutableBitmapDataProvider bitmap, RoaringBitmap unresolved){
+		List<Item> result = new ArrayList<Item>(bitmap.getCardinality());
+		IntIterator iterator = bitmap.getIntIterator();
+		while(iterator.hasNext()){
+			int index = iterator.next();
+			Item item = index < itemsByIndex.length ? itemsByIndex[index] : null;
+			if(item != null){
+				result.add(item);
+			} else if(unresolved != null){
+				unresolved.add(index);
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Resolves the items associated to an event to destination case items.
+	 * @param event The event to resolve the items of
+	 * @return List of the destination items which could be resolved
+	 */
+	public List<Item> resolveItems(AnnotationEvent event) {
+		return resolveItems(event.getBitmapView(), null);
+	}
+
+	/***
+	 * Determines which of an event's items already hold the state the event modifies in the destination case, see
+	 * {@link AnnotationEvent#findItemsHoldingState(Case)}.
+	 * @param event The event to check the destination state of
+	 * @return Bitmap of the indices of event items holding the event's state, null if the state cannot be determined
+	 */
+	private RoaringBitmap findIndicesHoldingState(AnnotationEvent event){
+		Collection<Item> holdingItems = event.findItemsHoldingState(nuixCase);
+		if(holdingItems == null){
+			return null;
+		}
+		ImmutableBitmapDataProvider target = event.getBitmapView();
+		RoaringBitmap result = new RoaringBitmap();
+		for(Item item : holdingItems){
+			Long index = sourceRepo.getGuidIndex(item.getGuid());
+			if(index == null || index >= itemsByIndex.length || !target.contains(index.intValue())){
+				continue;
+			}
+			if(!event.isStateAssignment() || event.itemHoldsStateValue(item)){
+				result.add(index.intValue());
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Replays an event onto the destination case of this session.  May be called from multiple threads, as is done by
+	 * {@link AnnotationReplayScheduler}, in which case the callback provided to {@link #whenEventReplayed(Consumer)} will
+	 * also be invoked from those threads.
+	 * When delta replay is enabled (see {@link #setDeltaReplay(boolean)}) only the items whose state would actually change
+	 * are written.
+	 * @param event The event to replay
+	 * @return Information about the replayed event, including how many of its items could not be resolved
+	 * @throws Exception If something goes wrong
+	 */
+	public AnnotationReplayEventInfo replay(AnnotationEvent event) throws Exception {
+		long rehydrateStarted = System.nanoTime();
+		long applyStarted = 0;
+		RoaringBitmap unresolved = new RoaringBitmap();
+		List<Item> items = null;
+		int skippedCount = 0;
+		RoaringBitmap holding = deltaReplay && event.getStateKey() != null ? findIndicesHoldingState(event) : null;
+		if(holding != null){
+			// Items found in the destination always resolve, so skipped items never include unresolved ones
+			RoaringBitmap target = event.getBitmap();
+			RoaringBitmap pending = null;
+			if(event.isStateAssignment()){
+				pending = RoaringBitmap.andNot(target, holding);
+				items = resolveItems(pending, unresolved);
+			} else {
+				pending = RoaringBitmap.and(target, holding);
+				items = resolveItems(pending, null);
+				resolveItems(RoaringBitmap.andNot(target, holding), unresolved);
+			}
+			skippedCount = target.getCardinality() - pending.getCardinality() - (event.isStateAssignment() ? 0 : unresolved.getCardinality());
+			applyStarted = System.nanoTime();
+			if(items.size() > 0){
+				event.applyToItems(nuixCase, items);
+			}
+		} else {
+			items = resolveItems(event.getBitmapView(), unresolved);
+			applyStarted = System.nanoTime();
+			event.applyToItems(nuixCase, items);
+		}
+		long applyFinished = System.nanoTime();
+
+		AnnotationReplayEventInfo info = new AnnotationReplayEventInfo(event, items.size(), unresolved.getCardinality(), skippedCount,
+				applyStarted - rehydrateStarted, applyFinished - applyStarted);
+		synchronized(this){
+			eventsReplayed++;
+			totalUnresolvedCount += info.getUnresolvedCount();
+			totalSkippedCount += info.getSkippedCount();
+		}
+		if(info.getUnresolvedCount() > 0){
+			logger.warn(String.format("%s items of %s could not be resolved in destination case", info.getUnresolvedCount(), event));
+		}
+		if(eventReplayedCallback != null){
+			eventReplayedCallback.accept(info);
+		}
+		return info;
+	}
+
+	/***
+	 * A run of compatible events for a single state key waiting to be replayed as one event.
+	 */
+	private static class PendingGroup {
+		AnnotationEvent first = null;
+		AnnotationEvent last = null;
+		RoaringBitmap items = null;
+		int eventCount = 0;
+
+		PendingGroup(AnnotationEvent event){
+			first = event;
+			last = event;
+			eventCount = 1;
+		}
+
+		void add(AnnotationEvent event) throws IOException {
+			if(items == null){
+				items = first.getBitmap();
+			}
+			items.or(event.getBitmap());
+			last = event;
+			eventCount++;
+		}
+	}
+
+	/***
+	 * Replays a group, as the original event when it holds only one event, otherwise as a single event derived from the
+	 * first event of the group and applied to the union of the items of every event in the group.
+	 */
+	private void replayGroup(PendingGroup group) throws Exception {
+		if(group.eventCount == 1){
+			replay(group.first);
+		} else {
+			AnnotationEvent combined = group.first.deriveNetEvent(group.first.isStateAssignment());
+			combined.setBitmap(group.items);
+			replay(combined);
+			synchronized(this){
+				coalescedEventCount += group.eventCount - 1;
+			}
+		}
+	}
+
+	/***
+	 * Replays every event provided by a cursor in order, coalescing runs of compatible events (see
+	 * {@link AnnotationEvent#canCoalesceWith(AnnotationEvent)}) for the same annotation key into a single replayed event.
+	 * For example hundreds of bulk coding events setting the same custom metadata field to the same value on different
+	 * batches of items become one call to put the custom metadata on the union of those items.  Events for other keys may
+	 * occur between the events of a run since they do not affect the key being coalesced, a run ends when an incompatible
+	 * event for the same key occurs.  Events without a state key (production set events) are replayed in place once all
+	 * pending runs have been replayed.
+	 * @param cursor Cursor providing the events to replay in time stamp order, see {@link AnnotationHistoryRepository#openEventCursor(long, long)}
+	 * @return The number of events replayed onto the destination case after coalescing
+	 * @throws Exception If something goes wrong
+	 */
+	public long replayCoalesced(EventCursor cursor) throws Exception {
+		Map<String,PendingGroup> pendingByKey = new LinkedHashMap<String,PendingGroup>();
+		long replayedCount = 0;
+		while(cursor.next()){
+			AnnotationEvent event = cursor.getEvent();
+			String stateKey = event.getStateKey();
+			if(stateKey == null){
+				for(PendingGroup group : pendingByKey.values()){
+					replayGroup(group);
+					replayedCount++;
+				}
+				pendingByKey.clear();
+				replay(event);
+				replayedCount++;
+				continue;
+			}
+
+			PendingGroup group = pendingByKey.get(stateKey);
+			if(group != null && group.last.canCoalesceWith(event)){
+				group.add(event);
+			} else {
+				if(group != null){
+					replayGroup(group);
+					replayedCount++;
+				}
+				pendingByKey.put(stateKey, new PendingGroup(event));
+			}
+		}
+		for(PendingGroup group : pendingByKey.values()){
+			replayGroup(group);
+			replayedCount++;
+		}
+		return replayedCount;
+	}
+
+	/***
+	 * Gets the number of events which did not need to be replayed separately because they were coalesced into another
+	 * event by {@link #replayCoalesced(EventCursor)}.
+	 * @return Number of coalesced events
+	 */
+	public synchronized long getCoalescedEventCount() {
+		return coalescedEventCount;
+	}
+
+	/***
+	 * Gets the destination case of this session.
+	 * @return The destination case
+	 */
+	public Case getCase() {
+		return nuixCase;
+	}
+
+	/***
+	 * Gets the number of repository GUIDs which were resolved to a destination item when this session was created.
+	 * @return Number of resolved items
+	 */
+	public int getResolvedItemCount() {
+		return resolvedItemCount;
+	}
+
+	/***
+	 * Gets the total number of event items which could not be resolved to a destination item, across all events replayed by this session.
+	 * @return Total unresolved item count
+	 */
+	public synchronized long getTotalUnresolvedCount() {
+		return totalUnresolvedCount;
+	}
+
+	/***
+	 * Gets the total number of event items which were not written because they already held the state being replayed,
+	 * across all events replayed by this session.  Only non-zero when delta replay is enabled.
+	 * @return Total skipped item count
+	 */
+	public synchronized long getTotalSkippedCount() {
+		return totalSkippedCount;
+	}
+
+	/***
+	 * Gets whether delta replay is enabled.
+	 * @return True if only items whose state would change are written
+	 */
+	public boolean getDeltaReplay() {
+		return deltaReplay;
+	}
+
+	/***
+	 * Sets whether to perform delta replay.  When enabled, before an event is replayed the destination case is searched once
+	 * for the items currently holding the state the event modifies (for example every item with the tag being added) and
+	 * only the missing additions and removals are written.  This makes replaying into a destination which already holds most
+	 * of the annotations much cheaper, and replaying the same events twice does not write anything the second time.
+	 * Production set events are always replayed in full.
+	 * @param deltaReplay True to only write items whose state would change
+	 */
+	public void setDeltaReplay(boolean deltaReplay) {
+		this.deltaReplay = deltaReplay;
+	}
+
+	/***
+	 * Gets the number of events replayed by this session.
+	 * @return Number of events replayed
+	 */
+	public synchronized long getEventsReplayed() {
+		return eventsReplayed;
+	}
+}
@@ -0,0 +1,101 @@
+package com.nuix.superutilities.annotations;
+
+/***
+ * Replay timings of a single event type, accumulated by an {@link AnnotationReplayRunner}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationReplayTypeStatistics {
+	String eventType = null;
+	long eventCount = 0;
+	long appliedItemCount = 0;
+	long unresolvedItemCount = 0;
+	long skippedItemCount = 0;
+	long rehydrateNanos = 0;
+	long applyNanos = 0;
+
+	AnnotationReplayTypeStatistics(String eventType){
+		this.eventType = eventType;
+	}
+
+	AnnotationReplayTypeStatistics(AnnotationReplayTypeStatistics other){
+		eventType = other.eventType;
+		eventCount = other.eventCount;
+		appliedItemCount = other.appliedItemCount;
+		unresolvedItemCount = other.unresolvedItemCount;
+		skippedItemCount = other.skippedItemCount;
+		rehydrateNanos = other.rehydrateNanos;
+		applyNanos = other.applyNanos;
+	}
+
+	void record(AnnotationReplayEventInfo info) {
+		eventCount++;
+		appliedItemCount += info.getResolvedCount();
+		unresolvedItemCount += info.getUnresolvedCount();
+		skippedItemCount += info.getSkippedCount();
+		rehydrateNanos += info.getRehydrateNanos();
+		applyNanos += info.getApplyNanos();
+	}
+
+	public String getEventType() {
+		return eventType;
+	}
+
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	/***
+	 * Gets the number of destination items events of this type were applied to.
+	 * @return Number of items applied
+	 */
+	public long getAppliedItemCount() {
+		return appliedItemCount;
+	}
+
+	/***
+	 * Gets the number of event items which could not be resolved to a destination item.
+	 * @return Number of unresolved items
+	 */
+	public long getUnresolvedItemCount() {
+		return unresolvedItemCount;
+	}
+
+	public long getSkippedItemCount() {
+		return skippedItemCount;
+	}
+
+	/***
+	 * Gets the total time spent resolving the items of events of this type.
+	 * @return Rehydrate time in milliseconds
+	 */
+	public double getRehydrateMillis() {
+		return rehydrateNanos / 1000000d;
+	}
+
+	/***
+	 * Gets the total time spent applying events of this type to their resolved items.
+	 * @return Apply time in milliseconds
+	 */
+	public double getApplyMillis() {
+		return applyNanos / 1000000d;
+	}
+
+	/***
+	 * Gets the rate at which items were applied, based on the time spent rehydrating and applying events of this type.
+	 * @return Items applied per second, 0 if no time has been spent yet
+	 */
+	public double getItemsPerSecond() {
+		long nanos = rehydrateNanos + applyNanos;
+		if(nanos < 1){
+			return 0;
+		}
+		return appliedItemCount / (nanos / 1000000000d);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %s events, %s items, %.1f items/sec (rehydrate %.0f ms, apply %.0f ms)",
+				eventType, eventCount, appliedItemCount, getItemsPerSecond(), getRehydrateMillis(), getApplyMillis());
+	}
+}
@@ -0,0 +1,14 @@
+package com.nuix.superutilities.annotations;
+
+/***
+ * How an {@link AnnotationHistoryRepository} shares its database file.  Exclusive uses a single connection which holds
+ * an exclusive lock on the database for as long as the repository is open.  SharedRead uses one dedicated writer connection
+ * with normal locking plus a small pool of read-only connections, so event iteration and summaries can run alongside a
+ * sync, including from another thread or process.
+ * @author Jason Wells
+ *
+ */
+public enum AnnotationRepositoryAccessMode {
+	Exclusive,
+	SharedRead
+}
@@ -0,0 +1,553 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/***
+ * Exports an {@link AnnotationHistoryRepository} to a portable, compressed archive file and imports such an archive into a
+ * fresh repository.  Unlike copying the database file, an export can be taken while the repository is open and produces a
+ * single file regardless of the event store the repository uses.
+ *
+ * An archive is a series of chunks, each holding up to {@link #getChunkRecordCount()} records of one kind (repository info,
+ * events of a single type or GUID index entries).  Each chunk is GZIP compressed on its own and carries a CRC32 of its
+ * compressed bytes, so corruption is detected per chunk and chunks can be decompressed independently of each other.  Export
+ * reads rows through cursors, so memory use depends on the chunk size rather than the size of the repository.  Import
+ * decompresses and decodes chunks in parallel (see {@link #setImportConcurrency(int)}) while a single thread writes them to
+ * the new repository in archive order.
+ *
+ * Events are exported with a time stamp up to that of the latest event when the export began, followed by the GUID index,
+ * which only ever grows, so every item index an exported event refers to is included.  Checkpoints refer to events by ID, which
+ * an import assigns anew, so they are not exported; an import creates a checkpoint of its own once it has enough events.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationRepositoryArchive {
+	private static Logger logger = Logger.getLogger(AnnotationRepositoryArchive.class);
+
+	private static final byte[] archiveMagic = "SUANNARC".getBytes(StandardCharsets.US_ASCII);
+	private static final int archiveVersion = 1;
+
+	private static final byte chunkTypeEnd = 0;
+	private static final byte chunkTypeInfo = 1;
+	private static final byte chunkTypeEvents = 2;
+	private static final byte chunkTypeGuids = 3;
+
+	private static final byte infoKindText = 1;
+	private static final byte infoKindInteger = 2;
+	private static final byte infoKindSource = 3;
+
+	private int chunkRecordCount = 10000;
+	private int importConcurrency = Runtime.getRuntime().availableProcessors();
+
+	/***
+	 * Accumulates the records of one kind and writes them to the archive as compressed chunks.
+	 */
+	private class ChunkWriter {
+		private DataOutputStream archive = null;
+		private byte chunkType = 0;
+		private String eventType = null;
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 1024);
+		private DataOutputStream payload = new DataOutputStream(bytes);
+		private int recordCount = 0;
+		private long totalRecordCount = 0;
+
+		ChunkWriter(DataOutputStream archive, byte chunkType, String eventType) throws IOException {
+			this.archive = archive;
+			this.chunkType = chunkType;
+			this.eventType = eventType;
+			startChunk();
+		}
+
+		private void startChunk() throws IOException {
+			bytes.reset();
+			recordCount = 0;
+			if(eventType != null){
+				SegmentedLogEventStore.writeString(payload, eventType);
+			}
+		}
+
+		DataOutputStream getPayload() {
+			return payload;
+		}
+
+		/***
+		 * Called after each record has been written to the payload, writes the chunk once it holds enough records.
+		 */
+		void recordWritten() throws IOException {
+			recordCount++;
+			totalRecordCount++;
+			if(recordCount >= chunkRecordCount){
+				writeChunk();
+			}
+		}
+
+		private void writeChunk() throws IOException {
+			payload.flush();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.size() / 2 + 64);
+			try(GZIPOutputStream gzip = new GZIPOutputStream(compressed)){
+				bytes.writeTo(gzip);
+			}
+			byte[] compressedBytes = compressed.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(compressedBytes);
+			archive.writeByte(chunkType);
+			archive.writeInt(recordCount);
+			archive.writeInt(compressedBytes.length);
+			archive.writeLong(crc.getValue());
+			archive.write(compressedBytes);
+			startChunk();
+		}
+
+		/***
+		 * Writes any records not yet written.  A writer which was given no records writes an empty chunk.
+		 */
+		long finish() throws IOException {
+			if(recordCount > 0 || totalRecordCount == 0){
+				writeChunk();
+			}
+			return totalRecordCount;
+		}
+	}
+
+	/***
+	 * A chunk as read from an archive, before it has been decompressed.
+	 */
+	private static class RawChunk {
+		long chunkIndex = 0;
+		byte chunkType = 0;
+		int recordCount = 0;
+		long crc = 0;
+		byte[] compressedBytes = null;
+	}
+
+	/***
+	 * A chunk which has been decompressed and decoded, ready to be written to the repository being imported to.
+	 */
+	private static class DecodedChunk {
+		byte chunkType = 0;
+		List<AnnotationEvent> events = null;
+		long[] guidIndices = null;
+		byte[][] guids = null;
+		List<Object[]> infos = null;
+		long expectedEventCount = 0;
+		long expectedGuidCount = 0;
+	}
+
+	/***
+	 * Exports a repository to an archive file, overwriting the file if it already exists.
+	 * @param repo The repository to export
+	 * @param archiveFile The archive file to write
+	 * @throws IOException If there is an error reading events or writing the archive
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public void exportRepository(AnnotationHistoryRepository repo, File archiveFile) throws IOException, SQLException {
+		long started = System.currentTimeMillis();
+		long exportedThrough = repo.calculateLastEventTimeStamp();
+		logger.info(String.format("Exporting repository events through %s to %s", exportedThrough, archiveFile));
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile), 1024 * 1024))){
+			out.write(archiveMagic);
+			out.writeInt(archiveVersion);
+
+			ChunkWriter infoWriter = new ChunkWriter(out, chunkTypeInfo, null);
+			exportInfo(repo, infoWriter);
+			infoWriter.finish();
+
+			long eventCount = 0;
+			for(String eventType : repo.getEventTypes()){
+				ChunkWriter eventWriter = new ChunkWriter(out, chunkTypeEvents, eventType);
+				try(EventCursor cursor = repo.getEventStore().openCursor(Long.MIN_VALUE, exportedThrough, eventType)){
+					while(cursor.next()){
+						AnnotationEvent event = cursor.getEvent();
+						SegmentedLogEventStore.writeBytes(eventWriter.getPayload(), SegmentedLogEventStore.encodeEvent(event, event.rowId));
+						eventWriter.recordWritten();
+					}
+				}
+				long exported = eventWriter.finish();
+				logger.info(String.format("Exported %s %s records", exported, eventType));
+				eventCount += exported;
+			}
+
+			ChunkWriter guidWriter = new ChunkWriter(out, chunkTypeGuids, null);
+			Connection conn = repo.borrowReadConnection();
+			try(PreparedStatement statement = conn.prepareStatement("SELECT BitmapIndex,GUID FROM GUIDRef ORDER BY BitmapIndex ASC")){
+				statement.setFetchSize(chunkRecordCount);
+				try(ResultSet rs = statement.executeQuery()){
+					while(rs.next()){
+						guidWriter.getPayload().writeLong(rs.getLong(1));
+						SegmentedLogEventStore.writeBytes(guidWriter.getPayload(), rs.getBytes(2));
+						guidWriter.recordWritten();
+					}
+				}
+			} finally {
+				repo.releaseReadConnection(conn);
+			}
+			long guidCount = guidWriter.finish();
+			logger.info(String.format("Exported %s GUID index records", guidCount));
+
+			// End chunk allows import to verify nothing was lost
+			out.writeByte(chunkTypeEnd);
+			out.writeInt(0);
+			ByteArrayOutputStream endBytes = new ByteArrayOutputStream();
+			try(DataOutputStream endPayload = new DataOutputStream(new GZIPOutputStream(endBytes))){
+				endPayload.writeLong(eventCount);
+				endPayload.writeLong(guidCount);
+			}
+			byte[] compressedEnd = endBytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(compressedEnd);
+			out.writeInt(compressedEnd.length);
+			out.writeLong(crc.getValue());
+			out.write(compressedEnd);
+		}
+
+		logger.info(String.format("Exported repository in %s ms, archive is %s bytes", System.currentTimeMillis() - started, archiveFile.length()));
+	}
+
+	private void exportInfo(AnnotationHistoryRepository repo, ChunkWriter writer) throws IOException, SQLException {
+		List<Object[]> texts = new ArrayList<Object[]>();
+		repo.executeReadQuery("SELECT Name,ValueText FROM TextInfo",null,rs -> {
+			try {
+				while(rs.next()){
+					texts.add(new Object[]{rs.getString(1),rs.getString(2)});
+				}
+			} catch (SQLException e) {
+				throw new AnnotationHistoryRepository.ResultSetCallbackException(e);
+			}
+		});
+		for(Object[] text : texts){
+			// The importing repository decides which event store it uses
+			if("EventStoreType".equals(text[0])){ continue; }
+			writer.getPayload().writeByte(infoKindText);
+			SegmentedLogEventStore.writeString(writer.getPayload(), (String)text[0]);
+			SegmentedLogEventStore.writeString(writer.getPayload(), (String)text[1]);
+			writer.recordWritten();
+		}
+
+		List<Object[]> integers = new ArrayList<Object[]>();
+		repo.executeReadQuery("SELECT Name,ValueInteger FROM IntegerInfo",null,rs -> {
+			try {
+				while(rs.next()){
+					integers.add(new Object[]{rs.getString(1),rs.getLong(2)});
+				}
+			} catch (SQLException e) {
+				throw new AnnotationHistoryRepository.ResultSetCallbackException(e);
+			}
+		});
+		for(Object[] integer : integers){
+			writer.getPayload().writeByte(infoKindInteger);
+			SegmentedLogEventStore.writeString(writer.getPayload(), (String)integer[0]);
+			writer.getPayload().writeLong((Long)integer[1]);
+			writer.recordWritten();
+		}
+
+		for(AnnotationSource source : repo.getSources()){
+			writer.getPayload().writeByte(infoKindSource);
+			writer.getPayload().writeLong(source.sourceId);
+			SegmentedLogEventStore.writeString(writer.getPayload(), source.name);
+			SegmentedLogEventStore.writeString(writer.getPayload(), source.location);
+			writer.getPayload().writeInt(source.priority);
+			writer.getPayload().writeLong(source.syncPointTimeStamp);
+			writer.getPayload().writeLong(source.lastEventTimeStamp);
+			writer.recordWritten();
+		}
+	}
+
+	/***
+	 * Imports an archive into a new repository.  The database file must not already exist.  Should the import fail for any reason,
+	 * the partially imported repository is closed and its files are deleted.
+	 * @param archiveFile The archive file to import, as written by {@link #exportRepository(AnnotationHistoryRepository, File)}
+	 * @param databaseFile The database file of the new repository
+	 * @param eventStoreType The type of event store the new repository records its events to
+	 * @return The new repository, opened and ready for use
+	 * @throws IOException If the archive is not valid, fails a checksum or there is an error writing events
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public AnnotationHistoryRepository importRepository(File archiveFile, File databaseFile, AnnotationEventStoreType eventStoreType) throws IOException, SQLException {
+		if(databaseFile.exists()){
+			throw new IOException("Cannot import into an existing database file: "+databaseFile.getAbsolutePath());
+		}
+
+		long started = System.currentTimeMillis();
+		logger.info(String.format("Importing %s into new repository %s using %s event store", archiveFile, databaseFile, eventStoreType));
+		AnnotationHistoryRepository repo = null;
+		ExecutorService decoders = Executors.newFixedThreadPool(importConcurrency);
+		long expectedEventCount = -1;
+		long expectedGuidCount = -1;
+		long guidCount = 0;
+		long eventCount = 0;
+		boolean imported = false;
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(archiveFile), 1024 * 1024))){
+			repo = new AnnotationHistoryRepository(databaseFile, eventStoreType);
+			byte[] magic = new byte[archiveMagic.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, archiveMagic)){
+				throw new IOException("File is not an annotation repository archive: "+archiveFile.getAbsolutePath());
+			}
+			int version = in.readInt();
+			if(version != archiveVersion){
+				throw new IOException(String.format("Unsupported archive version %s, expected %s", version, archiveVersion));
+			}
+
+			repo.getEventStore().beginAppendBatch();
+
+			// Chunks are decoded ahead of the writer by the decoder threads, but written strictly in archive order
+			Deque<Future<DecodedChunk>> pending = new ArrayDeque<Future<DecodedChunk>>();
+			AnnotationHistoryRepository decodingRepo = repo;
+			boolean endRead = false;
+			long chunkIndex = 0;
+			while(true){
+				while(!endRead && pending.size() < importConcurrency * 2){
+					RawChunk raw = readRawChunk(in, chunkIndex++);
+					endRead = raw.chunkType == chunkTypeEnd;
+					pending.add(decoders.submit(() -> decodeChunk(decodingRepo, raw)));
+				}
+				if(pending.isEmpty()){ break; }
+
+				DecodedChunk chunk = awaitChunk(pending.poll());
+				switch(chunk.chunkType){
+					case chunkTypeInfo:
+						importInfo(repo, chunk.infos);
+						break;
+					case chunkTypeEvents:
+						repo.appendImportedEvents(chunk.events);
+						break;
+					case chunkTypeGuids:
+						repo.importGuidRefs(chunk.guidIndices, chunk.guids);
+						guidCount += chunk.guidIndices.length;
+						break;
+					case chunkTypeEnd:
+						expectedEventCount = chunk.expectedEventCount;
+						expectedGuidCount = chunk.expectedGuidCount;
+						break;
+				}
+
+				if(chunkIndex % 100 == 0){
+					logger.info(String.format("Imported %s chunks", chunkIndex - pending.size()));
+				}
+			}
+
+			repo.getEventStore().endAppendBatch();
+
+			eventCount = repo.getTotalEventCount();
+			if(expectedEventCount != eventCount || expectedGuidCount != guidCount){
+				throw new IOException(String.format("Archive declares %s events and %s GUIDs but %s events and %s GUIDs were imported",
+						expectedEventCount, expectedGuidCount, eventCount, guidCount));
+			}
+
+			if(repo.getCheckpointInterval() > 0 && eventCount >= repo.getCheckpointInterval()){
+				repo.createCheckpoint();
+			}
+			repo.close();
+			imported = true;
+		} finally {
+			decoders.shutdownNow();
+			if(!imported){
+				discardPartialImport(repo, databaseFile);
+			}
+		}
+
+		logger.info(String.format("Imported %s events and %s GUIDs in %s ms", eventCount, guidCount, System.currentTimeMillis() - started));
+
+		// Reopening loads the imported GUID index, sources and settings the same way any other repository is opened
+		return new AnnotationHistoryRepository(databaseFile);
+	}
+
+	/***
+	 * Closes a repository whose import failed and deletes its files, so the import can be attempted again.  Errors are logged rather than
+	 * thrown, so they do not mask the error which failed the import.
+	 */
+	private static void discardPartialImport(AnnotationHistoryRepository repo, File databaseFile) {
+		if(repo != null){
+			try {
+				repo.close();
+			} catch (Exception e) {
+				logger.warn("Error closing partially imported repository: "+e.getMessage());
+			}
+		}
+		for(String suffix : new String[]{"","-wal","-shm","-journal"}){
+			File file = new File(databaseFile.getAbsolutePath()+suffix);
+			if(file.exists() && !file.delete()){
+				logger.warn("Unable to delete partially imported file: "+file.getAbsolutePath());
+			}
+		}
+		File segmentsDirectory = new File(databaseFile.getAbsolutePath()+".segments");
+		if(segmentsDirectory.exists()){
+			try {
+				FileUtils.deleteDirectory(segmentsDirectory);
+			} catch (IOException e) {
+				logger.warn("Unable to delete partially imported segments: "+e.getMessage());
+			}
+		}
+	}
+
+	private static RawChunk readRawChunk(DataInputStream in, long chunkIndex) throws IOException {
+		RawChunk raw = new RawChunk();
+		raw.chunkIndex = chunkIndex;
+		raw.chunkType = in.readByte();
+		raw.recordCount = in.readInt();
+		int compressedLength = in.readInt();
+		raw.crc = in.readLong();
+		if(compressedLength < 0){
+			throw new IOException(String.format("Chunk %s has an invalid length of %s", chunkIndex, compressedLength));
+		}
+		raw.compressedBytes = new byte[compressedLength];
+		in.readFully(raw.compressedBytes);
+		return raw;
+	}
+
+	private static DecodedChunk awaitChunk(Future<DecodedChunk> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while importing archive", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static DecodedChunk decodeChunk(AnnotationHistoryRepository repo, RawChunk raw) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(raw.compressedBytes);
+		if(crc.getValue() != raw.crc){
+			throw new IOException(String.format("Chunk %s failed its checksum, the archive is corrupt", raw.chunkIndex));
+		}
+
+		DecodedChunk chunk = new DecodedChunk();
+		chunk.chunkType = raw.chunkType;
+		try(DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(raw.compressedBytes), 64 * 1024))){
+			switch(raw.chunkType){
+				case chunkTypeInfo:
+					chunk.infos = new ArrayList<Object[]>(raw.recordCount);
+					for (int i = 0; i < raw.recordCount; i++) {
+						chunk.infos.add(decodeInfo(in));
+					}
+					break;
+				case chunkTypeEvents:
+					String eventType = SegmentedLogEventStore.readString(in);
+					chunk.events = new ArrayList<AnnotationEvent>(raw.recordCount);
+					for (int i = 0; i < raw.recordCount; i++) {
+						chunk.events.add(SegmentedLogEventStore.decodeEvent(repo, eventType, SegmentedLogEventStore.readBytes(in)));
+					}
+					break;
+				case chunkTypeGuids:
+					chunk.guidIndices = new long[raw.recordCount];
+					chunk.guids = new byte[raw.recordCount][];
+					for (int i = 0; i < raw.recordCount; i++) {
+						chunk.guidIndices[i] = in.readLong();
+						chunk.guids[i] = SegmentedLogEventStore.readBytes(in);
+					}
+					break;
+				case chunkTypeEnd:
+					chunk.expectedEventCount = in.readLong();
+					chunk.expectedGuidCount = in.readLong();
+					break;
+				default:
+					throw new IOException(String.format("Chunk %s has unknown chunk type %s", raw.chunkIndex, raw.chunkType));
+			}
+		}
+		return chunk;
+	}
+
+	private static Object[] decodeInfo(DataInputStream in) throws IOException {
+		byte kind = in.readByte();
+		switch(kind){
+			case infoKindText:
+				return new Object[]{kind, SegmentedLogEventStore.readString(in), SegmentedLogEventStore.readString(in)};
+			case infoKindInteger:
+				return new Object[]{kind, SegmentedLogEventStore.readString(in), in.readLong()};
+			case infoKindSource:
+				AnnotationSource source = new AnnotationSource();
+				source.sourceId = in.readLong();
+				source.name = SegmentedLogEventStore.readString(in);
+				source.location = SegmentedLogEventStore.readString(in);
+				source.priority = in.readInt();
+				source.syncPointTimeStamp = in.readLong();
+				source.lastEventTimeStamp = in.readLong();
+				return new Object[]{kind, source};
+			default:
+				throw new IOException("Unknown info record kind: "+kind);
+		}
+	}
+
+	private static void importInfo(AnnotationHistoryRepository repo, List<Object[]> infos) throws SQLException {
+		for(Object[] info : infos){
+			byte kind = (Byte)info[0];
+			if(kind == infoKindText){
+				repo.setTextInfo((String)info[1], (String)info[2]);
+			} else if(kind == infoKindInteger){
+				repo.setIntegerInfo((String)info[1], (Long)info[2]);
+			} else if(kind == infoKindSource){
+				repo.importSource((AnnotationSource)info[1]);
+			}
+		}
+	}
+
+	/***
+	 * Gets the maximum number of records written to each chunk of an archive.
+	 * @return Maximum records per chunk
+	 */
+	public int getChunkRecordCount() {
+		return chunkRecordCount;
+	}
+
+	/***
+	 * Sets the maximum number of records written to each chunk of an archive.  Larger chunks compress slightly better but
+	 * use more memory during export and import.  Default is 10000.
+	 * @param chunkRecordCount Maximum records per chunk
+	 */
+	public void setChunkRecordCount(int chunkRecordCount) {
+		if(chunkRecordCount < 1){
+			throw new IllegalArgumentException("chunkRecordCount cannot be less than 1");
+		}
+		this.chunkRecordCount = chunkRecordCount;
+	}
+
+	public int getImportConcurrency() {
+		return importConcurrency;
+	}
+
+	/***
+	 * Sets how many chunks are decompressed and decoded concurrently during import.  Default is the number of available processors.
+	 * @param importConcurrency Number of decoder threads
+	 */
+	public void setImportConcurrency(int importConcurrency) {
+		if(importConcurrency < 1){
+			throw new IllegalArgumentException("concurrency cannot be less than 1");
+		}
+		this.importConcurrency = importConcurrency;
+	}
+}
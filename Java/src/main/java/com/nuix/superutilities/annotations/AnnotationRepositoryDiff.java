@@ -0,0 +1,113 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+import com.nuix.superutilities.misc.FormatUtility;
+
+/***
+ * Differences between the events recorded by two {@link AnnotationHistoryRepository} instances, as determined by
+ * {@link AnnotationRepositoryMerger#diff(AnnotationHistoryRepository, AnnotationHistoryRepository)}.  Counts are kept per event type.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationRepositoryDiff {
+	Map<String,Long> onlyInLeft = new TreeMap<String,Long>();
+	Map<String,Long> onlyInRight = new TreeMap<String,Long>();
+	Map<String,Long> inBoth = new TreeMap<String,Long>();
+	long guidsOnlyInLeft = 0;
+
+	void increment(Map<String,Long> counts, String eventType, long amount) {
+		counts.merge(eventType, amount, Long::sum);
+	}
+
+	private static long sum(Map<String,Long> counts) {
+		long result = 0;
+		for(long count : counts.values()){
+			result += count;
+		}
+		return result;
+	}
+
+	/***
+	 * Gets the number of events of each type recorded by the left repository which the right repository does not have.
+	 * @return Map of event type to count
+	 */
+	public Map<String,Long> getOnlyInLeft() {
+		return Collections.unmodifiableMap(onlyInLeft);
+	}
+
+	/***
+	 * Gets the number of events of each type recorded by the right repository which the left repository does not have.
+	 * @return Map of event type to count
+	 */
+	public Map<String,Long> getOnlyInRight() {
+		return Collections.unmodifiableMap(onlyInRight);
+	}
+
+	/***
+	 * Gets the number of events of each type recorded by both repositories.
+	 * @return Map of event type to count
+	 */
+	public Map<String,Long> getInBoth() {
+		return Collections.unmodifiableMap(inBoth);
+	}
+
+	public long getOnlyInLeftCount() {
+		return sum(onlyInLeft);
+	}
+
+	public long getOnlyInRightCount() {
+		return sum(onlyInRight);
+	}
+
+	public long getInBothCount() {
+		return sum(inBoth);
+	}
+
+	/***
+	 * Gets the number of item GUIDs referenced by events only in the left repository which the right repository has not indexed.
+	 * Merging the left repository into the right would add these GUIDs to the right repository's index.
+	 * @return Number of GUIDs only known to the left repository
+	 */
+	public long getGuidsOnlyInLeft() {
+		return guidsOnlyInLeft;
+	}
+
+	/***
+	 * Gets whether both repositories record the same events.
+	 * @return True if neither repository has events the other lacks
+	 */
+	public boolean isIdentical() {
+		return getOnlyInLeftCount() == 0 && getOnlyInRightCount() == 0;
+	}
+
+	@Override
+	public String toString() {
+		TreeMap<String,Long> eventTypes = new TreeMap<String,Long>();
+		eventTypes.putAll(onlyInLeft);
+		eventTypes.putAll(onlyInRight);
+		eventTypes.putAll(inBoth);
+
+		List<List<String>> rows = new ArrayList<List<String>>();
+		rows.add(Arrays.asList("Event Type","Only In Left","Only In Right","In Both"));
+		for(String eventType : eventTypes.keySet()){
+			rows.add(Arrays.asList(eventType,
+					Long.toString(onlyInLeft.getOrDefault(eventType, 0L)),
+					Long.toString(onlyInRight.getOrDefault(eventType, 0L)),
+					Long.toString(inBoth.getOrDefault(eventType, 0L))));
+		}
+		rows.add(Arrays.asList("Total",
+				Long.toString(getOnlyInLeftCount()), Long.toString(getOnlyInRightCount()), Long.toString(getInBothCount())));
+
+		StringJoiner sj = new StringJoiner("\n");
+		sj.add(FormatUtility.formatAsTextualTable(rows));
+		sj.add(String.format("GUIDs Only In Left: %s", guidsOnlyInLeft));
+		return sj.toString();
+	}
+}
@@ -0,0 +1,278 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.roaringbitmap.RoaringBitmap;
+
+import com.nuix.superutilities.misc.FormatUtility;
+
+/***
+ * Compares and merges the events recorded by two {@link AnnotationHistoryRepository} instances without needing Nuix, for example
+ * when the same source case has been synced into separate repositories at different times.
+ *
+ * Each repository assigns its own bitmap index to an item GUID, so the events of the left repository are remapped into the
+ * index space of the right repository before comparing them.  Two events are considered the same when they share a time stamp,
+ * event type, state key, state value and assignment, and their bitmaps hold the same items.  Which source case an event was
+ * recorded from is not part of its identity, so the same history recorded by two repositories is recognized as such.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationRepositoryMerger {
+	private static Logger logger = Logger.getLogger(AnnotationRepositoryMerger.class);
+
+	/***
+	 * Maps the bitmap indices of one repository to those of another by way of the GUIDs they were assigned to.  Indices of GUIDs
+	 * the other repository has not indexed can be allocated following its last index.
+	 */
+	private static class GuidRemapper {
+		private AnnotationHistoryRepository target = null;
+		private List<String> sourceGuids = null;
+		// 0 is not yet resolved, -1 is a GUID the target has not indexed and no index has been allocated for
+		private int[] remapped = null;
+		private List<String> newGuids = new ArrayList<String>();
+		private long firstNewIndex = 0;
+
+		GuidRemapper(AnnotationHistoryRepository source, AnnotationHistoryRepository target){
+			this.target = target;
+			// Indices are assigned sequentially starting at 1, so GUID of index i is at position i-1
+			sourceGuids = source.resolveGuids(source.getAllItemsBitmap());
+			remapped = new int[sourceGuids.size()+1];
+			firstNewIndex = (long)target.getGuidIndexSize()+1;
+		}
+
+		/***
+		 * Remaps the indices of a bitmap from the source repository to the target repository.
+		 * @param bitmap Bitmap of source repository indices
+		 * @param allocate Whether to allocate new target indices for GUIDs the target has not indexed
+		 * @return Sorted target repository indices, or null if allocate is false and the bitmap refers to a GUID the target has not indexed
+		 */
+		int[] remap(RoaringBitmap bitmap, boolean allocate) {
+			int[] result = bitmap.toArray();
+			for (int i = 0; i < result.length; i++) {
+				int sourceIndex = result[i];
+				if(sourceIndex < 1 || sourceIndex >= remapped.length){
+					throw new IllegalStateException(String.format("Bitmap refers to item index %s which has no recorded GUID", sourceIndex));
+				}
+				int targetIndex = remapped[sourceIndex];
+				if(targetIndex == 0){
+					Long existing = target.getGuidIndex(sourceGuids.get(sourceIndex-1));
+					targetIndex = existing == null ? -1 : existing.intValue();
+					remapped[sourceIndex] = targetIndex;
+				}
+				if(targetIndex == -1){
+					if(!allocate){ return null; }
+					targetIndex = (int)(firstNewIndex + newGuids.size());
+					newGuids.add(sourceGuids.get(sourceIndex-1));
+					remapped[sourceIndex] = targetIndex;
+				}
+				result[i] = targetIndex;
+			}
+			Arrays.sort(result);
+			return result;
+		}
+	}
+
+	/***
+	 * Compares the events of two repositories, without modifying either.
+	 * @param left The repository whose events are remapped and compared against the right repository
+	 * @param right The repository compared against
+	 * @return The differences between the two repositories
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error reading events or deserializing a bitmap
+	 */
+	public AnnotationRepositoryDiff diff(AnnotationHistoryRepository left, AnnotationHistoryRepository right) throws SQLException, IOException {
+		GuidRemapper remapper = new GuidRemapper(left, right);
+		return compare(left, right, remapper, null);
+	}
+
+	/***
+	 * Merges the events of the source repository which the target repository does not have into the target repository, in
+	 * a single transaction.  GUIDs the merged events refer to are added to the target's index and the sources the events were
+	 * recorded from are registered with the target, matched to its existing sources by case location.  Checkpoints of the target
+	 * taken at or after the earliest merged event are removed, since they no longer reflect its full history.  When the target
+	 * records its events outside of its database, for example to a segmented log, the events are appended once the rest has
+	 * committed, and should that fail merging again appends the events still missing.  The source repository is not modified.
+	 * @param source The repository to merge events from
+	 * @param target The repository to merge events into
+	 * @return Report of what was merged, including the diff of the two repositories before the merge
+	 * @throws SQLException If the SQL bits throw an error
+	 * @throws IOException If there is an error reading or writing events
+	 */
+	public AnnotationMergeReport merge(AnnotationHistoryRepository source, AnnotationHistoryRepository target) throws SQLException, IOException {
+		long started = System.currentTimeMillis();
+		AnnotationMergeReport report = new AnnotationMergeReport();
+
+		Map<Long,Long> sourceIdMap = new HashMap<Long,Long>();
+		List<AnnotationSource> sourcesToWrite = planSources(source, target, sourceIdMap, report);
+
+		GuidRemapper remapper = new GuidRemapper(source, target);
+		List<AnnotationEvent> missing = new ArrayList<AnnotationEvent>();
+		report.diff = compare(source, target, remapper, missing);
+
+		for(AnnotationEvent event : missing){
+			event.sourceId = sourceIdMap.getOrDefault(event.sourceId, 0L);
+			event.sourceRepo = target;
+		}
+
+		logger.info(String.format("Merging %s events and %s new GUIDs into target repository...", missing.size(), remapper.newGuids.size()));
+		report.checkpointsRemoved = target.appendMergedEvents(remapper.newGuids, remapper.firstNewIndex, sourcesToWrite, missing);
+		report.eventsMerged = missing.size();
+		report.guidsAdded = remapper.newGuids.size();
+		report.elapsedMillis = System.currentTimeMillis() - started;
+		logger.info(String.format("Merged %s events in %s ms, removed %s checkpoints",
+				report.eventsMerged, report.elapsedMillis, report.checkpointsRemoved));
+		return report;
+	}
+
+	/***
+	 * Streams the events of the left repository and matches each against the identities of the right repository's events.
+	 * @param left Repository whose events are streamed
+	 * @param right Repository whose event identities are held in memory
+	 * @param remapper Remaps left indices into the right repository
+	 * @param missing If not null, receives the left events the right repository lacks, with their bitmaps remapped
+	 * @return The diff of the two repositories
+	 */
+	private AnnotationRepositoryDiff compare(AnnotationHistoryRepository left, AnnotationHistoryRepository right,
+			GuidRemapper remapper, List<AnnotationEvent> missing) throws SQLException, IOException {
+		AnnotationRepositoryDiff diff = new AnnotationRepositoryDiff();
+
+		logger.info("Collecting identities of right repository events...");
+		// Identical events recorded more than once are counted so each occurrence is matched once
+		Map<String,Integer> rightIdentities = new HashMap<String,Integer>();
+		try(EventCursor cursor = right.openEventCursor(Long.MIN_VALUE, Long.MAX_VALUE)){
+			while(cursor.next()){
+				AnnotationEvent event = cursor.getEvent();
+				rightIdentities.merge(buildIdentity(event, event.getBitmap().toArray()), 1, Integer::sum);
+			}
+		}
+		logger.info(String.format("Collected %s distinct right repository event identities", rightIdentities.size()));
+
+		try(EventCursor cursor = left.openEventCursor(Long.MIN_VALUE, Long.MAX_VALUE)){
+			while(cursor.next()){
+				AnnotationEvent event = cursor.getEvent();
+				RoaringBitmap bitmap = event.getBitmap();
+				int[] remapped = remapper.remap(bitmap, false);
+				if(remapped != null){
+					String identity = buildIdentity(event, remapped);
+					Integer remaining = rightIdentities.get(identity);
+					if(remaining != null){
+						if(remaining > 1){
+							rightIdentities.put(identity, remaining - 1);
+						} else {
+							rightIdentities.remove(identity);
+						}
+						diff.increment(diff.inBoth, cursor.getEventType(), 1);
+						continue;
+					}
+				}
+
+				diff.increment(diff.onlyInLeft, cursor.getEventType(), 1);
+				remapped = remapper.remap(bitmap, true);
+				if(missing != null){
+					event.setBitmap(RoaringBitmap.bitmapOf(remapped));
+					missing.add(event);
+				}
+			}
+		}
+
+		for(Map.Entry<String,Integer> entry : rightIdentities.entrySet()){
+			String eventType = entry.getKey().substring(0, entry.getKey().indexOf('|'));
+			diff.increment(diff.onlyInRight, eventType, entry.getValue());
+		}
+		diff.guidsOnlyInLeft = remapper.newGuids.size();
+		return diff;
+	}
+
+	/***
+	 * Determines the ID each source of the source repository will have in the target repository and which source records need
+	 * to be written to the target.  Sources are matched by case location, unmatched sources are given the next free ID unless the
+	 * target is empty, in which case they keep their IDs.  A matched source takes the later last event time stamp of the two,
+	 * since after the merge the target holds the events of both.
+	 */
+	private List<AnnotationSource> planSources(AnnotationHistoryRepository source, AnnotationHistoryRepository target,
+			Map<Long,Long> sourceIdMap, AnnotationMergeReport report) throws SQLException, IOException {
+		List<AnnotationSource> targetSources = target.getSources();
+		boolean preserveIds = targetSources.isEmpty() && target.getTotalEventCount() < 1;
+		// Events recorded before sources were tracked default to source 0, so a new source never takes that ID
+		long nextSourceId = 1;
+		for(AnnotationSource targetSource : targetSources){
+			nextSourceId = Math.max(nextSourceId, targetSource.sourceId + 1);
+		}
+
+		List<AnnotationSource> result = new ArrayList<AnnotationSource>();
+		for(AnnotationSource sourceSource : source.getSources()){
+			AnnotationSource matched = null;
+			for(AnnotationSource targetSource : targetSources){
+				if(targetSource.location != null && targetSource.location.equals(sourceSource.location)){
+					matched = targetSource;
+					break;
+				}
+			}
+
+			if(matched != null){
+				sourceIdMap.put(sourceSource.sourceId, matched.sourceId);
+				if(sourceSource.lastEventTimeStamp > matched.lastEventTimeStamp){
+					matched.lastEventTimeStamp = sourceSource.lastEventTimeStamp;
+					result.add(matched);
+				}
+			} else {
+				AnnotationSource added = new AnnotationSource();
+				added.sourceId = preserveIds ? sourceSource.sourceId : nextSourceId++;
+				added.name = sourceSource.name;
+				added.location = sourceSource.location;
+				added.priority = sourceSource.priority;
+				added.syncPointTimeStamp = sourceSource.syncPointTimeStamp;
+				added.lastEventTimeStamp = sourceSource.lastEventTimeStamp;
+				sourceIdMap.put(sourceSource.sourceId, added.sourceId);
+				result.add(added);
+				report.sourcesAdded++;
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Builds the identity of an event from its type, time stamp, state and the items of its bitmap.  The event type comes first
+	 * so it can be recovered from the identity.
+	 * @param event The event
+	 * @param sortedIndices The sorted item indices of the event's bitmap, in the index space events are being compared in
+	 * @return The identity of the event
+	 */
+	private static String buildIdentity(AnnotationEvent event, int[] sortedIndices) {
+		return String.join("|", event.getEventType(), Long.toString(event.timeStampMillis), String.valueOf(event.getStateKey()),
+				String.valueOf(event.getStateValueKey()), Boolean.toString(event.isStateAssignment()), hashIndices(sortedIndices));
+	}
+
+	/***
+	 * Hashes item indices rather than serialized bitmap bytes, since the same items can serialize differently depending on how
+	 * a bitmap was built.
+	 */
+	private static String hashIndices(int[] sortedIndices) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			for (int i = 0; i < sortedIndices.length; i++) {
+				if(buffer.remaining() < 4){
+					digest.update(buffer.array(), 0, buffer.position());
+					buffer.clear();
+				}
+				buffer.putInt(sortedIndices[i]);
+			}
+			digest.update(buffer.array(), 0, buffer.position());
+			return FormatUtility.bytesToHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import com.nuix.superutilities.misc.FormatUtility;
+
+/***
+ * Storage statistics of an {@link AnnotationHistoryRepository}, with the statistics of each event type and of the repository's
+ * own tables along with the size of the files backing it.  See {@link AnnotationHistoryRepository#buildStatistics()}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationRepositoryStatistics {
+	Map<String,AnnotationTableStatistics> tableStatistics = new LinkedHashMap<String,AnnotationTableStatistics>();
+	long databaseBytes = 0;
+	long segmentBytes = 0;
+
+	/***
+	 * Gets the statistics of each table, keyed by table name.  Event tables are named after their event type, for example "TagEvent".
+	 * @return Map of table name to statistics
+	 */
+	public Map<String,AnnotationTableStatistics> getTableStatistics() {
+		return Collections.unmodifiableMap(tableStatistics);
+	}
+
+	public AnnotationTableStatistics getTableStatistics(String tableName) {
+		return tableStatistics.get(tableName);
+	}
+
+	/***
+	 * Gets the size of the SQLite database file including its write ahead log.
+	 * @return Database size in bytes
+	 */
+	public long getDatabaseBytes() {
+		return databaseBytes;
+	}
+
+	/***
+	 * Gets the size of the segment files of a repository using the segmented log event store.
+	 * @return Segment directory size in bytes, 0 for other event stores
+	 */
+	public long getSegmentBytes() {
+		return segmentBytes;
+	}
+
+	public long getTotalBytes() {
+		return databaseBytes + segmentBytes;
+	}
+
+	@Override
+	public String toString() {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		rows.add(Arrays.asList("Table","Rows","Stored","Bitmaps","Bitmap Bytes","Avg Bitmap","Items","Compression"));
+		for(AnnotationTableStatistics table : tableStatistics.values()){
+			rows.add(Arrays.asList(
+					table.getTableName(),
+					Long.toString(table.getRowCount()),
+					table.getStoredBytes() < 0 ? "?" : FormatUtility.bytesToDynamicSize(table.getStoredBytes(), 2),
+					Long.toString(table.getBitmapCount()),
+					FormatUtility.bytesToDynamicSize(table.getBitmapBytes(), 2),
+					Double.toString(FormatUtility.round(table.getAverageBitmapBytes(), 1)),
+					Long.toString(table.getItemCount()),
+					String.format("%sx", FormatUtility.round(table.getCompressionRatio(), 2))));
+		}
+		StringJoiner sj = new StringJoiner("\n");
+		sj.add(FormatUtility.formatAsTextualTable(rows));
+		sj.add(String.format("Database: %s", FormatUtility.bytesToDynamicSize(databaseBytes, 2)));
+		if(segmentBytes > 0){
+			sj.add(String.format("Segments: %s", FormatUtility.bytesToDynamicSize(segmentBytes, 2)));
+		}
+		sj.add(String.format("Total: %s", FormatUtility.bytesToDynamicSize(getTotalBytes(), 2)));
+		return sj.toString();
+	}
+}
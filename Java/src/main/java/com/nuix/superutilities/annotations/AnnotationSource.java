@@ -0,0 +1,77 @@
+package com.nuix.superutilities.annotations;
+
+/***
+ * A source case an {@link AnnotationHistoryRepository} records events from.  Every recorded event is tagged with the ID of
+ * the source it was recorded from, while all sources share the repository's GUID index.  Each source keeps its own watermark
+ * (the time stamp of its latest recorded event and an optional sync point) so that syncing one source case never skips or
+ * re-records the events of another.  Sources are identified by case location, see
+ * {@link AnnotationHistoryRepository#registerSource(nuix.Case, int)}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationSource {
+	long sourceId = 0;
+	String name = null;
+	String location = null;
+	int priority = 0;
+	long syncPointTimeStamp = 0;
+	long lastEventTimeStamp = 0;
+
+	AnnotationSource(){}
+
+	/***
+	 * Gets the ID recorded with each event synced from this source.  The first source registered with a repository has an ID of 0,
+	 * which is also the ID of any events recorded before the repository supported more than one source.
+	 * @return The source ID
+	 */
+	public long getSourceId() {
+		return sourceId;
+	}
+
+	/***
+	 * Gets the name of the source case as of when it was registered.
+	 * @return The source case name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/***
+	 * Gets the absolute path of the source case directory, which identifies this source.
+	 * @return The source case location
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/***
+	 * Gets the priority of this source, used when the repository's conflict policy is
+	 * {@link AnnotationSourceConflictPolicy#SourcePriority}.  Higher values win.
+	 * @return The priority of this source
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/***
+	 * Gets the time stamp before which history events of this source are not recorded.
+	 * @return Sync point time stamp in milliseconds, 0 if not set
+	 */
+	public long getSyncPointTimeStamp() {
+		return syncPointTimeStamp;
+	}
+
+	/***
+	 * Gets the time stamp of the latest event recorded from this source.  The next sync of this source records events started after
+	 * this time stamp (or the sync point, whichever is later).
+	 * @return Latest recorded event time stamp in milliseconds, 0 if no events have been recorded
+	 */
+	public long getLastEventTimeStamp() {
+		return lastEventTimeStamp;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Source %s: %s (%s), Priority: %s", sourceId, name, location, priority);
+	}
+}
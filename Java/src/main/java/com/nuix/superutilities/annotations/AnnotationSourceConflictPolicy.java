@@ -0,0 +1,15 @@
+package com.nuix.superutilities.annotations;
+
+/***
+ * How an {@link AnnotationHistoryRepository} recording events from more than one source case resolves conflicting changes
+ * made to the same item in different source cases when building a compaction plan.  LatestWins folds the events of every
+ * source in time stamp order so the most recent change to an item wins, regardless of which case it came from.  SourcePriority
+ * gives each item the state recorded for it by the highest priority source which has ever changed it, so a lower priority
+ * source only contributes changes to items no higher priority source has touched (see {@link AnnotationSource#getPriority()}).
+ * @author Jason Wells
+ *
+ */
+public enum AnnotationSourceConflictPolicy {
+	LatestWins,
+	SourcePriority
+}
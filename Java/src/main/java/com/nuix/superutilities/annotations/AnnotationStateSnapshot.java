@@ -0,0 +1,221 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.joda.time.DateTime;
+import org.roaringbitmap.RoaringBitmap;
+
+/***
+ * Represents the annotation state recorded in an {@link AnnotationHistoryRepository} as of a given point in time.  Provides
+ * set queries (AND/OR/NOT across annotation keys) and counts answered directly from the stored bitmaps, without the need
+ * to open or replay into a Nuix case.  All methods returning a bitmap return a new copy which the caller is free to modify.
+ * Obtain an instance by calling {@link AnnotationHistoryRepository#buildStateAsOf(DateTime)}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationStateSnapshot {
+	private AnnotationHistoryRepository sourceRepo = null;
+	private long asOf = 0;
+	private Map<String,AnnotationKeyState> keyStates = null;
+
+	AnnotationStateSnapshot(AnnotationHistoryRepository sourceRepo, long asOf, Map<String,AnnotationKeyState> keyStates){
+		this.sourceRepo = sourceRepo;
+		this.asOf = asOf;
+		this.keyStates = keyStates;
+	}
+
+	/***
+	 * Gets the point in time this snapshot represents.
+	 * @return The time this snapshot represents the annotation state as of
+	 */
+	public DateTime getAsOf() {
+		return new DateTime(asOf);
+	}
+
+	/***
+	 * Gets the items holding the given value of the given state key.
+	 * @param stateKey The state key, for example "Tag:Responsive"
+	 * @param valueKey The value key, or null to get items holding any value of the state key
+	 * @return Bitmap of the matching item indices
+	 */
+	public RoaringBitmap getItems(String stateKey, String valueKey) {
+		RoaringBitmap result = new RoaringBitmap();
+		AnnotationKeyState keyState = keyStates.get(stateKey);
+		if(keyState != null){
+			for(Map.Entry<String,RoaringBitmap> entry : keyState.getAssignedByValue().entrySet()){
+				if(valueKey == null || entry.getKey().equals(valueKey)){
+					result.or(entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Gets the items which had the given tag.
+	 * @param tag The tag name
+	 * @return Bitmap of the matching item indices
+	 */
+	public RoaringBitmap getItemsWithTag(String tag) {
+		return getItems("Tag:"+tag, null);
+	}
+
+	/***
+	 * Gets the items which were assigned the given custodian.
+	 * @param custodian The custodian name
+	 * @return Bitmap of the matching item indices
+	 */
+	public RoaringBitmap getItemsWithCustodian(String custodian) {
+		return getItems("Custodian", custodian);
+	}
+
+	/***
+	 * Gets the items which were excluded with the given exclusion name.
+	 * @param exclusionName The exclusion name, or null for items excluded under any exclusion name
+	 * @return Bitmap of the matching item indices
+	 */
+	public RoaringBitmap getExcludedItems(String exclusionName) {
+		return getItems("Exclusion", exclusionName);
+	}
+
+	/***
+	 * Gets the items which were members of the given item set.
+	 * @param itemSetName The item set name
+	 * @param batchName The batch name, or null for items in any batch of the item set
+	 * @return Bitmap of the matching item indices
+	 */
+	public RoaringBitmap getItemsInItemSet(String itemSetName, String batchName) {
+		return getItems("ItemSet:"+itemSetName, batchName);
+	}
+
+	/***
+	 * Gets the items which had a value for the given custom metadata field.
+	 * @param fieldName The custom metadata field name
+	 * @return Bitmap of the matching item indices
+	 */
+	public RoaringBitmap getItemsWithCustomMetadata(String fieldName) {
+		return getItems("CustomMetadata:"+fieldName, null);
+	}
+
+	/***
+	 * Gets the items which had the given text value for the given custom metadata field.
+	 * @param fieldName The custom metadata field name
+	 * @param value The text value
+	 * @return Bitmap of the matching item indices
+	 */
+	public RoaringBitmap getItemsWithCustomMetadataText(String fieldName, String value) {
+		return getItems("CustomMetadata:"+fieldName, "text:"+value);
+	}
+
+	/***
+	 * Gets all items known to the source repository.  Useful as the universe for {@link #not(RoaringBitmap)}.
+	 * @return Bitmap of all item indices in the source repository
+	 */
+	public RoaringBitmap getAllItems() {
+		return sourceRepo.getAllItemsBitmap();
+	}
+
+	/***
+	 * Intersects the given bitmaps.
+	 * @param bitmaps The bitmaps to intersect
+	 * @return A new bitmap of the item indices present in every given bitmap
+	 */
+	public static RoaringBitmap and(RoaringBitmap... bitmaps) {
+		if(bitmaps.length < 1){ return new RoaringBitmap(); }
+		RoaringBitmap result = bitmaps[0].clone();
+		for (int i = 1; i < bitmaps.length; i++) {
+			result.and(bitmaps[i]);
+		}
+		return result;
+	}
+
+	/***
+	 * Unions the given bitmaps.
+	 * @param bitmaps The bitmaps to union
+	 * @return A new bitmap of the item indices present in any given bitmap
+	 */
+	public static RoaringBitmap or(RoaringBitmap... bitmaps) {
+		RoaringBitmap result = new RoaringBitmap();
+		for (int i = 0; i < bitmaps.length; i++) {
+			result.or(bitmaps[i]);
+		}
+		return result;
+	}
+
+	/***
+	 * Subtracts one bitmap from another.
+	 * @param bitmap The bitmap to subtract from
+	 * @param excluded The bitmap of item indices to remove
+	 * @return A new bitmap of the item indices in the first bitmap but not in the second
+	 */
+	public static RoaringBitmap andNot(RoaringBitmap bitmap, RoaringBitmap excluded) {
+		return RoaringBitmap.andNot(bitmap, excluded);
+	}
+
+	/***
+	 * Negates the given bitmap against all items known to the source repository.
+	 * @param bitmap The bitmap to negate
+	 * @return A new bitmap of all item indices not present in the given bitmap
+	 */
+	public RoaringBitmap not(RoaringBitmap bitmap) {
+		return RoaringBitmap.andNot(getAllItems(), bitmap);
+	}
+
+	/***
+	 * Resolves the item indices of a bitmap to item GUIDs.
+	 * @param bitmap The bitmap to resolve
+	 * @return List of GUIDs for the item indices in the bitmap
+	 */
+	public List<String> toGuids(RoaringBitmap bitmap) {
+		return sourceRepo.resolveGuids(bitmap);
+	}
+
+	/***
+	 * Gets the state keys present in this snapshot, for example "Tag:Responsive" or "Custodian".
+	 * @return List of state keys
+	 */
+	public List<String> getStateKeys() {
+		List<String> result = new ArrayList<String>(keyStates.keySet());
+		Collections.sort(result);
+		return result;
+	}
+
+	/***
+	 * Gets the number of items holding each value of the given state key.
+	 * @param stateKey The state key, for example "Custodian"
+	 * @return Map of value key to item count, sorted by value key
+	 */
+	public Map<String,Integer> getValueCounts(String stateKey) {
+		Map<String,Integer> result = new TreeMap<String,Integer>();
+		AnnotationKeyState keyState = keyStates.get(stateKey);
+		if(keyState != null){
+			for(Map.Entry<String,RoaringBitmap> entry : keyState.getAssignedByValue().entrySet()){
+				if(!entry.getValue().isEmpty()){
+					result.put(entry.getKey(), entry.getValue().getCardinality());
+				}
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Gets the number of items which had each tag.
+	 * @return Map of tag name to item count, sorted by tag name
+	 */
+	public Map<String,Integer> getTagCounts() {
+		Map<String,Integer> result = new TreeMap<String,Integer>();
+		for(AnnotationKeyState keyState : keyStates.values()){
+			if(keyState.getStateKey().startsWith("Tag:")){
+				int count = getItems(keyState.getStateKey(), null).getCardinality();
+				if(count > 0){
+					result.put(keyState.getStateKey().substring(4), count);
+				}
+			}
+		}
+		return result;
+	}
+}
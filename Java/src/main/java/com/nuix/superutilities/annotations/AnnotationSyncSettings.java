@@ -58,6 +58,22 @@ public class AnnotationSyncSettings {
 		this.syncProductionSetEvents = syncProductionSetEvents;
 	}
 	
+	/***
+	 * Creates a copy of these settings.  Useful when the same settings are used for repeated syncs, since
+	 * {@link AnnotationHistoryRepository#syncHistory(nuix.Case, AnnotationSyncSettings)} may modify the settings it is provided.
+	 * @return A new settings object with the same values as this one
+	 */
+	public AnnotationSyncSettings copy(){
+		AnnotationSyncSettings result = new AnnotationSyncSettings();
+		result.syncCustomMetadataEvents = syncCustomMetadataEvents;
+		result.syncTagEvents = syncTagEvents;
+		result.syncItemSetEvents = syncItemSetEvents;
+		result.syncExclusionEvents = syncExclusionEvents;
+		result.syncCustodianEvents = syncCustodianEvents;
+		result.syncProductionSetEvents = syncProductionSetEvents;
+		return result;
+	}
+	
 	public String buildSettingsSummary(){
 		StringJoiner result = new StringJoiner("\n");
 		result.add(String.format("Sync Custom Metadata: %s", syncCustomMetadataEvents));
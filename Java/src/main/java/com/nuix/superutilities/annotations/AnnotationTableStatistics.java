@@ -0,0 +1,85 @@
+package com.nuix.superutilities.annotations;
+
+/***
+ * Storage statistics of a single table of an {@link AnnotationHistoryRepository}, either an event type as recorded by its event
+ * store or one of the repository's own tables such as Bitmap.  See {@link AnnotationHistoryRepository#buildStatistics()}.
+ * @author Jason Wells
+ *
+ */
+public class AnnotationTableStatistics {
+	String tableName = null;
+	long rowCount = 0;
+	long storedBytes = -1;
+	long bitmapCount = 0;
+	long bitmapBytes = 0;
+	long itemCount = 0;
+
+	AnnotationTableStatistics(String tableName){
+		this.tableName = tableName;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/***
+	 * Gets the bytes used on disk by this table, including its indices.  For the SQLite store this is determined from the
+	 * "dbstat" virtual table, for the segmented log store this is the size of the segment files.
+	 * @return Bytes used on disk, -1 if this could not be determined
+	 */
+	public long getStoredBytes() {
+		return storedBytes;
+	}
+
+	/***
+	 * Gets the number of serialized item bitmaps referenced by the rows of this table.
+	 * @return Number of bitmaps
+	 */
+	public long getBitmapCount() {
+		return bitmapCount;
+	}
+
+	/***
+	 * Gets the total size of the serialized item bitmaps referenced by the rows of this table.  Rows sharing an identical bitmap
+	 * each count its full size even though the repository stores it once.
+	 * @return Total serialized bitmap bytes
+	 */
+	public long getBitmapBytes() {
+		return bitmapBytes;
+	}
+
+	/***
+	 * Gets the total number of items referenced by the bitmaps of this table.
+	 * @return Total item count
+	 */
+	public long getItemCount() {
+		return itemCount;
+	}
+
+	/***
+	 * Gets the average size of a serialized item bitmap referenced by this table.
+	 * @return Average serialized bitmap bytes, 0 if there are no bitmaps
+	 */
+	public double getAverageBitmapBytes() {
+		if(bitmapCount < 1){
+			return 0;
+		}
+		return bitmapBytes / (double)bitmapCount;
+	}
+
+	/***
+	 * Gets the ratio between the size the item indices of this table's bitmaps would occupy as plain 4 byte integers and
+	 * their serialized bitmap size.
+	 * @return Compression ratio, 0 if there are no bitmap bytes
+	 */
+	public double getCompressionRatio() {
+		if(bitmapBytes < 1){
+			return 0;
+		}
+		return (itemCount * 4d) / bitmapBytes;
+	}
+}
@@ -0,0 +1,77 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+/***
+ * Converts between item index arrays, RoaringBitmaps and the serialized byte arrays stored in an {@link AnnotationHistoryRepository}.
+ * Bitmaps are built from sorted primitive arrays in bulk and serialized directly into a ByteBuffer backed by the result array.
+ * When reading, {@link #view(byte[])} provides an immutable bitmap which reads directly from the serialized bytes without copying
+ * them into a new bitmap.
+ * @author Jason Wells
+ *
+ */
+public class BitmapCodec {
+	private BitmapCodec(){}
+
+	/***
+	 * Builds a bitmap from an array of item indices in bulk.
+	 * @param indices The item indices, sorted in place if they are not already in ascending order
+	 * @return A run optimized bitmap containing the given indices
+	 */
+	public static RoaringBitmap fromIndices(int[] indices) {
+		if(!isSorted(indices)){
+			Arrays.sort(indices);
+		}
+		RoaringBitmap bitmap = RoaringBitmap.bitmapOf(indices);
+		bitmap.runOptimize();
+		return bitmap;
+	}
+
+	private static boolean isSorted(int[] indices) {
+		for (int i = 1; i < indices.length; i++) {
+			if(indices[i-1] > indices[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/***
+	 * Run optimizes the given bitmap and serializes it into a byte array sized exactly to fit it.
+	 * @param bitmap The bitmap to serialize
+	 * @return The serialized bitmap
+	 */
+	public static byte[] serialize(RoaringBitmap bitmap) {
+		bitmap.runOptimize();
+		byte[] result = new byte[bitmap.serializedSizeInBytes()];
+		bitmap.serialize(ByteBuffer.wrap(result));
+		return result;
+	}
+
+	/***
+	 * Deserializes a byte array into a new mutable bitmap.  Use this when the bitmap will be modified, otherwise prefer {@link #view(byte[])}.
+	 * @param bitmapBytes The serialized bitmap
+	 * @return A new bitmap
+	 * @throws IOException If the bytes are not a valid serialized bitmap
+	 */
+	public static RoaringBitmap deserialize(byte[] bitmapBytes) throws IOException {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		bitmap.deserialize(ByteBuffer.wrap(bitmapBytes));
+		return bitmap;
+	}
+
+	/***
+	 * Provides an immutable view over a serialized bitmap.  The view reads directly from the provided array, which must not be
+	 * modified while the view is in use.
+	 * @param bitmapBytes The serialized bitmap
+	 * @return An immutable bitmap backed by the provided bytes
+	 */
+	public static ImmutableRoaringBitmap view(byte[] bitmapBytes) {
+		return new ImmutableRoaringBitmap(ByteBuffer.wrap(bitmapBytes));
+	}
+}
@@ -2,27 +2,23 @@ package com.nuix.superutilities.annotations;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.TreeMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import org.apache.commons.math3.util.Precision;
 import org.apache.log4j.Logger;
 
-import com.aspose.pdf.Document;
-import com.aspose.pdf.Rectangle;
-import com.aspose.pdf.TextFragment;
-import com.aspose.pdf.TextFragmentAbsorber;
-import com.aspose.pdf.TextFragmentCollection;
-import com.aspose.pdf.TextSearchOptions;
-import com.aspose.pdf.TextSegment;
-import com.aspose.pdf.TextSegmentCollection;
 import com.nuix.superutilities.export.PdfWorkCache;
 
 import nuix.Case;
@@ -76,63 +72,71 @@ public class BulkRedactor {
 	}
 	
 	/***
-	 * This method provides the logic to take the individual text segments (think characters in a match) and coalesce them into per line redactions.
-	 * @param segments Collection of text segments received from a given TextFragment.
-	 * @param pageRect Rectangle representing dimensions of source page.  Needed to convert coordinates to Nuix accepted coordinates.
-	 * @param pageNumber The page number the given match comes from.  Recorded in {@link NuixImageAnnotationRegion} so it knows what page to perform markups on.
-	 * @return A List of annotation region objects representing the coalesced segments.
+	 * This method provides the logic to take the individual glyphs of a match (think characters in a match) and coalesce them into per line redactions.
+	 * Glyphs are grouped into lines by their bottom edge, rounded to 2 decimal places.  Coordinates are copied into primitive arrays and glyphs are ordered
+	 * by sorting their indices, since this is called for every match and on character dense documents dominates the time spent searching.
+	 * @param match The match whose glyphs, as extracted by {@link PdfTextLayer}, are coalesced.  The page the match is on provides the page dimensions
+	 * needed to convert coordinates to Nuix accepted coordinates, and the page number recorded in {@link NuixImageAnnotationRegion} so it knows what page
+	 * to perform markups on.
+	 * @return A List of annotation region objects representing the coalesced glyphs.
 	 */
-	private List<NuixImageAnnotationRegion> buildRegionsFromSegments(TextSegmentCollection segments, Rectangle pageRect, int pageNumber){
-		List<NuixImageAnnotationRegion> result = new ArrayList<NuixImageAnnotationRegion>();
+	private List<NuixImageAnnotationRegion> buildRegionsFromSegments(PdfTextLayer.TextMatch match){
+		List<PdfTextLayer.Glyph> pageGlyphs = match.page.glyphs;
+		double pageWidth = match.page.width;
+		double pageHeight = match.page.height;
+		boolean debug = logger.isDebugEnabled();
 		
-		// Group rectangle for each char by line
-		Map<Double,List<TextSegment>> groupedByLine = new TreeMap<Double,List<TextSegment>>();
-		logger.debug("Fragment Segments:");
-		for(TextSegment segment : segments) {
-			Rectangle segRect = segment.getRectangle();
-			double y = Precision.round(segRect.getLLY(), 2);
-			if(!groupedByLine.containsKey(y)) {
-				groupedByLine.put(y, new ArrayList<TextSegment>());
+		// Gather the coordinates of the matched glyphs, skipping the inserted characters which have none
+		int capacity = match.end - match.start;
+		PdfTextLayer.Glyph[] glyphs = new PdfTextLayer.Glyph[capacity];
+		long[] lineKeys = new long[capacity];
+		double[] lowerLeftX = new double[capacity];
+		int count = 0;
+		if(debug) { logger.debug("Match Glyphs:"); }
+		for (int i = match.start; i < match.end; i++) {
+			PdfTextLayer.Glyph glyph = pageGlyphs.get(i);
+			if(glyph == null) {
+				continue;
 			}
-			groupedByLine.get(y).add(segment);
-			
-			logger.debug(String.format("LLX=%s, LLY=%s, URX=%s, URY=%s, T=%s",
-					segment.getRectangle().getLLX(), segment.getRectangle().getLLY(),
-					segment.getRectangle().getURX(), segment.getRectangle().getURY(),
-					segment.getText()
-				));
-		}
-		
-		for(Map.Entry<Double, List<TextSegment>> lineGroupedSegments : groupedByLine.entrySet()) {
-			List<TextSegment> lineSegments = lineGroupedSegments.getValue(); 
-			lineSegments.sort(new Comparator<TextSegment>() {
-				@Override
-				public int compare(TextSegment o1, TextSegment o2) {
-					Rectangle segRect1 = o1.getRectangle();
-					Rectangle segRect2 = o2.getRectangle();
-					return Double.compare(segRect1.getLLX(), segRect2.getLLX());
-				}
-			});
+			glyphs[count] = glyph;
+			lineKeys[count] = Math.round(glyph.lly * 100);
+			lowerLeftX[count] = glyph.llx;
+			count++;
 			
-			logger.debug("Line Segments:");
-			for(TextSegment seg : lineSegments) {
+			if(debug) {
 				logger.debug(String.format("LLX=%s, LLY=%s, URX=%s, URY=%s, T=%s",
-						seg.getRectangle().getLLX(), seg.getRectangle().getLLY(),
-						seg.getRectangle().getURX(), seg.getRectangle().getURY(),
-						seg.getText()
+						glyph.llx, glyph.lly, glyph.urx, glyph.ury, glyph.character
 					));
 			}
+		}
+		if(count == 0) {
+			return Collections.emptyList();
+		}
+		
+		// Order glyphs by line, bottom of the page first, then left to right
+		int[] order = sortGlyphIndices(lineKeys, lowerLeftX, count);
+		
+		List<NuixImageAnnotationRegion> result = new ArrayList<NuixImageAnnotationRegion>();
+		int lineStart = 0;
+		while(lineStart < count) {
+			int lineEnd = lineStart + 1;
+			while(lineEnd < count && lineKeys[order[lineEnd]] == lineKeys[order[lineStart]]) {
+				lineEnd++;
+			}
 			
-			double lowestX = lineSegments.get(0).getRectangle().getLLX();
-			double highestX = lineSegments.get(lineSegments.size()-1).getRectangle().getURX();
+			PdfTextLayer.Glyph first = glyphs[order[lineStart]];
+			double lowestX = first.llx;
+			double highestX = glyphs[order[lineEnd-1]].urx;
 			
-			logger.debug(String.format("lowestX=%s", lowestX));
-			logger.debug(String.format("highestX=%s", highestX));
+			if(debug) {
+				logger.debug(String.format("lowestX=%s", lowestX));
+				logger.debug(String.format("highestX=%s", highestX));
+			}
 			
-			double x = lowestX / pageRect.getWidth();
-			double y = 1.0 - (lineSegments.get(0).getRectangle().getLLY() / pageRect.getHeight());
-			double width = (highestX - lowestX) / pageRect.getWidth();
-			double height = lineSegments.get(0).getRectangle().getHeight() / pageRect.getHeight();
+			double x = lowestX / pageWidth;
+			double y = 1.0 - (first.lly / pageHeight);
+			double width = (highestX - lowestX) / pageWidth;
+			double height = first.getHeight() / pageHeight;
 			
 			// Markup in Nuix seems to come out a little taller than it needs to so we are going
 			// to make some small tweaks to the converted region to trim a tiny bit off the top
@@ -145,54 +149,182 @@ public class BulkRedactor {
 			region.setY(y - height);
 			region.setHeight(height);
 			region.setWidth(width);
-			String text = String.join("", lineSegments.stream().map(s -> s.getText()).collect(Collectors.toList()));
-			region.setText(text);
-			region.setPageNumber(pageNumber);
+			char[] text = new char[lineEnd - lineStart];
+			for (int i = lineStart; i < lineEnd; i++) {
+				text[i - lineStart] = glyphs[order[i]].character;
+			}
+			region.setText(new String(text));
+			region.setPageNumber(match.page.pageNumber);
 			
-			logger.debug("Resulting Region:");
-			logger.debug(region);
+			if(debug) {
+				logger.debug("Resulting Region:");
+				logger.debug(region);
+			}
 			
 			result.add(region);
+			lineStart = lineEnd;
 		}
 		
 		return result;
 	}
 	
 	/***
-	 * Generates {@link NuixImageAnnotationRegion} objects for matches found by Aspose in the given PDF based on the provided regular expressions.
+	 * Sorts glyph indices by line key and then by lower left X, keeping glyphs which compare equal in text order.  Glyphs of a match are
+	 * usually already in this order, so an insertion sort is used which is linear in that case, falling back to a merge sort for long
+	 * matches which are not.
+	 */
+	private static int[] sortGlyphIndices(long[] lineKeys, double[] lowerLeftX, int count) {
+		int[] order = new int[count];
+		int outOfOrder = 0;
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+			if(i > 0 && compareGlyphs(lineKeys, lowerLeftX, i - 1, i) > 0) {
+				outOfOrder++;
+			}
+		}
+		if(outOfOrder == 0) {
+			return order;
+		}
+		
+		if(count <= 64 || outOfOrder <= 8) {
+			for (int i = 1; i < count; i++) {
+				int current = order[i];
+				int j = i - 1;
+				while(j >= 0 && compareGlyphs(lineKeys, lowerLeftX, order[j], current) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = current;
+			}
+		} else {
+			Integer[] boxed = new Integer[count];
+			for (int i = 0; i < count; i++) { boxed[i] = i; }
+			// Object sort is stable
+			Arrays.sort(boxed, (a, b) -> compareGlyphs(lineKeys, lowerLeftX, a, b));
+			for (int i = 0; i < count; i++) { order[i] = boxed[i]; }
+		}
+		return order;
+	}
+	
+	private static int compareGlyphs(long[] lineKeys, double[] lowerLeftX, int a, int b) {
+		int byLine = Long.compare(lineKeys[a], lineKeys[b]);
+		return byLine != 0 ? byLine : Double.compare(lowerLeftX[a], lowerLeftX[b]);
+	}
+	
+	/***
+	 * Generates {@link NuixImageAnnotationRegion} objects for matches found in the given PDF based on the provided regular expressions.
+	 * The text layer of the PDF is extracted once and all expressions are searched for in it.
 	 * @param file The PDF file to search
 	 * @param expressions The regular expressions to look for.
 	 * @return A List of annotation region objects representing the matches.
 	 */
 	public List<NuixImageAnnotationRegion> findExpressionsInPdfFile(File file, Collection<String> expressions) {
-		Document pdfDocument = new Document(file.getAbsolutePath());
+		logger.info(String.format("Scanning %s for %s expressions", file.getAbsolutePath(), expressions.size()));
+		return findExpressionsInTextLayer(PdfTextLayer.extract(file), expressions);
+	}
+	
+	/***
+	 * Generates {@link NuixImageAnnotationRegion} objects for matches found in an already extracted PDF text layer based on the provided
+	 * regular expressions.  Use this rather than {@link #findExpressionsInPdfFile(File, Collection)} when searching the same PDF more than once.
+	 * @param textLayer The text layer to search, see {@link PdfTextLayer#extract(File)}
+	 * @param expressions The regular expressions to look for.
+	 * @return A List of annotation region objects representing the matches.
+	 */
+	public List<NuixImageAnnotationRegion> findExpressionsInTextLayer(PdfTextLayer textLayer, Collection<String> expressions) {
 		List<NuixImageAnnotationRegion> result = new ArrayList<NuixImageAnnotationRegion>();
-		for(String expression : expressions) {
-			TextFragmentAbsorber absorber = new TextFragmentAbsorber(expression);
-			
-			TextSearchOptions options = new TextSearchOptions(true);
-			absorber.setTextSearchOptions(options);
-			pdfDocument.getPages().accept(absorber);
-			logger.info(String.format("Scanning %s for %s", file.getAbsolutePath(), expression));
-			TextFragmentCollection textFragmentCollection = absorber.getTextFragments();
-			for(TextFragment fragment : textFragmentCollection) {
-				Rectangle pageRect = fragment.getPage().getRect();
-				
-				logger.debug("Text Fragment:");
-				logger.debug(String.format("LLX=%s, LLY=%s, URX=%s, URY=%s, T=%s",
-						fragment.getRectangle().getLLX(), fragment.getRectangle().getLLY(),
-						fragment.getRectangle().getURX(), fragment.getRectangle().getURY(),
-						fragment.getText()
-					));
-				result.addAll(buildRegionsFromSegments(fragment.getSegments(),pageRect,fragment.getPage().getNumber()));
+		for(PdfTextLayer.TextMatch match : textLayer.findMatches(expressions)) {
+			result.addAll(buildRegionsFromSegments(match));
+		}
+		return result;
+	}
+	
+	/***
+	 * The matches found in the PDF of a single item, waiting to be applied to the case.
+	 */
+	private static class ItemRedactionResult {
+		Item item = null;
+		List<NuixImageAnnotationRegion> regions = null;
+		List<NuixImageAnnotationRegion> entityRegions = null;
+	}
+	
+	/***
+	 * Generates the PDF of an item and searches it for matches.  Does not modify the case, so this may be called by
+	 * several threads concurrently.  When a text layer cache is provided and holds the item's current text layer, the PDF
+	 * is not generated at all.
+	 */
+	private ItemRedactionResult findItemRegions(PdfWorkCache pdfCache, PdfTextLayerCache textLayerCache, BulkRedactorSettings settings, Item item) throws Exception {
+		ItemRedactionResult result = new ItemRedactionResult();
+		result.item = item;
+		
+		// Text layer is extracted once and shared by the expression and named entity passes
+		PdfTextLayer textLayer = null;
+		if(textLayerCache != null) {
+			// A PDF already exported, for example one kept from an earlier run, is checked against the PDF the text layer was cached from
+			File existingPdf = pdfCache.getExistingPdfPath(item);
+			try {
+				textLayer = textLayerCache.get(item, existingPdf);
+			} finally {
+				if(existingPdf != null) {
+					pdfCache.releasePdf(item);
+				}
 			}
 		}
-		pdfDocument.close();
+		if(textLayer == null) {
+			File tempPdf = pdfCache.getPdfPath(item);
+			try {
+				textLayer = PdfTextLayer.extract(tempPdf);
+				if(textLayerCache != null) {
+					textLayerCache.put(item, tempPdf, textLayer);
+				}
+			} finally {
+				pdfCache.releasePdf(item);
+			}
+		}
+		result.regions = findExpressionsInTextLayer(textLayer, settings.getExpressions());
+		
+		//Named entities require that we get matched values, convert those to expressions and then do another pass
+		if (settings.getNamedEntityTypes().size() > 0) {
+			Set<String> entityValues = new HashSet<String>();
+			for(String entityType : settings.getNamedEntityTypes()) {
+				entityValues.addAll(item.getEntities(entityType));
+			}
+			
+			Set<String> entityExpressions = entityValues.stream().map(v -> BulkRedactorSettings.phraseToExpression(v)).collect(Collectors.toSet());
+			result.entityRegions = findExpressionsInTextLayer(textLayer, entityExpressions);
+		} else {
+			result.entityRegions = new ArrayList<NuixImageAnnotationRegion>();
+		}
 		return result;
 	}
 	
 	/***
-	 * Finds text in PDFs of given items.  Then generates redactions based on the matches.
+	 * Applies the matches found for an item to the markup set.  Only ever called by a single thread.  Matches are applied together
+	 * as a {@link NuixImageAnnotationBatch}, so overlapping matches on a line become a single markup.
+	 * @return The number of matches applied
+	 */
+	private int applyItemRegions(MarkupSet markupSet, ItemRedactionResult result) throws Exception {
+		NuixImageAnnotationBatch batch = new NuixImageAnnotationBatch();
+		if(result.regions.size() > 0) {
+			logMessage("Item with GUID %s had %s matches",result.item.getGuid(),result.regions.size());
+			batch.addRedactions(result.item, result.regions);
+		}
+		if(result.entityRegions.size() > 0) {
+			logMessage("Item with GUID %s had %s named entity matches",result.item.getGuid(),result.entityRegions.size());
+			batch.addRedactions(result.item, result.entityRegions);
+		}
+		if(!batch.isEmpty()) {
+			int markups = batch.apply(markupSet);
+			logMessage("Item with GUID %s received %s redactions",result.item.getGuid(),markups);
+		}
+		return result.regions.size() + result.entityRegions.size();
+	}
+	
+	/***
+	 * Finds text in PDFs of given items.  Then generates redactions based on the matches.  When {@link BulkRedactorSettings#getConcurrency()}
+	 * is greater than 1, PDFs are generated and searched by a pool of worker threads while the calling thread applies the resulting
+	 * markups, so the case is only ever modified by one thread.  Items are then applied in the order their searches complete, which
+	 * may differ from the order of scopeItems.  When {@link BulkRedactorSettings#getPrefetchDepth()} is greater than 0, PDFs are also
+	 * exported on background threads ahead of the items being searched, see {@link PdfWorkCache#startPrefetch(List, int, int)}.
 	 * @param nuixCase The source Nuix case.  Needed to obtain items (if none were given) and/or obtain the appropriate markup set.
 	 * @param settings The settings used to find and generate the redactions.
 	 * @param scopeItems Items to find and redact.
@@ -208,10 +340,17 @@ public class BulkRedactor {
 		// which means it will give partial results!
 		com.nuix.data.util.aspose.AsposePdf.ensureInitialised();
 
-		PdfWorkCache pdfCache = new PdfWorkCache(settings.getTempDirectory());
+		PdfWorkCache pdfCache = new PdfWorkCache(settings.getTempDirectory(), settings.getKeepTempPdfs());
+		pdfCache.setMaxDiskBytes(settings.getMaxTempDiskBytes());
+		PdfTextLayerCache textLayerCache = settings.getTextLayerCacheDirectory() == null ? null : new PdfTextLayerCache(settings.getTextLayerCacheDirectory());
+		if(textLayerCache != null) {
+			textLayerCache.setMatchByDigest(settings.getReuseTextLayersByDigest());
+		}
 		MarkupSet markupSet = settings.getMarkupSet(nuixCase);
 		int currentIteration = 0;
 		int matches = 0;
+		int totalItems = scopeItems.size();
+		int concurrency = settings.getConcurrency();
 		
 		logMessage("Regular Expressions:");
 		for(String expression : settings.getExpressions()) {
@@ -223,47 +362,84 @@ public class BulkRedactor {
 			logMessage(namedEntity);
 		}
 		
-		for(Item item : scopeItems) {
-			currentIteration += 1;
-			File tempPdf = pdfCache.getPdfPath(item);
+		ExecutorService workers = null;
+		try {
+			CompletionService<ItemRedactionResult> completionService = null;
+			if(concurrency > 1) {
+				logMessage("Finding matches using %s worker threads",concurrency);
+				workers = Executors.newFixedThreadPool(concurrency);
+				completionService = new ExecutorCompletionService<ItemRedactionResult>(workers);
+			}
 			
-			List<NuixImageAnnotationRegion> regions = findExpressionsInPdfFile(tempPdf, settings.getExpressions());
-			if(regions.size() > 0) {
-				logMessage("Item with GUID %s had %s matches",item.getGuid(),regions.size());
-				for(NuixImageAnnotationRegion region : regions) {
-					matches++;
-					region.applyRedaction(markupSet, item);
-				}	
+			if(settings.getPrefetchDepth() > 0) {
+				// Items whose text layer is already cached do not need a PDF when cached text layers are matched by digest.  Only the presence
+				// of a cached text layer is checked, should one turn out to be stale the item's PDF is simply exported when needed.
+				boolean skipCached = textLayerCache != null && textLayerCache.getMatchByDigest();
+				List<Item> prefetchItems = new ArrayList<Item>();
+				for(Item item : scopeItems) {
+					if(!skipCached || !textLayerCache.contains(item)) {
+						prefetchItems.add(item);
+					}
+				}
+				pdfCache.setPrefetchMinFreeBytes(settings.getPrefetchMinFreeBytes());
+				pdfCache.startPrefetch(prefetchItems, settings.getPrefetchDepth(), settings.getPrefetchThreads());
 			}
 			
-			//Named entities require that we get matched values, convert those to expressions and then do another pass
-			if (settings.getNamedEntityTypes().size() > 0) {
-				Set<String> entityValues = new HashSet<String>();
-				for(String entityType : settings.getNamedEntityTypes()) {
-					entityValues.addAll(item.getEntities(entityType));
+			// Bound how far workers may get ahead of the applier, so pending results do not pile up in memory
+			int maxInFlight = concurrency * 2;
+			int inFlight = 0;
+			Iterator<Item> itemIterator = scopeItems.iterator();
+			while(itemIterator.hasNext() || inFlight > 0) {
+				ItemRedactionResult result = null;
+				if(completionService == null) {
+					result = findItemRegions(pdfCache, textLayerCache, settings, itemIterator.next());
+				} else {
+					while(itemIterator.hasNext() && inFlight < maxInFlight) {
+						Item item = itemIterator.next();
+						completionService.submit(() -> findItemRegions(pdfCache, textLayerCache, settings, item));
+						inFlight++;
+					}
+					try {
+						result = completionService.take().get();
+					} catch (ExecutionException e) {
+						if(e.getCause() instanceof Exception) {
+							throw (Exception)e.getCause();
+						}
+						throw e;
+					}
+					inFlight--;
 				}
 				
-				Set<String> entityExpressions = entityValues.stream().map(v -> BulkRedactorSettings.phraseToExpression(v)).collect(Collectors.toSet());
-				List<NuixImageAnnotationRegion> entityRegions = findExpressionsInPdfFile(tempPdf, entityExpressions);
-				if(entityRegions.size() > 0) {
-					logMessage("Item with GUID %s had %s named entity matches",item.getGuid(),entityRegions.size());
-					for(NuixImageAnnotationRegion region : entityRegions) {
-						matches++;
-						region.applyRedaction(markupSet, item);
-					}	
-				}
+				currentIteration += 1;
+				matches += applyItemRegions(markupSet, result);
+				
+				// Report progress
+				BulkRedactorProgressInfo progressInfo = new BulkRedactorProgressInfo();
+				progressInfo.setCurrent(currentIteration);
+				progressInfo.setTotal(totalItems);
+				progressInfo.setMatches(matches);
+				fireProgressUpdated(progressInfo);
 			}
-			
-			// Report progress
-			BulkRedactorProgressInfo progressInfo = new BulkRedactorProgressInfo();
-			progressInfo.setCurrent(currentIteration);
-			progressInfo.setTotal(scopeItems.size());
-			progressInfo.setMatches(matches);
-			fireProgressUpdated(progressInfo);
+		} finally {
+			if(workers != null) {
+				workers.shutdownNow();
+			}
+			pdfCache.stopPrefetch();
 		}
 		
-		logMessage("Cleaning up temp directory %s",settings.getTempDirectory());
-		pdfCache.cleanupTemporaryPdfs();
-		logMessage("Temp directory deleted");
+		if(textLayerCache != null) {
+			logMessage("Text layer cache hits: %s, misses: %s",textLayerCache.getHitCount(),textLayerCache.getMissCount());
+		}
+		
+		logMessage("PDF cache hits: %s, misses: %s, prefetched: %s, evictions: %s",pdfCache.getHitCount(),pdfCache.getMissCount(),
+				pdfCache.getPrefetchCount(),pdfCache.getEvictionCount());
+		
+		if(settings.getKeepTempPdfs()) {
+			logMessage("Keeping temp directory %s",settings.getTempDirectory());
+		} else {
+			logMessage("Cleaning up temp directory %s",settings.getTempDirectory());
+			pdfCache.cleanupTemporaryPdfs();
+			logMessage("Temp directory deleted");
+		}
 	}
 }
@@ -10,6 +10,8 @@ import java.util.StringJoiner;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import com.nuix.superutilities.export.PdfWorkCache;
+
 import nuix.Case;
 import nuix.MarkupSet;
 
@@ -25,6 +27,14 @@ public class BulkRedactorSettings {
 	private File tempDirectory = null;
 	private Set<String> expressions = new HashSet<String>();
 	private Set<String> namedEntityTypes = new HashSet<String>();
+	private int concurrency = 1;
+	private File textLayerCacheDirectory = null;
+	private long maxTempDiskBytes = 0;
+	private boolean keepTempPdfs = false;
+	private boolean reuseTextLayersByDigest = false;
+	private int prefetchDepth = 0;
+	private int prefetchThreads = 1;
+	private long prefetchMinFreeBytes = 1024L * 1024L * 1024L;
 	
 	/***
 	 * Gets the name of the markup set to which markups will be recorded against.
@@ -116,6 +126,169 @@ public class BulkRedactorSettings {
 		namedEntityTypes.add(namedEntityType);
 	}
 	
+	/***
+	 * Gets the number of worker threads which generate PDFs and search them for matches.
+	 * @return The number of worker threads
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+	
+	/***
+	 * Sets the number of worker threads which generate PDFs and search them for matches.  Regardless of this setting, markups are
+	 * always applied to the case by a single thread.  A value of 1 (the default) processes items one at a time on the calling thread.
+	 * @param concurrency The number of worker threads, must be at least 1
+	 */
+	public void setConcurrency(int concurrency) {
+		if(concurrency < 1){
+			throw new IllegalArgumentException("concurrency cannot be less than 1");
+		}
+		this.concurrency = concurrency;
+	}
+	
+	/***
+	 * Gets the directory in which {@link BulkRedactor} caches the text layer of each item's PDF, see {@link PdfTextLayerCache}.
+	 * @return The text layer cache directory, or null if text layers are not cached.
+	 */
+	public File getTextLayerCacheDirectory() {
+		return textLayerCacheDirectory;
+	}
+	
+	/***
+	 * Sets the directory in which {@link BulkRedactor} caches the text layer of each item's PDF.  When set, a later run over the same
+	 * items (for example with additional expressions) searches the cached text of unchanged items, rather than parsing their PDFs again, or
+	 * exporting them again when {@link #setReuseTextLayersByDigest(boolean)} is enabled.  See {@link PdfTextLayerCache} for how an item is determined to be unchanged.  This must not be the same as the temp directory, which by default is deleted at the end of each run.
+	 * @param textLayerCacheDirectory The text layer cache directory, or null to not cache text layers (the default).
+	 */
+	public void setTextLayerCacheDirectory(File textLayerCacheDirectory) {
+		this.textLayerCacheDirectory = textLayerCacheDirectory;
+	}
+	
+	/***
+	 * Sets the directory in which {@link BulkRedactor} caches the text layer of each item's PDF.  When set, a later run over the same
+	 * items (for example with additional expressions) searches the cached text of unchanged items, rather than parsing their PDFs again, or
+	 * exporting them again when {@link #setReuseTextLayersByDigest(boolean)} is enabled.  See {@link PdfTextLayerCache} for how an item is determined to be unchanged.  This must not be the same as the temp directory, which by default is deleted at the end of each run.
+	 * @param textLayerCacheDirectory The text layer cache directory.
+	 */
+	public void setTextLayerCacheDirectory(String textLayerCacheDirectory) {
+		this.textLayerCacheDirectory = new File(textLayerCacheDirectory);
+	}
+	
+	/***
+	 * Gets the maximum number of bytes of PDFs {@link BulkRedactor} will keep in the temp directory.
+	 * @return The disk budget in bytes, 0 meaning no limit.
+	 */
+	public long getMaxTempDiskBytes() {
+		return maxTempDiskBytes;
+	}
+	
+	/***
+	 * Sets the maximum number of bytes of PDFs {@link BulkRedactor} will keep in the temp directory.  Once exceeded, PDFs which have
+	 * already been searched are deleted, least recently used first, see {@link PdfWorkCache#setMaxDiskBytes(long)}.
+	 * @param maxTempDiskBytes The disk budget in bytes, 0 meaning no limit (the default).
+	 */
+	public void setMaxTempDiskBytes(long maxTempDiskBytes) {
+		if(maxTempDiskBytes < 0){
+			throw new IllegalArgumentException("maxTempDiskBytes cannot be less than 0");
+		}
+		this.maxTempDiskBytes = maxTempDiskBytes;
+	}
+	
+	/***
+	 * Gets whether PDFs in the temp directory are kept at the end of a run and reused by the next run.
+	 * @return True if the temp directory is kept between runs
+	 */
+	public boolean getKeepTempPdfs() {
+		return keepTempPdfs;
+	}
+	
+	/***
+	 * Sets whether PDFs in the temp directory are kept at the end of a run and reused by the next run, rather than the temp directory being
+	 * deleted.  PDFs are reused as is, so this should only be used when the printed images of the items have not changed between runs.
+	 * @param keepTempPdfs True to keep the temp directory between runs, false to delete it at the end of each run (the default).
+	 */
+	public void setKeepTempPdfs(boolean keepTempPdfs) {
+		this.keepTempPdfs = keepTempPdfs;
+	}
+	
+	/***
+	 * Gets whether a cached text layer is reused when only the item's MD5 digest can be checked, see {@link PdfTextLayerCache#setMatchByDigest(boolean)}.
+	 * @return True if cached text layers are reused by digest
+	 */
+	public boolean getReuseTextLayersByDigest() {
+		return reuseTextLayersByDigest;
+	}
+	
+	/***
+	 * Sets whether a cached text layer is reused when only the item's MD5 digest can be checked.  By default a cached text layer is only reused when
+	 * the item's PDF is still at hand, for example with {@link #setKeepTempPdfs(boolean)}, and matches the PDF the text layer was extracted from.  The
+	 * digest does not change when an item's printed image is regenerated, so only enable this when printed images have not changed since the text layers
+	 * were cached, otherwise redactions may be misplaced.
+	 * @param reuseTextLayersByDigest True to reuse cached text layers by digest, false to require a matching PDF (the default).
+	 */
+	public void setReuseTextLayersByDigest(boolean reuseTextLayersByDigest) {
+		this.reuseTextLayersByDigest = reuseTextLayersByDigest;
+	}
+	
+	/***
+	 * Gets how many items ahead of the items being searched {@link BulkRedactor} exports PDFs on background threads.
+	 * @return The prefetch depth, 0 meaning PDFs are not prefetched.
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+	
+	/***
+	 * Sets how many items ahead of the items being searched {@link BulkRedactor} exports PDFs on background threads, so that searching
+	 * does not wait on each PDF being generated.  Prefetched PDFs are held until searched, so a deeper prefetch uses more of the temp directory.
+	 * @param prefetchDepth The prefetch depth, 0 to not prefetch PDFs (the default).
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		if(prefetchDepth < 0){
+			throw new IllegalArgumentException("prefetchDepth cannot be less than 0");
+		}
+		this.prefetchDepth = prefetchDepth;
+	}
+	
+	/***
+	 * Gets the number of background threads which prefetch PDFs.
+	 * @return The number of prefetch threads
+	 */
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+	
+	/***
+	 * Sets the number of background threads which prefetch PDFs when {@link #getPrefetchDepth()} is greater than 0.
+	 * @param prefetchThreads The number of prefetch threads, must be at least 1 (defaults to 1)
+	 */
+	public void setPrefetchThreads(int prefetchThreads) {
+		if(prefetchThreads < 1){
+			throw new IllegalArgumentException("prefetchThreads cannot be less than 1");
+		}
+		this.prefetchThreads = prefetchThreads;
+	}
+	
+	/***
+	 * Gets how much free space the drive holding the temp directory must have for PDFs to continue being prefetched.
+	 * @return Minimum free bytes
+	 */
+	public long getPrefetchMinFreeBytes() {
+		return prefetchMinFreeBytes;
+	}
+	
+	/***
+	 * Sets how much free space the drive holding the temp directory must have for PDFs to continue being prefetched.  PDFs needed by
+	 * the items being searched are exported regardless.
+	 * @param prefetchMinFreeBytes Minimum free bytes, defaults to 1GB
+	 */
+	public void setPrefetchMinFreeBytes(long prefetchMinFreeBytes) {
+		if(prefetchMinFreeBytes < 0){
+			throw new IllegalArgumentException("prefetchMinFreeBytes cannot be less than 0");
+		}
+		this.prefetchMinFreeBytes = prefetchMinFreeBytes;
+	}
+	
 	/***
 	 * Gets the Nuix MarkupSet object based on the markup set name as set by {@link #setMarkupSetName(String)}.  If the markup set by the given name
 	 * already exists, then this will yield that existing markup set.  If it does not, a new markup set with the given name will be created.
@@ -1,21 +1,56 @@
 package com.nuix.superutilities.annotations;
 
+import java.util.Collection;
+
 import com.nuix.superutilities.SuperUtilities;
 
 import nuix.BulkAnnotater;
 import nuix.Case;
+import nuix.Item;
 
 public class CustodianEvent extends AnnotationEvent {
 	boolean assigned = false;
 	String custodian = "";
 	
 	@Override
-	public void replay(Case nuixCase) throws Exception {
+	void applyToItems(Case nuixCase, Collection<Item> items) throws Exception {
 		BulkAnnotater annotater = SuperUtilities.getBulkAnnotater();
 		if(assigned){
-			annotater.assignCustodian(custodian, getAssociatedItems(nuixCase));
+			annotater.assignCustodian(custodian, items);
+		} else {
+			annotater.unassignCustodian(items);
+		}
+	}
+	
+	@Override
+	String getStateKey() {
+		return "Custodian";
+	}
+
+	@Override
+	String getStateValueKey() {
+		return custodian;
+	}
+
+	@Override
+	boolean isStateAssignment() {
+		return assigned;
+	}
+
+	@Override
+	AnnotationEvent deriveNetEvent(boolean assignment) {
+		CustodianEvent derived = copyCommonTo(new CustodianEvent());
+		derived.custodian = custodian;
+		derived.assigned = assignment;
+		return derived;
+	}
+	
+	@Override
+	Collection<Item> findItemsHoldingState(Case nuixCase) {
+		if(assigned){
+			return nuixCase.searchUnsorted(String.format("custodian:\"%s\"", custodian));
 		} else {
-			annotater.unassignCustodian(getAssociatedItems(nuixCase));
+			return nuixCase.searchUnsorted("has-custodian:1");
 		}
 	}
 	
@@ -23,10 +58,10 @@ public class CustodianEvent extends AnnotationEvent {
 	public String toString() {
 		if(assigned){
 			return String.format("CustodianEvent[%s]: Custodian '%s' assigned to %s items",
-					timeStamp,custodian,itemCount);
+					getTimeStamp(),custodian,itemCount);
 		} else {
 			return String.format("CustodianEvent[%s]: Custodian un-assigned from %s items",
-					timeStamp,itemCount);
+					getTimeStamp(),itemCount);
 		}
 	}
 
@@ -1,5 +1,9 @@
 package com.nuix.superutilities.annotations;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
@@ -8,6 +12,7 @@ import com.nuix.superutilities.misc.FormatUtility;
 
 import nuix.BulkAnnotater;
 import nuix.Case;
+import nuix.Item;
 
 public class CustomMetadataEvent extends AnnotationEvent {
 
@@ -21,12 +26,91 @@ public class CustomMetadataEvent extends AnnotationEvent {
 	byte[] valueBinary = null;
 	
 	@Override
-	public void replay(Case nuixCase) throws Exception {
+	void applyToItems(Case nuixCase, Collection<Item> items) throws Exception {
 		BulkAnnotater annotater = SuperUtilities.getBulkAnnotater();
 		if(added){
-			annotater.putCustomMetadata(fieldName, getValue(), getAssociatedItems(nuixCase), valueType, "user", null, null);
+			annotater.putCustomMetadata(fieldName, getValue(), items, valueType, "user", null, null);
+		} else {
+			annotater.removeCustomMetadata(fieldName, items, null);
+		}
+	}
+
+	@Override
+	String getStateKey() {
+		return "CustomMetadata:"+fieldName;
+	}
+
+	@Override
+	String getStateValueKey() {
+		if(!added){
+			return null;
+		} else if(valueType.contentEquals("binary")){
+			return valueType+":"+FormatUtility.bytesToHex(valueBinary);
+		} else if(valueType.contentEquals("date-time")){
+			return valueType+":"+valueLong+":"+valueTimeZone;
+		} else if(valueType.contentEquals("long") || valueType.contentEquals("integer")){
+			return valueType+":"+valueLong;
+		} else if(valueType.contentEquals("float")){
+			return valueType+":"+valueFloat;
+		} else {
+			return valueType+":"+valueText;
+		}
+	}
+
+	@Override
+	boolean isStateAssignment() {
+		return added;
+	}
+
+	@Override
+	AnnotationEvent deriveNetEvent(boolean assignment) {
+		CustomMetadataEvent derived = copyCommonTo(new CustomMetadataEvent());
+		derived.added = assignment;
+		derived.fieldName = fieldName;
+		derived.valueType = valueType;
+		derived.valueTimeZone = valueTimeZone;
+		derived.valueLong = valueLong;
+		derived.valueFloat = valueFloat;
+		derived.valueText = valueText;
+		derived.valueBinary = valueBinary;
+		return derived;
+	}
+
+	@Override
+	boolean canCoalesceWith(AnnotationEvent other) {
+		if(!(other instanceof CustomMetadataEvent)){
+			return false;
+		}
+		CustomMetadataEvent otherEvent = (CustomMetadataEvent)other;
+		return added.equals(otherEvent.added) && fieldName.equals(otherEvent.fieldName) &&
+				Objects.equals(getStateValueKey(), otherEvent.getStateValueKey());
+	}
+
+	@Override
+	Collection<Item> findItemsHoldingState(Case nuixCase) {
+		return nuixCase.searchUnsorted(String.format("custom-metadata:\"%s\":*", fieldName));
+	}
+
+	@Override
+	boolean itemHoldsStateValue(Item item) {
+		if(!added){
+			return true;
+		}
+		Object current = item.getCustomMetadata().get(fieldName);
+		Object value = getValue();
+		if(current == null || value == null){
+			return false;
+		} else if(value instanceof byte[] && current instanceof byte[]){
+			return Arrays.equals((byte[])value, (byte[])current);
+		} else if(value instanceof DateTime && current instanceof DateTime){
+			DateTime currentDateTime = (DateTime)current;
+			return currentDateTime.getMillis() == valueLong && currentDateTime.getZone().getID().equals(valueTimeZone);
+		} else if(value instanceof Double && current instanceof Number){
+			return ((Number)current).doubleValue() == (Double)value;
+		} else if(value instanceof Number && current instanceof Number){
+			return ((Number)current).longValue() == ((Number)value).longValue();
 		} else {
-			annotater.removeCustomMetadata(fieldName, getAssociatedItems(nuixCase), null);
+			return value.equals(current);
 		}
 	}
 
@@ -110,10 +194,10 @@ public class CustomMetadataEvent extends AnnotationEvent {
 	public String toString() {
 		if(added){
 			return String.format("CustomMetadataEvent[%s]: Field '%s' added to %s items with value '%s' of type '%s'",
-					timeStamp,fieldName,itemCount,getValueAsString(),valueType);
+					getTimeStamp(),fieldName,itemCount,getValueAsString(),valueType);
 		} else {
 			return String.format("CustomMetadataEvent[%s]: Field '%s' removed from %s items",
-					timeStamp,fieldName,itemCount);
+					getTimeStamp(),fieldName,itemCount);
 		}
 	}
 }
@@ -0,0 +1,45 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/***
+ * Forward only cursor over recorded annotation events in time stamp order, obtained from
+ * {@link AnnotationHistoryRepository#openEventCursor(long, long)} or {@link AnnotationEventStore#openCursor(long, long, String...)}.
+ * Each call to {@link #next()} moves to the next event, after which its time stamp is available from {@link #getTimeStamp()}
+ * without decoding the event.  The event itself is only decoded when {@link #getEvent()} is called.  A cursor holds
+ * resources in its event store until it is closed, so it should be used in a try-with-resources block (or closed in an
+ * ensure block from Ruby).
+ * @author Jason Wells
+ *
+ */
+public interface EventCursor extends Closeable {
+	/***
+	 * Moves to the next event.
+	 * @return True if there was a next event, false if the cursor is exhausted
+	 * @throws IOException If there is an error reading the event store
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public boolean next() throws IOException, SQLException;
+
+	/***
+	 * Gets the time stamp of the current event.
+	 * @return Time stamp of the current event in milliseconds
+	 */
+	public long getTimeStamp();
+
+	/***
+	 * Gets the type of the current event, for example "TagEvent".
+	 * @return The event type of the current event
+	 */
+	public String getEventType();
+
+	/***
+	 * Decodes the current event.  Must be called before the cursor is moved with {@link #next()}.
+	 * @return The current event
+	 * @throws IOException If there is an error reading the event
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	public AnnotationEvent getEvent() throws IOException, SQLException;
+}
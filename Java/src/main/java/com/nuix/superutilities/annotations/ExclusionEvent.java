@@ -1,9 +1,12 @@
 package com.nuix.superutilities.annotations;
 
+import java.util.Collection;
+
 import com.nuix.superutilities.SuperUtilities;
 
 import nuix.BulkAnnotater;
 import nuix.Case;
+import nuix.Item;
 
 public class ExclusionEvent extends AnnotationEvent {
 
@@ -11,12 +14,44 @@ public class ExclusionEvent extends AnnotationEvent {
 	String exclusionName = null;
 	
 	@Override
-	public void replay(Case nuixCase) throws Exception {
+	void applyToItems(Case nuixCase, Collection<Item> items) throws Exception {
 		BulkAnnotater annotater = SuperUtilities.getBulkAnnotater();
 		if(excluded){
-			annotater.exclude(exclusionName, getAssociatedItems(nuixCase));
+			annotater.exclude(exclusionName, items);
+		} else {
+			annotater.include(items);
+		}
+	}
+
+	@Override
+	String getStateKey() {
+		return "Exclusion";
+	}
+
+	@Override
+	String getStateValueKey() {
+		return exclusionName;
+	}
+
+	@Override
+	boolean isStateAssignment() {
+		return excluded;
+	}
+
+	@Override
+	AnnotationEvent deriveNetEvent(boolean assignment) {
+		ExclusionEvent derived = copyCommonTo(new ExclusionEvent());
+		derived.exclusionName = exclusionName;
+		derived.excluded = assignment;
+		return derived;
+	}
+
+	@Override
+	Collection<Item> findItemsHoldingState(Case nuixCase) {
+		if(excluded){
+			return nuixCase.searchUnsorted(String.format("exclusion:\"%s\"", exclusionName));
 		} else {
-			annotater.include(getAssociatedItems(nuixCase));
+			return nuixCase.searchUnsorted("has-exclusion:1");
 		}
 	}
 
@@ -32,10 +67,10 @@ public class ExclusionEvent extends AnnotationEvent {
 	public String toString() {
 		if(excluded){
 			return String.format("ExclusionEvent[%s]: %s items excluded as '%s'",
-					timeStamp,itemCount,exclusionName);
+					getTimeStamp(),itemCount,exclusionName);
 		} else {
 			return String.format("ExclusionEvent[%s]: %s items included",
-					timeStamp,itemCount);
+					getTimeStamp(),itemCount);
 		}
 	}
 }
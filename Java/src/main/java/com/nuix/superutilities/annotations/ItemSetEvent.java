@@ -1,8 +1,10 @@
 package com.nuix.superutilities.annotations;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -20,9 +22,8 @@ public class ItemSetEvent extends AnnotationEvent {
 	String description = null;
 	
 	@Override
-	public void replay(Case nuixCase) throws Exception {
+	void applyToItems(Case nuixCase, Collection<Item> items) throws Exception {
 		ItemSet itemSet = getOrCreateRelatedItemSet(nuixCase);
-		Collection<Item> items = getAssociatedItems(nuixCase);
 		if(added){
 			Map<String,Object> settings = new HashMap<String,Object>();
 			settings.put("batch",batchName);
@@ -32,6 +33,60 @@ public class ItemSetEvent extends AnnotationEvent {
 		}
 	}
 
+	@Override
+	String getStateKey() {
+		return "ItemSet:"+itemSetName;
+	}
+
+	@Override
+	String getStateValueKey() {
+		return batchName == null ? "" : batchName;
+	}
+
+	@Override
+	boolean isStateAssignment() {
+		return added;
+	}
+
+	@Override
+	AnnotationEvent deriveNetEvent(boolean assignment) {
+		ItemSetEvent derived = copyCommonTo(new ItemSetEvent());
+		derived.added = assignment;
+		derived.settings = settings;
+		derived.itemSetName = itemSetName;
+		derived.batchName = batchName;
+		derived.description = description;
+		return derived;
+	}
+
+	/***
+	 * Adds to the same item set and batch can be coalesced, as can removals from the same item set.
+	 */
+	@Override
+	boolean canCoalesceWith(AnnotationEvent other) {
+		if(!(other instanceof ItemSetEvent)){
+			return false;
+		}
+		ItemSetEvent otherEvent = (ItemSetEvent)other;
+		if(!added.equals(otherEvent.added) || !itemSetName.equals(otherEvent.itemSetName)){
+			return false;
+		}
+		return !added || Objects.equals(batchName, otherEvent.batchName);
+	}
+
+	/***
+	 * Items which are already in the item set are considered to hold this event's state regardless of the batch they
+	 * were added under, since re-adding an item does not move it to another batch.
+	 */
+	@Override
+	Collection<Item> findItemsHoldingState(Case nuixCase) {
+		ItemSet itemSet = getRelatedItemSet(nuixCase);
+		if(itemSet == null){
+			return Collections.emptyList();
+		}
+		return itemSet.getItems();
+	}
+
 	public Boolean getAdded() {
 		return added;
 	}
@@ -71,10 +126,10 @@ public class ItemSetEvent extends AnnotationEvent {
 	public String toString() {
 		if(added){
 			return String.format("ItemSetEvent[%s]: %s items added to item set '%s' as batch '%s'",
-					timeStamp,itemCount,itemSetName,batchName);
+					getTimeStamp(),itemCount,itemSetName,batchName);
 		} else {
 			return String.format("ItemSetEvent[%s]: %s items removed from item set '%s'",
-					timeStamp,itemCount,itemSetName);
+					getTimeStamp(),itemCount,itemSetName);
 		}
 	}
 }
@@ -0,0 +1,94 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/***
+ * Merges several cursors, each already in time stamp order, into a single cursor in time stamp order using a k-way merge.
+ * Only the head event of each cursor is considered at a time, so no more than one row per source cursor is held at once.
+ * Events with equal time stamps are provided in the order their cursors were given.
+ * @author Jason Wells
+ *
+ */
+class MergedEventCursor implements EventCursor {
+	private static class Head {
+		EventCursor cursor;
+		int order;
+	}
+
+	private List<EventCursor> cursors = null;
+	private PriorityQueue<Head> heads = null;
+	private Head current = null;
+	private boolean started = false;
+	private Runnable afterClose = null;
+
+	/***
+	 * Creates a new merged cursor.
+	 * @param cursors The cursors to merge, each in time stamp order, which this cursor takes ownership of
+	 * @param afterClose Optional callback invoked once all merged cursors have been closed, may be null
+	 */
+	MergedEventCursor(List<EventCursor> cursors, Runnable afterClose){
+		this.cursors = cursors;
+		this.afterClose = afterClose;
+		heads = new PriorityQueue<Head>(Math.max(1, cursors.size()),
+				Comparator.comparingLong((Head h) -> h.cursor.getTimeStamp()).thenComparingInt(h -> h.order));
+	}
+
+	@Override
+	public boolean next() throws IOException, SQLException {
+		if(!started){
+			started = true;
+			for (int i = 0; i < cursors.size(); i++) {
+				if(cursors.get(i).next()){
+					Head head = new Head();
+					head.cursor = cursors.get(i);
+					head.order = i;
+					heads.add(head);
+				}
+			}
+		} else if(current != null && current.cursor.next()){
+			heads.add(current);
+		}
+		current = heads.poll();
+		return current != null;
+	}
+
+	@Override
+	public long getTimeStamp() {
+		return current.cursor.getTimeStamp();
+	}
+
+	@Override
+	public String getEventType() {
+		return current.cursor.getEventType();
+	}
+
+	@Override
+	public AnnotationEvent getEvent() throws IOException, SQLException {
+		return current.cursor.getEvent();
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException error = null;
+		for(EventCursor cursor : cursors){
+			try {
+				cursor.close();
+			} catch (IOException e) {
+				if(error == null){ error = e; }
+			}
+		}
+		heads.clear();
+		current = null;
+		if(afterClose != null){
+			afterClose.run();
+			afterClose = null;
+		}
+		if(error != null){
+			throw error;
+		}
+	}
+}
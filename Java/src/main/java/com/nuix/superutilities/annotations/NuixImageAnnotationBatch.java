@@ -0,0 +1,283 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import nuix.Item;
+import nuix.MarkupSet;
+import nuix.MutablePrintedImage;
+import nuix.MutablePrintedPage;
+import nuix.PrintedPage;
+
+/***
+ * Collects redactions and highlights, as {@link NuixImageAnnotationRegion} objects, to be applied to the printed images of items together.  Rather
+ * than each region fetching its item's printed image and page as {@link NuixImageAnnotationRegion#applyRedaction(MarkupSet, Item)} does, regions are
+ * grouped by item and page so that each printed image and page is only fetched once, regardless of how many markups are applied to it.
+ *
+ * Before being applied, regions of the same kind on the same line of a page which overlap or touch are merged into a single region, so for example the
+ * same text matched by several expressions only receives one markup.
+ * @author Jason Wells
+ *
+ */
+public class NuixImageAnnotationBatch {
+	private static Logger logger = Logger.getLogger(NuixImageAnnotationBatch.class);
+
+	// Regions whose edges are within this distance, as a fraction of page width, are considered to touch
+	private static final double touchTolerance = 0.0001;
+
+	/***
+	 * The regions to apply to a single page.
+	 */
+	private static class PageRegions {
+		List<NuixImageAnnotationRegion> redactions = new ArrayList<NuixImageAnnotationRegion>();
+		List<NuixImageAnnotationRegion> highlights = new ArrayList<NuixImageAnnotationRegion>();
+	}
+
+	/***
+	 * The regions to apply to a single item, by page number.
+	 */
+	private static class ItemRegions {
+		Item item = null;
+		Map<Integer,PageRegions> pages = new TreeMap<Integer,PageRegions>();
+
+		PageRegions getPage(int pageNumber) {
+			return pages.computeIfAbsent(pageNumber, p -> new PageRegions());
+		}
+	}
+
+	private Map<String,ItemRegions> itemRegions = new LinkedHashMap<String,ItemRegions>();
+	private boolean mergeRegions = true;
+
+	private ItemRegions getItemRegions(Item item) {
+		return itemRegions.computeIfAbsent(item.getGuid(), guid -> {
+			ItemRegions regions = new ItemRegions();
+			regions.item = item;
+			return regions;
+		});
+	}
+
+	/***
+	 * Adds a redaction to be applied to an item.
+	 * @param item The item to which the redaction will be applied.
+	 * @param region The region to redact.
+	 */
+	public void addRedaction(Item item, NuixImageAnnotationRegion region) {
+		getItemRegions(item).getPage(region.getPageNumber()).redactions.add(region);
+	}
+
+	/***
+	 * Adds redactions to be applied to an item.
+	 * @param item The item to which the redactions will be applied.
+	 * @param regions The regions to redact.
+	 */
+	public void addRedactions(Item item, Collection<NuixImageAnnotationRegion> regions) {
+		for(NuixImageAnnotationRegion region : regions) {
+			addRedaction(item, region);
+		}
+	}
+
+	/***
+	 * Adds a highlight to be applied to an item.
+	 * @param item The item to which the highlight will be applied.
+	 * @param region The region to highlight.
+	 */
+	public void addHighlight(Item item, NuixImageAnnotationRegion region) {
+		getItemRegions(item).getPage(region.getPageNumber()).highlights.add(region);
+	}
+
+	/***
+	 * Adds highlights to be applied to an item.
+	 * @param item The item to which the highlights will be applied.
+	 * @param regions The regions to highlight.
+	 */
+	public void addHighlights(Item item, Collection<NuixImageAnnotationRegion> regions) {
+		for(NuixImageAnnotationRegion region : regions) {
+			addHighlight(item, region);
+		}
+	}
+
+	/***
+	 * Gets whether regions on the same line which overlap or touch are merged before being applied.
+	 * @return True if regions are merged
+	 */
+	public boolean getMergeRegions() {
+		return mergeRegions;
+	}
+
+	/***
+	 * Sets whether regions on the same line which overlap or touch are merged before being applied.
+	 * @param mergeRegions True to merge regions (the default), false to apply every region as given.
+	 */
+	public void setMergeRegions(boolean mergeRegions) {
+		this.mergeRegions = mergeRegions;
+	}
+
+	/***
+	 * Gets whether any regions have been added since this batch was last applied.
+	 * @return True if there are no regions to apply
+	 */
+	public boolean isEmpty() {
+		return itemRegions.isEmpty();
+	}
+
+	/***
+	 * Applies all of the added redactions and highlights, then clears this batch so it may be reused.
+	 * @param markupSet The markup set to which the markups will be added.
+	 * @return The number of markups created, which may be fewer than the number of regions added if regions were merged.
+	 * @throws Exception If something goes wrong
+	 */
+	public int apply(MarkupSet markupSet) throws Exception {
+		int applied = 0;
+		try {
+			for(ItemRegions regions : itemRegions.values()) {
+				MutablePrintedImage printedImage = regions.item.getPrintedImage();
+				List<? extends PrintedPage> pages = printedImage.getPages();
+				boolean debug = logger.isDebugEnabled();
+				int itemApplied = 0;
+				for(Map.Entry<Integer,PageRegions> pageEntry : regions.pages.entrySet()) {
+					MutablePrintedPage page = (MutablePrintedPage)pages.get(pageEntry.getKey()-1);
+					PageRegions pageRegions = pageEntry.getValue();
+					for(NuixImageAnnotationRegion region : prepareRegions(pageRegions.redactions)) {
+						if(debug) {
+							logger.debug(String.format("Applying redaction based on %s", region));
+						}
+						page.createRedaction(markupSet, region.getX(), region.getY(), region.getWidth(), region.getHeight());
+						itemApplied++;
+					}
+					for(NuixImageAnnotationRegion region : prepareRegions(pageRegions.highlights)) {
+						if(debug) {
+							logger.debug(String.format("Applying highlight based on %s", region));
+						}
+						page.createHighlight(markupSet, region.getX(), region.getY(), region.getWidth(), region.getHeight());
+						itemApplied++;
+					}
+				}
+				logger.info(String.format("Applied %s markups across %s pages of item with GUID %s", itemApplied, regions.pages.size(), regions.item.getGuid()));
+				applied += itemApplied;
+			}
+		} finally {
+			itemRegions.clear();
+		}
+		return applied;
+	}
+
+	private List<NuixImageAnnotationRegion> prepareRegions(List<NuixImageAnnotationRegion> regions) {
+		if(mergeRegions) {
+			return mergeRegions(regions);
+		} else {
+			return regions;
+		}
+	}
+
+	/***
+	 * Merges regions on the same line which overlap or touch.  Regions are considered to be on the same line when they overlap vertically by at least
+	 * half the height of the shorter of the two.  The merged region covers the combined area of the regions it was built from.  Its text joins the text
+	 * of each region which extended it, so where regions partly overlap some characters appear twice.  Merging is transitive, regions which only touch
+	 * through a region bridging them are merged into one.  The given regions are not modified.
+	 * @param regions The regions of a single page
+	 * @return The merged regions, ordered top to bottom then left to right
+	 */
+	public static List<NuixImageAnnotationRegion> mergeRegions(Collection<NuixImageAnnotationRegion> regions) {
+		List<NuixImageAnnotationRegion> sorted = new ArrayList<NuixImageAnnotationRegion>(regions);
+		sorted.sort(Comparator.comparingDouble(NuixImageAnnotationRegion::getY).thenComparingDouble(NuixImageAnnotationRegion::getX));
+
+		List<NuixImageAnnotationRegion> result = new ArrayList<NuixImageAnnotationRegion>();
+		// Regions of a line do not always sort next to each other when their heights differ, so each region is compared
+		// against every merged region of the lines seen so far which it could still belong to
+		List<NuixImageAnnotationRegion> openLines = new ArrayList<NuixImageAnnotationRegion>();
+		for(NuixImageAnnotationRegion region : sorted) {
+			NuixImageAnnotationRegion mergedInto = null;
+			for (int i = openLines.size()-1; i >= 0; i--) {
+				NuixImageAnnotationRegion open = openLines.get(i);
+				if(open.getY() + open.getHeight() < region.getY()) {
+					// Nothing after this region starts above the bottom of this open region, so it can no longer be merged into
+					openLines.remove(i);
+					continue;
+				}
+				if(isSameLine(open, region) && touches(open, region)) {
+					mergeInto(open, region);
+					mergedInto = open;
+					break;
+				}
+			}
+
+			if(mergedInto == null) {
+				NuixImageAnnotationRegion copy = copyRegion(region);
+				result.add(copy);
+				openLines.add(copy);
+			} else {
+				absorbOpenRegions(mergedInto, openLines, result);
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Once a region has been merged into an open region, the merged region may bridge other open regions which it did not touch before,
+	 * for example when a region sorting after two regions of a line spans the gap between them.  Those are merged into it as well, repeating
+	 * until it touches no other open region on its line, so the result does not depend on the order the regions were sorted in.
+	 */
+	private static void absorbOpenRegions(NuixImageAnnotationRegion merged, List<NuixImageAnnotationRegion> openLines, List<NuixImageAnnotationRegion> result) {
+		boolean absorbed = true;
+		while(absorbed) {
+			absorbed = false;
+			for (int i = openLines.size()-1; i >= 0; i--) {
+				NuixImageAnnotationRegion open = openLines.get(i);
+				if(open != merged && isSameLine(merged, open) && touches(merged, open)) {
+					mergeInto(merged, open);
+					openLines.remove(i);
+					result.remove(open);
+					absorbed = true;
+				}
+			}
+		}
+	}
+
+	private static boolean isSameLine(NuixImageAnnotationRegion a, NuixImageAnnotationRegion b) {
+		double overlap = Math.min(a.getY() + a.getHeight(), b.getY() + b.getHeight()) - Math.max(a.getY(), b.getY());
+		return overlap >= Math.min(a.getHeight(), b.getHeight()) / 2;
+	}
+
+	private static boolean touches(NuixImageAnnotationRegion a, NuixImageAnnotationRegion b) {
+		return b.getX() <= a.getX() + a.getWidth() + touchTolerance && a.getX() <= b.getX() + b.getWidth() + touchTolerance;
+	}
+
+	private static void mergeInto(NuixImageAnnotationRegion target, NuixImageAnnotationRegion other) {
+		double targetRight = target.getX() + target.getWidth();
+		double otherRight = other.getX() + other.getWidth();
+		double left = Math.min(target.getX(), other.getX());
+		double top = Math.min(target.getY(), other.getY());
+		double bottom = Math.max(target.getY() + target.getHeight(), other.getY() + other.getHeight());
+
+		// The right hand region only adds its text when it extends past the end of the left hand region
+		NuixImageAnnotationRegion first = other.getX() < target.getX() ? other : target;
+		NuixImageAnnotationRegion second = first == target ? other : target;
+		String text = first.getText() == null ? "" : first.getText();
+		if(second.getX() + second.getWidth() > first.getX() + first.getWidth() + touchTolerance && second.getText() != null) {
+			text += second.getText();
+		}
+		target.setText(text);
+		target.setX(left);
+		target.setY(top);
+		target.setWidth(Math.max(targetRight, otherRight) - left);
+		target.setHeight(bottom - top);
+	}
+
+	private static NuixImageAnnotationRegion copyRegion(NuixImageAnnotationRegion region) {
+		NuixImageAnnotationRegion copy = new NuixImageAnnotationRegion();
+		copy.setX(region.getX());
+		copy.setY(region.getY());
+		copy.setWidth(region.getWidth());
+		copy.setHeight(region.getHeight());
+		copy.setText(region.getText());
+		copy.setPageNumber(region.getPageNumber());
+		return copy;
+	}
+}
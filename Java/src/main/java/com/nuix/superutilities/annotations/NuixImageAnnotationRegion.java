@@ -55,7 +55,8 @@ public class NuixImageAnnotationRegion {
 	}
 	
 	/***
-	 * Applies a redaction based on the region defined by this instance.
+	 * Applies a redaction based on the region defined by this instance.  When applying many regions, {@link NuixImageAnnotationBatch} avoids
+	 * fetching the item's printed image for each region.
 	 * @param markupSet The markup set to which the redaction markup will be added.
 	 * @param item The item to which the redaction will be applied.
 	 * @throws Exception If something goes wrong
@@ -68,7 +69,8 @@ public class NuixImageAnnotationRegion {
 	}
 	
 	/***
-	 * Applies a highlight based on the region defined by this instance.
+	 * Applies a highlight based on the region defined by this instance.  When applying many regions, {@link NuixImageAnnotationBatch} avoids
+	 * fetching the item's printed image for each region.
 	 * @param markupSet The markup set to which the highlight markup will be added.
 	 * @param item The item to which the highlight will be applied.
 	 * @throws Exception If something goes wrong
@@ -0,0 +1,283 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.aspose.pdf.CharInfo;
+import com.aspose.pdf.CharInfoCollection;
+import com.aspose.pdf.Document;
+import com.aspose.pdf.Page;
+import com.aspose.pdf.Rectangle;
+import com.aspose.pdf.TextFragment;
+import com.aspose.pdf.TextFragmentAbsorber;
+import com.aspose.pdf.TextSegment;
+
+/***
+ * The text of a PDF along with the rectangle of each character's glyph, extracted by walking every page of the PDF once.  Any number
+ * of regular expressions can then be searched for in the extracted text without going back to the PDF, with the characters of each
+ * match mapping back to the rectangles needed to mark it up.  Used by {@link BulkRedactor} so that each PDF is only opened and
+ * absorbed once, regardless of how many expressions and named entity values are searched for.
+ *
+ * Characters are recorded in the order Aspose provides them.  Where consecutive characters are on different lines a line break is
+ * inserted, and where they are on the same line but separated by a gap a space is inserted, so that expressions such as phrases
+ * joined by \s+ match across them.  Inserted characters have no glyph.
+ * @author Jason Wells
+ *
+ */
+public class PdfTextLayer {
+	private static Logger logger = Logger.getLogger(PdfTextLayer.class);
+
+	/***
+	 * A character of a page's text along with the rectangle of its glyph, in PDF coordinates.
+	 */
+	static class Glyph {
+		char character = 0;
+		double llx = 0;
+		double lly = 0;
+		double urx = 0;
+		double ury = 0;
+
+		double getHeight() {
+			return ury - lly;
+		}
+	}
+
+	/***
+	 * The text of a single page.  The glyph at a given position of glyphs belongs to the character at the same position of text,
+	 * and is null for inserted line breaks and spaces.
+	 */
+	static class PageText {
+		int pageNumber = 0;
+		double width = 0;
+		double height = 0;
+		StringBuilder text = new StringBuilder();
+		List<Glyph> glyphs = new ArrayList<Glyph>();
+		Glyph lastGlyph = null;
+	}
+
+	/***
+	 * A match of an expression on a page, spanning the characters from start up to but excluding end.
+	 */
+	static class TextMatch {
+		PageText page = null;
+		int start = 0;
+		int end = 0;
+	}
+
+	private List<PageText> pages = new ArrayList<PageText>();
+
+	private PdfTextLayer(){}
+
+	/***
+	 * Extracts the text layer of a PDF file.
+	 * @param pdfFile The PDF file to extract the text of
+	 * @return The text layer of the PDF
+	 */
+	public static PdfTextLayer extract(File pdfFile) {
+		PdfTextLayer result = new PdfTextLayer();
+		Document pdfDocument = new Document(pdfFile.getAbsolutePath());
+		try {
+			for(Page page : pdfDocument.getPages()) {
+				result.pages.add(extractPage(page));
+			}
+		} finally {
+			pdfDocument.close();
+		}
+		logger.debug(String.format("Extracted text layer of %s pages from %s", result.pages.size(), pdfFile.getAbsolutePath()));
+		return result;
+	}
+
+	private static PageText extractPage(Page page) {
+		PageText pageText = new PageText();
+		Rectangle pageRect = page.getRect();
+		pageText.pageNumber = page.getNumber();
+		pageText.width = pageRect.getWidth();
+		pageText.height = pageRect.getHeight();
+
+		TextFragmentAbsorber absorber = new TextFragmentAbsorber();
+		page.accept(absorber);
+		for(TextFragment fragment : absorber.getTextFragments()) {
+			for(TextSegment segment : fragment.getSegments()) {
+				appendSegment(pageText, segment);
+			}
+		}
+		return pageText;
+	}
+
+	private static void appendSegment(PageText pageText, TextSegment segment) {
+		String text = segment.getText();
+		if(text == null || text.isEmpty()) {
+			return;
+		}
+
+		CharInfoCollection characters = segment.getCharacters();
+		if(characters != null && characters.size() == text.length()) {
+			int i = 0;
+			for(CharInfo character : characters) {
+				Rectangle rect = character.getRectangle();
+				appendGlyph(pageText, text.charAt(i++), rect.getLLX(), rect.getLLY(), rect.getURX(), rect.getURY());
+			}
+		} else {
+			// Character information does not line up with the text (for example due to ligatures), so divide the
+			// segment's rectangle evenly between its characters instead
+			Rectangle rect = segment.getRectangle();
+			double charWidth = rect.getWidth() / text.length();
+			for (int i = 0; i < text.length(); i++) {
+				double llx = rect.getLLX() + (charWidth * i);
+				appendGlyph(pageText, text.charAt(i), llx, rect.getLLY(), llx + charWidth, rect.getURY());
+			}
+		}
+	}
+
+	private static void appendGlyph(PageText pageText, char character, double llx, double lly, double urx, double ury) {
+		Glyph previous = pageText.lastGlyph;
+		if(previous != null) {
+			double height = Math.max(previous.getHeight(), ury - lly);
+			char lastCharacter = pageText.text.charAt(pageText.text.length()-1);
+			if(Math.abs(previous.lly - lly) > height / 2) {
+				appendSeparator(pageText, '\n');
+			} else if(llx - previous.urx > height / 4 && !Character.isWhitespace(character) && !Character.isWhitespace(lastCharacter)) {
+				appendSeparator(pageText, ' ');
+			}
+		}
+
+		Glyph glyph = new Glyph();
+		glyph.character = character;
+		glyph.llx = llx;
+		glyph.lly = lly;
+		glyph.urx = urx;
+		glyph.ury = ury;
+		pageText.text.append(character);
+		pageText.glyphs.add(glyph);
+		pageText.lastGlyph = glyph;
+	}
+
+	private static void appendSeparator(PageText pageText, char separator) {
+		pageText.text.append(separator);
+		pageText.glyphs.add(null);
+	}
+
+	/***
+	 * Writes this text layer in the compact form read by {@link #readFrom(DataInputStream)}.  Glyph coordinates are written as
+	 * floats, which is more precision than the 2 decimal places regions are built from.
+	 * @param out The stream to write to
+	 * @throws IOException If there is an error writing
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(pages.size());
+		for(PageText pageText : pages) {
+			out.writeInt(pageText.pageNumber);
+			out.writeDouble(pageText.width);
+			out.writeDouble(pageText.height);
+			// Written as UTF-16 code units so the text always lines up with its glyphs, even with unpaired surrogates
+			out.writeInt(pageText.text.length());
+			out.writeChars(pageText.text.toString());
+			for(Glyph glyph : pageText.glyphs) {
+				if(glyph == null) {
+					out.writeFloat(Float.NaN);
+				} else {
+					out.writeFloat((float)glyph.llx);
+					out.writeFloat((float)glyph.lly);
+					out.writeFloat((float)glyph.urx);
+					out.writeFloat((float)glyph.ury);
+				}
+			}
+		}
+	}
+
+	/***
+	 * Reads a text layer written by {@link #writeTo(DataOutputStream)}.
+	 * @param in The stream to read from
+	 * @return The text layer
+	 * @throws IOException If there is an error reading or the data is not a valid text layer
+	 */
+	static PdfTextLayer readFrom(DataInputStream in) throws IOException {
+		PdfTextLayer result = new PdfTextLayer();
+		int pageCount = in.readInt();
+		for (int p = 0; p < pageCount; p++) {
+			PageText pageText = new PageText();
+			pageText.pageNumber = in.readInt();
+			pageText.width = in.readDouble();
+			pageText.height = in.readDouble();
+			int textLength = in.readInt();
+			if(textLength < 0) {
+				throw new IOException("Invalid text length: "+textLength);
+			}
+			for (int i = 0; i < textLength; i++) {
+				pageText.text.append(in.readChar());
+			}
+			for (int i = 0; i < textLength; i++) {
+				float llx = in.readFloat();
+				if(Float.isNaN(llx)) {
+					pageText.glyphs.add(null);
+				} else {
+					Glyph glyph = new Glyph();
+					glyph.character = pageText.text.charAt(i);
+					glyph.llx = llx;
+					glyph.lly = in.readFloat();
+					glyph.urx = in.readFloat();
+					glyph.ury = in.readFloat();
+					pageText.glyphs.add(glyph);
+				}
+			}
+			result.pages.add(pageText);
+		}
+		return result;
+	}
+
+	/***
+	 * Finds every match of the given regular expressions.  As when searching with Aspose, matches do not span pages.
+	 * @param expressions The regular expressions to search for
+	 * @return The matches, grouped by expression in the order provided and then by page
+	 */
+	List<TextMatch> findMatches(Collection<String> expressions) {
+		if(expressions.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<TextMatch> result = new ArrayList<TextMatch>();
+		for(String expression : expressions) {
+			Pattern pattern = Pattern.compile(expression);
+			for(PageText pageText : pages) {
+				Matcher matcher = pattern.matcher(pageText.text);
+				while(matcher.find()) {
+					if(matcher.end() <= matcher.start()) {
+						continue;
+					}
+					TextMatch match = new TextMatch();
+					match.page = pageText;
+					match.start = matcher.start();
+					match.end = matcher.end();
+					result.add(match);
+				}
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Gets the number of pages in the PDF.
+	 * @return Number of pages
+	 */
+	public int getPageCount() {
+		return pages.size();
+	}
+
+	/***
+	 * Gets the extracted text of a page, including the line breaks and spaces inserted between characters.
+	 * @param pageNumber The page number, starting at 1
+	 * @return The text of the page
+	 */
+	public String getPageText(int pageNumber) {
+		return pages.get(pageNumber-1).text.toString();
+	}
+}
@@ -0,0 +1,217 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import com.nuix.superutilities.misc.FormatUtility;
+
+import nuix.ItemDigests;
+import nuix.Item;
+
+/***
+ * Keeps the {@link PdfTextLayer} of each item's PDF in a directory on disk, so that a later {@link BulkRedactor} run, for example
+ * one searching for terms added since the last run, can search the text of an item without exporting and parsing its PDF again.
+ * Each item's text layer is stored in its own GZIP compressed file named after the item's GUID.
+ *
+ * Along with the text layer, each file records the fingerprint of the PDF it was extracted from, its size and SHA-256 hash, as well as
+ * the item's MD5 digest.  When the item's PDF is at hand, for example one kept from an earlier run by {@link com.nuix.superutilities.export.PdfWorkCache},
+ * a cached text layer is only used when that PDF's fingerprint matches.  Without the PDF there is no way to tell whether the item's printed image
+ * has been regenerated since its text layer was cached, in which case the cached glyph positions may no longer line up with the page, so the cached text
+ * layer is not used unless matching by digest has been enabled with {@link #setMatchByDigest(boolean)}.  On a miss the item's PDF is exported and parsed
+ * again and the cache entry is replaced.  An instance may be used by several threads at once.
+ * @author Jason Wells
+ *
+ */
+public class PdfTextLayerCache {
+	private static Logger logger = Logger.getLogger(PdfTextLayerCache.class);
+
+	private static final int cacheFileMagic = 0x5054_4C43;
+	private static final int cacheFileVersion = 2;
+
+	private File cacheDirectory = null;
+	private AtomicLong hitCount = new AtomicLong(0);
+	private AtomicLong missCount = new AtomicLong(0);
+	private boolean matchByDigest = false;
+
+	/***
+	 * Creates a new instance
+	 * @param cacheDirectory Directory cached text layers are stored in.  This should not be the temp directory of {@link BulkRedactorSettings},
+	 * since that is deleted at the end of each run.
+	 */
+	public PdfTextLayerCache(File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+		this.cacheDirectory.mkdirs();
+	}
+
+	/***
+	 * Determines the fingerprint of a PDF, its size in bytes and the SHA-256 hash of its content.
+	 * @param pdfFile The PDF to fingerprint
+	 * @return The fingerprint of the PDF
+	 * @throws IOException If there is an error reading the PDF
+	 */
+	public static String fingerprint(File pdfFile) throws IOException {
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		byte[] buffer = new byte[64 * 1024];
+		try(DigestInputStream in = new DigestInputStream(new FileInputStream(pdfFile), digest)){
+			while(in.read(buffer) != -1) {}
+		}
+		return String.format("%s:%s", pdfFile.length(), FormatUtility.bytesToHex(digest.digest()));
+	}
+
+	private static String getMd5(Item item) {
+		ItemDigests digests = item.getDigests();
+		String md5 = digests == null ? null : digests.getMd5();
+		return md5 == null ? "" : md5;
+	}
+
+	private File getCacheFile(String guid) {
+		File directory = new File(cacheDirectory, guid.substring(0, 3));
+		return new File(directory, guid+".ptl");
+	}
+
+	/***
+	 * Checks whether a text layer has been cached for an item, without reading it or checking whether it is still current.
+	 * @param item The item to check
+	 * @return True if the cache holds a text layer for the item
+	 */
+	public boolean contains(Item item) {
+		return getCacheFile(item.getGuid()).exists();
+	}
+
+	/***
+	 * Gets the cached text layer of an item.
+	 * @param item The item to get the text layer of
+	 * @param pdfFile The item's PDF when one has already been exported, checked against the fingerprint of the PDF the text layer was extracted from.
+	 * When null, the cached text layer is only used if matching by digest is enabled and the item's MD5 digest matches.
+	 * @return The cached text layer, or null if the item's text layer is not cached, was cached for a different PDF or cannot be checked
+	 */
+	public PdfTextLayer get(Item item, File pdfFile) {
+		File cacheFile = getCacheFile(item.getGuid());
+		if(!cacheFile.exists() || (pdfFile == null && !matchByDigest)) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(cacheFile), 64 * 1024)))){
+			if(in.readInt() != cacheFileMagic || in.readInt() != cacheFileVersion) {
+				logger.debug(String.format("Ignoring cache file %s with unrecognized format", cacheFile));
+				missCount.incrementAndGet();
+				return null;
+			}
+			String cachedMd5 = in.readUTF();
+			String cachedFingerprint = in.readUTF();
+			boolean current = false;
+			if(pdfFile != null) {
+				current = cachedFingerprint.equals(fingerprint(pdfFile));
+			} else {
+				// Without a digest there is nothing to tell whether the item has changed
+				current = !cachedMd5.isEmpty() && cachedMd5.equals(getMd5(item));
+			}
+			if(!current) {
+				logger.debug(String.format("PDF of %s has changed since its text layer was cached", item.getGuid()));
+				missCount.incrementAndGet();
+				return null;
+			}
+			PdfTextLayer result = PdfTextLayer.readFrom(in);
+			hitCount.incrementAndGet();
+			return result;
+		} catch (IOException e) {
+			logger.warn(String.format("Unable to read cached text layer %s, it will be rebuilt: %s", cacheFile, e.getMessage()));
+			missCount.incrementAndGet();
+			return null;
+		}
+	}
+
+	/***
+	 * Stores the text layer of an item, replacing any previously cached text layer of the item.  The file is written under a
+	 * temporary name and then moved into place, so a reader never sees a partially written file.
+	 * @param item The item the text layer belongs to
+	 * @param pdfFile The item's PDF the text layer was extracted from
+	 * @param textLayer The text layer extracted from the item's PDF
+	 * @throws IOException If there is an error reading the PDF or writing the cache file
+	 */
+	public void put(Item item, File pdfFile, PdfTextLayer textLayer) throws IOException {
+		String pdfFingerprint = fingerprint(pdfFile);
+		File cacheFile = getCacheFile(item.getGuid());
+		cacheFile.getParentFile().mkdirs();
+		File tempFile = new File(cacheFile.getParentFile(), String.format("%s.%s.tmp", cacheFile.getName(), Thread.currentThread().getId()));
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile), 64 * 1024)))){
+			out.writeInt(cacheFileMagic);
+			out.writeInt(cacheFileVersion);
+			out.writeUTF(getMd5(item));
+			out.writeUTF(pdfFingerprint);
+			textLayer.writeTo(out);
+		}
+		Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/***
+	 * Deletes every cached text layer.
+	 * @throws IOException If something goes wrong
+	 */
+	public void clear() throws IOException {
+		FileUtils.deleteDirectory(cacheDirectory);
+		cacheDirectory.mkdirs();
+	}
+
+	public File getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/***
+	 * Gets whether a cached text layer may be used based on the item's MD5 digest alone, when the item's PDF is not at hand.
+	 * @return True if cached text layers are matched by digest
+	 */
+	public boolean getMatchByDigest() {
+		return matchByDigest;
+	}
+
+	/***
+	 * Sets whether a cached text layer may be used based on the item's MD5 digest alone, when the item's PDF is not at hand.  The digest
+	 * does not change when an item's printed image is regenerated, so this should only be enabled when the printed images of the items
+	 * have not changed since their text layers were cached, otherwise redactions may be placed using stale glyph positions.
+	 * @param matchByDigest True to match by digest, false to only use a cached text layer whose PDF fingerprint matches (the default)
+	 */
+	public void setMatchByDigest(boolean matchByDigest) {
+		this.matchByDigest = matchByDigest;
+	}
+
+	/***
+	 * Gets the number of calls to {@link #get(Item, File)} which returned a cached text layer.
+	 * @return Number of cache hits
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/***
+	 * Gets the number of calls to {@link #get(Item, File)} which found no usable cached text layer.
+	 * @return Number of cache misses
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
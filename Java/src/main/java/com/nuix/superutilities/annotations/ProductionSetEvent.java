@@ -1,9 +1,11 @@
 package com.nuix.superutilities.annotations;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 import nuix.Case;
+import nuix.Item;
 import nuix.ProductionSet;
 
 public class ProductionSetEvent extends AnnotationEvent {
@@ -14,7 +16,7 @@ public class ProductionSetEvent extends AnnotationEvent {
 	String productionSetName = "";
 	
 	@Override
-	public void replay(Case nuixCase) throws Exception {
+	void applyToItems(Case nuixCase, Collection<Item> items) throws Exception {
 		ProductionSet prodSet = nuixCase.findProductionSetByName(productionSetName);
 		if(prodSet == null){
 			prodSet = nuixCase.newProductionSet(productionSetName, settings);
@@ -25,25 +27,53 @@ public class ProductionSetEvent extends AnnotationEvent {
 			prodSet.setApplyHighlights((boolean) settings.get("applyHighlights"));
 		}
 		if(added){
-			prodSet.addItems(this.getAssociatedItems(nuixCase));
+			prodSet.addItems(items);
 		} else {
-			prodSet.removeItems(this.getAssociatedItems(nuixCase));
+			prodSet.removeItems(items);
 		}
 	}
 
+	@Override
+	String getStateKey() {
+		// Production set membership depends on the production set being created first, so these
+		// events are not compacted and are instead replayed in their recorded order
+		return null;
+	}
+
+	@Override
+	String getStateValueKey() {
+		return productionSetName;
+	}
+
+	@Override
+	boolean isStateAssignment() {
+		return added;
+	}
+
+	@Override
+	AnnotationEvent deriveNetEvent(boolean assignment) {
+		ProductionSetEvent derived = copyCommonTo(new ProductionSetEvent());
+		derived.added = assignment;
+		derived.created = created;
+		derived.settingsJsonString = settingsJsonString;
+		derived.settings = settings;
+		derived.productionSetName = productionSetName;
+		return derived;
+	}
+
 	@Override
 	public String toString() {
 		if(created){
 			return String.format("ProductionSetEvent[%s]: Production '%s' set created with settings:\n%s",
-					timeStamp,productionSetName,settingsJsonString);
+					getTimeStamp(),productionSetName,settingsJsonString);
 		} else {
 			if(added){
 				return String.format("ProductionSetEvent[%s]: %s items added to production set '%s'",
-						timeStamp,itemCount,productionSetName);
+						getTimeStamp(),itemCount,productionSetName);
 			} else {
 				//Removed
 				return String.format("ProductionSetEvent[%s]: %s items removed from production set '%s'",
-						timeStamp,itemCount,productionSetName);
+						getTimeStamp(),itemCount,productionSetName);
 			}
 		}
 	}
@@ -0,0 +1,592 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+/***
+ * Event store which records events to a table per event type in the SQLite database of an {@link AnnotationHistoryRepository}.
+ * Item bitmaps are stored once each in the repository's content addressed Bitmap table, event IDs are the rowid of each event row.
+ * This is the default event store.
+ * @author Jason Wells
+ *
+ */
+public class SQLiteAnnotationEventStore implements AnnotationEventStore {
+	private static Logger logger = Logger.getLogger(SQLiteAnnotationEventStore.class);
+
+	private static final String sqlInsertTagEvent =
+			"INSERT INTO TagEvent "+
+			"(TimeStamp,Tag,Added,BitmapId,ItemCount,SourceId) VALUES (?,?,?,?,?,?)";
+
+	private static final String sqlInsertCustomMetadataEvent =
+			"INSERT INTO CustomMetadataEvent "+
+			"(TimeStamp,Added,FieldName,ValueType,ValueTimeZone,ValueInteger,ValueFloat,ValueText,"+
+			"ValueBinary,BitmapId,ItemCount,SourceId) VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+
+	private static final String sqlInsertItemSetEvent =
+			"INSERT INTO ItemSetEvent "+
+			"(TimeStamp,Added,Settings,ItemSetName,BatchName,Description,BitmapId,ItemCount,SourceId) "+
+			"VALUES (?,?,?,?,?,?,?,?,?)";
+
+	private static final String sqlInsertExclusionEvent =
+			"INSERT INTO ExclusionEvent "+
+			"(TimeStamp,Excluded,ExclusionName,BitmapId,ItemCount,SourceId) VALUES (?,?,?,?,?,?)";
+
+	private static final String sqlInsertCustodianEvent =
+			"INSERT INTO CustodianEvent (TimeStamp,Assigned,Custodian,BitmapId,ItemCount,SourceId) VALUES (?,?,?,?,?,?)";
+
+	private static final String sqlInsertProductionSetEvent =
+			"INSERT INTO ProductionSetEvent (TimeStamp,Added,Created,ProductionSetSettings,ProductionSetName,"+
+			"BitmapId,ItemCount,SourceId) VALUES(?,?,?,?,?,?,?,?)";
+
+	// Each event row's rowid is selected so that checkpoints can refer back to the event which assigned a given value, followed
+	// by the ID of the source case the event was recorded from
+	private static final String sqlTagEventColumns =
+			"TimeStamp,Tag,Added,COALESCE(e.SerializedBitmap,b.SerializedBitmap),e.ItemCount,e.rowid,e.SourceId";
+
+	private static final String sqlCustomMetadataEventColumns =
+			"TimeStamp,Added,FieldName,ValueType,ValueTimeZone,ValueInteger,ValueFloat,ValueText,ValueBinary,"+
+			"COALESCE(e.SerializedBitmap,b.SerializedBitmap),e.ItemCount,e.rowid,e.SourceId";
+
+	private static final String sqlItemSetEventColumns =
+			"TimeStamp,Added,Settings,ItemSetName,BatchName,Description,COALESCE(e.SerializedBitmap,b.SerializedBitmap),e.ItemCount,e.rowid,e.SourceId";
+
+	private static final String sqlExclusionEventColumns =
+			"TimeStamp,Excluded,ExclusionName,COALESCE(e.SerializedBitmap,b.SerializedBitmap),e.ItemCount,e.rowid,e.SourceId";
+
+	private static final String sqlCustodianEventColumns =
+			"TimeStamp,Assigned,Custodian,COALESCE(e.SerializedBitmap,b.SerializedBitmap),e.ItemCount,e.rowid,e.SourceId";
+
+	private static final String sqlProductionSetEventColumns =
+			"TimeStamp,Added,Created,ProductionSetSettings,ProductionSetName,COALESCE(e.SerializedBitmap,b.SerializedBitmap),e.ItemCount,e.rowid,e.SourceId";
+
+	// Columns, table and bitmap join are filled in per event table
+	private static final String sqlSelectEventsBetween =
+			"SELECT %s FROM %s e %s WHERE TimeStamp > ? AND TimeStamp <= ? ORDER BY TimeStamp ASC";
+
+	// Table and bitmap join are filled in per event table
+	private static final String sqlSelectTableStatistics =
+			"SELECT COUNT(*),COUNT(COALESCE(e.SerializedBitmap,b.SerializedBitmap)),"+
+			"COALESCE(SUM(LENGTH(COALESCE(e.SerializedBitmap,b.SerializedBitmap))),0),COALESCE(SUM(e.ItemCount),0) FROM %s e %s";
+
+	private static final Map<String,String> eventColumnsByTable = new HashMap<String,String>();
+	static {
+		eventColumnsByTable.put("TagEvent", sqlTagEventColumns);
+		eventColumnsByTable.put("CustomMetadataEvent", sqlCustomMetadataEventColumns);
+		eventColumnsByTable.put("ItemSetEvent", sqlItemSetEventColumns);
+		eventColumnsByTable.put("ExclusionEvent", sqlExclusionEventColumns);
+		eventColumnsByTable.put("CustodianEvent", sqlCustodianEventColumns);
+		eventColumnsByTable.put("ProductionSetEvent", sqlProductionSetEventColumns);
+	}
+
+	private AnnotationHistoryRepository repo = null;
+	private int fetchSize = 1000;
+
+	// Idle prepared statements by connection and SQL, reused by cursors instead of preparing the same query repeatedly
+	private Map<Connection,Map<String,Deque<PreparedStatement>>> cachedStatements = new HashMap<Connection,Map<String,Deque<PreparedStatement>>>();
+
+	SQLiteAnnotationEventStore(AnnotationHistoryRepository repo){
+		this.repo = repo;
+	}
+
+	@Override
+	public void appendEvent(AnnotationEvent event) throws IOException, SQLException {
+		List<Object> data = new ArrayList<Object>();
+		data.add(event.timeStampMillis); //TimeStamp
+		String sql = null;
+
+		if(event instanceof TagEvent){
+			TagEvent tagEvent = (TagEvent)event;
+			data.add(tagEvent.tag);
+			data.add(tagEvent.added);
+			sql = sqlInsertTagEvent;
+		} else if(event instanceof CustomMetadataEvent){
+			CustomMetadataEvent cmEvent = (CustomMetadataEvent)event;
+			data.add(cmEvent.added);
+			data.add(cmEvent.fieldName);
+			data.add(cmEvent.valueType);
+			data.add(cmEvent.valueTimeZone);
+			data.add(cmEvent.valueLong);
+			data.add(cmEvent.valueFloat);
+			data.add(cmEvent.valueText);
+			data.add(cmEvent.valueBinary);
+			sql = sqlInsertCustomMetadataEvent;
+		} else if(event instanceof ItemSetEvent){
+			ItemSetEvent itemSetEvent = (ItemSetEvent)event;
+			data.add(itemSetEvent.added);
+			data.add(itemSetEvent.settings);
+			data.add(itemSetEvent.itemSetName);
+			data.add(itemSetEvent.batchName);
+			data.add(itemSetEvent.description);
+			sql = sqlInsertItemSetEvent;
+		} else if(event instanceof ExclusionEvent){
+			ExclusionEvent exclusionEvent = (ExclusionEvent)event;
+			data.add(exclusionEvent.excluded);
+			data.add(exclusionEvent.exclusionName);
+			sql = sqlInsertExclusionEvent;
+		} else if(event instanceof CustodianEvent){
+			CustodianEvent custodianEvent = (CustodianEvent)event;
+			data.add(custodianEvent.assigned);
+			data.add(custodianEvent.custodian);
+			sql = sqlInsertCustodianEvent;
+		} else if(event instanceof ProductionSetEvent){
+			ProductionSetEvent productionSetEvent = (ProductionSetEvent)event;
+			data.add(productionSetEvent.added);
+			data.add(productionSetEvent.created);
+			data.add(productionSetEvent.settingsJsonString);
+			data.add(productionSetEvent.productionSetName);
+			sql = sqlInsertProductionSetEvent;
+		} else {
+			throw new SQLException("Unknown event type: "+event.getEventType());
+		}
+
+		data.add(repo.storeBitmap(event.bitmapBytes,event.itemCount));
+		data.add(event.itemCount);
+		data.add(event.sourceId);
+		repo.executeInsert(sql,data);
+		event.rowId = repo.executeLongScalar("SELECT last_insert_rowid()");
+	}
+
+	private TagEvent readTagEvent(ResultSet rs) throws SQLException{
+		TagEvent event = new TagEvent();
+		event.sourceRepo = repo;
+		event.timeStampMillis = rs.getLong(1);
+		event.tag = rs.getString(2);
+		event.added = rs.getBoolean(3);
+		event.bitmapBytes = rs.getBytes(4);
+		event.itemCount = rs.getInt(5);
+		event.rowId = rs.getLong(6);
+		event.sourceId = rs.getLong(7);
+		return event;
+	}
+
+	private ExclusionEvent readExclusionEvent(ResultSet rs) throws SQLException{
+		ExclusionEvent event = new ExclusionEvent();
+		event.sourceRepo = repo;
+		event.timeStampMillis = rs.getLong(1);
+		event.excluded = rs.getBoolean(2);
+		event.exclusionName = rs.getString(3);
+		event.bitmapBytes = rs.getBytes(4);
+		event.itemCount = rs.getInt(5);
+		event.rowId = rs.getLong(6);
+		event.sourceId = rs.getLong(7);
+		return event;
+	}
+
+	private CustomMetadataEvent readCustomMetadataEvent(ResultSet rs) throws SQLException{
+		CustomMetadataEvent event = new CustomMetadataEvent();
+		event.sourceRepo = repo;
+		event.timeStampMillis = rs.getLong(1);
+		event.added = rs.getBoolean(2);
+		event.fieldName = rs.getString(3);
+		event.valueType = rs.getString(4);
+		event.valueTimeZone = rs.getString(5);
+		event.valueLong = rs.getLong(6);
+		event.valueFloat = rs.getDouble(7);
+		event.valueText = rs.getString(8);
+		event.valueBinary = rs.getBytes(9);
+		event.bitmapBytes = rs.getBytes(10);
+		event.itemCount = rs.getInt(11);
+		event.rowId = rs.getLong(12);
+		event.sourceId = rs.getLong(13);
+		return event;
+	}
+
+	private ItemSetEvent readItemSetEvent(ResultSet rs) throws SQLException{
+		ItemSetEvent event = new ItemSetEvent();
+		event.sourceRepo = repo;
+		event.timeStampMillis = rs.getLong(1);
+		event.added = rs.getBoolean(2);
+		event.settings = rs.getString(3);
+		event.itemSetName = rs.getString(4);
+		event.batchName = rs.getString(5);
+		event.description = rs.getString(6);
+		event.bitmapBytes = rs.getBytes(7);
+		event.itemCount = rs.getInt(8);
+		event.rowId = rs.getLong(9);
+		event.sourceId = rs.getLong(10);
+		return event;
+	}
+
+	private CustodianEvent readCustodianEvent(ResultSet rs) throws SQLException{
+		CustodianEvent event = new CustodianEvent();
+		event.sourceRepo = repo;
+		event.timeStampMillis = rs.getLong(1);
+		event.assigned = rs.getBoolean(2);
+		event.custodian = rs.getString(3);
+		event.bitmapBytes = rs.getBytes(4);
+		event.itemCount = rs.getInt(5);
+		event.rowId = rs.getLong(6);
+		event.sourceId = rs.getLong(7);
+		return event;
+	}
+
+	private ProductionSetEvent readProductionSetEvent(ResultSet rs) throws SQLException{
+		ProductionSetEvent event = new ProductionSetEvent();
+		event.sourceRepo = repo;
+		event.timeStampMillis = rs.getLong(1);
+		event.added = rs.getBoolean(2);
+		event.created = rs.getBoolean(3);
+		event.settingsJsonString = rs.getString(4);
+		event.settings = AnnotationHistoryRepository.parseProductionSetSettings(event.settingsJsonString);
+		event.productionSetName = rs.getString(5);
+		event.bitmapBytes = rs.getBytes(6);
+		event.itemCount = rs.getInt(7);
+		event.rowId = rs.getLong(8);
+		event.sourceId = rs.getLong(9);
+		return event;
+	}
+
+	/***
+	 * Reads the current row of a result set selected using the columns for the given event table.
+	 * @param tableName Name of the event table the row was selected from
+	 * @param rs The result set positioned on the row to read
+	 * @return The event the row represents
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	private AnnotationEvent readEvent(String tableName, ResultSet rs) throws SQLException{
+		switch(tableName){
+			case "TagEvent": return readTagEvent(rs);
+			case "CustomMetadataEvent": return readCustomMetadataEvent(rs);
+			case "ItemSetEvent": return readItemSetEvent(rs);
+			case "ExclusionEvent": return readExclusionEvent(rs);
+			case "CustodianEvent": return readCustodianEvent(rs);
+			case "ProductionSetEvent": return readProductionSetEvent(rs);
+			default: throw new SQLException("Unknown event table: "+tableName);
+		}
+	}
+
+	/***
+	 * Cursor over the rows of a single event table in time stamp order.  The time stamp of each row is read as the
+	 * cursor moves while the rest of the row is only read into an event when requested.
+	 */
+	private class TableCursor implements EventCursor {
+		private Connection conn = null;
+		private String eventType = null;
+		private String sql = null;
+		private PreparedStatement statement = null;
+		private ResultSet resultSet = null;
+		private long timeStamp = 0;
+		private AnnotationEvent event = null;
+
+		TableCursor(Connection conn, String eventType, long startedAfter, long startedOnOrBefore) throws SQLException {
+			this.conn = conn;
+			this.eventType = eventType;
+			sql = String.format(sqlSelectEventsBetween, eventColumnsByTable.get(eventType), eventType, AnnotationHistoryRepository.sqlJoinBitmap);
+			statement = borrowStatement(conn, sql);
+			statement.setLong(1, startedAfter);
+			statement.setLong(2, startedOnOrBefore);
+			statement.setFetchSize(fetchSize);
+			resultSet = statement.executeQuery();
+		}
+
+		@Override
+		public boolean next() throws SQLException {
+			event = null;
+			if(resultSet.next()){
+				timeStamp = resultSet.getLong(1);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public long getTimeStamp() {
+			return timeStamp;
+		}
+
+		@Override
+		public String getEventType() {
+			return eventType;
+		}
+
+		@Override
+		public AnnotationEvent getEvent() throws SQLException {
+			if(event == null){
+				event = readEvent(eventType, resultSet);
+			}
+			return event;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(statement == null){ return; }
+			try {
+				resultSet.close();
+				releaseStatement(conn, sql, statement);
+			} catch (SQLException e) {
+				throw new IOException(e);
+			} finally {
+				statement = null;
+			}
+		}
+	}
+
+	/***
+	 * Obtains a prepared statement for the given SQL on the given connection, reusing a previously prepared statement
+	 * which is not currently in use when there is one.
+	 * @param conn The connection the statement is for
+	 * @param sql The SQL of the statement
+	 * @return A prepared statement which the caller has exclusive use of until it is released
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	private synchronized PreparedStatement borrowStatement(Connection conn, String sql) throws SQLException {
+		Map<String,Deque<PreparedStatement>> statements = cachedStatements.get(conn);
+		if(statements != null){
+			Deque<PreparedStatement> idle = statements.get(sql);
+			if(idle != null && !idle.isEmpty()){
+				return idle.pop();
+			}
+		}
+		return conn.prepareStatement(sql);
+	}
+
+	/***
+	 * Returns a statement obtained from {@link #borrowStatement(Connection, String)} so it can be reused.
+	 * @param conn The connection the statement is for
+	 * @param sql The SQL of the statement
+	 * @param statement The statement to return
+	 * @throws SQLException If the SQL bits throw an error
+	 */
+	private synchronized void releaseStatement(Connection conn, String sql, PreparedStatement statement) throws SQLException {
+		statement.clearParameters();
+		Map<String,Deque<PreparedStatement>> statements = cachedStatements.get(conn);
+		if(statements == null){
+			statements = new HashMap<String,Deque<PreparedStatement>>();
+			cachedStatements.put(conn, statements);
+		}
+		Deque<PreparedStatement> idle = statements.get(sql);
+		if(idle == null){
+			idle = new ArrayDeque<PreparedStatement>();
+			statements.put(sql, idle);
+		}
+		idle.push(statement);
+	}
+
+	@Override
+	public EventCursor openCursor(long startedAfter, long startedOnOrBefore, String... eventTypes) throws SQLException, IOException {
+		// All tables are read through the same connection so a cursor over every event type only uses one pooled connection
+		Connection conn = repo.borrowReadConnection();
+		List<EventCursor> cursors = new ArrayList<EventCursor>();
+		try {
+			for(String eventType : eventTypes){
+				cursors.add(new TableCursor(conn, eventType, startedAfter, startedOnOrBefore));
+			}
+		} catch (SQLException e) {
+			for(EventCursor cursor : cursors){
+				cursor.close();
+			}
+			repo.releaseReadConnection(conn);
+			throw e;
+		}
+		return new MergedEventCursor(cursors, () -> repo.releaseReadConnection(conn));
+	}
+
+	@Override
+	public void eachEvent(String eventType, long startedAfter, long startedOnOrBefore, Consumer<AnnotationEvent> callback) throws SQLException, IOException {
+		try(EventCursor cursor = openCursor(startedAfter, startedOnOrBefore, eventType)){
+			while(cursor.next()){
+				callback.accept(cursor.getEvent());
+			}
+		}
+	}
+
+	@Override
+	public AnnotationEvent loadEvent(String eventType, long eventId) throws SQLException {
+		String sql = String.format("SELECT %s FROM %s e %s WHERE e.rowid = ?",
+				eventColumnsByTable.get(eventType), eventType, AnnotationHistoryRepository.sqlJoinBitmap);
+		List<Object> data = new ArrayList<Object>();
+		data.add(eventId);
+		List<AnnotationEvent> result = new ArrayList<AnnotationEvent>();
+
+		repo.executeReadQuery(sql,data,rs -> {
+			try {
+				if(rs.next()){
+					result.add(readEvent(eventType, rs));
+				}
+			} catch (SQLException e) {
+				throw new AnnotationHistoryRepository.ResultSetCallbackException(e);
+			}
+		});
+
+		return result.size() > 0 ? result.get(0) : null;
+	}
+
+	@Override
+	public long getEventCount(String eventType) throws SQLException {
+		return repo.executeReadLongScalar(String.format("SELECT COUNT(*) FROM %s", eventType));
+	}
+
+	@Override
+	public long[] countEventsAndItems(String eventType, long startedAfter, long startedOnOrBefore) throws SQLException {
+		List<Object> data = new ArrayList<Object>();
+		data.add(startedAfter);
+		data.add(startedOnOrBefore);
+		long[] result = new long[2];
+		repo.executeReadQuery(String.format("SELECT COUNT(*),COALESCE(SUM(MAX(ItemCount,0)),0) FROM %s WHERE TimeStamp > ? AND TimeStamp <= ?", eventType),data,rs -> {
+			try {
+				if(rs.next()){
+					result[0] = rs.getLong(1);
+					result[1] = rs.getLong(2);
+				}
+			} catch (SQLException e) {
+				throw new AnnotationHistoryRepository.ResultSetCallbackException(e);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public long getLastTimeStamp(String eventType) throws SQLException {
+		return repo.executeReadLongScalar(String.format("SELECT MAX(TimeStamp) FROM %s", eventType));
+	}
+
+	/***
+	 * Drops the TimeStamp index of each event table, since it is more efficient to rebuild the indices from
+	 * scratch than it is to update them as data is inserted.  In {@link AnnotationRepositoryAccessMode#SharedRead} mode
+	 * the indices are kept, so that queries made by other threads while the batch is appended do not have to scan and sort
+	 * whole tables.  Events are appended one per transaction, so the database is not synced to disk on every commit until the batch ends.
+	 */
+	@Override
+	public void beginAppendBatch() throws SQLException {
+		repo.executeUpdate("PRAGMA synchronous = OFF");
+		if(repo.getAccessMode() != AnnotationRepositoryAccessMode.SharedRead){
+			dropTimeStampIndices();
+		}
+	}
+
+	/***
+	 * Rebuilds the TimeStamp index of each event table, then restores FULL synchronous mode and checkpoints the
+	 * write ahead log, which syncs both the log and the database file so everything appended during the batch is durable.
+	 */
+	@Override
+	public void endAppendBatch() throws SQLException {
+		createTimeStampIndices();
+		repo.executeUpdate("PRAGMA synchronous = FULL");
+		// The checkpoint reports its progress as a result row, which is of no interest here
+		repo.executeQuery("PRAGMA wal_checkpoint(FULL)",null,rs -> {});
+	}
+
+	@Override
+	public AnnotationTableStatistics buildStatistics(String eventType) throws SQLException {
+		AnnotationTableStatistics result = new AnnotationTableStatistics(eventType);
+		repo.executeReadQuery(String.format(sqlSelectTableStatistics, eventType, AnnotationHistoryRepository.sqlJoinBitmap),null,rs -> {
+			try {
+				if(rs.next()){
+					result.rowCount = rs.getLong(1);
+					result.bitmapCount = rs.getLong(2);
+					result.bitmapBytes = rs.getLong(3);
+					result.itemCount = rs.getLong(4);
+				}
+			} catch (SQLException e) {
+				throw new AnnotationHistoryRepository.ResultSetCallbackException(e);
+			}
+		});
+		result.storedBytes = repo.calculateTableBytes(eventType);
+		return result;
+	}
+
+	private void dropTimeStampIndices() throws SQLException {
+		for(String tableName : eventColumnsByTable.keySet()){
+			logger.info(String.format("Dropping %s TimeStamp index...",tableName));
+			repo.executeUpdate(String.format("DROP INDEX IF EXISTS IDX_TimeStamp_%s", tableName));
+		}
+	}
+
+	private void createTimeStampIndices() throws SQLException {
+		for(String tableName : eventColumnsByTable.keySet()){
+			logger.info(String.format("Building %s TimeStamp index...",tableName));
+			repo.executeUpdate(String.format("CREATE INDEX IF NOT EXISTS IDX_TimeStamp_%s ON %s (TimeStamp)", tableName, tableName));
+		}
+	}
+
+	/***
+	 * Rebuilds the TimeStamp index of each event table from scratch, discarding the fragmentation left behind by indices
+	 * which were updated rather than rebuilt.  In {@link AnnotationRepositoryAccessMode#SharedRead} mode each index is rebuilt
+	 * in place with REINDEX, so there is no point at which other threads query a table without its index.
+	 */
+	@Override
+	public void performMaintenance() throws SQLException {
+		if(repo.getAccessMode() == AnnotationRepositoryAccessMode.SharedRead){
+			createTimeStampIndices();
+			for(String tableName : eventColumnsByTable.keySet()){
+				logger.info(String.format("Rebuilding %s TimeStamp index...",tableName));
+				repo.executeUpdate(String.format("REINDEX IDX_TimeStamp_%s", tableName));
+			}
+		} else {
+			dropTimeStampIndices();
+			createTimeStampIndices();
+		}
+	}
+
+	/***
+	 * Returns true, events are appended to the repository's database.
+	 */
+	@Override
+	public boolean supportsDatabaseTransactions() {
+		return true;
+	}
+
+	/***
+	 * Returns 0, everything is stored in the repository's database.
+	 */
+	@Override
+	public long getExternalStorageBytes() {
+		return 0;
+	}
+
+	/***
+	 * Gets the number of rows fetched from the database at a time by cursors of this store.
+	 * @return The fetch size
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/***
+	 * Sets the number of rows fetched from the database at a time by cursors of this store.  Default is 1000.
+	 * @param fetchSize The fetch size
+	 */
+	public void setFetchSize(int fetchSize) {
+		if(fetchSize < 1){
+			throw new IllegalArgumentException("fetchSize cannot be less than 1");
+		}
+		this.fetchSize = fetchSize;
+	}
+
+	/***
+	 * Closes the statements cached by this store.  The connections themselves are owned and closed by the repository.  Every statement
+	 * is closed even when one fails to, the first failure is then thrown.
+	 * @throws IOException If a statement failed to close
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		SQLException closeError = null;
+		for(Map<String,Deque<PreparedStatement>> statements : cachedStatements.values()){
+			for(Deque<PreparedStatement> idle : statements.values()){
+				for(PreparedStatement statement : idle){
+					try {
+						statement.close();
+					} catch (SQLException e) {
+						if(closeError == null){ closeError = e; }
+					}
+				}
+			}
+		}
+		cachedStatements.clear();
+		if(closeError != null){
+			throw new IOException("Error closing cached statement", closeError);
+		}
+	}
+}
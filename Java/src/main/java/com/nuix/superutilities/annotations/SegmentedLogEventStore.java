@@ -0,0 +1,1251 @@
+package com.nuix.superutilities.annotations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/***
+ * Event store which records events to append-only segment files, one series of segments per event type.  Each record in a
+ * segment is length prefixed and carries a CRC32 of its payload, so that a record partially written when the process
+ * stopped is detected and truncated away when the store is next opened.  Each segment keeps a sparse index of blocks of
+ * records with the time stamp and event ID range of each block, which allows time range queries to skip blocks that cannot
+ * contain matching events.  A segment is sealed when it reaches {@link #getMaxSegmentBytes()} or when a batch of appends
+ * ends (see {@link #endAppendBatch()}), at which point it is forced to disk, its sparse index is written next to it and
+ * later appends go to a new segment.  Frequent small syncs therefore produce many small segments, which are compacted in
+ * the background by merging runs of them into a single segment with its records sorted by time stamp, tightening the
+ * time stamp range of each index block.
+ * @author Jason Wells
+ *
+ */
+public class SegmentedLogEventStore implements AnnotationEventStore {
+	private static Logger logger = Logger.getLogger(SegmentedLogEventStore.class);
+
+	private static final Pattern segmentFilePattern = Pattern.compile("^(\\d+)\\.(\\d+)\\.log$");
+
+	// Records per sparse index block
+	private static final int indexInterval = 256;
+
+	// Length (int) and CRC32 (int) precede each record payload
+	private static final int recordHeaderBytes = 8;
+
+	// Event ID (long) and time stamp (long) start each record payload
+	private static final int recordKeyBytes = 16;
+
+	private static final Comparator<long[]> byTimeStampThenId = Comparator.comparingLong((long[] r) -> r[0]).thenComparingLong(r -> r[1]);
+
+	private static final String[] eventTypes = new String[]{
+		"TagEvent",
+		"CustomMetadataEvent",
+		"ItemSetEvent",
+		"ExclusionEvent",
+		"CustodianEvent",
+		"ProductionSetEvent",
+	};
+
+	private AnnotationHistoryRepository repo = null;
+	private File directory = null;
+	private Map<String,EventLog> logsByType = new HashMap<String,EventLog>();
+	private long maxSegmentBytes = 64L * 1024L * 1024L;
+	private int compactionThreshold = 4;
+	private ExecutorService compactionExecutor = null;
+
+	/***
+	 * Range of records within a segment along with the time stamp and event ID bounds of those records.
+	 */
+	private static class IndexBlock {
+		long offset = 0;
+		long endOffset = 0;
+		int recordCount = 0;
+		long minTimeStamp = Long.MAX_VALUE;
+		long maxTimeStamp = Long.MIN_VALUE;
+		long minEventId = Long.MAX_VALUE;
+		long maxEventId = Long.MIN_VALUE;
+
+		void include(long offset, long endOffset, long eventId, long timeStamp){
+			if(recordCount == 0){ this.offset = offset; }
+			this.endOffset = endOffset;
+			recordCount++;
+			minTimeStamp = Math.min(minTimeStamp, timeStamp);
+			maxTimeStamp = Math.max(maxTimeStamp, timeStamp);
+			minEventId = Math.min(minEventId, eventId);
+			maxEventId = Math.max(maxEventId, eventId);
+		}
+
+		boolean overlapsTime(long startedAfter, long startedOnOrBefore){
+			return recordCount > 0 && maxTimeStamp > startedAfter && minTimeStamp <= startedOnOrBefore;
+		}
+
+		boolean containsId(long eventId){
+			return recordCount > 0 && eventId >= minEventId && eventId <= maxEventId;
+		}
+
+		IndexBlock copy(){
+			IndexBlock result = new IndexBlock();
+			result.offset = offset;
+			result.endOffset = endOffset;
+			result.recordCount = recordCount;
+			result.minTimeStamp = minTimeStamp;
+			result.maxTimeStamp = maxTimeStamp;
+			result.minEventId = minEventId;
+			result.maxEventId = maxEventId;
+			return result;
+		}
+	}
+
+	/***
+	 * A single segment file and its sparse index.  Only the active (last) segment of an event log is ever appended to.  Readers
+	 * retain the segments they are reading, a segment removed from its log by compaction is only deleted once no reader retains it.
+	 */
+	private static class Segment {
+		File file = null;
+		long sequence = 0;
+		int generation = 0;
+		long length = 0;
+		List<IndexBlock> blocks = new ArrayList<IndexBlock>();
+		IndexBlock summary = new IndexBlock();
+		boolean sealed = false;
+		FileOutputStream fileStream = null;
+		BufferedOutputStream outputStream = null;
+		int readers = 0;
+		boolean retired = false;
+
+		Segment(File file, long sequence, int generation){
+			this.file = file;
+			this.sequence = sequence;
+			this.generation = generation;
+		}
+
+		File getIndexFile(){
+			return new File(file.getParentFile(), file.getName().replace(".log", ".idx"));
+		}
+
+		synchronized void retain(){
+			readers++;
+		}
+
+		synchronized void release(){
+			readers--;
+			if(retired && readers == 0){ deleteFiles(); }
+		}
+
+		/***
+		 * Marks this segment as no longer part of its log, deleting its files now or once the last reader releases it.
+		 */
+		synchronized void retire(){
+			retired = true;
+			if(readers == 0){ deleteFiles(); }
+		}
+
+		void deleteFiles(){
+			file.delete();
+			getIndexFile().delete();
+		}
+
+		void include(long offset, long endOffset, long eventId, long timeStamp){
+			IndexBlock block = blocks.size() > 0 ? blocks.get(blocks.size()-1) : null;
+			if(block == null || block.recordCount >= indexInterval){
+				block = new IndexBlock();
+				blocks.add(block);
+			}
+			block.include(offset, endOffset, eventId, timeStamp);
+			summary.include(offset, endOffset, eventId, timeStamp);
+			length = endOffset;
+		}
+
+		void openForAppend() throws IOException {
+			fileStream = new FileOutputStream(file, true);
+			outputStream = new BufferedOutputStream(fileStream, 1024 * 1024);
+		}
+
+		void flush(boolean force) throws IOException {
+			if(outputStream != null){
+				outputStream.flush();
+				if(force){
+					fileStream.getChannel().force(true);
+				}
+			}
+		}
+
+		void closeForAppend() throws IOException {
+			if(outputStream != null){
+				flush(true);
+				outputStream.close();
+				outputStream = null;
+				fileStream = null;
+			}
+		}
+
+		void writeIndex() throws IOException {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile())))){
+				out.writeInt(1); //Version
+				out.writeLong(length);
+				out.writeInt(blocks.size());
+				for(IndexBlock block : blocks){
+					out.writeLong(block.offset);
+					out.writeLong(block.endOffset);
+					out.writeInt(block.recordCount);
+					out.writeLong(block.minTimeStamp);
+					out.writeLong(block.maxTimeStamp);
+					out.writeLong(block.minEventId);
+					out.writeLong(block.maxEventId);
+				}
+			}
+		}
+
+		/***
+		 * Loads this segment's sparse index from its index file if present and written for the segment's current length.
+		 * @return True if the index was loaded
+		 */
+		boolean readIndex() throws IOException {
+			File indexFile = getIndexFile();
+			if(!indexFile.exists()){ return false; }
+			try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))){
+				if(in.readInt() != 1){ return false; }
+				long indexedLength = in.readLong();
+				if(indexedLength != file.length()){ return false; }
+				int blockCount = in.readInt();
+				for (int i = 0; i < blockCount; i++) {
+					IndexBlock block = new IndexBlock();
+					block.offset = in.readLong();
+					block.endOffset = in.readLong();
+					block.recordCount = in.readInt();
+					block.minTimeStamp = in.readLong();
+					block.maxTimeStamp = in.readLong();
+					block.minEventId = in.readLong();
+					block.maxEventId = in.readLong();
+					blocks.add(block);
+					summary.recordCount += block.recordCount;
+					summary.minTimeStamp = Math.min(summary.minTimeStamp, block.minTimeStamp);
+					summary.maxTimeStamp = Math.max(summary.maxTimeStamp, block.maxTimeStamp);
+					summary.minEventId = Math.min(summary.minEventId, block.minEventId);
+					summary.maxEventId = Math.max(summary.maxEventId, block.maxEventId);
+				}
+				length = indexedLength;
+				return true;
+			} catch (EOFException e) {
+				blocks.clear();
+				summary = new IndexBlock();
+				return false;
+			}
+		}
+	}
+
+	/***
+	 * The series of segments holding the events of a single event type.
+	 */
+	private class EventLog {
+		String eventType = null;
+		File directory = null;
+		List<Segment> segments = new ArrayList<Segment>();
+		long nextEventId = 1;
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		EventLog(String eventType, File directory){
+			this.eventType = eventType;
+			this.directory = directory;
+		}
+
+		Segment getActiveSegment(){
+			return segments.size() > 0 ? segments.get(segments.size()-1) : null;
+		}
+
+		long nextSequence(){
+			Segment active = getActiveSegment();
+			return active == null ? 1 : active.sequence + 1;
+		}
+	}
+
+	SegmentedLogEventStore(AnnotationHistoryRepository repo, File directory) throws IOException {
+		this.repo = repo;
+		this.directory = directory;
+		directory.mkdirs();
+		for(String eventType : eventTypes){
+			logsByType.put(eventType, openLog(eventType));
+		}
+		compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "SegmentedLogEventStore Compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/***
+	 * Opens the segments of an event type, recovering from an interrupted append or compaction if needed.
+	 */
+	private EventLog openLog(String eventType) throws IOException {
+		File logDirectory = new File(directory, eventType);
+		logDirectory.mkdirs();
+		EventLog log = new EventLog(eventType, logDirectory);
+
+		List<Segment> found = new ArrayList<Segment>();
+		for(File file : logDirectory.listFiles()){
+			if(file.getName().endsWith(".tmp")){
+				// Compaction output which was never swapped in
+				file.delete();
+				continue;
+			}
+			Matcher matcher = segmentFilePattern.matcher(file.getName());
+			if(matcher.matches()){
+				found.add(new Segment(file, Long.parseLong(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+			}
+		}
+		found.sort(Comparator.comparingLong((Segment s) -> s.sequence).thenComparingInt(s -> s.generation));
+
+		// Segments with a valid index file were sealed, a segment without one was still being appended to when the
+		// store was last closed and is scanned to recover its index, truncating any incomplete trailing record
+		for (int i = 0; i < found.size(); i++) {
+			Segment segment = found.get(i);
+			boolean isLast = i == found.size() - 1;
+			if(segment.readIndex()){
+				segment.sealed = true;
+			} else {
+				scanSegment(segment);
+				if(isLast){
+					segment.sealed = false;
+				} else {
+					segment.writeIndex();
+					segment.sealed = true;
+				}
+			}
+		}
+
+		// A compaction interrupted after its merged segment was swapped in but before the merged segments were deleted
+		// leaves segments whose events are all present in a later generation segment
+		for(Segment segment : found){
+			boolean superseded = false;
+			for(Segment other : found){
+				if(other != segment && other.generation > segment.generation && segment.summary.recordCount > 0 &&
+						other.summary.containsId(segment.summary.minEventId) && other.summary.containsId(segment.summary.maxEventId)){
+					superseded = true;
+					break;
+				}
+			}
+			if(superseded){
+				logger.info(String.format("Removing segment %s superseded by compaction", segment.file));
+				segment.file.delete();
+				segment.getIndexFile().delete();
+			} else {
+				log.segments.add(segment);
+			}
+		}
+
+		for(Segment segment : log.segments){
+			if(segment.summary.recordCount > 0){
+				log.nextEventId = Math.max(log.nextEventId, segment.summary.maxEventId + 1);
+			}
+		}
+
+		Segment active = log.getActiveSegment();
+		if(active != null && !active.sealed){
+			active.openForAppend();
+		}
+		return log;
+	}
+
+	/***
+	 * Builds the sparse index of a segment by reading each of its records, truncating the segment at the first record
+	 * which is incomplete or fails its CRC check.
+	 */
+	private void scanSegment(Segment segment) throws IOException {
+		segment.blocks.clear();
+		segment.summary = new IndexBlock();
+		segment.length = 0;
+		long offset = 0;
+		long fileLength = segment.file.length();
+		CRC32 crc = new CRC32();
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), 1024 * 1024))){
+			while(offset + recordHeaderBytes <= fileLength){
+				int payloadLength = in.readInt();
+				int expectedCrc = in.readInt();
+				if(payloadLength < recordKeyBytes || offset + recordHeaderBytes + payloadLength > fileLength){
+					break;
+				}
+				byte[] payload = new byte[payloadLength];
+				in.readFully(payload);
+				crc.reset();
+				crc.update(payload, 0, payloadLength);
+				if((int)crc.getValue() != expectedCrc){
+					break;
+				}
+				ByteBuffer key = ByteBuffer.wrap(payload);
+				long endOffset = offset + recordHeaderBytes + payloadLength;
+				segment.include(offset, endOffset, key.getLong(0), key.getLong(8));
+				offset = endOffset;
+			}
+		}
+
+		if(offset < fileLength){
+			logger.warn(String.format("Truncating %s from %s to %s bytes, trailing record is incomplete or corrupt",
+					segment.file, fileLength, offset));
+			try(RandomAccessFile file = new RandomAccessFile(segment.file, "rw")){
+				file.setLength(offset);
+			}
+		}
+		segment.length = offset;
+	}
+
+	private Segment createSegment(EventLog log, long sequence, int generation, String suffix){
+		File file = new File(log.directory, String.format("%020d.%d.log%s", sequence, generation, suffix));
+		return new Segment(file, sequence, generation);
+	}
+
+	private EventLog getLog(String eventType) throws IOException {
+		EventLog log = logsByType.get(eventType);
+		if(log == null){
+			throw new IOException("Unknown event type: "+eventType);
+		}
+		return log;
+	}
+
+	@Override
+	public void appendEvent(AnnotationEvent event) throws IOException {
+		EventLog log = getLog(event.getEventType());
+		log.lock.writeLock().lock();
+		try {
+			Segment active = log.getActiveSegment();
+			if(active == null || active.sealed || active.length >= maxSegmentBytes){
+				if(active != null && !active.sealed){
+					seal(active);
+				}
+				active = createSegment(log, log.nextSequence(), 0, "");
+				active.openForAppend();
+				log.segments.add(active);
+			}
+
+			long eventId = log.nextEventId;
+			byte[] payload = encodeEvent(event, eventId);
+			CRC32 crc = new CRC32();
+			crc.update(payload, 0, payload.length);
+			ByteBuffer header = ByteBuffer.allocate(recordHeaderBytes);
+			header.putInt(payload.length);
+			header.putInt((int)crc.getValue());
+			active.outputStream.write(header.array());
+			active.outputStream.write(payload);
+
+			long offset = active.length;
+			active.include(offset, offset + recordHeaderBytes + payload.length, eventId, event.timeStampMillis);
+			event.rowId = eventId;
+			log.nextEventId++;
+		} finally {
+			log.lock.writeLock().unlock();
+		}
+	}
+
+	/***
+	 * The segments of an event log as they were when a read started.  Each segment is retained, so that compaction defers
+	 * deleting it until the read is done, and the blocks of the active segment are copied since appends go on extending them.
+	 */
+	private static class SegmentView {
+		Segment segment = null;
+		List<IndexBlock> blocks = null;
+		IndexBlock summary = null;
+	}
+
+	/***
+	 * Takes a view of the segments of an event log under the log's read lock, which is released again before returning so
+	 * that appends and compaction are not held up while the segments are read.  Each view must be released with
+	 * {@link #releaseSegments(List)} once reading is done.
+	 */
+	private List<SegmentView> acquireSegments(EventLog log) throws IOException {
+		List<SegmentView> result = new ArrayList<SegmentView>();
+		log.lock.readLock().lock();
+		try {
+			Segment active = log.getActiveSegment();
+			if(active != null){ active.flush(false); }
+			for(Segment segment : log.segments){
+				SegmentView view = new SegmentView();
+				view.segment = segment;
+				if(segment.sealed){
+					// Blocks of a sealed segment never change
+					view.blocks = segment.blocks;
+					view.summary = segment.summary;
+				} else {
+					view.blocks = new ArrayList<IndexBlock>(segment.blocks.size());
+					for(IndexBlock block : segment.blocks){
+						view.blocks.add(block.copy());
+					}
+					view.summary = segment.summary.copy();
+				}
+				segment.retain();
+				result.add(view);
+			}
+		} finally {
+			log.lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	private static void releaseSegments(List<SegmentView> views){
+		for(SegmentView view : views){
+			view.segment.release();
+		}
+	}
+
+	/***
+	 * Cursor over the records of a single event log in time stamp order.  The log's segments are retained when the cursor is
+	 * opened rather than the log being locked, so appends and compaction carry on while the cursor is read.  Records are only
+	 * ordered by time stamp within compacted segments, so the index blocks overlapping the time range are visited in order of
+	 * their earliest time stamp and the keys of a block's records are read once no record still to be returned could come
+	 * before that block.  Only the keys of records in blocks with overlapping time ranges are held at any one time.
+	 */
+	private class LogCursor implements EventCursor {
+		private String eventType = null;
+		private long startedAfter = 0;
+		private long startedOnOrBefore = 0;
+		private List<SegmentView> segments = null;
+		// {minTimeStamp, segment index, block index} of each block to visit, in order of minTimeStamp
+		private List<long[]> blocks = new ArrayList<long[]>();
+		private int nextBlock = 0;
+		// {timeStamp, eventId, segment index, offset} of each record read from a visited block and not yet returned
+		private PriorityQueue<long[]> records = new PriorityQueue<long[]>(byTimeStampThenId);
+		private ByteBuffer keyBuffer = ByteBuffer.allocate(recordHeaderBytes + recordKeyBytes);
+		private Map<Integer,FileChannel> channels = new HashMap<Integer,FileChannel>();
+		private long[] current = null;
+		private AnnotationEvent event = null;
+
+		LogCursor(String eventType, long startedAfter, long startedOnOrBefore) throws IOException {
+			this.eventType = eventType;
+			this.startedAfter = startedAfter;
+			this.startedOnOrBefore = startedOnOrBefore;
+			segments = acquireSegments(getLog(eventType));
+			for (int s = 0; s < segments.size(); s++) {
+				SegmentView segment = segments.get(s);
+				if(!segment.summary.overlapsTime(startedAfter, startedOnOrBefore)){ continue; }
+				for (int b = 0; b < segment.blocks.size(); b++) {
+					IndexBlock block = segment.blocks.get(b);
+					if(block.overlapsTime(startedAfter, startedOnOrBefore)){
+						blocks.add(new long[]{block.minTimeStamp, s, b});
+					}
+				}
+			}
+			blocks.sort(Comparator.comparingLong((long[] b) -> b[0]));
+		}
+
+		private void readBlock(long[] blockRef) throws IOException {
+			int segmentIndex = (int)blockRef[1];
+			IndexBlock block = segments.get(segmentIndex).blocks.get((int)blockRef[2]);
+			FileChannel channel = getChannel(segmentIndex);
+			long offset = block.offset;
+			while(offset < block.endOffset){
+				readFully(channel, keyBuffer, offset);
+				int payloadLength = keyBuffer.getInt(0);
+				long eventId = keyBuffer.getLong(recordHeaderBytes);
+				long timeStamp = keyBuffer.getLong(recordHeaderBytes + 8);
+				if(timeStamp > startedAfter && timeStamp <= startedOnOrBefore){
+					records.add(new long[]{timeStamp, eventId, segmentIndex, offset});
+				}
+				offset += recordHeaderBytes + payloadLength;
+			}
+		}
+
+		private FileChannel getChannel(int segmentIndex) throws IOException {
+			FileChannel channel = channels.get(segmentIndex);
+			if(channel == null){
+				channel = FileChannel.open(segments.get(segmentIndex).segment.file.toPath(), StandardOpenOption.READ);
+				channels.put(segmentIndex, channel);
+			}
+			return channel;
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			event = null;
+			// A block not visited yet can only hold a record earlier than those already read if it starts no later than them
+			while(nextBlock < blocks.size() && (records.isEmpty() || blocks.get(nextBlock)[0] <= records.peek()[0])){
+				readBlock(blocks.get(nextBlock++));
+			}
+			current = records.poll();
+			return current != null;
+		}
+
+		@Override
+		public long getTimeStamp() {
+			return current[0];
+		}
+
+		@Override
+		public String getEventType() {
+			return eventType;
+		}
+
+		@Override
+		public AnnotationEvent getEvent() throws IOException {
+			if(event == null){
+				event = readEvent(eventType, getChannel((int)current[2]), current[3]);
+			}
+			return event;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				for(FileChannel channel : channels.values()){
+					channel.close();
+				}
+				channels.clear();
+			} finally {
+				if(segments != null){
+					releaseSegments(segments);
+					segments = null;
+				}
+			}
+		}
+	}
+
+	@Override
+	public EventCursor openCursor(long startedAfter, long startedOnOrBefore, String... eventTypes) throws IOException {
+		List<EventCursor> cursors = new ArrayList<EventCursor>();
+		try {
+			for(String eventType : eventTypes){
+				cursors.add(new LogCursor(eventType, startedAfter, startedOnOrBefore));
+			}
+		} catch (IOException e) {
+			for(EventCursor cursor : cursors){
+				cursor.close();
+			}
+			throw e;
+		}
+		return new MergedEventCursor(cursors, null);
+	}
+
+	@Override
+	public void eachEvent(String eventType, long startedAfter, long startedOnOrBefore, Consumer<AnnotationEvent> callback) throws IOException {
+		try(LogCursor cursor = new LogCursor(eventType, startedAfter, startedOnOrBefore)){
+			while(cursor.next()){
+				callback.accept(cursor.getEvent());
+			}
+		}
+	}
+
+	@Override
+	public AnnotationEvent loadEvent(String eventType, long eventId) throws IOException {
+		EventLog log = getLog(eventType);
+		log.lock.readLock().lock();
+		try {
+			Segment active = log.getActiveSegment();
+			if(active != null){ active.flush(false); }
+			ByteBuffer keyBuffer = ByteBuffer.allocate(recordHeaderBytes + recordKeyBytes);
+			for(Segment segment : log.segments){
+				if(!segment.summary.containsId(eventId)){ continue; }
+				try(FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)){
+					for(IndexBlock block : segment.blocks){
+						if(!block.containsId(eventId)){ continue; }
+						long offset = block.offset;
+						while(offset < block.endOffset){
+							readFully(channel, keyBuffer, offset);
+							if(keyBuffer.getLong(recordHeaderBytes) == eventId){
+								return readEvent(eventType, channel, offset);
+							}
+							offset += recordHeaderBytes + keyBuffer.getInt(0);
+						}
+					}
+				}
+			}
+			return null;
+		} finally {
+			log.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long getEventCount(String eventType) throws IOException {
+		EventLog log = getLog(eventType);
+		log.lock.readLock().lock();
+		try {
+			long count = 0;
+			for(Segment segment : log.segments){
+				count += segment.summary.recordCount;
+			}
+			return count;
+		} finally {
+			log.lock.readLock().unlock();
+		}
+	}
+
+	/***
+	 * Reads only the start of each record in the time range, where the item count follows the event ID and time stamp.
+	 */
+	@Override
+	public long[] countEventsAndItems(String eventType, long startedAfter, long startedOnOrBefore) throws IOException {
+		List<SegmentView> segments = acquireSegments(getLog(eventType));
+		long[] result = new long[2];
+		try {
+			ByteBuffer keyBuffer = ByteBuffer.allocate(recordHeaderBytes + recordKeyBytes + 4);
+			for(SegmentView segment : segments){
+				if(!segment.summary.overlapsTime(startedAfter, startedOnOrBefore)){ continue; }
+				try(FileChannel channel = FileChannel.open(segment.segment.file.toPath(), StandardOpenOption.READ)){
+					for(IndexBlock block : segment.blocks){
+						if(!block.overlapsTime(startedAfter, startedOnOrBefore)){ continue; }
+						long offset = block.offset;
+						while(offset < block.endOffset){
+							readFully(channel, keyBuffer, offset);
+							int payloadLength = keyBuffer.getInt(0);
+							long timeStamp = keyBuffer.getLong(recordHeaderBytes + 8);
+							if(timeStamp > startedAfter && timeStamp <= startedOnOrBefore){
+								result[0]++;
+								result[1] += Math.max(0, keyBuffer.getInt(recordHeaderBytes + recordKeyBytes));
+							}
+							offset += recordHeaderBytes + payloadLength;
+						}
+					}
+				}
+			}
+		} finally {
+			releaseSegments(segments);
+		}
+		return result;
+	}
+
+	@Override
+	public long getLastTimeStamp(String eventType) throws IOException {
+		EventLog log = getLog(eventType);
+		log.lock.readLock().lock();
+		try {
+			long result = 0;
+			for(Segment segment : log.segments){
+				if(segment.summary.recordCount > 0 && segment.summary.maxTimeStamp > result){
+					result = segment.summary.maxTimeStamp;
+				}
+			}
+			return result;
+		} finally {
+			log.lock.readLock().unlock();
+		}
+	}
+
+	/***
+	 * Does nothing, appends are buffered regardless of whether a batch was started.
+	 */
+	@Override
+	public void beginAppendBatch() {
+	}
+
+	private void seal(Segment segment) throws IOException {
+		segment.closeForAppend();
+		segment.writeIndex();
+		segment.sealed = true;
+	}
+
+	/***
+	 * Forces the active segment of each event type to disk and seals it, so each batch of appends ends up in its own
+	 * segment.  Then schedules a background compaction of any event type with at least {@link #getCompactionThreshold()}
+	 * sealed segments eligible for merging.
+	 */
+	@Override
+	public void endAppendBatch() throws IOException {
+		for(EventLog log : logsByType.values()){
+			log.lock.writeLock().lock();
+			try {
+				Segment active = log.getActiveSegment();
+				if(active != null && !active.sealed){ seal(active); }
+			} finally {
+				log.lock.writeLock().unlock();
+			}
+			if(findCompactionRun(log).size() >= compactionThreshold){
+				compactInBackground(log.eventType);
+			}
+		}
+	}
+
+	/***
+	 * Finds the first run of consecutive sealed segments which together are no larger than the max segment size.
+	 * @return The segments to merge, fewer than 2 segments means there is nothing worth merging
+	 */
+	private List<Segment> findCompactionRun(EventLog log){
+		log.lock.readLock().lock();
+		try {
+			List<Segment> run = new ArrayList<Segment>();
+			long runBytes = 0;
+			for(Segment segment : log.segments){
+				boolean mergeable = segment.sealed && segment.length <= maxSegmentBytes;
+				if(mergeable && runBytes + segment.length <= maxSegmentBytes){
+					run.add(segment);
+					runBytes += segment.length;
+					continue;
+				}
+				if(run.size() >= 2){ break; }
+				run.clear();
+				runBytes = 0;
+				if(mergeable){
+					run.add(segment);
+					runBytes = segment.length;
+				}
+			}
+			return run;
+		} finally {
+			log.lock.readLock().unlock();
+		}
+	}
+
+	/***
+	 * Schedules compaction of the sealed segments of the given event type on this store's background compaction thread.
+	 * @param eventType The event type to compact, for example "TagEvent"
+	 */
+	public void compactInBackground(String eventType) {
+		compactionExecutor.submit(() -> {
+			try {
+				compact(eventType);
+			} catch (IOException e) {
+				logger.error("Error while compacting segments of "+eventType, e);
+			}
+		});
+	}
+
+	/***
+	 * Merges runs of small sealed segments of the given event type into single segments with their records sorted by
+	 * time stamp.  Sealed segments are never modified, so the merge is performed without blocking readers or appends, only
+	 * the swap of the merged segment into the log is done under the log's write lock.  The files of the merged segments are
+	 * deleted once no open cursor is still reading them.  Only the compaction thread removes segments so a run cannot change
+	 * while it is being merged.
+	 * @param eventType The event type to compact, for example "TagEvent"
+	 * @throws IOException If there is an error reading or writing a segment
+	 */
+	public synchronized void compact(String eventType) throws IOException {
+		EventLog log = getLog(eventType);
+		List<Segment> run = findCompactionRun(log);
+		while(run.size() >= 2){
+			Segment last = run.get(run.size()-1);
+			int generation = 0;
+			for(Segment segment : run){ generation = Math.max(generation, segment.generation); }
+			Segment merged = createSegment(log, last.sequence, generation + 1, "");
+			Segment temp = createSegment(log, last.sequence, generation + 1, ".tmp");
+
+			List<long[]> records = new ArrayList<long[]>();
+			ByteBuffer keyBuffer = ByteBuffer.allocate(recordHeaderBytes + recordKeyBytes);
+			List<FileChannel> channels = new ArrayList<FileChannel>();
+			try {
+				for (int s = 0; s < run.size(); s++) {
+					FileChannel channel = FileChannel.open(run.get(s).file.toPath(), StandardOpenOption.READ);
+					channels.add(channel);
+					long offset = 0;
+					while(offset < run.get(s).length){
+						readFully(channel, keyBuffer, offset);
+						int recordLength = recordHeaderBytes + keyBuffer.getInt(0);
+						records.add(new long[]{keyBuffer.getLong(recordHeaderBytes + 8), keyBuffer.getLong(recordHeaderBytes), s, offset, recordLength});
+						offset += recordLength;
+					}
+				}
+				records.sort(byTimeStampThenId);
+
+				try(BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(temp.file), 1024 * 1024)){
+					for(long[] record : records){
+						ByteBuffer recordBuffer = ByteBuffer.allocate((int)record[4]);
+						readFully(channels.get((int)record[2]), recordBuffer, record[3]);
+						out.write(recordBuffer.array());
+						merged.include(merged.length, merged.length + record[4], record[1], record[0]);
+					}
+					out.flush();
+				}
+			} finally {
+				for(FileChannel channel : channels){
+					channel.close();
+				}
+			}
+
+			try(FileChannel channel = FileChannel.open(temp.file.toPath(), StandardOpenOption.WRITE)){
+				channel.force(true);
+			}
+			merged.sealed = true;
+
+			log.lock.writeLock().lock();
+			try {
+				Files.move(temp.file.toPath(), merged.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				merged.writeIndex();
+				int insertAt = log.segments.indexOf(run.get(0));
+				log.segments.removeAll(run);
+				log.segments.add(insertAt, merged);
+				// Cursors opened before the swap may still be reading the merged segments
+				for(Segment segment : run){
+					segment.retire();
+				}
+			} finally {
+				log.lock.writeLock().unlock();
+			}
+
+			logger.info(String.format("Compacted %s %s segments (%s records) into %s",
+					run.size(), eventType, records.size(), merged.file.getName()));
+			run = findCompactionRun(log);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0){
+				throw new EOFException("Unexpected end of segment at "+(position + buffer.position()));
+			}
+		}
+	}
+
+	private AnnotationEvent readEvent(String eventType, FileChannel channel, long offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(recordHeaderBytes);
+		readFully(channel, header, offset);
+		int payloadLength = header.getInt(0);
+		ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+		readFully(channel, payload, offset + recordHeaderBytes);
+		CRC32 crc = new CRC32();
+		crc.update(payload.array(), 0, payloadLength);
+		if((int)crc.getValue() != header.getInt(4)){
+			throw new IOException(String.format("CRC mismatch for %s record at offset %s", eventType, offset));
+		}
+		return decodeEvent(repo, eventType, payload.array());
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		if(value == null){
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0){ return null; }
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+		out.writeByte(value == null ? -1 : (value ? 1 : 0));
+	}
+
+	private static Boolean readBoolean(DataInputStream in) throws IOException {
+		byte value = in.readByte();
+		return value < 0 ? null : value == 1;
+	}
+
+	/***
+	 * Encodes an event as the payload of a record.  The same encoding is used for the event records of an
+	 * {@link AnnotationRepositoryArchive}.
+	 * @param event The event to encode
+	 * @param eventId The ID of the event
+	 * @return The encoded event
+	 * @throws IOException If the event type is not known
+	 */
+	static byte[] encodeEvent(AnnotationEvent event, long eventId) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(event.bitmapBytes.length + 128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(eventId);
+		out.writeLong(event.timeStampMillis);
+		out.writeInt(event.itemCount);
+
+		if(event instanceof TagEvent){
+			TagEvent tagEvent = (TagEvent)event;
+			writeString(out, tagEvent.tag);
+			writeBoolean(out, tagEvent.added);
+		} else if(event instanceof CustomMetadataEvent){
+			CustomMetadataEvent cmEvent = (CustomMetadataEvent)event;
+			writeBoolean(out, cmEvent.added);
+			writeString(out, cmEvent.fieldName);
+			writeString(out, cmEvent.valueType);
+			writeString(out, cmEvent.valueTimeZone);
+			out.writeLong(cmEvent.valueLong == null ? 0 : cmEvent.valueLong);
+			out.writeDouble(cmEvent.valueFloat == null ? 0 : cmEvent.valueFloat);
+			writeString(out, cmEvent.valueText);
+			writeBytes(out, cmEvent.valueBinary);
+		} else if(event instanceof ItemSetEvent){
+			ItemSetEvent itemSetEvent = (ItemSetEvent)event;
+			writeBoolean(out, itemSetEvent.added);
+			writeString(out, itemSetEvent.settings);
+			writeString(out, itemSetEvent.itemSetName);
+			writeString(out, itemSetEvent.batchName);
+			writeString(out, itemSetEvent.description);
+		} else if(event instanceof ExclusionEvent){
+			ExclusionEvent exclusionEvent = (ExclusionEvent)event;
+			writeBoolean(out, exclusionEvent.excluded);
+			writeString(out, exclusionEvent.exclusionName);
+		} else if(event instanceof CustodianEvent){
+			CustodianEvent custodianEvent = (CustodianEvent)event;
+			writeBoolean(out, custodianEvent.assigned);
+			writeString(out, custodianEvent.custodian);
+		} else if(event instanceof ProductionSetEvent){
+			ProductionSetEvent productionSetEvent = (ProductionSetEvent)event;
+			writeBoolean(out, productionSetEvent.added);
+			writeBoolean(out, productionSetEvent.created);
+			writeString(out, productionSetEvent.settingsJsonString);
+			writeString(out, productionSetEvent.productionSetName);
+		} else {
+			throw new IOException("Unknown event type: "+event.getEventType());
+		}
+
+		writeBytes(out, event.bitmapBytes);
+		// Trails the bitmap so records written before events carried a source ID still decode
+		out.writeLong(event.sourceId);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	// Values read back match those read from the SQLite store, where a null numeric column reads as 0 and a null boolean as false
+	static AnnotationEvent decodeEvent(AnnotationHistoryRepository repo, String eventType, byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		long eventId = in.readLong();
+		long timeStamp = in.readLong();
+		int itemCount = in.readInt();
+
+		AnnotationEvent event = null;
+		switch(eventType){
+			case "TagEvent":
+				TagEvent tagEvent = new TagEvent();
+				tagEvent.tag = readString(in);
+				tagEvent.added = Boolean.TRUE.equals(readBoolean(in));
+				event = tagEvent;
+				break;
+			case "CustomMetadataEvent":
+				CustomMetadataEvent cmEvent = new CustomMetadataEvent();
+				cmEvent.added = Boolean.TRUE.equals(readBoolean(in));
+				cmEvent.fieldName = readString(in);
+				cmEvent.valueType = readString(in);
+				cmEvent.valueTimeZone = readString(in);
+				cmEvent.valueLong = in.readLong();
+				cmEvent.valueFloat = in.readDouble();
+				cmEvent.valueText = readString(in);
+				cmEvent.valueBinary = readBytes(in);
+				event = cmEvent;
+				break;
+			case "ItemSetEvent":
+				ItemSetEvent itemSetEvent = new ItemSetEvent();
+				itemSetEvent.added = Boolean.TRUE.equals(readBoolean(in));
+				itemSetEvent.settings = readString(in);
+				itemSetEvent.itemSetName = readString(in);
+				itemSetEvent.batchName = readString(in);
+				itemSetEvent.description = readString(in);
+				event = itemSetEvent;
+				break;
+			case "ExclusionEvent":
+				ExclusionEvent exclusionEvent = new ExclusionEvent();
+				exclusionEvent.excluded = Boolean.TRUE.equals(readBoolean(in));
+				exclusionEvent.exclusionName = readString(in);
+				event = exclusionEvent;
+				break;
+			case "CustodianEvent":
+				CustodianEvent custodianEvent = new CustodianEvent();
+				custodianEvent.assigned = Boolean.TRUE.equals(readBoolean(in));
+				custodianEvent.custodian = readString(in);
+				event = custodianEvent;
+				break;
+			case "ProductionSetEvent":
+				ProductionSetEvent productionSetEvent = new ProductionSetEvent();
+				productionSetEvent.added = Boolean.TRUE.equals(readBoolean(in));
+				productionSetEvent.created = Boolean.TRUE.equals(readBoolean(in));
+				productionSetEvent.settingsJsonString = readString(in);
+				productionSetEvent.settings = AnnotationHistoryRepository.parseProductionSetSettings(productionSetEvent.settingsJsonString);
+				productionSetEvent.productionSetName = readString(in);
+				event = productionSetEvent;
+				break;
+			default:
+				throw new IOException("Unknown event type: "+eventType);
+		}
+
+		event.sourceRepo = repo;
+		event.timeStampMillis = timeStamp;
+		event.itemCount = itemCount;
+		event.rowId = eventId;
+		event.bitmapBytes = readBytes(in);
+		event.sourceId = in.available() >= 8 ? in.readLong() : 0;
+		return event;
+	}
+
+	@Override
+	public AnnotationTableStatistics buildStatistics(String eventType) throws IOException {
+		AnnotationTableStatistics result = new AnnotationTableStatistics(eventType);
+		EventLog log = getLog(eventType);
+		log.lock.readLock().lock();
+		try {
+			result.storedBytes = 0;
+			for(Segment segment : log.segments){
+				result.storedBytes += segment.length;
+				File indexFile = segment.getIndexFile();
+				if(indexFile.exists()){
+					result.storedBytes += indexFile.length();
+				}
+			}
+		} finally {
+			log.lock.readLock().unlock();
+		}
+		// Bitmaps are stored inline with each record so gathering their sizes requires reading every record
+		try(LogCursor cursor = new LogCursor(eventType, Long.MIN_VALUE, Long.MAX_VALUE)){
+			while(cursor.next()){
+				AnnotationEvent event = cursor.getEvent();
+				result.rowCount++;
+				if(event.bitmapBytes != null){
+					result.bitmapCount++;
+					result.bitmapBytes += event.bitmapBytes.length;
+				}
+				result.itemCount += event.itemCount;
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Seals the active segment of each event type then merges every run of sealed segments, waiting for the merges to finish
+	 * rather than leaving them to the background compaction thread.
+	 */
+	@Override
+	public void performMaintenance() throws IOException {
+		for(String eventType : eventTypes){
+			EventLog log = getLog(eventType);
+			log.lock.writeLock().lock();
+			try {
+				Segment active = log.getActiveSegment();
+				if(active != null && !active.sealed){ seal(active); }
+			} finally {
+				log.lock.writeLock().unlock();
+			}
+			compact(eventType);
+		}
+	}
+
+	/***
+	 * Returns false, segments are written outside of the repository's database.
+	 */
+	@Override
+	public boolean supportsDatabaseTransactions() {
+		return false;
+	}
+
+	/***
+	 * Gets the combined size of the segment and index files in this store's directory.
+	 */
+	@Override
+	public long getExternalStorageBytes() {
+		return calculateDirectoryBytes(directory);
+	}
+
+	private static long calculateDirectoryBytes(File directory) {
+		long result = 0;
+		File[] files = directory.listFiles();
+		if(files != null){
+			for(File file : files){
+				result += file.isDirectory() ? calculateDirectoryBytes(file) : file.length();
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Gets the directory segment files are stored in.
+	 * @return The segment directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/***
+	 * Gets the number of segment files currently holding events of the given type.
+	 * @param eventType The event type, for example "TagEvent"
+	 * @return Number of segments
+	 * @throws IOException If the event type is not known
+	 */
+	public int getSegmentCount(String eventType) throws IOException {
+		EventLog log = getLog(eventType);
+		log.lock.readLock().lock();
+		try {
+			return log.segments.size();
+		} finally {
+			log.lock.readLock().unlock();
+		}
+	}
+
+	/***
+	 * Gets the size at which the active segment is sealed and appends continue in a new segment.
+	 * @return Max segment size in bytes
+	 */
+	public long getMaxSegmentBytes() {
+		return maxSegmentBytes;
+	}
+
+	/***
+	 * Sets the size at which the active segment is sealed and appends continue in a new segment.  Compaction merges sealed
+	 * segments up to this size.
+	 * @param maxSegmentBytes Max segment size in bytes
+	 */
+	public void setMaxSegmentBytes(long maxSegmentBytes) {
+		this.maxSegmentBytes = maxSegmentBytes;
+	}
+
+	/***
+	 * Gets the number of mergeable sealed segments an event type must have before {@link #endAppendBatch()} schedules a background compaction.
+	 * @return The compaction threshold
+	 */
+	public int getCompactionThreshold() {
+		return compactionThreshold;
+	}
+
+	/***
+	 * Sets the number of mergeable sealed segments an event type must have before {@link #endAppendBatch()} schedules a background compaction.
+	 * @param compactionThreshold The compaction threshold, must be at least 2
+	 */
+	public void setCompactionThreshold(int compactionThreshold) {
+		if(compactionThreshold < 2){
+			throw new IllegalArgumentException("compactionThreshold cannot be less than 2");
+		}
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/***
+	 * Waits for any scheduled compaction to finish, then forces and seals the active segment of each event type.
+	 */
+	@Override
+	public void close() throws IOException {
+		compactionExecutor.shutdown();
+		try {
+			compactionExecutor.awaitTermination(10, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(EventLog log : logsByType.values()){
+			log.lock.writeLock().lock();
+			try {
+				Segment active = log.getActiveSegment();
+				if(active != null && !active.sealed){ seal(active); }
+			} finally {
+				log.lock.writeLock().unlock();
+			}
+		}
+	}
+}
@@ -1,9 +1,12 @@
 package com.nuix.superutilities.annotations;
 
+import java.util.Collection;
+
 import com.nuix.superutilities.SuperUtilities;
 
 import nuix.BulkAnnotater;
 import nuix.Case;
+import nuix.Item;
 
 public class TagEvent extends AnnotationEvent {
 
@@ -11,15 +14,43 @@ public class TagEvent extends AnnotationEvent {
 	Boolean added = null;
 	
 	@Override
-	public void replay(Case nuixCase) throws Exception {
+	void applyToItems(Case nuixCase, Collection<Item> items) throws Exception {
 		BulkAnnotater annotater = SuperUtilities.getBulkAnnotater();
 		if(added){
-			annotater.addTag(tag,getAssociatedItems(nuixCase));
+			annotater.addTag(tag,items);
 		} else {
-			annotater.removeTag(tag,getAssociatedItems(nuixCase));
+			annotater.removeTag(tag,items);
 		}
 	}
 
+	@Override
+	String getStateKey() {
+		return "Tag:"+tag;
+	}
+
+	@Override
+	String getStateValueKey() {
+		return "";
+	}
+
+	@Override
+	boolean isStateAssignment() {
+		return added;
+	}
+
+	@Override
+	AnnotationEvent deriveNetEvent(boolean assignment) {
+		TagEvent derived = copyCommonTo(new TagEvent());
+		derived.tag = tag;
+		derived.added = assignment;
+		return derived;
+	}
+
+	@Override
+	Collection<Item> findItemsHoldingState(Case nuixCase) {
+		return nuixCase.searchUnsorted(String.format("tag:\"%s\"", tag));
+	}
+
 	public String getTag() {
 		return tag;
 	}
@@ -32,10 +63,10 @@ public class TagEvent extends AnnotationEvent {
 	public String toString() {
 		if(added){
 			return String.format("TagEvent[%s]: Tag '%s' added to %s items",
-					timeStamp,tag,itemCount);
+					getTimeStamp(),tag,itemCount);
 		} else {
 			return String.format("TagEvent[%s]: Tag '%s' removed from %s items",
-					timeStamp,tag,itemCount);
+					getTimeStamp(),tag,itemCount);
 		}
 	}
 }
@@ -2,73 +2,568 @@ package com.nuix.superutilities.export;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
 
 import com.nuix.superutilities.SuperUtilities;
+import com.nuix.superutilities.misc.DriveSpaceInfo;
+import com.nuix.superutilities.misc.FormatUtility;
 
 import nuix.Item;
 import nuix.SingleItemExporter;
 
 /***
  * This class provides access to PDFs as files when you need them on the file system to perform some operation.  Calls to {@link #getPdfPath(Item)} will
- * either provide a path to an already exported PDF for the given item or generate the PDF as needed.
+ * either provide a path to an already exported PDF for the given item or generate the PDF as needed.  An instance may be used by several threads
+ * at once, each thread exporting with its own PDF exporter, so PDFs of different items are generated concurrently, while concurrent requests for
+ * the same item wait on a single export of that item.
+ *
+ * The disk space used by exported PDFs can be limited with {@link #setMaxDiskBytes(long)}.  Each call to {@link #getPdfPath(Item)} holds on to the
+ * PDF it returns until a matching call to {@link #releasePdf(Item)} is made, and only PDFs which are not held are evicted, least recently used first,
+ * to bring the cache back within its budget.  PDFs which are never released are never evicted, so the budget may be exceeded while many PDFs are held.
+ *
+ * When the order in which PDFs will be needed is known, {@link #startPrefetch(List, int, int)} exports them on background threads ahead of the
+ * consumer, so the consumer does not sit idle while each PDF is generated.
  * @author Jason Wells
  *
  */
 public class PdfWorkCache {
-	private Map<String,File> pdfCache = new HashMap<String,File>();
+	private static Logger logger = Logger.getLogger(PdfWorkCache.class);
+
+	private static final String partialSuffix = ".partial.pdf";
+
+	/***
+	 * A PDF in the cache along with how many callers are still using it.
+	 */
+	private static class CachedPdf {
+		File file = null;
+		long bytes = 0;
+		int holdCount = 0;
+		// Whether one of the holds was placed by a prefetch, on behalf of a consumer which has not yet asked for the PDF
+		boolean prefetched = false;
+	}
+
+	// Access ordered, so iteration starts at the least recently used PDF.  Guarded by synchronizing on itself.
+	private LinkedHashMap<String,CachedPdf> pdfCache = new LinkedHashMap<String,CachedPdf>(256, 0.75f, true);
+	private Map<String,CompletableFuture<CachedPdf>> inFlightExports = new ConcurrentHashMap<String,CompletableFuture<CachedPdf>>();
+	private long currentDiskBytes = 0;
+	private long maxDiskBytes = 0;
 	private File tempDirectory = null;
-	private SingleItemExporter pdfExporter = null;
-	
+	private ThreadLocal<SingleItemExporter> pdfExporter = ThreadLocal.withInitial(() -> SuperUtilities.getInstance().getNuixUtilities().getPdfPrintExporter());
+
+	private AtomicLong hitCount = new AtomicLong(0);
+	private AtomicLong missCount = new AtomicLong(0);
+	private AtomicLong evictionCount = new AtomicLong(0);
+	private AtomicLong prefetchCount = new AtomicLong(0);
+
+	private Object prefetchSignal = new Object();
+	private Thread prefetchDispatcher = null;
+	private ExecutorService prefetchWorkers = null;
+	private Map<String,Integer> prefetchPositions = null;
+	private int consumedPosition = 0;
+	private boolean prefetchStopped = false;
+	private long prefetchMinFreeBytes = 1024L * 1024L * 1024L;
+
 	/***
 	 * Creates a new instance
 	 * @param tempDirectory Temporary directory where PDF files will be saved to.
 	 */
 	public PdfWorkCache(File tempDirectory) {
+		this(tempDirectory, false);
+	}
+
+	/***
+	 * Creates a new instance, optionally picking up PDFs left in the directory by a previous instance, for example when the directory is kept between
+	 * runs rather than being deleted with {@link #cleanupTemporaryPdfs()}.  Existing PDFs are reused as is, so if the printed images of items may have
+	 * changed since their PDFs were exported, the directory should be cleaned up instead.
+	 * @param tempDirectory Temporary directory where PDF files will be saved to.
+	 * @param keepExistingPdfs True to reuse PDFs already present in the directory, false to start with an empty cache.
+	 */
+	public PdfWorkCache(File tempDirectory, boolean keepExistingPdfs) {
 		this.tempDirectory = tempDirectory;
 		this.tempDirectory.mkdirs();
-		pdfExporter =  SuperUtilities.getInstance().getNuixUtilities().getPdfPrintExporter();
+		if(keepExistingPdfs) {
+			loadExistingPdfs();
+		}
 	}
-	
+
+	private void loadExistingPdfs() {
+		List<File> existing = new ArrayList<File>();
+		for(File file : FileUtils.listFiles(tempDirectory, new String[] {"pdf"}, true)) {
+			if(file.getName().endsWith(partialSuffix)) {
+				// Left behind by an export which did not complete
+				file.delete();
+			} else {
+				existing.add(file);
+			}
+		}
+
+		// Files last used longest ago go in first, so they are first to be evicted
+		existing.sort(Comparator.comparingLong(File::lastModified));
+		synchronized(pdfCache) {
+			for(File file : existing) {
+				CachedPdf cachedPdf = new CachedPdf();
+				cachedPdf.file = file;
+				cachedPdf.bytes = file.length();
+				String guid = file.getName().substring(0, file.getName().length() - 4);
+				pdfCache.put(guid, cachedPdf);
+				currentDiskBytes += cachedPdf.bytes;
+			}
+		}
+		logger.info(String.format("Reusing %s existing PDFs (%s) in %s", existing.size(),
+				FormatUtility.bytesToDynamicSize(currentDiskBytes, 2), tempDirectory.getAbsolutePath()));
+	}
+
 	/***
 	 * Gets the path to a PDF exported for an item if it is already exported.  If the given item's PDF has not yet been exported, this will
-	 * export a PDF for that item and then return the newly generated PDFs path.
+	 * export a PDF for that item and then return the newly generated PDFs path.  The PDF is held, so it will not be evicted, until
+	 * {@link #releasePdf(Item)} is called for the item.
 	 * @param item The item you wish to obtain the PDF file path of
 	 * @return Path to the PDF file for the given item
 	 * @throws Exception If something goes wrong
 	 */
-	public synchronized File getPdfPath(Item item) throws Exception {
-		File tempPdf = null;
-		if(pdfCache.containsKey(item.getGuid())) {
-			tempPdf = pdfCache.get(item.getGuid());
+	public File getPdfPath(Item item) throws Exception {
+		File result = obtainPdf(item, false);
+		notePrefetchConsumed(item);
+		return result;
+	}
+
+	/***
+	 * Gets the path to a PDF already exported for an item, without exporting it when it has not been.  A returned PDF is held, so it will not
+	 * be evicted, until {@link #releasePdf(Item)} is called for the item.
+	 * @param item The item you wish to obtain the PDF file path of
+	 * @return Path to the PDF file for the given item, or null if its PDF is not in the cache
+	 */
+	public File getExistingPdfPath(Item item) {
+		File result = null;
+		synchronized(pdfCache) {
+			CachedPdf cachedPdf = pdfCache.get(item.getGuid());
+			if(cachedPdf != null) {
+				holdCachedPdf(cachedPdf);
+				result = cachedPdf.file;
+			}
+		}
+		notePrefetchConsumed(item);
+		return result;
+	}
+
+	/***
+	 * Places a consumer's hold on a PDF found in the cache.  Must be called while synchronized on pdfCache.
+	 */
+	private void holdCachedPdf(CachedPdf cachedPdf) {
+		if(cachedPdf.prefetched) {
+			// Take over the hold placed by the prefetch
+			cachedPdf.prefetched = false;
 		} else {
-			String guid = item.getGuid();
-			tempPdf = new File(tempDirectory,guid.substring(0, 3));
-			tempPdf = new File(tempPdf,guid.substring(3, 6));
-			tempPdf.mkdirs();
-			tempPdf = new File(tempPdf,item.getGuid()+".pdf");
-			item.getPrintedImage().generate(); // Make sure PDF is generated or exported can have issues
-			pdfExporter.exportItem(item, tempPdf);
-			pdfCache.put(item.getGuid(), tempPdf);
+			cachedPdf.holdCount++;
+		}
+		hitCount.incrementAndGet();
+	}
+
+	/***
+	 * Gets the PDF of an item, exporting it if needed.  When prefetching, a PDF already in the cache is left as is and null is returned,
+	 * while a newly exported PDF is held on behalf of the consumer until the consumer asks for it.
+	 */
+	private File obtainPdf(Item item, boolean prefetch) throws Exception {
+		String guid = item.getGuid();
+		while(true) {
+			synchronized(pdfCache) {
+				CachedPdf cachedPdf = pdfCache.get(guid);
+				if(cachedPdf != null) {
+					if(prefetch) {
+						return null;
+					}
+					holdCachedPdf(cachedPdf);
+					return cachedPdf.file;
+				}
+			}
+
+			// Only one thread exports a given item, others asking for the same item wait for it and then look it up again.  Should
+			// that export fail, the next attempt exports the item itself.
+			CompletableFuture<CachedPdf> export = new CompletableFuture<CachedPdf>();
+			CompletableFuture<CachedPdf> existingExport = inFlightExports.putIfAbsent(guid, export);
+			if(existingExport != null) {
+				if(prefetch) {
+					return null;
+				}
+				try {
+					existingExport.get();
+				} catch (ExecutionException e) {
+					logger.debug(String.format("Export of %s by another thread failed, exporting again", guid));
+				}
+				continue;
+			}
+
+			try {
+				CachedPdf cachedPdf = exportPdf(item);
+				cachedPdf.holdCount = 1;
+				cachedPdf.prefetched = prefetch;
+				if(prefetch) {
+					prefetchCount.incrementAndGet();
+				} else {
+					missCount.incrementAndGet();
+				}
+				List<CachedPdf> evicted = null;
+				synchronized(pdfCache) {
+					pdfCache.put(guid, cachedPdf);
+					currentDiskBytes += cachedPdf.bytes;
+					evicted = collectEvictions();
+				}
+				deleteEvicted(evicted);
+				export.complete(cachedPdf);
+				return cachedPdf.file;
+			} catch (Exception e) {
+				export.completeExceptionally(e);
+				throw e;
+			} finally {
+				inFlightExports.remove(guid);
+			}
+		}
+	}
+
+	private CachedPdf exportPdf(Item item) throws Exception {
+		String guid = item.getGuid();
+		File directory = new File(tempDirectory,guid.substring(0, 3));
+		directory = new File(directory,guid.substring(3, 6));
+		directory.mkdirs();
+		File tempPdf = new File(directory,guid+".pdf");
+		// Export under a different name first, so a PDF found in the directory is always complete
+		File partialPdf = new File(directory,guid+partialSuffix);
+		item.getPrintedImage().generate(); // Make sure PDF is generated or exported can have issues
+		pdfExporter.get().exportItem(item, partialPdf);
+		Files.move(partialPdf.toPath(), tempPdf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		CachedPdf cachedPdf = new CachedPdf();
+		cachedPdf.file = tempPdf;
+		cachedPdf.bytes = tempPdf.length();
+		return cachedPdf;
+	}
+
+	/***
+	 * Lets the cache know that a PDF previously obtained from {@link #getPdfPath(Item)} is no longer being used, making it eligible for eviction
+	 * should the cache exceed its disk budget.  The file should not be used after calling this.
+	 * @param item The item whose PDF is no longer needed
+	 */
+	public void releasePdf(Item item) {
+		List<CachedPdf> evicted = null;
+		synchronized(pdfCache) {
+			// Releasing is the last use of a PDF, so it also marks the PDF as most recently used
+			CachedPdf cachedPdf = pdfCache.get(item.getGuid());
+			if(cachedPdf != null) {
+				cachedPdf.holdCount = Math.max(0, cachedPdf.holdCount - 1);
+			}
+			evicted = collectEvictions();
+		}
+		deleteEvicted(evicted);
+	}
+
+	/***
+	 * Removes least recently used PDFs which are not held from the cache until it is within its disk budget.  Must be called
+	 * while synchronized on pdfCache, deleting the returned files can be done afterwards.
+	 */
+	private List<CachedPdf> collectEvictions() {
+		List<CachedPdf> evicted = new ArrayList<CachedPdf>();
+		if(maxDiskBytes < 1) {
+			return evicted;
+		}
+		Iterator<CachedPdf> iterator = pdfCache.values().iterator();
+		while(currentDiskBytes > maxDiskBytes && iterator.hasNext()) {
+			CachedPdf cachedPdf = iterator.next();
+			if(cachedPdf.holdCount < 1) {
+				iterator.remove();
+				currentDiskBytes -= cachedPdf.bytes;
+				evicted.add(cachedPdf);
+			}
+		}
+		if(currentDiskBytes > maxDiskBytes) {
+			logger.debug(String.format("PDF cache is using %s which is over its budget of %s, remaining PDFs are still in use",
+					FormatUtility.bytesToDynamicSize(currentDiskBytes, 2), FormatUtility.bytesToDynamicSize(maxDiskBytes, 2)));
+		}
+		return evicted;
+	}
+
+	private void deleteEvicted(Collection<CachedPdf> evicted) {
+		for(CachedPdf cachedPdf : evicted) {
+			if(!cachedPdf.file.delete() && cachedPdf.file.exists()) {
+				logger.warn("Unable to delete evicted PDF: "+cachedPdf.file.getAbsolutePath());
+			}
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	/***
+	 * Starts exporting the PDFs of the given items on background threads, ahead of the items being asked for by {@link #getPdfPath(Item)}, so that
+	 * the consumer finds each PDF already exported rather than waiting on its export.  Items are prefetched in the order given, staying no more than
+	 * the given depth ahead of the furthest item the consumer has asked for.  Prefetching also waits while the drive holding the temp directory has less
+	 * than {@link #getPrefetchMinFreeBytes()} free, or while held PDFs fill the cache's disk budget, since prefetched PDFs cannot be evicted until the consumer
+	 * has asked for and released them.  Prefetching continues until every item has been prefetched or {@link #stopPrefetch()} is called.
+	 * @param orderedItems The items in the order the consumer will ask for their PDFs
+	 * @param depth How many items ahead of the consumer to prefetch, must be at least 1
+	 * @param threadCount Number of threads exporting PDFs, must be at least 1
+	 * @throws InterruptedException If interrupted while stopping a previous prefetch
+	 */
+	public void startPrefetch(List<Item> orderedItems, int depth, int threadCount) throws InterruptedException {
+		if(depth < 1){
+			throw new IllegalArgumentException("depth cannot be less than 1");
+		}
+		if(threadCount < 1){
+			throw new IllegalArgumentException("threadCount cannot be less than 1");
+		}
+		stopPrefetch();
+
+		Map<String,Integer> positions = new HashMap<String,Integer>();
+		for (int i = 0; i < orderedItems.size(); i++) {
+			positions.putIfAbsent(orderedItems.get(i).getGuid(), i);
 		}
-		return tempPdf;
+		synchronized(prefetchSignal) {
+			prefetchPositions = positions;
+			consumedPosition = 0;
+			prefetchStopped = false;
+		}
+
+		prefetchWorkers = Executors.newFixedThreadPool(threadCount);
+		ExecutorService workers = prefetchWorkers;
+		prefetchDispatcher = new Thread(() -> dispatchPrefetches(orderedItems, depth, workers), "PdfWorkCache Prefetch");
+		prefetchDispatcher.setDaemon(true);
+		prefetchDispatcher.start();
+		logger.info(String.format("Prefetching PDFs of %s items, up to %s ahead using %s threads", orderedItems.size(), depth, threadCount));
 	}
-	
+
+	private void dispatchPrefetches(List<Item> orderedItems, int depth, ExecutorService workers) {
+		DriveSpaceInfo driveSpace = new DriveSpaceInfo(tempDirectory.getAbsolutePath());
+		int next = 0;
+		try {
+			while(next < orderedItems.size()) {
+				synchronized(prefetchSignal) {
+					// Items the consumer has already moved past are not worth prefetching
+					next = Math.max(next, consumedPosition);
+					while(!prefetchStopped && next >= consumedPosition + depth) {
+						prefetchSignal.wait();
+					}
+					if(prefetchStopped) {
+						return;
+					}
+				}
+				if(next >= orderedItems.size()) {
+					return;
+				}
+
+				if(!hasRoomToPrefetch(driveSpace)) {
+					synchronized(prefetchSignal) {
+						// Space is also freed by evictions rather than the consumer moving on, so check again periodically
+						prefetchSignal.wait(1000);
+					}
+					continue;
+				}
+
+				Item item = orderedItems.get(next++);
+				workers.submit(() -> {
+					synchronized(prefetchSignal) {
+						// Exports still queued when prefetching is stopped are skipped rather than waited for
+						if(prefetchStopped) {
+							return;
+						}
+					}
+					try {
+						obtainPdf(item, true);
+					} catch (Exception e) {
+						logger.warn(String.format("Error while prefetching PDF of %s: %s", item.getGuid(), e.getMessage()));
+					}
+				});
+			}
+		} catch (InterruptedException e) {
+			// Prefetching was stopped
+		}
+	}
+
+	private boolean hasRoomToPrefetch(DriveSpaceInfo driveSpace) {
+		synchronized(pdfCache) {
+			if(maxDiskBytes > 0 && currentDiskBytes >= maxDiskBytes) {
+				// Released PDFs can be evicted to make room, held ones cannot
+				long heldBytes = 0;
+				for(CachedPdf cachedPdf : pdfCache.values()) {
+					if(cachedPdf.holdCount > 0) {
+						heldBytes += cachedPdf.bytes;
+					}
+				}
+				if(heldBytes >= maxDiskBytes) {
+					return false;
+				}
+			}
+		}
+		driveSpace.refresh();
+		// Should free space not be obtainable, prefetching is only bounded by depth
+		return driveSpace.hadError() || driveSpace.getFreeBytes() >= prefetchMinFreeBytes;
+	}
+
+	private void notePrefetchConsumed(Item item) {
+		synchronized(prefetchSignal) {
+			if(prefetchPositions == null) {
+				return;
+			}
+			Integer position = prefetchPositions.get(item.getGuid());
+			if(position != null && position >= consumedPosition) {
+				consumedPosition = position + 1;
+				prefetchSignal.notifyAll();
+			}
+		}
+	}
+
+	/***
+	 * Stops prefetching started by {@link #startPrefetch(List, int, int)}, waiting for exports already underway to finish.  Prefetched PDFs the
+	 * consumer never asked for become eligible for eviction.  Does nothing if not prefetching.
+	 * @throws InterruptedException If interrupted while waiting for exports underway to finish
+	 */
+	public void stopPrefetch() throws InterruptedException {
+		if(prefetchDispatcher == null) {
+			return;
+		}
+		synchronized(prefetchSignal) {
+			prefetchStopped = true;
+			prefetchPositions = null;
+			prefetchSignal.notifyAll();
+		}
+		prefetchDispatcher.join();
+		// Exports underway are allowed to finish rather than being interrupted part way through
+		prefetchWorkers.shutdown();
+		prefetchWorkers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		prefetchDispatcher = null;
+		prefetchWorkers = null;
+
+		List<CachedPdf> evicted = null;
+		synchronized(pdfCache) {
+			for(CachedPdf cachedPdf : pdfCache.values()) {
+				if(cachedPdf.prefetched) {
+					cachedPdf.prefetched = false;
+					cachedPdf.holdCount = Math.max(0, cachedPdf.holdCount - 1);
+				}
+			}
+			evicted = collectEvictions();
+		}
+		deleteEvicted(evicted);
+	}
+
 	/***
 	 * Calling this will delete all temporary PDFs created by this instance, as well as clear internal listing of PDFs and their associated
 	 * file paths.
 	 * @throws IOException If something goes wrong
 	 */
-	public synchronized void cleanupTemporaryPdfs() throws IOException {
-//		for(Map.Entry<String, File> pdfCacheEntry : pdfCache.entrySet()) {
-//			if(pdfCacheEntry.getValue().exists()) {
-//				pdfCacheEntry.getValue().delete();
-//			}
-//		}
-		FileUtils.deleteDirectory(tempDirectory);
-		pdfCache.clear();
+	public void cleanupTemporaryPdfs() throws IOException {
+		synchronized(pdfCache) {
+			FileUtils.deleteDirectory(tempDirectory);
+			pdfCache.clear();
+			currentDiskBytes = 0;
+		}
+	}
+
+	/***
+	 * Gets the maximum number of bytes of PDFs this cache will keep on disk.
+	 * @return The disk budget in bytes, 0 meaning no limit
+	 */
+	public long getMaxDiskBytes() {
+		synchronized(pdfCache) {
+			return maxDiskBytes;
+		}
+	}
+
+	/***
+	 * Sets the maximum number of bytes of PDFs this cache will keep on disk.  When exceeded, PDFs which have been released are deleted,
+	 * least recently used first.
+	 * @param maxDiskBytes The disk budget in bytes, 0 meaning no limit (the default)
+	 */
+	public void setMaxDiskBytes(long maxDiskBytes) {
+		if(maxDiskBytes < 0){
+			throw new IllegalArgumentException("maxDiskBytes cannot be less than 0");
+		}
+		List<CachedPdf> evicted = null;
+		synchronized(pdfCache) {
+			this.maxDiskBytes = maxDiskBytes;
+			evicted = collectEvictions();
+		}
+		deleteEvicted(evicted);
+	}
+
+	/***
+	 * Gets the number of bytes of PDFs currently in the cache.
+	 * @return Bytes of PDFs on disk
+	 */
+	public long getCurrentDiskBytes() {
+		synchronized(pdfCache) {
+			return currentDiskBytes;
+		}
+	}
+
+	/***
+	 * Gets the number of calls to {@link #getPdfPath(Item)} which were given an already exported PDF.
+	 * @return Number of cache hits
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/***
+	 * Gets the number of calls to {@link #getPdfPath(Item)} which exported a PDF.
+	 * @return Number of cache misses
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/***
+	 * Gets the number of PDFs which have been deleted to keep the cache within its disk budget.
+	 * @return Number of evicted PDFs
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/***
+	 * Gets the number of PDFs exported ahead of the consumer by prefetching.
+	 * @return Number of prefetched PDFs
+	 */
+	public long getPrefetchCount() {
+		return prefetchCount.get();
+	}
+
+	/***
+	 * Gets how much free space the drive holding the temp directory must have for prefetching to continue.
+	 * @return Minimum free bytes
+	 */
+	public long getPrefetchMinFreeBytes() {
+		return prefetchMinFreeBytes;
+	}
+
+	/***
+	 * Sets how much free space the drive holding the temp directory must have for prefetching to continue.  Exports requested by the consumer
+	 * are not affected.
+	 * @param prefetchMinFreeBytes Minimum free bytes, defaults to 1GB
+	 */
+	public void setPrefetchMinFreeBytes(long prefetchMinFreeBytes) {
+		if(prefetchMinFreeBytes < 0){
+			throw new IllegalArgumentException("prefetchMinFreeBytes cannot be less than 0");
+		}
+		this.prefetchMinFreeBytes = prefetchMinFreeBytes;
+	}
+
+	public File getTempDirectory() {
+		return tempDirectory;
 	}
 }
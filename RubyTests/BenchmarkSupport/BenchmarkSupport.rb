@@ -0,0 +1,34 @@
+# Compiles the Java benchmark baselines in this directory and puts them on the class path.  The baselines are
+# copies of code SuperUtilities has since replaced, so they are not part of SuperUtilities.jar.  Require this
+# after requiring SuperUtilities.jar, the baselines are compiled against it and are loaded by the same JRuby
+# class loader, which those reading package private members of SuperUtilities classes rely on.
+#
+# Compiling needs a JDK.  When Nuix is running on a JRE, compile them yourself, for example:
+#   javac -cp SuperUtilities.jar;<Nuix lib>\* -d BenchmarkSupport\classes BenchmarkSupport\com\nuix\superutilities\annotations\*.java
+# The classes directory is used as is when present, delete it to recompile after changing a baseline.
+
+require 'fileutils'
+
+benchmark_support_directory = File.dirname(__FILE__)
+classes_directory = File.join(benchmark_support_directory,"classes")
+
+if !File.exist?(classes_directory)
+	compiler = javax.tools.ToolProvider.getSystemJavaCompiler
+	if compiler.nil?
+		raise "No Java compiler available to compile benchmark baselines, compile them into #{classes_directory} with javac"
+	end
+
+	sources = Dir.glob(File.join(benchmark_support_directory,"**","*.java"))
+	super_utilities_jar = File.expand_path(File.join(benchmark_support_directory,"..","SuperUtilities.jar"))
+	class_path = [super_utilities_jar,java.lang.System.getProperty("java.class.path")].join(java.io.File.pathSeparator)
+	java.io.File.new(classes_directory).mkdirs
+
+	args = ["-cp",class_path,"-d",classes_directory] + sources
+	if compiler.run(nil,nil,nil,args.to_java(:string)) != 0
+		# Do not leave a partially compiled classes directory behind to be used next time
+		FileUtils.rm_rf(classes_directory)
+		raise "Compiling benchmark baselines failed, see errors above"
+	end
+end
+
+$CLASSPATH << classes_directory + "/"
@@ -0,0 +1,27 @@
+package com.nuix.superutilities.annotations;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/***
+ * Benchmark baseline for BitmapCodecBenchmark.rb, not part of SuperUtilities.jar.  Builds bitmaps the way they were built before
+ * {@link BitmapCodec} was introduced, so the benchmark can time {@link BitmapCodec#fromIndices(int[])} against it.
+ * @author Jason Wells
+ *
+ */
+public class LegacyBitmapBuilder {
+	private LegacyBitmapBuilder(){}
+
+	/***
+	 * Builds a bitmap by adding the item indices one at a time.
+	 * @param indices The item indices, in any order
+	 * @return A bitmap containing the given indices, without run optimization
+	 */
+	public static RoaringBitmap fromIndicesIncrementally(int[] indices) {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		for (int i = 0; i < indices.length; i++) {
+			long index = indices[i];
+			bitmap.add(index,index+1);
+		}
+		return bitmap;
+	}
+}
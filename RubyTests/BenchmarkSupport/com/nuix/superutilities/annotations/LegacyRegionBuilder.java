@@ -0,0 +1,131 @@
+package com.nuix.superutilities.annotations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.math3.util.Precision;
+import org.apache.log4j.Logger;
+
+/***
+ * Benchmark baseline for BulkRedactor_RegionBenchmark.rb, not part of SuperUtilities.jar.  Contains the region building logic
+ * BulkRedactor used before its region builder was reworked, copied as it was, so the benchmark can time both against the same
+ * text layers.  It lives in the same package as {@link PdfTextLayer} since it reads the package private glyphs of matches, so it
+ * must be loaded by the same class loader as SuperUtilities.jar, see BenchmarkSupport.rb.
+ * @author Jason Wells
+ *
+ */
+public class LegacyRegionBuilder {
+	// Log through the BulkRedactor logger so the debug level is the same as when timing BulkRedactor
+	private static Logger logger = Logger.getLogger(BulkRedactor.class);
+
+	/***
+	 * Generates {@link NuixImageAnnotationRegion} objects for matches found in an already extracted PDF text layer the way
+	 * {@link BulkRedactor#findExpressionsInTextLayer(PdfTextLayer, Collection)} did before its region builder was reworked.
+	 * @param textLayer The text layer to search, see {@link PdfTextLayer#extract(java.io.File)}
+	 * @param expressions The regular expressions to look for.
+	 * @return A List of annotation region objects representing the matches.
+	 */
+	public List<NuixImageAnnotationRegion> findExpressionsInTextLayer(PdfTextLayer textLayer, Collection<String> expressions) {
+		List<NuixImageAnnotationRegion> result = new ArrayList<NuixImageAnnotationRegion>();
+		for(PdfTextLayer.TextMatch match : textLayer.findMatches(expressions)) {
+			List<PdfTextLayer.Glyph> glyphs = getGlyphs(match);
+			if(glyphs.size() > 0) {
+				result.addAll(buildRegionsFromSegments(glyphs, match.page.width, match.page.height, match.page.pageNumber));
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * Gets the glyphs of the matched characters, excluding inserted characters which have none.  Formerly PdfTextLayer.TextMatch.getGlyphs.
+	 * @param match The match to get the glyphs of
+	 * @return The matched glyphs in text order
+	 */
+	private static List<PdfTextLayer.Glyph> getGlyphs(PdfTextLayer.TextMatch match) {
+		List<PdfTextLayer.Glyph> result = new ArrayList<PdfTextLayer.Glyph>(match.end - match.start);
+		for (int i = match.start; i < match.end; i++) {
+			PdfTextLayer.Glyph glyph = match.page.glyphs.get(i);
+			if(glyph != null){
+				result.add(glyph);
+			}
+		}
+		return result;
+	}
+
+	/***
+	 * This method provides the logic to take the individual glyphs of a match (think characters in a match) and coalesce them into per line redactions.
+	 * @param glyphs The glyphs of the matched characters, as extracted by {@link PdfTextLayer}.
+	 * @param pageWidth Width of the source page.  Needed to convert coordinates to Nuix accepted coordinates.
+	 * @param pageHeight Height of the source page.  Needed to convert coordinates to Nuix accepted coordinates.
+	 * @param pageNumber The page number the given match comes from.  Recorded in {@link NuixImageAnnotationRegion} so it knows what page to perform markups on.
+	 * @return A List of annotation region objects representing the coalesced glyphs.
+	 */
+	private List<NuixImageAnnotationRegion> buildRegionsFromSegments(List<PdfTextLayer.Glyph> glyphs, double pageWidth, double pageHeight, int pageNumber){
+		List<NuixImageAnnotationRegion> result = new ArrayList<NuixImageAnnotationRegion>();
+
+		// Group rectangle for each char by line
+		Map<Double,List<PdfTextLayer.Glyph>> groupedByLine = new TreeMap<Double,List<PdfTextLayer.Glyph>>();
+		logger.debug("Match Glyphs:");
+		for(PdfTextLayer.Glyph glyph : glyphs) {
+			double y = Precision.round(glyph.lly, 2);
+			if(!groupedByLine.containsKey(y)) {
+				groupedByLine.put(y, new ArrayList<PdfTextLayer.Glyph>());
+			}
+			groupedByLine.get(y).add(glyph);
+
+			logger.debug(String.format("LLX=%s, LLY=%s, URX=%s, URY=%s, T=%s",
+					glyph.llx, glyph.lly, glyph.urx, glyph.ury, glyph.character
+				));
+		}
+
+		for(Map.Entry<Double, List<PdfTextLayer.Glyph>> lineGroupedGlyphs : groupedByLine.entrySet()) {
+			List<PdfTextLayer.Glyph> lineGlyphs = lineGroupedGlyphs.getValue();
+			lineGlyphs.sort(new Comparator<PdfTextLayer.Glyph>() {
+				@Override
+				public int compare(PdfTextLayer.Glyph o1, PdfTextLayer.Glyph o2) {
+					return Double.compare(o1.llx, o2.llx);
+				}
+			});
+
+			double lowestX = lineGlyphs.get(0).llx;
+			double highestX = lineGlyphs.get(lineGlyphs.size()-1).urx;
+
+			logger.debug(String.format("lowestX=%s", lowestX));
+			logger.debug(String.format("highestX=%s", highestX));
+
+			double x = lowestX / pageWidth;
+			double y = 1.0 - (lineGlyphs.get(0).lly / pageHeight);
+			double width = (highestX - lowestX) / pageWidth;
+			double height = lineGlyphs.get(0).getHeight() / pageHeight;
+
+			// Markup in Nuix seems to come out a little taller than it needs to so we are going
+			// to make some small tweaks to the converted region to trim a tiny bit off the top
+			double heightUnit = height * 0.01; // 1% of region height
+			y += heightUnit * 5; // Translate down 5% of height
+			height -= heightUnit * 5; // Then remove 5% from height (move bottom edge back up a little)
+
+			NuixImageAnnotationRegion region = new NuixImageAnnotationRegion();
+			region.setX(x);
+			region.setY(y - height);
+			region.setHeight(height);
+			region.setWidth(width);
+			StringBuilder text = new StringBuilder(lineGlyphs.size());
+			for(PdfTextLayer.Glyph glyph : lineGlyphs) {
+				text.append(glyph.character);
+			}
+			region.setText(text.toString());
+			region.setPageNumber(pageNumber);
+
+			logger.debug("Resulting Region:");
+			logger.debug(region);
+
+			result.add(region);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,64 @@
+# Compares the previous stream based bitmap building/serialization approach against BitmapCodec
+# on 10K and 5M item bitmaps.  Does not require a case to be open.
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.annotations.BitmapCodec
+java_import org.roaringbitmap.RoaringBitmap
+java_import java.io.ByteArrayOutputStream
+java_import java.io.ByteArrayInputStream
+java_import java.io.DataOutputStream
+java_import java.io.DataInputStream
+
+# Compile and load the legacy bitmap builder baseline, which is not part of SuperUtilities.jar
+require File.join(script_directory,"BenchmarkSupport","BenchmarkSupport.rb")
+java_import com.nuix.superutilities.annotations.LegacyBitmapBuilder
+
+iterations = 5
+
+def time_ms(iterations)
+	# Warm up
+	yield
+	started = java.lang.System.nanoTime
+	iterations.times { yield }
+	return ((java.lang.System.nanoTime - started) / iterations) / 1000000.0
+end
+
+[10_000, 5_000_000].each do |item_count|
+	# Mostly dense indices with some gaps, similar to a tagged subset of a case
+	random = java.util.Random.new(42)
+	index_list = java.util.ArrayList.new
+	index = 1
+	while index_list.size < item_count
+		index_list.add(index) if random.nextInt(10) < 8
+		index += 1
+	end
+	indices = index_list.to_java(:int)
+
+	puts "==== #{item_count} items ===="
+
+	# Both builders run entirely in Java, so the comparison is not skewed by looping over the indices in Ruby
+	legacy_build = time_ms(iterations) { LegacyBitmapBuilder.fromIndicesIncrementally(indices) }
+	codec_build = time_ms(iterations) { BitmapCodec.fromIndices(indices) }
+	puts "Build:       legacy #{legacy_build.round(2)} ms, codec #{codec_build.round(2)} ms"
+
+	bitmap = BitmapCodec.fromIndices(indices)
+	legacy_serialize = time_ms(iterations) do
+		byte_stream = ByteArrayOutputStream.new(bitmap.serializedSizeInBytes)
+		bitmap.serialize(DataOutputStream.new(byte_stream))
+		byte_stream.toByteArray
+	end
+	codec_serialize = time_ms(iterations) { BitmapCodec.serialize(bitmap) }
+	puts "Serialize:   legacy #{legacy_serialize.round(2)} ms, codec #{codec_serialize.round(2)} ms"
+
+	bytes = BitmapCodec.serialize(bitmap)
+	legacy_deserialize = time_ms(iterations) do
+		deserialized = RoaringBitmap.new
+		deserialized.deserialize(DataInputStream.new(ByteArrayInputStream.new(bytes)))
+		deserialized.getCardinality
+	end
+	codec_view = time_ms(iterations) { BitmapCodec.view(bytes).getCardinality }
+	puts "Deserialize: legacy #{legacy_deserialize.round(2)} ms, codec view #{codec_view.round(2)} ms"
+	puts "Serialized size: #{bytes.length} bytes"
+end
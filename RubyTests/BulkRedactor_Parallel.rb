@@ -0,0 +1,34 @@
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.annotations.BulkRedactor
+java_import com.nuix.superutilities.annotations.BulkRedactorSettings
+java_import com.nuix.superutilities.SuperUtilities
+
+# Initialize super utilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+
+# Finds and redacts using a pool of workers to generate and search PDFs, markups are
+# still applied to the case by a single thread
+scope_items = $current_case.searchUnsorted("kind:email")
+
+settings = BulkRedactorSettings.new
+settings.setMarkupSetName("Redaction_Test_#{Time.now.to_i}")
+settings.setTempDirectory("D:\\Temp\\BulkRedactorTemp")
+settings.addExpression("\\bname\\b")
+settings.addPhrases(["fake","cat","dog"])
+settings.setConcurrency(8)
+
+br = BulkRedactor.new
+
+br.whenMessageLogged do |message|
+	puts message
+end
+
+started = Time.now
+br.whenProgressUpdated do |info|
+	elapsed = Time.now - started
+	puts "#{info.getCurrent}/#{info.getTotal} items, #{info.getMatches} matches, #{(info.getCurrent / elapsed).round(2)} items/sec"
+end
+
+br.findAndRedact($current_case,settings,scope_items)
+puts "Redacted #{scope_items.size} items in #{(Time.now - started).round(2)}s"
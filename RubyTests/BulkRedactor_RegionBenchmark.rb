@@ -0,0 +1,63 @@
+# Times building redaction regions from matches, without exporting PDFs or touching a case.  The text layer
+# of each PDF in the fixture directory is extracted once up front, then all expressions are searched for
+# and their regions built repeatedly, so the timings reflect matching and region building rather than Aspose.
+# Each pass is timed with the region building BulkRedactor used before it was reworked as a baseline, see
+# BenchmarkSupport/com/nuix/superutilities/annotations/LegacyRegionBuilder.java, and then with BulkRedactor.
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.annotations.BulkRedactor
+java_import com.nuix.superutilities.annotations.BulkRedactorSettings
+java_import com.nuix.superutilities.annotations.PdfTextLayer
+java_import com.nuix.superutilities.SuperUtilities
+
+# Compile and load the legacy region builder baseline, which is not part of SuperUtilities.jar
+require File.join(script_directory,"BenchmarkSupport","BenchmarkSupport.rb")
+java_import com.nuix.superutilities.annotations.LegacyRegionBuilder
+
+# Initialize super utilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+
+# Aspose gives partial results in evaluation mode, so make sure it is initialized before extracting
+com.nuix.data.util.aspose.AsposePdf.ensureInitialised
+
+# Directory of recorded PDFs, for example those left in the temp directory of a run with keepTempPdfs set
+fixture_directory = "D:\\Temp\\BulkRedactorFixtures"
+iterations = 10
+
+settings = BulkRedactorSettings.new
+settings.addExpression("\\bname\\b")
+# Character dense documents with many short matches are where region building costs the most
+settings.addExpression("\\b\\w{3,}\\b")
+settings.addPhrases(["fake","cat","dog"])
+expressions = settings.getExpressions
+
+def time_ms(iterations)
+	# Warm up
+	yield
+	started = java.lang.System.nanoTime
+	iterations.times { yield }
+	return ((java.lang.System.nanoTime - started) / iterations) / 1000000.0
+end
+
+pdf_files = Dir.glob(File.join(fixture_directory,"**","*.pdf"))
+puts "Extracting text layers of #{pdf_files.size} PDFs..."
+text_layers = pdf_files.map { |pdf_file| PdfTextLayer.extract(java.io.File.new(pdf_file)) }
+page_count = text_layers.map { |text_layer| text_layer.getPageCount }.reduce(0,:+)
+
+puts "#{page_count} pages, #{expressions.size} expressions"
+
+timings = {}
+[["Legacy",LegacyRegionBuilder.new],["Current",BulkRedactor.new]].each do |name,br|
+	region_count = 0
+	pass_ms = time_ms(iterations) do
+		region_count = 0
+		text_layers.each do |text_layer|
+			region_count += br.findExpressionsInTextLayer(text_layer,expressions).size
+		end
+	end
+	timings[name] = pass_ms
+	puts "#{name}: #{region_count} regions, #{pass_ms.round(2)} ms per pass, #{(region_count / (pass_ms / 1000.0)).round(0)} regions/sec"
+end
+puts "Current builder is #{(timings["Legacy"] / timings["Current"]).round(2)}x the speed of legacy"
@@ -0,0 +1,47 @@
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+archive_file = 'C:\Temp\AnnotationRepository.suarc'
+imported_db_directory = 'C:\Temp\ImportedRepositories'
+
+# Exports a repository to an archive, then imports that archive into a new repository using
+# each event store type and compares what each import holds with the original
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+java_import com.nuix.superutilities.annotations.AnnotationRepositoryArchive
+java_import com.nuix.superutilities.annotations.AnnotationEventStoreType
+
+java.io.File.new(imported_db_directory).mkdirs
+
+repo = AnnotationHistoryRepository.new(history_db_file)
+archive = AnnotationRepositoryArchive.new
+archive.setChunkRecordCount(5000)
+
+started = Time.now
+archive.exportRepository(repo,java.io.File.new(archive_file))
+puts "Export took #{(Time.now - started).round(2)}s, archive is #{java.io.File.new(archive_file).length} bytes"
+
+original_event_count = repo.getTotalEventCount
+original_tag_counts = repo.buildCurrentState.getTagCounts.to_hash
+repo.close
+
+AnnotationEventStoreType.values.each do |store_type|
+	imported_db_file = java.io.File.new(imported_db_directory,"Imported_#{store_type}.db")
+	if imported_db_file.exists
+		puts "Skipping #{store_type}, #{imported_db_file} already exists"
+		next
+	end
+
+	started = Time.now
+	imported = archive.importRepository(java.io.File.new(archive_file),imported_db_file,store_type)
+	puts "Import into #{store_type} store took #{(Time.now - started).round(2)}s"
+
+	imported_event_count = imported.getTotalEventCount
+	imported_tag_counts = imported.buildCurrentState.getTagCounts.to_hash
+	puts "\tEvents: #{original_event_count} => #{imported_event_count} #{original_event_count == imported_event_count ? "OK" : "MISMATCH"}"
+	puts "\tTags: #{original_tag_counts.size} => #{imported_tag_counts.size} #{original_tag_counts == imported_tag_counts ? "OK" : "MISMATCH"}"
+	imported.close
+end
@@ -0,0 +1,51 @@
+db_file = 'C:\Temp\AnnotationRepository.db'
+
+# Checks that a compaction plan seeded from a checkpoint holds the same state as one folded from the
+# first recorded event.  The repository should have recorded some removals, for example tags removed from
+# items or custodians cleared, since those are what a checkpoint is most likely to lose.  No case needs to
+# be opened for any of this.
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+
+def describe_state(plan)
+	result = {}
+	plan.getKeyStates.each do |state_key,key_state|
+		assigned = {}
+		key_state.getAssignedByValue.each do |value_key,bitmap|
+			assigned[value_key] = bitmap.toArray.to_a if !bitmap.isEmpty
+		end
+		unassigned = key_state.getUnassigned.toArray.to_a
+		# Keys whose events all had empty bitmaps hold no state, and are not recorded in a checkpoint
+		next if assigned.empty? && unassigned.empty?
+		result[state_key] = { :assigned => assigned, :unassigned => unassigned }
+	end
+	return result
+end
+
+repo = AnnotationHistoryRepository.new(db_file)
+
+# Folding everything after the epoch never seeds from a checkpoint
+from_zero = describe_state(repo.buildCompactionPlan(1))
+removal_keys = from_zero.select{|state_key,state| state[:unassigned].size > 0}.size
+puts "#{from_zero.size} keys, #{removal_keys} of which have removed items"
+puts "WARNING: No removals recorded, this check proves little" if removal_keys < 1
+
+checkpoint_id = repo.createCheckpoint
+checkpointed_plan = repo.buildCompactionPlan(0)
+puts "Checkpoint #{checkpoint_id} created, plan folded #{checkpointed_plan.getFoldedEventCount} events after it"
+checkpointed = describe_state(checkpointed_plan)
+
+mismatches = (from_zero.keys | checkpointed.keys).reject{|state_key| from_zero[state_key] == checkpointed[state_key]}
+mismatches.each do |state_key|
+	puts "MISMATCH #{state_key}"
+	puts "\tFrom zero: #{from_zero[state_key].inspect}"
+	puts "\tCheckpointed: #{checkpointed[state_key].inspect}"
+end
+puts mismatches.size < 1 ? "PASS: Checkpointed plan matches plan folded from zero" : "FAIL: #{mismatches.size} keys differ"
+
+repo.close
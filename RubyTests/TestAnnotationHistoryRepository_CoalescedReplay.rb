@@ -0,0 +1,33 @@
+case_directory = 'C:\@NUIX\Cases\Ziggy'
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+
+# Replays recorded events in order, coalescing runs of compatible custom metadata
+# and item set events into single bulk operations
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+
+# Open the destination case
+$current_case = $utilities.getCaseFactory.open(case_directory)
+
+# Build repo instance
+repo = AnnotationHistoryRepository.new(history_db_file)
+
+puts "==========================="
+puts "Coalesced replay of history"
+puts "==========================="
+
+started = Time.now
+session = repo.replayCoalesced($current_case,0)
+puts "Replay took #{(Time.now - started).round(2)}s"
+puts "Recorded events: #{repo.getTotalEventCount}"
+puts "Events replayed: #{session.getEventsReplayed}"
+puts "Events coalesced: #{session.getCoalescedEventCount}"
+puts "Items unresolved: #{session.getTotalUnresolvedCount}"
+
+$current_case.close
+repo.close
@@ -0,0 +1,35 @@
+case_directory = 'C:\@NUIX\Cases\Ziggy'
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+
+# Open the destination case
+$current_case = $utilities.getCaseFactory.open(case_directory)
+
+# Build repo instance
+repo = AnnotationHistoryRepository.new(history_db_file)
+
+puts "======================================"
+puts "Net events produced by compaction plan"
+puts "======================================"
+
+plan = repo.buildCompactionPlan(0)
+compacted_events = plan.buildCompactedEvents
+puts "Folded #{plan.getFoldedEventCount} recorded events into #{compacted_events.size} net events"
+compacted_events.each do |event|
+	puts event
+end
+
+puts "==========================="
+puts "Playing back compacted plan"
+puts "==========================="
+
+repo.replayCompacted($current_case,0)
+
+$current_case.close
+repo.close
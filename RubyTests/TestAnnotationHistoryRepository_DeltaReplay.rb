@@ -0,0 +1,40 @@
+case_directory = 'C:\@NUIX\Cases\Ziggy'
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+
+# Replays the compacted plan in full and then again using delta replay.  Since the first replay already
+# applied everything, the delta replay should skip every write.
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+
+# Open the destination case
+$current_case = $utilities.getCaseFactory.open(case_directory)
+
+# Build repo instance
+repo = AnnotationHistoryRepository.new(history_db_file)
+
+puts "==========================="
+puts "Playing back compacted plan"
+puts "==========================="
+
+started = Time.now
+repo.replayCompacted($current_case,0)
+puts "Full replay took #{(Time.now - started).round(2)}s"
+
+puts "=========================="
+puts "Delta replay of same plan"
+puts "=========================="
+
+started = Time.now
+session = repo.replayCompactedDelta($current_case,0,4)
+puts "Delta replay took #{(Time.now - started).round(2)}s"
+puts "Events replayed: #{session.getEventsReplayed}"
+puts "Item writes skipped: #{session.getTotalSkippedCount}"
+puts "Items unresolved: #{session.getTotalUnresolvedCount}"
+
+$current_case.close
+repo.close
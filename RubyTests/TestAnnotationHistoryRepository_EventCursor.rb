@@ -0,0 +1,57 @@
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+
+# Compares a full history scan done the old way (each event type iterated separately, then sorted)
+# against a single merged EventCursor, checking both produce the same events in the same order
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+
+repo = AnnotationHistoryRepository.new(history_db_file)
+
+puts "=============================="
+puts "Per type iteration then sorted"
+puts "=============================="
+
+started = Time.now
+per_type = []
+repo.eachRecordedTagEvent(0){|event| per_type << event}
+repo.eachRecordedCustomMetadataEvent(0){|event| per_type << event}
+repo.eachRecordedItemSetEvent(0){|event| per_type << event}
+repo.eachRecordedExclusionEvent(0){|event| per_type << event}
+repo.eachRecordedCustodianEvent(0){|event| per_type << event}
+repo.eachRecordedProductionSetEvent(0){|event| per_type << event}
+per_type = per_type.sort_by{|event| event.getTimeStamp.getMillis}
+per_type_seconds = Time.now - started
+puts "#{per_type.size} events in #{per_type_seconds.round(2)}s"
+
+puts "=================="
+puts "Merged EventCursor"
+puts "=================="
+
+started = Time.now
+merged_time_stamps = []
+cursor = repo.openEventCursor(0,java.lang.Long::MAX_VALUE)
+begin
+	while cursor.next
+		merged_time_stamps << cursor.getTimeStamp
+	end
+ensure
+	cursor.close
+end
+cursor_seconds = Time.now - started
+puts "#{merged_time_stamps.size} events in #{cursor_seconds.round(2)}s (time stamps only, events not decoded)"
+
+started = Time.now
+decoded = 0
+repo.eachRecordedEvent(0){|event| decoded += 1}
+puts "#{decoded} events decoded in #{(Time.now - started).round(2)}s"
+
+puts "Same event count: #{merged_time_stamps.size == per_type.size}"
+puts "Same time stamp order: #{merged_time_stamps == per_type.map{|event| event.getTimeStamp.getMillis}}"
+puts "In order: #{merged_time_stamps.each_cons(2).all?{|a,b| a <= b}}"
+
+repo.close
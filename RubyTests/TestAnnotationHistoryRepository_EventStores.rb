@@ -0,0 +1,109 @@
+source_case_directory = 'C:\@NUIX\Cases\Ziggy_Annotated'
+destination_case_directory = 'C:\@NUIX\Cases\Ziggy'
+history_db_directory = 'C:\Temp\EventStoreTests'
+
+# Runs the same checks against each event store type and then benchmarks sync and replay throughput of each
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+java_import com.nuix.superutilities.annotations.AnnotationEventStoreType
+java_import com.nuix.superutilities.annotations.AnnotationSyncSettings
+require 'fileutils'
+
+java.io.File.new(history_db_directory).mkdirs
+
+$failures = 0
+def check(description,passed)
+	puts "#{passed ? "PASS" : "FAIL"}: #{description}"
+	$failures += 1 if !passed
+end
+
+def build_settings
+	settings = AnnotationSyncSettings.new
+	settings.setSyncCustomMetadataEvents(true)
+	settings.setSyncTagEvents(true)
+	settings.setSyncItemSetEvents(true)
+	settings.setSyncExclusionEvents(true)
+	settings.setSyncCustodianEvents(true)
+	settings.setSyncProductionSetEvents(true)
+	return settings
+end
+
+event_types = ["TagEvent","CustomMetadataEvent","ItemSetEvent","ExclusionEvent","CustodianEvent","ProductionSetEvent"]
+results = {}
+
+source_case = $utilities.getCaseFactory.open(source_case_directory)
+AnnotationEventStoreType.values.each do |store_type|
+	puts "===== #{store_type} ====="
+	db_file = File.join(history_db_directory,"#{store_type}.db")
+	FileUtils.rm_rf(Dir.glob("#{db_file}*"))
+
+	repo = AnnotationHistoryRepository.new(java.io.File.new(db_file),store_type)
+	repo.setSnapshotFirstSync(false)
+	started = Time.now
+	repo.syncHistory(source_case,build_settings)
+	sync_seconds = Time.now - started
+
+	counts = {}
+	event_types.each{|event_type| counts[event_type] = repo.getEventStore.getEventCount(event_type)}
+	total_events = repo.getTotalEventCount
+	check("Total event count matches per type counts",total_events == counts.values.reduce(0,:+))
+
+	# Events are provided in time stamp order
+	last_time_stamp = 0
+	in_order = true
+	repo.eachRecordedTagEvent(0) do |event|
+		in_order = false if event.getTimeStamp.getMillis < last_time_stamp
+		last_time_stamp = event.getTimeStamp.getMillis
+	end
+	check("Tag events are provided in time stamp order",in_order)
+
+	# Syncing again records nothing new
+	repo.syncHistory(source_case,build_settings)
+	check("Second sync records no new events",repo.getTotalEventCount == total_events)
+
+	tag_counts = repo.buildCurrentState.getTagCounts
+	repo.close
+
+	# Events survive reopening the repository, which uses the store type it was created with
+	repo = AnnotationHistoryRepository.new(db_file)
+	check("Reopened repository has same event count",repo.getTotalEventCount == total_events)
+	check("Reopened repository has same tag counts",repo.buildCurrentState.getTagCounts == tag_counts)
+	check("Reopened repository uses #{store_type} store",repo.getTextInfo("EventStoreType") == store_type.name)
+	repo.close
+
+	results[store_type.name] = {
+		:counts => counts,
+		:tag_counts => tag_counts,
+		:sync_seconds => sync_seconds,
+		:total_events => total_events,
+	}
+end
+source_case.close
+
+check("Both stores recorded the same events per type",results.values.map{|r|r[:counts]}.uniq.size == 1)
+check("Both stores produce the same tag counts",results.values.map{|r|r[:tag_counts]}.uniq.size == 1)
+
+# Replay throughput
+destination_case = $utilities.getCaseFactory.open(destination_case_directory)
+AnnotationEventStoreType.values.each do |store_type|
+	repo = AnnotationHistoryRepository.new(File.join(history_db_directory,"#{store_type}.db"))
+	started = Time.now
+	repo.replayCompacted(destination_case,0)
+	results[store_type.name][:replay_seconds] = Time.now - started
+	repo.close
+end
+destination_case.close
+
+puts "===== Benchmark ====="
+results.each do |store_type,result|
+	events = result[:total_events]
+	puts "#{store_type}: sync #{events} events in #{result[:sync_seconds].round(2)}s (#{(events / result[:sync_seconds]).round(1)} events/s), "+
+		"compacted replay in #{result[:replay_seconds].round(2)}s"
+end
+
+puts "#{$failures} failures"
@@ -0,0 +1,26 @@
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+
+# Performs maintenance of a long running repository, reporting its statistics before and after
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+
+# Build repo instance
+repo = AnnotationHistoryRepository.new(history_db_file)
+
+puts "======================"
+puts "Repository maintenance"
+puts "======================"
+
+event_count = repo.getTotalEventCount
+report = repo.performMaintenance
+puts report.toString
+
+puts "Event count unchanged: #{repo.getTotalEventCount == event_count}"
+puts "Bytes reclaimed: #{report.getBytesReclaimed}"
+
+repo.close
@@ -0,0 +1,43 @@
+team_a_db_file = 'C:\Temp\TeamA_Repository.db'
+team_b_db_file = 'C:\Temp\TeamB_Repository.db'
+merged_db_file = 'C:\Temp\Merged_Repository.db'
+
+# Compares two repositories synced from the same source case by different teams, then merges both
+# into a new repository.  No case needs to be opened for any of this.
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+java_import com.nuix.superutilities.annotations.AnnotationRepositoryMerger
+
+team_a = AnnotationHistoryRepository.new(team_a_db_file)
+team_b = AnnotationHistoryRepository.new(team_b_db_file)
+merger = AnnotationRepositoryMerger.new
+
+puts "===================="
+puts "Team A versus Team B"
+puts "===================="
+diff = merger.diff(team_a,team_b)
+puts diff.toString
+puts "Repositories record the same events" if diff.isIdentical
+
+merged = AnnotationHistoryRepository.new(merged_db_file)
+[team_a,team_b].each do |repo|
+	report = merger.merge(repo,merged)
+	puts "======"
+	puts "Merged"
+	puts "======"
+	puts report.toString
+end
+
+# Merging again should find nothing left to merge
+puts "Remaining Team A events not in merged: #{merger.diff(team_a,merged).getOnlyInLeftCount}"
+puts "Remaining Team B events not in merged: #{merger.diff(team_b,merged).getOnlyInLeftCount}"
+puts "Merged repository events: #{merged.getTotalEventCount}"
+
+team_a.close
+team_b.close
+merged.close
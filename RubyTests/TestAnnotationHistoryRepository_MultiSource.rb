@@ -0,0 +1,50 @@
+source_case_directories = [
+	'C:\@NUIX\Cases\Ziggy_VendorA',
+	'C:\@NUIX\Cases\Ziggy_VendorB',
+]
+destination_case_directory = 'C:\@NUIX\Cases\Ziggy'
+history_db_file = 'C:\Temp\MultiSourceRepository.db'
+
+# Syncs several source cases into one repository, then replays the net effect of all of them onto
+# the destination case in a single compacted replay, earlier cases in the list taking priority
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+java_import com.nuix.superutilities.annotations.AnnotationSourceConflictPolicy
+java_import com.nuix.superutilities.annotations.AnnotationSyncSettings
+
+repo = AnnotationHistoryRepository.new(history_db_file)
+repo.setSourceConflictPolicy(AnnotationSourceConflictPolicy::SourcePriority)
+
+source_case_directories.each_with_index do |source_case_directory,index|
+	source_case = $utilities.getCaseFactory.open(source_case_directory)
+	repo.registerSource(source_case,source_case_directories.size - index)
+	settings = AnnotationSyncSettings.new
+	settings.setSyncCustomMetadataEvents(true)
+	settings.setSyncTagEvents(true)
+	settings.setSyncItemSetEvents(true)
+	settings.setSyncExclusionEvents(true)
+	settings.setSyncCustodianEvents(true)
+	repo.syncHistory(source_case,settings)
+	source_case.close
+end
+
+puts "======="
+puts "Sources"
+puts "======="
+repo.getSources.each do |source|
+	puts "#{source} Last Event: #{org.joda.time.DateTime.new(source.getLastEventTimeStamp)}"
+end
+puts "Recorded events: #{repo.getTotalEventCount}"
+
+destination_case = $utilities.getCaseFactory.open(destination_case_directory)
+started = Time.now
+repo.replayCompacted(destination_case,0)
+puts "Replay of all sources took #{(Time.now - started).round(2)}s"
+destination_case.close
+
+repo.close
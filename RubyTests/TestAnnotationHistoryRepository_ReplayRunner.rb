@@ -0,0 +1,45 @@
+case_directory = 'C:\@NUIX\Cases\Ziggy'
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+report_directory = 'C:\Temp\ReplayReports'
+
+# Replays every recorded event onto the destination case while reporting progress with an ETA,
+# then shows how each event type performed and where the CSV of the slowest events was written
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+
+$current_case = $utilities.getCaseFactory.open(case_directory)
+repo = AnnotationHistoryRepository.new(history_db_file)
+
+runner = repo.createReplayRunner($current_case)
+runner.setProgressIntervalSeconds(5)
+runner.setSlowestEventCount(25)
+runner.setReportDirectory(java.io.File.new(report_directory))
+runner.whenProgressUpdated do |progress|
+	puts progress.toString
+end
+
+runner.replay(0)
+
+puts "=================="
+puts "Event Type Timings"
+puts "=================="
+runner.getTypeStatistics.values.each do |statistics|
+	puts statistics.toString
+	puts "\tUnresolved items: #{statistics.getUnresolvedItemCount}" if statistics.getUnresolvedItemCount > 0
+end
+
+puts "=============="
+puts "Slowest Events"
+puts "=============="
+runner.getSlowestEvents.take(5).each do |info|
+	puts "#{info.getElapsedMillis.round(1)} ms (rehydrate #{(info.getRehydrateNanos / 1000000.0).round(1)} ms): #{info.getEvent}"
+end
+puts "Slowest events CSV: #{runner.getLastReportFile}"
+
+$current_case.close
+repo.close
@@ -0,0 +1,51 @@
+source_case_directory = 'C:\@NUIX\Cases\Ziggy_Annotated'
+history_db_file = 'C:\Temp\SharedReadRepository.db'
+
+# Runs a sync on a background thread while another thread repeatedly reads from the same repository,
+# which only works when the repository is opened in SharedRead mode
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+java_import com.nuix.superutilities.annotations.AnnotationEventStoreType
+java_import com.nuix.superutilities.annotations.AnnotationRepositoryAccessMode
+java_import com.nuix.superutilities.annotations.AnnotationSyncSettings
+
+java.io.File.new(history_db_file).delete
+
+source_case = $utilities.getCaseFactory.open(source_case_directory)
+repo = AnnotationHistoryRepository.new(java.io.File.new(history_db_file),
+	AnnotationEventStoreType::SQLite,AnnotationRepositoryAccessMode::SharedRead)
+repo.setSnapshotFirstSync(false)
+
+sync_thread = Thread.new do
+	repo.syncHistory(source_case,AnnotationSyncSettings.new)
+end
+
+reads = 0
+read_errors = 0
+while sync_thread.alive?
+	begin
+		summary = repo.buildSummary
+		tag_events = 0
+		repo.eachRecordedTagEvent(0){|event| tag_events += 1}
+		reads += 1
+		puts "Read #{reads}: iterated #{tag_events} tag events"
+		puts summary.toString
+	rescue Exception => exc
+		read_errors += 1
+		puts "Read error: #{exc.message}"
+	end
+	sleep(2)
+end
+sync_thread.join
+
+puts "Reads completed during sync: #{reads}"
+puts "Read errors during sync: #{read_errors}"
+puts "Final event count: #{repo.getTotalEventCount}"
+
+repo.close
+source_case.close
@@ -0,0 +1,43 @@
+history_db_file = 'C:\Temp\AnnotationRepository.db'
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+java_import com.nuix.superutilities.annotations.AnnotationStateSnapshot
+java_import org.joda.time.DateTime
+
+# Note that no case is opened, state queries are answered from the repository alone
+repo = AnnotationHistoryRepository.new(history_db_file)
+
+started = Time.now
+state = repo.buildStateAsOf(DateTime.now)
+puts "Built state as of #{state.getAsOf} in #{((Time.now - started) * 1000).to_i} ms"
+
+puts "==========="
+puts "Tag Counts"
+puts "==========="
+state.getTagCounts.each do |tag,count|
+	puts "#{tag}: #{count}"
+end
+
+puts "================"
+puts "Custodian Counts"
+puts "================"
+state.getValueCounts("Custodian").each do |custodian,count|
+	puts "#{custodian}: #{count}"
+end
+
+# Items tagged "Responsive" assigned to custodian "Bob" which are not excluded
+responsive = state.getItemsWithTag("Responsive")
+bob = state.getItemsWithCustodian("Bob")
+excluded = state.getExcludedItems(nil)
+matches = AnnotationStateSnapshot.andNot(AnnotationStateSnapshot.and(responsive,bob),excluded)
+puts "Responsive, Bob, not excluded: #{matches.getCardinality}"
+state.toGuids(matches).first(10).each do |guid|
+	puts guid
+end
+
+repo.close
@@ -0,0 +1,50 @@
+source_case_directory = 'C:\@NUIX\Cases\Ziggy_Annotated'
+destination_case_directory = 'C:\@NUIX\Cases\Ziggy'
+history_db_file = 'C:\Temp\AnnotationMirror.db'
+
+# How long to let the mirror run, annotate items in the source case during this time
+# and they should show up in the destination case within a polling interval or so
+run_minutes = 5
+polling_interval_seconds = 30
+
+# Load up super utilities
+script_directory = File.dirname(__FILE__)
+require File.join(script_directory,"SuperUtilities.jar")
+java_import com.nuix.superutilities.SuperUtilities
+$su = SuperUtilities.init($utilities,NUIX_VERSION)
+java_import com.nuix.superutilities.annotations.AnnotationHistoryRepository
+java_import com.nuix.superutilities.annotations.AnnotationMirror
+java_import com.nuix.superutilities.annotations.AnnotationSyncSettings
+
+source_case = $utilities.getCaseFactory.open(source_case_directory)
+destination_case = $utilities.getCaseFactory.open(destination_case_directory)
+
+repo = AnnotationHistoryRepository.new(history_db_file)
+if repo.getTotalEventCount < 1
+	# Destination is assumed to be a copy of the source, only mirror what happens after its last event
+	repo.setSyncPointFromDestinationCaseLastEvent(destination_case)
+end
+
+mirror = AnnotationMirror.new(repo,source_case,destination_case,AnnotationSyncSettings.new)
+mirror.setPollingIntervalSeconds(polling_interval_seconds)
+mirror.setReplayConcurrency(4)
+
+mirror.whenCycleCompleted do |m|
+	puts "Cycle #{m.getCyclesCompleted}: recorded #{m.getLastCycleEventsRecorded}, replayed #{m.getLastCycleEventsReplayed} "+
+		"in #{m.getLastCycleMillis}ms (#{m.getEventsPerSecond.round(1)} events/s), "+
+		"oldest unreplicated event age #{m.getOldestUnreplicatedEventAgeMillis / 1000.0}s, lag #{m.getReplicationLagMillis / 1000.0}s"
+end
+
+mirror.whenErrorOccurs do |error|
+	puts "Error: #{error.getMessage}"
+end
+
+mirror.beginMirroring
+sleep(run_minutes * 60)
+mirror.shutdownMirroring
+puts "Mirror stopped: #{mirror.isMirroring == false}"
+puts "Total recorded: #{mirror.getTotalEventsRecorded}, total replayed: #{mirror.getTotalEventsReplayed}"
+
+repo.close
+source_case.close
+destination_case.close